@@ -183,6 +183,45 @@ val mainSourceSet: SourceSet = extensions.getByType<JavaPluginExtension>().sourc
 val javaDirSet: SourceDirectorySet = mainSourceSet.java
 javaDirSet.setSrcDirs(javaDirSet.srcDirs.plus(generatedSrcDir))
 
+// Classes that replace main classes when running on a newer Java version (e.g. the Vector API character scanner).
+// These classes are placed in the versioned section of a multi-release JAR.
+val javaMultiReleaseVersion = libs.versions.javaMultiRelease.get().toInt()
+val multiReleaseSourceSet: SourceSet = sourceSets.create("java$javaMultiReleaseVersion") {
+    java.setSrcDirs(listOf("src/main/java$javaMultiReleaseVersion"))
+    compileClasspath += mainSourceSet.output + mainSourceSet.compileClasspath
+}
+
+tasks.named<JavaCompile>(multiReleaseSourceSet.compileJavaTaskName) {
+    javaCompiler = javaToolchains.compilerFor {
+        languageVersion = JavaLanguageVersion.of(javaMultiReleaseVersion)
+    }
+    options.release = javaMultiReleaseVersion
+    // The use of an incubator module always produces a warning, so warnings cannot be treated as errors.
+    options.compilerArgs = listOf("-Xlint:all", "-Xlint:-options", "--add-modules", "jdk.incubator.vector")
+}
+
+tasks.named<Jar>("jar") {
+    into("META-INF/versions/$javaMultiReleaseVersion") {
+        from(multiReleaseSourceSet.output)
+    }
+    manifest.attributes(mapOf("Multi-Release" to "true"))
+}
+
+val testMultiRelease by tasks.registering(Test::class) {
+    description = "Runs the unit tests using the multi-release classes and the Vector API."
+    group = LifecycleBasePlugin.VERIFICATION_GROUP
+    javaLauncher = javaToolchains.launcherFor {
+        languageVersion = JavaLanguageVersion.of(javaMultiReleaseVersion)
+    }
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = multiReleaseSourceSet.output + sourceSets.test.get().runtimeClasspath
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
+tasks.check {
+    dependsOn(testMultiRelease)
+}
+
 val sourceJar by tasks.registering(Jar::class) {
     dependsOn("generateLanguage")
     from(project.sourceSets["main"].allSource)
@@ -123,6 +123,11 @@ public record LanguageEntry(
         return this.nestedComments == null ? List.of() : escapeJavaListList(this.nestedComments);
     }
 
+    @Override
+    public List<String> importantSyntax() {
+        return this.importantSyntax == null ? List.of() : escapeJavaList(this.importantSyntax);
+    }
+
     @Override
     public List<String> mime() {
         return this.mime == null ? List.of() : this.mime;
@@ -158,6 +163,37 @@ public record LanguageEntry(
         return "compile(\"" + String.join("|", escapeRegexList(important)) + "\")";
     }
 
+    /**
+     * Creates the initializer for a bitset of the ASCII characters that can start any delimiter of the language
+     * (start or end of quotes, comments, and documentation strings), any important syntax, or an escape sequence.
+     * Characters that are not in the set cannot affect the parsing state, so the counter can skip over them.
+     * Non-ASCII characters are not represented in the bitset and the counter must always treat them as potential
+     * delimiter characters.
+     *
+     * @return Comma separated list of the two {@code long} values that make up the 128 bit set.
+     */
+    public String interestingCharacters() {
+        Stream<String> sequences = Stream.of("\\");
+        sequences = Stream.concat(sequences, flatten(this.quotes));
+        sequences = Stream.concat(sequences, flatten(this.verbatimQuotes));
+        sequences = Stream.concat(sequences, flatten(this.docQuotes));
+        sequences = Stream.concat(sequences, flatten(this.multiLineComments));
+        sequences = Stream.concat(sequences, flatten(this.nestedComments));
+        if (this.lineComments != null) {
+            sequences = Stream.concat(sequences, this.lineComments.stream());
+        }
+        if (this.importantSyntax != null) {
+            sequences = Stream.concat(sequences, this.importantSyntax.stream());
+        }
+
+        final long[] bits = new long[2];
+        sequences.filter(seq -> !seq.isEmpty())
+                 .mapToInt(seq -> seq.charAt(0))
+                 .filter(ch -> ch < 128)
+                 .forEach(ch -> bits[ch >>> 6] |= 1L << ch);
+        return String.format("0x%016XL, 0x%016XL", bits[0], bits[1]);
+    }
+
     /**
      * Creates a list of all multiline comment character sequences, both normal and nested.
      *
@@ -185,6 +221,16 @@ public record LanguageEntry(
         return regexes.stream().allMatch(regex -> regex.length() == 1 || "\\\"".equals(regex));
     }
 
+    /**
+     * Flattens the specified list of lists of strings (e.g. start and end delimiter pairs) into a stream of strings.
+     *
+     * @param stringsList List of lists of strings to flatten. May be {@code null}.
+     * @return Stream of all the strings in the lists.
+     */
+    private static Stream<String> flatten(@Nullable final Collection<List<String>> stringsList) {
+        return stringsList == null ? Stream.empty() : stringsList.stream().flatMap(Collection::stream);
+    }
+
     /**
      * Performs escaping of the specified list of lists of strings so that they can appear in Java source code.
      *
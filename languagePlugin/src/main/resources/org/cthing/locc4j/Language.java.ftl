@@ -15,12 +15,8 @@ package org.cthing.locc4j;
     <#list params as param>new BlockDelimiter("${param[0]}", "${param[1]}")<#if param?has_next>, </#if></#list><#t>
 </#macro>
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
@@ -61,7 +57,10 @@ public enum Language {
         new BlockDelimiter[] {<@expand_block_params params=entry.docQuotes()/>},
         ${entry.importantSyntaxRegex()},
         new String[] {<@expand_params params=entry.extensions()/>},
-        new BlockDelimiter[] {<@expand_block_params params=entry.allMultiLineComments()/>}
+        new BlockDelimiter[] {<@expand_block_params params=entry.allMultiLineComments()/>},
+        new String[] {<@expand_params params=entry.lineComments()/>},
+        new String[] {<@expand_params params=entry.importantSyntax()/>},
+        new long[] {${entry.interestingCharacters()}}
     ) {
         <#if entry.nested()>
         @Override
@@ -117,15 +116,25 @@ public enum Language {
     }<#if id?is_last>;<#else>,</#if>
 </#list>
 
+    /** Maximum number of bytes at the start of a file that are examined for a shebang. */
+    static final int MAX_SHEBANG_LENGTH = 1024;
+
+    /** Registry containing the default mappings of file names, extensions, shebangs and MIME types. */
+    static final LanguageRegistry DEFAULT_REGISTRY;
+
     private static final Map<String, Language> DISPLAY_NAMES = new HashMap<>();
-    private static final Map<String, Language> EXTENSIONS = new HashMap<>();
-    private static final String ENV_SHEBANG = "#!/usr/bin/env";
-    private static final Pattern WHITESPACE_REGEX = compile("\\s+");
+    private static final Object REGISTRY_LOCK = new Object();
+
+    // Replaced, never modified, so that lookups need not lock
+    private static volatile LanguageRegistry registry;
 
     final BlockDelimiter[] nestedComments;
     final BlockDelimiter[] verbatimQuotes;
     @Nullable
     final Pattern importantSyntax;
+    final DelimiterAutomaton delimiterAutomaton;
+    final AsciiSet interestingCharacters;
+    final String[] extensions;
 
     private final String displayName;
     @Nullable
@@ -134,7 +143,6 @@ public enum Language {
     private final String website;
     private final BlockDelimiter[] quotes;
     private final BlockDelimiter[] docQuotes;
-    private final String[] extensions;
     private final BlockDelimiter[] allMultiLineComments;
 
     static {
@@ -142,14 +150,17 @@ public enum Language {
         for (final Language language : values()) {
             DISPLAY_NAMES.put(language.getDisplayName().toLowerCase(Locale.ROOT), language);
         }
-        resetExtensions();
+        DEFAULT_REGISTRY = new LanguageRegistry(defaultExtensions(), defaultFileNames(), defaultInterpreters(),
+                                                defaultEnvPrograms(), defaultMimeTypes());
+        registry = DEFAULT_REGISTRY;
     }
 
     Language(final String displayName, @Nullable final String description, @Nullable final String website,
              final BlockDelimiter[] nestedComments, final BlockDelimiter[] quotes,
              final BlockDelimiter[] verbartimQuotes, final BlockDelimiter[] docQuotes,
              @Nullable final Pattern importantSyntax,
-             final String[] extensions, final BlockDelimiter[] allMultiLineComments) {
+             final String[] extensions, final BlockDelimiter[] allMultiLineComments, final String[] lineComments,
+             final String[] importantSequences, final long[] interestingCharacters) {
         this.displayName = displayName;
         this.description = description;
         this.website = website;
@@ -160,6 +171,9 @@ public enum Language {
         this.importantSyntax = importantSyntax;
         this.extensions = extensions;
         this.allMultiLineComments = allMultiLineComments;
+        this.delimiterAutomaton = new DelimiterAutomaton(docQuotes, verbartimQuotes, quotes, allMultiLineComments,
+                                                         nestedComments, lineComments, importantSequences);
+        this.interestingCharacters = new AsciiSet(interestingCharacters);
     }
 
     /**
@@ -197,13 +211,18 @@ public enum Language {
 
     /**
      * Adds the specified file extension to specified language's list of extensions. If an extension already
-     * maps to a language, it is replaced.
+     * maps to a language, it is replaced. The change applies to the static lookup methods of this class and to
+     * counters that have not been given their own registry (see {@link LanguageRegistry}). To change the
+     * extensions for a single counting job without affecting others, use
+     * {@link LanguageRegistry#withExtension(String, Language)} instead.
      *
      * @param extension File extension to add (without the leading period). Extensions are case-insensitive.
      * @param language Language to map to the specified extension
      */
     public static void addExtension(final String extension, final Language language) {
-        EXTENSIONS.put(extension.toLowerCase(Locale.ROOT), language);
+        synchronized (REGISTRY_LOCK) {
+            registry = registry.withExtension(extension, language);
+        }
     }
 
     /**
@@ -212,30 +231,40 @@ public enum Language {
      * @param extension File extension to remove (without the leading period). Extensions are case-insensitive.
      */
     public static void removeExtension(final String extension) {
-        EXTENSIONS.remove(extension);
+        synchronized (REGISTRY_LOCK) {
+            registry = registry.withoutExtension(extension);
+        }
     }
 
     /**
-     * Obtains a read-only map of file extensions to languages.
+     * Obtains a read-only map of file extensions to languages. The map is a snapshot, which does not reflect
+     * later changes to the extensions.
      *
      * @return Read-only map of file extensions to languages.
      */
     public static Map<String, Language> getExtensions() {
-        return Collections.unmodifiableMap(EXTENSIONS);
+        return registry.getExtensions();
     }
 
     /**
      * Restores the file extension to language mapping to its default.
      */
     public static void resetExtensions() {
-        EXTENSIONS.clear();
-        for (final Language language : values()) {
-            for (int i = 0; i < language.extensions.length; i++) {
-                EXTENSIONS.put(language.extensions[i], language);
-            }
+        synchronized (REGISTRY_LOCK) {
+            registry = DEFAULT_REGISTRY;
         }
     }
 
+    /**
+     * Obtains the registry used by the static lookup methods of this class, which reflects the changes made to
+     * the file extensions.
+     *
+     * @return Current registry.
+     */
+    static LanguageRegistry getRegistry() {
+        return registry;
+    }
+
     /**
      * Indicates whether the specified predicate is true for line comments.
      *
@@ -432,28 +461,34 @@ public enum Language {
       *     cannot be determined, an empty {@link Optional} is returned.
       */
     public static Optional<Language> fromFile(final Path file) {
-        if (Files.isDirectory(file)) {
-            throw new IllegalArgumentException("Path must be a file");
-        }
-
-        final Path filenamePath = file.getFileName();
-        if (filenamePath == null) {
-            throw new IllegalArgumentException("Path is empty");
-        }
-        final String filename = filenamePath.toString().toLowerCase(Locale.ROOT);
+        return registry.fromFile(file);
+    }
 
-        switch (filename) {
-<#list languages as id, entry><#list entry.filenames() as filename>
-<#if filename?is_first>            case "${filename}"<#else>, "${filename}"</#if><#if filename?is_last>: return Optional.of(${id});
-</#if>
-</#list></#list>
-            default: break;
-        }
+    /**
+     * Attempts to obtain the language of a file by matching its name against any filenames for a language
+     * (e.g. Makefile), and then its extension against any filename extensions for a language (e.g. cpp). Unlike
+     * {@link #fromFile(Path)}, the file is not accessed, so its shebang is not considered. This allows the shebang
+     * to be matched using {@link #fromShebang(ByteBuffer)} on content that has already been read.
+     *
+     * @param file File whose language is to be determined
+     * @return Language corresponding to the name of the specified file. If the language cannot be determined, an
+     *      empty {@link Optional} is returned.
+     */
+    public static Optional<Language> fromFileName(final Path file) {
+        return registry.fromFileName(file);
+    }
 
-        final int extIdx = filename.lastIndexOf('.');
-        return (extIdx == -1 || filename.length() < 2)
-                ? fromShebang(file)
-                : fromFileExtension(filename.substring(extIdx + 1)).or(() -> fromShebang(file));
+    /**
+     * Attempts to obtain the language of a file from its name in the same way as {@link #fromFileName(Path)}. This
+     * allows the language to be determined for names that are not paths in a file system, such as the names of
+     * entries in an archive. Any leading directories, separated by '/', are ignored.
+     *
+     * @param name Name of the file whose language is to be determined
+     * @return Language corresponding to the specified name. If the language cannot be determined, an empty
+     *      {@link Optional} is returned.
+     */
+    public static Optional<Language> fromFileName(final String name) {
+        return registry.fromFileName(name);
     }
 
     /**
@@ -473,13 +508,7 @@ public enum Language {
      *      {@link Optional} is returned.
      */
     public static Optional<Language> fromMime(final String mimeType) {
-        return switch (mimeType) {
-<#list languages as id, entry><#list entry.mime() as mime>
-<#if mime?is_first>            case "${mime}"<#else>, "${mime}"</#if><#if mime?is_last> -> Optional.of(${id});
-</#if>
-</#list></#list>
-            default -> Optional.empty();
-        };
+        return registry.fromMime(mimeType);
     }
 
     /**
@@ -490,7 +519,7 @@ public enum Language {
      *      empty {@link Optional} is returned. The matching is case-insensitive.
      */
     public static Optional<Language> fromFileExtension(final String extension) {
-        return Optional.ofNullable(EXTENSIONS.get(extension.toLowerCase(Locale.ROOT)));
+        return registry.fromFileExtension(extension);
     }
 
     /**
@@ -544,51 +573,96 @@ public enum Language {
 </#list></#list>
      * </ul>
      *
+     * <p>
+     * Only the first {@value #MAX_SHEBANG_LENGTH} bytes of the file are read.
+     * </p>
+     *
      * @param file File whose shebang is to be matched
      * @return Language corresponding to the specified file's shebang, if found.
      */
     public static Optional<Language> fromShebang(final Path file) {
-        if (Files.isDirectory(file)) {
-            throw new IllegalArgumentException("Path must be a file");
-        }
-
-        final String firstLine;
+        return registry.fromShebang(file);
+    }
 
-        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
-            firstLine = reader.readLine();
-        } catch (final IOException ex) {
-            return Optional.empty();
-        }
+    /**
+     * Attempts to obtain the language of UTF-8 encoded file content based on a shebang ("#!") on its first line.
+     * The shebang is matched in the same way as {@link #fromShebang(Path)}. This allows the language of a file to
+     * be determined from content that has been read for counting, rather than reading the file again.
+     *
+     * @param content Content whose shebang is to be matched. The bytes from the position to the limit of the
+     *      buffer are examined, up to a maximum of {@value #MAX_SHEBANG_LENGTH} bytes. The position of the buffer
+     *      is not changed.
+     * @return Language corresponding to the specified content's shebang, if found.
+     */
+    public static Optional<Language> fromShebang(final ByteBuffer content) {
+        return registry.fromShebang(content);
+    }
 
-        if (firstLine == null) {
-            return Optional.empty();
+    /**
+     * Creates the default mapping of file extensions to languages. If more than one language lists an extension,
+     * the last is used.
+     *
+     * @return File extensions, in lowercase, and their languages.
+     */
+    private static Map<String, Language> defaultExtensions() {
+        final Map<String, Language> extensions = new HashMap<>();
+        for (final Language language : values()) {
+            for (int i = 0; i < language.extensions.length; i++) {
+                extensions.put(language.extensions[i], language);
+            }
         }
+        return extensions;
+    }
 
-        final String[] words = WHITESPACE_REGEX.split(firstLine);
-        if (words.length == 0) {
-            return Optional.empty();
-        }
+    /**
+     * Creates the default mapping of file names to languages.
+     *
+     * @return File names, in lowercase, and their languages.
+     */
+    private static Map<String, Language> defaultFileNames() {
+        final Map<String, Language> fileNames = new HashMap<>();
+<#list languages as id, entry><#list entry.filenames() as filename>
+        fileNames.put("${filename}", ${id});
+</#list></#list>
+        return fileNames;
+    }
 
-        // First try looking for a shebang interpreter
-        switch (words[0]) {
+    /**
+     * Creates the default mapping of shebang interpreters to languages.
+     *
+     * @return Shebang interpreters, including the leading "#!", and their languages.
+     */
+    private static Map<String, Language> defaultInterpreters() {
+        final Map<String, Language> interpreters = new HashMap<>();
 <#list languages as id, entry><#list entry.shebangs() as shebang>
-<#if shebang?is_first>            case "${shebang}"<#else>, "${shebang}"</#if><#if shebang?is_last>: return Optional.of(${id});
-</#if>
+        interpreters.put("${shebang}", ${id});
 </#list></#list>
-            default: break;
-        }
-
-        // Next try looking for a shebang env program
-        if (words.length < 2 || !ENV_SHEBANG.equals(words[0])) {
-            return Optional.empty();
-        }
+        return interpreters;
+    }
 
-        return switch (words[1]) {
+    /**
+     * Creates the default mapping of shebang {@code env} programs to languages.
+     *
+     * @return Programs run by {@code env} in a shebang and their languages.
+     */
+    private static Map<String, Language> defaultEnvPrograms() {
+        final Map<String, Language> programs = new HashMap<>();
 <#list languages as id, entry><#list entry.env() as env>
-<#if env?is_first>            case "${env}"<#else>, "${env}"</#if><#if env?is_last> -> Optional.of(${id});
-</#if>
+        programs.put("${env}", ${id});
+</#list></#list>
+        return programs;
+    }
+
+    /**
+     * Creates the default mapping of MIME types to languages.
+     *
+     * @return MIME types and their languages.
+     */
+    private static Map<String, Language> defaultMimeTypes() {
+        final Map<String, Language> mimeTypes = new HashMap<>();
+<#list languages as id, entry><#list entry.mime() as mime>
+        mimeTypes.put("${mime}", ${id});
 </#list></#list>
-            default -> Optional.empty();
-        };
+        return mimeTypes;
     }
 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Stage that prepares files on other threads ahead of the thread that counts them. Files are submitted in the
+ * order in which they are to be counted, and are taken in the same order once they have been prepared (see
+ * {@link FileCounter#countNext(AbstractFileStage, java.util.Map)}). The number of files that have been submitted
+ * but not taken is limited, so that the walk or iteration producing the files does not run arbitrarily far ahead
+ * of counting.
+ *
+ * <p>
+ * Files are submitted, taken and released on a single thread. Any failure preparing a file is reported when the
+ * file is taken, so that failures are reported in the same order as when files are read and counted sequentially.
+ * </p>
+ */
+abstract class AbstractFileStage implements Closeable {
+
+    /**
+     * File that has been submitted for preparation.
+     *
+     * @param content Content of the file, which is filled in as the file is prepared
+     * @param future Completes when the file has been prepared
+     * @param sequence Submission sequence number of the file
+     */
+    private record Pending(FileContent content, Future<?> future, long sequence) {
+    }
+
+    private final ExecutorService executor;
+    private final int maxFiles;
+    private final ArrayDeque<Pending> pending;
+    private long nextSequence;
+    @Nullable
+    private Runnable preparedListener;
+
+    /**
+     * Constructs a stage.
+     *
+     * @param executor Executor on which files are prepared. The executor is shut down when the stage is closed.
+     * @param maxFiles Maximum number of files that have been submitted but not taken
+     */
+    AbstractFileStage(final ExecutorService executor, final int maxFiles) {
+        this.executor = executor;
+        this.maxFiles = maxFiles;
+        this.pending = new ArrayDeque<>(Math.min(maxFiles, 1024));
+    }
+
+    /**
+     * Sets a listener that is called on the thread that prepared a file once the file has been prepared, whether
+     * or not the preparation succeeded. This allows a thread feeding several stages to wait for any of them to
+     * make progress. The listener must be set before any files are submitted.
+     *
+     * @param listener Called each time a file has been prepared
+     */
+    void preparedListener(final Runnable listener) {
+        this.preparedListener = listener;
+    }
+
+    /**
+     * Submits the specified file to be prepared.
+     *
+     * @param file File to be prepared
+     */
+    void submit(final Path file) {
+        submit(new FileContent(file));
+    }
+
+    /**
+     * Submits the specified file content to be prepared. This allows content prepared by another stage to be
+     * prepared further by this stage.
+     *
+     * @param content Content of the file to be prepared. This stage takes responsibility for releasing the content.
+     */
+    void submit(final FileContent content) {
+        final long sequence = this.nextSequence++;
+        final Runnable listener = this.preparedListener;
+        // A future task is executed rather than submitted, so that a failure is reported with its original cause
+        // whatever the type of executor.
+        final FutureTask<?> future = new FutureTask<>(() -> {
+            prepare(content, sequence);
+            return null;
+        }) {
+            @Override
+            protected void done() {
+                if (listener != null) {
+                    listener.run();
+                }
+            }
+        };
+        this.executor.execute(future);
+        this.pending.addLast(new Pending(content, future, sequence));
+    }
+
+    /**
+     * Indicates whether the maximum number of files have been submitted but not taken.
+     *
+     * @return {@code true} if no more files should be submitted until a file has been taken.
+     */
+    boolean isFull() {
+        return this.pending.size() >= this.maxFiles;
+    }
+
+    /**
+     * Indicates whether there are files that have been submitted but not taken.
+     *
+     * @return {@code true} if there are no files to take.
+     */
+    boolean isEmpty() {
+        return this.pending.isEmpty();
+    }
+
+    /**
+     * Indicates whether the next file in submission order has been prepared, so that it can be taken without
+     * waiting. The file is treated as about to be taken (see {@link #taking(long)}), so this method must only be
+     * called when the file will be taken once it has been prepared.
+     *
+     * @return {@code true} if there is a file to take and it has been prepared.
+     */
+    boolean isNextPrepared() {
+        final Pending next = this.pending.peekFirst();
+        if (next == null) {
+            return false;
+        }
+        taking(next.sequence);
+        return next.future.isDone();
+    }
+
+    /**
+     * Submits files from the specified iterator until the maximum number of files have been submitted but not
+     * taken, or there are no more files.
+     *
+     * @param files Files to be prepared
+     */
+    void fill(final Iterator<Path> files) {
+        while (!isFull() && files.hasNext()) {
+            submit(files.next());
+        }
+    }
+
+    /**
+     * Takes the next file in submission order, waiting for it to be prepared if necessary. The file must be
+     * released using {@link #release(FileContent)} once it has been counted.
+     *
+     * @return Content of the next file.
+     * @throws IOException if there was a problem reading the file or the wait was interrupted
+     * @throws IllegalArgumentException if the file is a directory
+     */
+    FileContent take() throws IOException {
+        final Pending next = this.pending.removeFirst();
+        taking(next.sequence);
+
+        try {
+            next.future.get();
+            return next.content;
+        } catch (final InterruptedException ex) {
+            // The file may still be being prepared, so it is left to be released when the stage is closed.
+            this.pending.addFirst(next);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to read " + next.content.file);
+        } catch (final ExecutionException ex) {
+            release(next.content);
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException rte) {
+                throw rte;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw (cause instanceof IOException ioe) ? ioe : new IOException(cause);
+        }
+    }
+
+    /**
+     * Releases the specified file once it has been counted.
+     *
+     * @param content Content of the file obtained from {@link #take()}
+     * @throws IOException if there was a problem closing the file
+     */
+    abstract void release(FileContent content) throws IOException;
+
+    /**
+     * Stops the stage. Files that have been submitted but not yet prepared are not prepared, and files that have
+     * been prepared but not taken are released.
+     *
+     * @throws IOException if there was a problem closing a file
+     */
+    @Override
+    public void close() throws IOException {
+        for (final Pending next : this.pending) {
+            next.future.cancel(true);
+        }
+        this.executor.shutdownNow();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (this.executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        IOException failure = null;
+        while (!this.pending.isEmpty()) {
+            try {
+                release(this.pending.removeFirst().content);
+            } catch (final IOException ex) {
+                failure = ex;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Prepares a file for counting. Called on a thread of the executor.
+     *
+     * @param content Content of the file to prepare
+     * @param sequence Submission sequence number of the file
+     * @throws IOException if there was a problem reading the file
+     */
+    abstract void prepare(FileContent content, long sequence) throws IOException;
+
+    /**
+     * Called on the counting thread when a file is about to be taken, before waiting for it to be prepared. The
+     * default implementation does nothing.
+     *
+     * @param sequence Submission sequence number of the file
+     */
+    void taking(final long sequence) {
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.Reader;
+
+
+/**
+ * Read-only text examined by the counter. The counter works on regions of the text identified by start
+ * (inclusive) and end (exclusive) positions so that no objects are created per line or per character. The text is
+ * either an array of characters ({@link CharData}) or UTF-8 encoded bytes ({@link ByteData}). Positions are
+ * indices into the respective representation.
+ */
+abstract class AbstractTextData {
+
+    /**
+     * Obtains the length of the text.
+     *
+     * @return Number of positions in the text.
+     */
+    abstract int length();
+
+    /**
+     * Obtains the character at the specified position.
+     *
+     * @param index Position in the text
+     * @return Character at the specified position.
+     */
+    abstract char charAt(int index);
+
+    /**
+     * Finds the end of the line starting at the specified position.
+     *
+     * @param start Start of the line (inclusive)
+     * @return Position following the terminating newline of the line, or the length of the text if the line is
+     *      not terminated.
+     */
+    abstract int findLineEnd(int start);
+
+    /**
+     * Counts the number of lines in the text.
+     *
+     * @return Number of lines in the text.
+     */
+    abstract int countLines();
+
+    /**
+     * Indicates whether the specified region of the text is all whitespace or empty.
+     *
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the region is all whitespace or empty.
+     */
+    abstract boolean isBlank(int start, int end);
+
+    /**
+     * Finds the start of the specified region with leading whitespace removed.
+     *
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return Position of the first non-whitespace character in the region, or the end of the region if it is
+     *      blank.
+     */
+    abstract int trimStart(int start, int end);
+
+    /**
+     * Finds the end of the specified region with trailing whitespace removed.
+     *
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return Position following the last non-whitespace character in the region, or the start of the region if
+     *      it is blank.
+     */
+    abstract int trimEnd(int start, int end);
+
+    /**
+     * Indicates whether the text starting at the specified position starts with the specified prefix.
+     *
+     * @param prefix Prefix to test
+     * @param index Position in the text at which to test for the prefix
+     * @return {@code true} if the text at the specified position starts with the specified prefix.
+     */
+    abstract boolean startsWith(CharSequence prefix, int index);
+
+    /**
+     * Indicates whether the specified region of the text starts with the specified prefix.
+     *
+     * @param prefix Prefix to test
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the region starts with the specified prefix.
+     */
+    abstract boolean startsWith(CharSequence prefix, int start, int end);
+
+    /**
+     * Indicates whether the specified region of the text ends with the specified suffix.
+     *
+     * @param suffix Suffix to test
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the region ends with the specified suffix.
+     */
+    abstract boolean endsWith(CharSequence suffix, int start, int end);
+
+    /**
+     * Indicates whether the specified region of the text contains the specified character sequence.
+     *
+     * @param sequence Character sequence to find
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the character sequence is found in the region.
+     */
+    abstract boolean contains(CharSequence sequence, int start, int end);
+
+    /**
+     * Finds the first character in the specified region of the text that could start a delimiter. Such a
+     * character is either a member of the specified ASCII character set or, if the text can represent
+     * non-ASCII delimiters, a non-ASCII character.
+     *
+     * @param asciiSet ASCII characters to find
+     * @param fromIndex Position from which to start looking for a character (inclusive)
+     * @param toIndex Position at which to stop looking for a character (exclusive)
+     * @return Position of the first matching character in the region. Returns -1 if no character in the region
+     *      matches.
+     */
+    abstract int indexOfAny(AsciiSet asciiSet, int fromIndex, int toIndex);
+
+    /**
+     * Creates a reader for the text.
+     *
+     * @return Reader for the text.
+     */
+    abstract Reader createReader();
+}
@@ -0,0 +1,379 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.util.Arrays;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Window onto text that is read incrementally from a source. The window holds the text that has been read but not
+ * yet counted. Text is read in chunks into a buffer whose initial size is the chunk size. Counted text is
+ * discarded from the start of the window, and the remaining text is moved to the start of the buffer to make room
+ * for the next chunk. The buffer only grows when it is full of text that cannot be counted yet, such as a line
+ * longer than the buffer or embedded content whose end has not been read. Therefore, the memory used is bounded by
+ * the chunk size rather than by the size of the text.
+ *
+ * <p>
+ * A window either reads its text from a source using {@link #fill()}, or has its text appended to it by the caller
+ * (e.g. {@link CharWindow#append(char[], int, int)}) as the text arrives.
+ * </p>
+ */
+abstract class AbstractTextWindow {
+
+    /**
+     * Window onto text read from a character stream or appended as characters.
+     */
+    static final class CharWindow extends AbstractTextWindow {
+
+        @Nullable
+        private final Reader reader;
+        private char[] buffer;
+
+        CharWindow(@Nullable final Reader reader, final int chunkSize) {
+            this.reader = reader;
+            this.buffer = new char[chunkSize];
+        }
+
+        /**
+         * Appends as many of the specified characters as fit in the buffer. If the buffer is already full, it is
+         * grown first.
+         *
+         * @param chars Characters to append
+         * @param offset Position of the first character to append
+         * @param length Number of characters available to append
+         * @return Number of characters appended.
+         */
+        int append(final char[] chars, final int offset, final int length) {
+            final int count = Math.min(makeRoom(), length);
+            System.arraycopy(chars, offset, this.buffer, length(), count);
+            extend(count);
+            return count;
+        }
+
+        /**
+         * Decodes as many of the specified bytes as fit in the buffer. If the buffer is already full, it is grown
+         * first. Bytes at the end of the input that form an incomplete character are not decoded unless the end
+         * of the input has been reached.
+         *
+         * @param decoder Decoder for the bytes
+         * @param bytes Bytes to decode. The position of the buffer is advanced past the decoded bytes.
+         * @param endOfInput {@code true} if no bytes follow the specified bytes
+         * @return {@code true} if the buffer was filled before all bytes could be decoded.
+         */
+        boolean append(final CharsetDecoder decoder, final ByteBuffer bytes, final boolean endOfInput) {
+            // A supplementary character is decoded into a surrogate pair, so there must be room for two characters
+            // for decoding to make progress.
+            if (makeRoom() < 2) {
+                grow();
+            }
+            final CharBuffer out = CharBuffer.wrap(this.buffer, length(), this.buffer.length - length());
+            CoderResult result = decoder.decode(bytes, out, endOfInput);
+            if (endOfInput && result.isUnderflow()) {
+                result = decoder.flush(out);
+            }
+            extend(out.position() - length());
+            return result.isOverflow();
+        }
+
+        @Override
+        int capacity() {
+            return this.buffer.length;
+        }
+
+        @Override
+        void grow() {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+
+        @Override
+        int read(final int offset) throws IOException {
+            return (this.reader == null) ? -1 : this.reader.read(this.buffer, offset, this.buffer.length - offset);
+        }
+
+        @Override
+        int lastIndexOfNewline() {
+            for (int i = length() - 1; i >= 0; i--) {
+                if (this.buffer[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        void shift(final int count) {
+            System.arraycopy(this.buffer, count, this.buffer, 0, length() - count);
+        }
+
+        @Override
+        AbstractTextData data() {
+            return new CharData(this.buffer, 0, length());
+        }
+    }
+
+    /**
+     * Window onto UTF-8 encoded text read from a byte channel or appended as bytes.
+     */
+    static final class ByteWindow extends AbstractTextWindow {
+
+        @Nullable
+        private final ReadableByteChannel channel;
+        private ByteBuffer buffer;
+
+        ByteWindow(@Nullable final ReadableByteChannel channel, final int chunkSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(chunkSize);
+        }
+
+        /**
+         * Appends as many of the specified bytes as fit in the buffer. If the buffer is already full, it is grown
+         * first.
+         *
+         * @param bytes Bytes to append
+         * @param offset Position of the first byte to append
+         * @param length Number of bytes available to append
+         * @return Number of bytes appended.
+         */
+        int append(final byte[] bytes, final int offset, final int length) {
+            final int count = Math.min(makeRoom(), length);
+            System.arraycopy(bytes, offset, this.buffer.array(), length(), count);
+            extend(count);
+            return count;
+        }
+
+        @Override
+        int capacity() {
+            return this.buffer.capacity();
+        }
+
+        @Override
+        void grow() {
+            this.buffer = ByteBuffer.wrap(Arrays.copyOf(this.buffer.array(), this.buffer.capacity() * 2));
+        }
+
+        @Override
+        int read(final int offset) throws IOException {
+            if (this.channel == null) {
+                return -1;
+            }
+            this.buffer.limit(this.buffer.capacity()).position(offset);
+            return this.channel.read(this.buffer);
+        }
+
+        @Override
+        int lastIndexOfNewline() {
+            final byte[] bytes = this.buffer.array();
+            for (int i = length() - 1; i >= 0; i--) {
+                if (bytes[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        void shift(final int count) {
+            final byte[] bytes = this.buffer.array();
+            System.arraycopy(bytes, count, bytes, 0, length() - count);
+        }
+
+        @Override
+        AbstractTextData data() {
+            return new ByteData(this.buffer.array(), 0, length());
+        }
+    }
+
+    private int filled;
+    private boolean eof;
+
+    /**
+     * Creates a window onto the text read from the specified character stream.
+     *
+     * @param reader Stream providing the text. The stream will not be closed.
+     * @param chunkSize Number of characters to read at a time
+     * @return Window onto the text.
+     */
+    static AbstractTextWindow of(final Reader reader, final int chunkSize) {
+        return new CharWindow(reader, chunkSize);
+    }
+
+    /**
+     * Creates a window onto the UTF-8 encoded text read from the specified channel. The text is counted without
+     * decoding it (see {@link ByteData}).
+     *
+     * @param channel Channel providing the UTF-8 encoded text. The channel will not be closed.
+     * @param chunkSize Number of bytes to read at a time
+     * @return Window onto the text.
+     */
+    static AbstractTextWindow of(final ReadableByteChannel channel, final int chunkSize) {
+        return new ByteWindow(channel, chunkSize);
+    }
+
+    /**
+     * Creates a window to which characters are appended by the caller.
+     *
+     * @param chunkSize Initial size of the buffer
+     * @return Window onto the appended characters.
+     */
+    static CharWindow ofChars(final int chunkSize) {
+        return new CharWindow(null, chunkSize);
+    }
+
+    /**
+     * Creates a window to which UTF-8 encoded bytes are appended by the caller.
+     *
+     * @param chunkSize Initial size of the buffer
+     * @return Window onto the appended bytes.
+     */
+    static ByteWindow ofBytes(final int chunkSize) {
+        return new ByteWindow(null, chunkSize);
+    }
+
+    /**
+     * Reads more text into the window until the buffer is full or the end of the source is reached. If the buffer
+     * is already full, it is grown first.
+     *
+     * @return {@code true} if there is text in the window. Returns {@code false} once all text has been read and
+     *      discarded.
+     * @throws IOException if there was a problem reading the text
+     */
+    final boolean fill() throws IOException {
+        if (!this.eof) {
+            makeRoom();
+            while (this.filled < capacity()) {
+                final int count = read(this.filled);
+                if (count < 0) {
+                    this.eof = true;
+                    break;
+                }
+                this.filled += count;
+            }
+        }
+        return this.filled > 0;
+    }
+
+    /**
+     * Indicates that no more text will be appended to the window, so that its last line is complete.
+     */
+    final void markEof() {
+        this.eof = true;
+    }
+
+    /**
+     * Ensures that there is room in the buffer for more text by growing the buffer if it is full.
+     *
+     * @return Number of free positions in the buffer.
+     */
+    final int makeRoom() {
+        if (this.filled == capacity()) {
+            grow();
+        }
+        return capacity() - this.filled;
+    }
+
+    /**
+     * Adds the specified number of positions, which have been stored in the buffer following the text, to the
+     * window.
+     *
+     * @param count Number of positions stored
+     */
+    final void extend(final int count) {
+        this.filled += count;
+    }
+
+    /**
+     * Obtains the amount of text in the window.
+     *
+     * @return Number of positions in the window.
+     */
+    final int length() {
+        return this.filled;
+    }
+
+    /**
+     * Indicates whether all text has been read from the source.
+     *
+     * @return {@code true} if the end of the source has been reached.
+     */
+    final boolean isEof() {
+        return this.eof;
+    }
+
+    /**
+     * Obtains the position following the last complete line in the window. Once the end of the source has been
+     * reached, the last line is complete even if it is not terminated by a newline.
+     *
+     * @return Position following the newline of the last complete line in the window, or 0 if the window does
+     *      not contain a complete line.
+     */
+    final int completeLinesEnd() {
+        return this.eof ? this.filled : (lastIndexOfNewline() + 1);
+    }
+
+    /**
+     * Discards the specified amount of text from the start of the window.
+     *
+     * @param count Number of positions to discard
+     */
+    final void discard(final int count) {
+        if (count > 0) {
+            shift(count);
+            this.filled -= count;
+        }
+    }
+
+    /**
+     * Obtains the text in the window. The returned text is only valid until the window is next filled or
+     * text is discarded.
+     *
+     * @return Text in the window. Position 0 is the start of the window.
+     */
+    abstract AbstractTextData data();
+
+    /**
+     * Obtains the size of the buffer.
+     *
+     * @return Number of positions in the buffer.
+     */
+    abstract int capacity();
+
+    /**
+     * Doubles the size of the buffer, retaining its contents.
+     */
+    abstract void grow();
+
+    /**
+     * Reads text from the source into the buffer.
+     *
+     * @param offset Position in the buffer at which to store the text
+     * @return Number of positions read or -1 if the end of the source has been reached.
+     * @throws IOException if there was a problem reading the text
+     */
+    abstract int read(int offset) throws IOException;
+
+    /**
+     * Finds the last newline in the window.
+     *
+     * @return Position of the last newline in the window or -1 if there is none.
+     */
+    abstract int lastIndexOfNewline();
+
+    /**
+     * Moves the text in the window following the specified number of positions to the start of the buffer.
+     *
+     * @param count Number of positions to discard from the start of the window
+     */
+    abstract void shift(int count);
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Counts lines in the files contained in ZIP (including JAR, WAR and EAR) and tar archives, without extracting
+ * the archives. Each entry is read from the decompressed archive and counted as it is encountered, so that the
+ * archive is read once and no temporary files are written. The language of an entry is determined from its name
+ * (see {@link Language#fromFileName(String)}) or, if that is not possible, from a shebang at the start of its
+ * content.
+ *
+ * <p>
+ * Counting results are keyed by the path of the archive resolved against the name of each entry. For example, the
+ * entry {@code org/foo/Bar.java} in the archive {@code lib/foo-sources.jar} is reported as
+ * {@code lib/foo-sources.jar/org/foo/Bar.java}. These paths do not exist in the file system, but allow the results
+ * for archives and for files to be combined and processed using {@link CountUtils}. Directories, links and other
+ * special entries are not reported. Nested archives are not counted.
+ * </p>
+ */
+public class ArchiveCounter {
+
+    /**
+     * Archive formats that can be counted.
+     */
+    public enum Format {
+        /** ZIP archive, including JAR, WAR and EAR files. */
+        ZIP,
+        /** Uncompressed tar archive. */
+        TAR,
+        /** Gzip compressed tar archive. */
+        TAR_GZIP;
+
+        /**
+         * Attempts to obtain the format of an archive from its file name extension. The extensions zip, jar, war
+         * and ear indicate a ZIP archive, tar indicates a tar archive, and tar.gz and tgz indicate a gzip
+         * compressed tar archive. The matching is case-insensitive.
+         *
+         * @param archive Archive whose format is to be determined
+         * @return Format corresponding to the name of the archive. If the name does not correspond to a supported
+         *      format, an empty {@link Optional} is returned.
+         */
+        public static Optional<Format> fromFileName(final Path archive) {
+            final Path filenamePath = archive.getFileName();
+            if (filenamePath == null) {
+                return Optional.empty();
+            }
+            final String filename = filenamePath.toString().toLowerCase(Locale.ROOT);
+            if (filename.endsWith(".zip") || filename.endsWith(".jar") || filename.endsWith(".war")
+                    || filename.endsWith(".ear")) {
+                return Optional.of(ZIP);
+            }
+            if (filename.endsWith(".tar")) {
+                return Optional.of(TAR);
+            }
+            if (filename.endsWith(".tar.gz") || filename.endsWith(".tgz")) {
+                return Optional.of(TAR_GZIP);
+            }
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stream that does not close the stream from which it reads.
+     */
+    private static final class UnclosedInputStream extends FilterInputStream {
+
+        /**
+         * Constructs a stream reading from the specified stream.
+         *
+         * @param in Stream to read, which is not closed when this stream is closed
+         */
+        UnclosedInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // The underlying stream is closed by its owner
+        }
+    }
+
+    /** Size at or above which an entry is counted in chunks as it is decompressed, rather than read in full. */
+    static final long STREAM_THRESHOLD = FileCounter.DEFAULT_MAP_THRESHOLD;
+
+    private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private boolean countDocStrings = true;
+    private int maxCommentDepth = Counter.DEFAULT_MAX_COMMENT_DEPTH;
+    @Nullable
+    private CountPolicy countPolicy;
+    @Nullable
+    private BiConsumer<Path, CountPolicy.SkipReason> skipListener;
+    @Nullable
+    private LanguageRegistry languageRegistry;
+
+    /**
+     * Sets whether to count documentation string as comments or ignore them.
+     *
+     * @param enable {@code true} to count documentation strings as comments or {@code false} to ignore them.
+     *      The default is to count documentation strings as comments.
+     * @return This counter.
+     */
+    public ArchiveCounter countDocStrings(final boolean enable) {
+        this.countDocStrings = enable;
+        return this;
+    }
+
+    /**
+     * Sets the maximum depth of nested multiline comments that are tracked individually. See
+     * {@link Counter#maxCommentDepth(int)}.
+     *
+     * @param depth Maximum number of nested multiline comments to track. The default is 256.
+     * @return This counter.
+     * @throws IllegalArgumentException if the depth is less than 1
+     */
+    public ArchiveCounter maxCommentDepth(final int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Maximum comment depth must be at least 1");
+        }
+        this.maxCommentDepth = depth;
+        return this;
+    }
+
+    /**
+     * Sets the policy that determines which entries are counted. The size of an entry is its uncompressed size.
+     * Entries that are skipped by the policy are not included in the counting results, and are reported to the
+     * skip listener, if one has been set (see {@link #skipListener(BiConsumer)}).
+     *
+     * @param policy Policy that determines which entries are counted, or {@code null} to count all entries. The
+     *      default is to count all entries.
+     * @return This counter.
+     */
+    public ArchiveCounter countPolicy(@Nullable final CountPolicy policy) {
+        this.countPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets a listener that is called for each entry that is skipped by the count policy (see
+     * {@link #countPolicy(CountPolicy)}).
+     *
+     * @param listener Called with the path of each skipped entry, formed in the same way as the keys of the
+     *      counting results, and the reason it was skipped, or {@code null} to not report skipped entries
+     * @return This counter.
+     */
+    public ArchiveCounter skipListener(@Nullable final BiConsumer<Path, CountPolicy.SkipReason> listener) {
+        this.skipListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the registry used to determine the language of each entry from its name or shebang. See
+     * {@link FileCounter#languageRegistry(LanguageRegistry)}.
+     *
+     * @param registry Registry used to determine the language of each entry, or {@code null} to use the registry
+     *      of the static lookup methods of {@link Language} (see {@link LanguageRegistry#current()}). The default
+     *      is to use the registry of the static lookup methods.
+     * @return This counter.
+     */
+    public ArchiveCounter languageRegistry(@Nullable final LanguageRegistry registry) {
+        this.languageRegistry = registry;
+        return this;
+    }
+
+    /**
+     * Counts the number of lines in the files contained in the specified archives. The format of each archive is
+     * determined from its name (see {@link Format#fromFileName(Path)}).
+     *
+     * @param archives Archives whose entries are to be counted
+     * @return The line counts for each entry, keyed by the path of the archive resolved against the name of the
+     *      entry. If the language of an entry cannot be determined, an empty language map is returned for that
+     *      entry. Entries skipped by the count policy are not included.
+     * @throws IOException if there was a problem reading the archives or an archive is not valid
+     * @throws IllegalArgumentException if no archives are specified or the format of an archive is not supported
+     */
+    public Map<Path, Map<Language, Counts>> count(final Path... archives) throws IOException {
+        return count(List.of(archives));
+    }
+
+    /**
+     * Counts the number of lines in the files contained in the specified archives. The format of each archive is
+     * determined from its name (see {@link Format#fromFileName(Path)}).
+     *
+     * @param archives Archives whose entries are to be counted
+     * @return The line counts for each entry, keyed by the path of the archive resolved against the name of the
+     *      entry. If the language of an entry cannot be determined, an empty language map is returned for that
+     *      entry. Entries skipped by the count policy are not included.
+     * @throws IOException if there was a problem reading the archives or an archive is not valid
+     * @throws IllegalArgumentException if no archives are specified or the format of an archive is not supported
+     */
+    public Map<Path, Map<Language, Counts>> count(final Collection<Path> archives) throws IOException {
+        if (archives.isEmpty()) {
+            throw new IllegalArgumentException("At least one archive must be specified.");
+        }
+
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        for (final Path archive : archives) {
+            final Format format = Format.fromFileName(archive).orElseThrow(
+                    () -> new IllegalArgumentException("Unsupported archive format: " + archive));
+            if (format == Format.ZIP && archive.getFileSystem() == FileSystems.getDefault()) {
+                countZipFile(archive, results);
+            } else {
+                try (InputStream in = Files.newInputStream(archive)) {
+                    count(in, format, archive, results);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Counts the number of lines in the files contained in the archive read from the specified stream. This allows
+     * archives that are not in the file system, such as those being downloaded, to be counted as they are read.
+     *
+     * <p>
+     * The uncompressed size of a ZIP entry is not always recorded ahead of the entry's content in a stream. If the
+     * count policy limits the size of files, such an entry is read in full, up to the maximum size, so that its
+     * size is known before it is counted.
+     * </p>
+     *
+     * @param in Stream providing the archive. The stream is not closed.
+     * @param format Format of the archive
+     * @param archive Path of the archive, against which the names of the entries are resolved to form the keys of
+     *      the counting results
+     * @return The line counts for each entry, keyed by the path of the archive resolved against the name of the
+     *      entry. If the language of an entry cannot be determined, an empty language map is returned for that
+     *      entry. Entries skipped by the count policy are not included.
+     * @throws IOException if there was a problem reading the archive or the archive is not valid
+     */
+    public Map<Path, Map<Language, Counts>> count(final InputStream in, final Format format, final Path archive)
+            throws IOException {
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        count(in, format, archive, results);
+        return results;
+    }
+
+    /**
+     * Counts the entries of a ZIP archive in the file system. The archive's central directory provides the
+     * uncompressed size of every entry, and only the entries that are counted are decompressed.
+     *
+     * @param archive ZIP archive to count
+     * @param results Line counts for each entry, to which the counts for the archive's entries are added
+     * @throws IOException if there was a problem reading the archive or the archive is not valid
+     */
+    private void countZipFile(final Path archive, final Map<Path, Map<Language, Counts>> results)
+            throws IOException {
+        try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    try (InputStream in = zipFile.getInputStream(entry)) {
+                        countEntry(archive, entry.getName(), entry.getSize(), in, results);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the entries of an archive read from a stream.
+     *
+     * @param in Stream providing the archive, which is not closed
+     * @param format Format of the archive
+     * @param archive Path of the archive
+     * @param results Line counts for each entry, to which the counts for the archive's entries are added
+     * @throws IOException if there was a problem reading the archive or the archive is not valid
+     */
+    private void count(final InputStream in, final Format format, final Path archive,
+                       final Map<Path, Map<Language, Counts>> results) throws IOException {
+        // The decompressing streams are closed to release their native resources, without closing the caller's
+        // stream.
+        final InputStream source = new UnclosedInputStream(in);
+
+        if (format == Format.ZIP) {
+            try (ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(source, ARCHIVE_BUFFER_SIZE))) {
+                for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+                    if (!entry.isDirectory()) {
+                        countEntry(archive, entry.getName(), entry.getSize(), zipIn, results);
+                    }
+                }
+            }
+            return;
+        }
+
+        final InputStream tarSource = (format == Format.TAR_GZIP)
+                                      ? new GZIPInputStream(source, ARCHIVE_BUFFER_SIZE)
+                                      : new BufferedInputStream(source, ARCHIVE_BUFFER_SIZE);
+        try (TarInputStream tarIn = new TarInputStream(tarSource)) {
+            for (TarInputStream.Entry entry = tarIn.getNextEntry(); entry != null; entry = tarIn.getNextEntry()) {
+                if (entry.isFile()) {
+                    countEntry(archive, entry.name(), entry.size(), tarIn, results);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts an entry and adds its counts to the results, unless it is skipped by the count policy.
+     *
+     * @param archive Path of the archive containing the entry
+     * @param name Name of the entry
+     * @param size Uncompressed size of the entry, or -1 if it is not known
+     * @param in Stream providing the content of the entry, which is not closed
+     * @param results Line counts for each entry, to which the counts for the entry are added
+     * @throws IOException if there was a problem reading the entry
+     */
+    private void countEntry(final Path archive, final String name, final long size, final InputStream in,
+                            final Map<Path, Map<Language, Counts>> results) throws IOException {
+        int start = 0;
+        while (start < name.length() && name.charAt(start) == '/') {
+            start++;
+        }
+        if (start == name.length()) {
+            return;
+        }
+
+        final Path entryPath = archive.resolve(name.substring(start));
+        final Map<Language, Counts> counts = countEntry(entryPath, name, size, in);
+        if (counts != null) {
+            results.put(entryPath, counts);
+        }
+    }
+
+    /**
+     * Counts the lines in an entry. The language of the entry is determined from its name if possible, and
+     * otherwise from a shebang at the start of its content. The count policy examines the same content, so that
+     * the entry is read only once. An entry smaller than {@link #STREAM_THRESHOLD} is read into an array drawn
+     * from the current thread's pool and counted from the array. A larger entry is counted in chunks as it is
+     * decompressed, so that the memory used does not depend on the size of the entry. An entry that is truncated
+     * by the count policy is read into an array up to the maximum size, so that it can be counted to the end of
+     * its last complete line.
+     *
+     * @param entryPath Path identifying the entry in the results
+     * @param name Name of the entry
+     * @param entrySize Uncompressed size of the entry, or -1 if it is not known
+     * @param in Stream providing the content of the entry, which is not closed
+     * @return Map of the languages found in the entry and their counts. If the language of the entry cannot be
+     *      determined, an empty map is returned. If the entry is skipped by the count policy, it is reported to
+     *      the skip listener and {@code null} is returned.
+     * @throws IOException if there was a problem reading the entry
+     */
+    @Nullable
+    private Map<Language, Counts> countEntry(final Path entryPath, final String name, final long entrySize,
+                                             final InputStream in) throws IOException {
+        final LanguageRegistry registry = (this.languageRegistry == null) ? LanguageRegistry.current()
+                                                                         : this.languageRegistry;
+        final Language namedLanguage = registry.fromFileName(name).orElse(null);
+        final CountPolicy policy = this.countPolicy;
+        final int headLength = (policy != null && policy.examinesContent())
+                               ? CountPolicy.HEAD_LENGTH
+                               : (namedLanguage == null) ? Language.MAX_SHEBANG_LENGTH : 0;
+
+        // An entry whose size is not known is read up to just beyond the maximum size, so that the policy can
+        // determine whether it is too large.
+        long size = entrySize;
+        byte[] unpooled = null;
+        if (size < 0 && policy != null && policy.getMaxFileSize() < MAX_ARRAY_LENGTH) {
+            unpooled = in.readNBytes((int)policy.getMaxFileSize() + 1);
+            size = unpooled.length;
+        }
+
+        final long countedSize = (policy == null || size < 0) ? size : policy.countedSize(size);
+        final boolean inMemory = countedSize >= 0 && (countedSize < STREAM_THRESHOLD || countedSize < size);
+        final BufferPool buffers = BufferPool.get();
+        final byte[] bytes = (unpooled != null) ? unpooled
+                                                : buffers.acquireBytes(inMemory ? (int)countedSize : headLength);
+        try {
+            int length = (unpooled != null)
+                         ? unpooled.length
+                         : in.readNBytes(bytes, 0, inMemory ? Math.min((int)countedSize, headLength) : headLength);
+            final ByteBuffer head = ByteBuffer.wrap(bytes, 0, length);
+
+            final Language language = (namedLanguage == null) ? registry.fromShebang(head).orElse(null)
+                                                              : namedLanguage;
+            if (language == null) {
+                return Map.of();
+            }
+
+            final CountPolicy.SkipReason skipReason = (policy == null) ? null : policy.examine(size, head);
+            if (skipReason != null) {
+                if (this.skipListener != null) {
+                    this.skipListener.accept(entryPath, skipReason);
+                }
+                return null;
+            }
+
+            final CounterPool pool = CounterPool.get();
+            final Counter counter = pool.acquire(language, this.countDocStrings, this.maxCommentDepth, registry);
+            try {
+                if (!inMemory) {
+                    // The head is counted followed by the rest of the entry. The entry's stream is protected from being
+                    // closed once it has been exhausted, so that the following entries can be read.
+                    return counter.count(new SequenceInputStream(new ByteArrayInputStream(bytes, 0, length),
+                                                                 new UnclosedInputStream(in)));
+                }
+
+                if (unpooled == null) {
+                    length += in.readNBytes(bytes, length, (int)countedSize - length);
+                }
+                length = (int)Math.min(length, countedSize);
+                if (countedSize < size) {
+                    length = FileCounter.lastLineEnd(ByteBuffer.wrap(bytes, 0, length));
+                }
+                return counter.count(bytes, length);
+            } finally {
+                pool.release(counter);
+            }
+        } finally {
+            if (unpooled == null) {
+                buffers.release(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.util.Arrays;
+
+
+/**
+ * An immutable set of ASCII characters. The set is represented both as a 128 bit bitset, for constant time
+ * membership tests, and as an array of its members, for scanners that compare many characters against each
+ * member at once.
+ */
+final class AsciiSet {
+
+    private final long lowBits;
+    private final long highBits;
+    private final char[] members;
+
+    /**
+     * Constructs a set from the specified bitset.
+     *
+     * @param bits Bitset consisting of two {@code long} values, the first for characters 0 through 63 and the
+     *      second for characters 64 through 127.
+     */
+    AsciiSet(final long[] bits) {
+        this.lowBits = bits[0];
+        this.highBits = bits[1];
+        this.members = new char[Long.bitCount(this.lowBits) + Long.bitCount(this.highBits)];
+
+        int index = 0;
+        for (char ch = 0; ch < 128; ch++) {
+            if (contains(ch)) {
+                this.members[index++] = ch;
+            }
+        }
+    }
+
+    /**
+     * Indicates whether the specified character is a member of the set.
+     *
+     * @param ch Character to test
+     * @return {@code true} if the character is a member of the set. Non-ASCII characters are never members.
+     */
+    boolean contains(final char ch) {
+        return ch < 128 && ((ch < 64 ? this.lowBits : this.highBits) & (1L << ch)) != 0;
+    }
+
+    /**
+     * Obtains the members of the set.
+     *
+     * @return Members of the set in ascending order. The caller must not modify the array.
+     */
+    char[] members() {
+        return this.members;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(this.members);
+    }
+}
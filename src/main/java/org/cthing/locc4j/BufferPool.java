@@ -0,0 +1,167 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import org.cthing.annotations.AccessForTesting;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Pool of reusable buffers for reading and decoding text that is confined to a single thread. The pool retains the
+ * largest byte array and the largest character array released to it, so that once the largest file has been seen,
+ * reading and decoding further files allocates no arrays. A buffer is removed from the pool when it is acquired and
+ * returned when it is released, so a buffer acquired while another is in use is a new array. Buffers larger than
+ * {@link #MAX_POOLED_LENGTH} are not retained so that the pool's memory stays bounded. Use {@link #get()} to obtain
+ * the pool for the current thread.
+ */
+final class BufferPool {
+
+    /** Maximum length of a buffer retained by the pool. */
+    static final int MAX_POOLED_LENGTH = 8 * 1024 * 1024;
+
+    private static final ThreadLocal<BufferPool> POOLS = ThreadLocal.withInitial(BufferPool::new);
+
+    @Nullable
+    private byte[] bytes;
+    @Nullable
+    private char[] chars;
+    private final CharsetDecoder decoder;
+
+    private BufferPool() {
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                                             .onMalformedInput(CodingErrorAction.REPLACE)
+                                             .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Obtains the buffer pool for the current thread.
+     *
+     * @return Buffer pool confined to the current thread.
+     */
+    static BufferPool get() {
+        return POOLS.get();
+    }
+
+    /**
+     * Creates a pool that is not confined to a thread. The pool can be confined to a thread for a time using
+     * {@link #attach()}, so that a bounded number of pools can be shared by many short-lived threads (e.g. a
+     * virtual thread for each file) rather than each thread creating its own pool.
+     *
+     * @return Newly created pool.
+     */
+    static BufferPool create() {
+        return new BufferPool();
+    }
+
+    /**
+     * Confines this pool to the current thread, in place of the thread's own pool, until {@link #detach()} is
+     * called on the thread. The pool must not be attached to more than one thread at a time.
+     */
+    void attach() {
+        POOLS.set(this);
+    }
+
+    /**
+     * Ends the confinement of the pool attached to the current thread using {@link #attach()}. The thread
+     * obtains a new pool if it uses one again.
+     */
+    static void detach() {
+        POOLS.remove();
+    }
+
+    /**
+     * Obtains a byte array of at least the specified length. The pooled array is used if it is large enough.
+     * Otherwise, an array of exactly the specified length is created. The array must be returned to the pool using
+     * {@link #release(byte[])} when it is no longer needed.
+     *
+     * @param length Minimum length of the array
+     * @return Byte array whose contents are undefined.
+     */
+    byte[] acquireBytes(final int length) {
+        final byte[] buffer = this.bytes;
+        if (buffer != null && buffer.length >= length) {
+            this.bytes = null;
+            return buffer;
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Returns the specified byte array to the pool. The array is retained if it is larger than the array already
+     * in the pool and is not larger than {@link #MAX_POOLED_LENGTH}.
+     *
+     * @param buffer Array previously obtained from this pool using {@link #acquireBytes(int)}
+     */
+    void release(final byte[] buffer) {
+        if (buffer.length <= MAX_POOLED_LENGTH && (this.bytes == null || buffer.length > this.bytes.length)) {
+            this.bytes = buffer;
+        }
+    }
+
+    /**
+     * Obtains a character array of at least the specified length. The pooled array is used if it is large enough.
+     * Otherwise, an array of exactly the specified length is created. The array must be returned to the pool using
+     * {@link #release(char[])} when it is no longer needed.
+     *
+     * @param length Minimum length of the array
+     * @return Character array whose contents are undefined.
+     */
+    char[] acquireChars(final int length) {
+        final char[] buffer = this.chars;
+        if (buffer != null && buffer.length >= length) {
+            this.chars = null;
+            return buffer;
+        }
+        return new char[length];
+    }
+
+    /**
+     * Returns the specified character array to the pool. The array is retained if it is larger than the array
+     * already in the pool and is not larger than {@link #MAX_POOLED_LENGTH}.
+     *
+     * @param buffer Array previously obtained from this pool using {@link #acquireChars(int)}
+     */
+    void release(final char[] buffer) {
+        if (buffer.length <= MAX_POOLED_LENGTH && (this.chars == null || buffer.length > this.chars.length)) {
+            this.chars = buffer;
+        }
+    }
+
+    /**
+     * Obtains a UTF-8 decoder that replaces malformed input, in the same way as decoding using
+     * {@link String#String(byte[], java.nio.charset.Charset)}. The decoder is reset and ready for use. The decoder
+     * must only be used for one decoding at a time.
+     *
+     * @return UTF-8 decoder confined to the current thread.
+     */
+    CharsetDecoder decoder() {
+        return this.decoder.reset();
+    }
+
+    /**
+     * Obtains the length of the pooled byte array.
+     *
+     * @return Length of the pooled byte array or 0 if there is no pooled array.
+     */
+    @AccessForTesting
+    int pooledBytes() {
+        return (this.bytes == null) ? 0 : this.bytes.length;
+    }
+
+    /**
+     * Obtains the length of the pooled character array.
+     *
+     * @return Length of the pooled character array or 0 if there is no pooled array.
+     */
+    @AccessForTesting
+    int pooledChars() {
+        return (this.chars == null) ? 0 : this.chars.length;
+    }
+}
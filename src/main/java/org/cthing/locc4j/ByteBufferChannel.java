@@ -0,0 +1,60 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+
+/**
+ * Channel that reads the bytes remaining in a buffer. This allows bytes that are already in memory, such as a
+ * memory mapped file, to be counted in chunks like any other channel. Each read copies bytes directly from the
+ * buffer into the destination, so a mapped file is copied once, a chunk at a time, rather than being read into
+ * an array of its full size.
+ */
+final class ByteBufferChannel implements ReadableByteChannel {
+
+    private final ByteBuffer source;
+    private boolean open;
+
+    /**
+     * Constructs a channel that reads the bytes between the position and the limit of the specified buffer. The
+     * position of the buffer is advanced as the bytes are read.
+     *
+     * @param source Buffer containing the bytes to read
+     */
+    ByteBufferChannel(final ByteBuffer source) {
+        this.source = source;
+        this.open = true;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws ClosedChannelException {
+        if (!this.open) {
+            throw new ClosedChannelException();
+        }
+        if (!this.source.hasRemaining()) {
+            return -1;
+        }
+
+        final int count = Math.min(this.source.remaining(), dst.remaining());
+        dst.put(dst.position(), this.source, this.source.position(), count);
+        dst.position(dst.position() + count);
+        this.source.position(this.source.position() + count);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    @Override
+    public void close() {
+        this.open = false;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+
+/**
+ * Represents UTF-8 encoded text to be counted without first decoding it into characters. The data is read-only
+ * and is not copied. Positions are byte offsets into the data. An ASCII character occupies a single position and
+ * is returned unchanged by {@link #charAt(int)}. A non-ASCII character occupies two to four positions, each of
+ * which is returned as a character between U+0080 and U+00FF. Such characters are opaque to the counter. They can
+ * never match a delimiter, so byte data must only be used for languages whose delimiters are all ASCII (see
+ * {@link DelimiterAutomaton#isAscii()}). Whitespace is recognized in both ASCII and non-ASCII characters, so
+ * lines are classified the same as in the decoded {@link CharData}.
+ */
+final class ByteData extends AbstractTextData {
+
+    private static final CharScanner SCANNER = CharScanners.get();
+
+    private final byte[] buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Constructs a byte buffer based on the specified UTF-8 encoded data.
+     *
+     * @param buffer UTF-8 encoded data
+     */
+    ByteData(final byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Constructs a byte buffer based on a region of the specified UTF-8 encoded data.
+     *
+     * @param buffer UTF-8 encoded data
+     * @param offset Zero-based position in the specified array to begin reading the data
+     * @param length Number of bytes to read from the specified array
+     */
+    ByteData(final byte[] buffer, final int offset, final int length) {
+        Objects.checkFromIndexSize(offset, length, buffer.length);
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    int length() {
+        return this.length;
+    }
+
+    @Override
+    char charAt(final int index) {
+        return (char)(this.buffer[this.offset + Objects.checkIndex(index, this.length)] & 0xFF);
+    }
+
+    @Override
+    int findLineEnd(final int start) {
+        Objects.checkIndex(start, this.length + 1);
+        final int newline = SCANNER.indexOf(this.buffer, this.offset + start, this.offset + this.length,
+                                            (byte)'\n');
+        return (newline < 0) ? this.length : newline - this.offset + 1;
+    }
+
+    @Override
+    int countLines() {
+        if (this.length == 0) {
+            return 0;
+        }
+
+        final int end = this.offset + this.length;
+        final int count = SCANNER.count(this.buffer, this.offset, end, (byte)'\n');
+        return (this.buffer[end - 1] == '\n') ? count : (count + 1);
+    }
+
+    @Override
+    boolean isBlank(final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        return SCANNER.indexOfNonWhitespace(this.buffer, this.offset + start, this.offset + end) < 0;
+    }
+
+    @Override
+    int trimStart(final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        final int index = SCANNER.indexOfNonWhitespace(this.buffer, this.offset + start, this.offset + end);
+        return (index < 0) ? end : index - this.offset;
+    }
+
+    @Override
+    int trimEnd(final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        final int index = SCANNER.lastIndexOfNonWhitespace(this.buffer, this.offset + start, this.offset + end);
+        return (index < 0) ? start : index - this.offset + 1;
+    }
+
+    @Override
+    boolean startsWith(final CharSequence prefix, final int index) {
+        return startsWith(prefix, index, this.length);
+    }
+
+    @Override
+    boolean startsWith(final CharSequence prefix, final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        final int prefixLen = prefix.length();
+        if (prefixLen > end - start) {
+            return false;
+        }
+
+        for (int i = 0, j = this.offset + start; i < prefixLen; i++, j++) {
+            if (prefix.charAt(i) != (this.buffer[j] & 0xFF)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    boolean endsWith(final CharSequence suffix, final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        final int suffixLen = suffix.length();
+        if (suffixLen > end - start) {
+            return false;
+        }
+
+        for (int i = 0, j = this.offset + end - suffixLen; i < suffixLen; i++, j++) {
+            if (suffix.charAt(i) != (this.buffer[j] & 0xFF)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    boolean contains(final CharSequence sequence, final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        final int seqLen = sequence.length();
+        if (seqLen == 0) {
+            return true;
+        }
+
+        final int maxStart = end - seqLen;
+        for (int i = start; i <= maxStart; i++) {
+            boolean match = true;
+
+            for (int j = 0, k = this.offset + i; j < seqLen; j++, k++) {
+                if ((this.buffer[k] & 0xFF) != sequence.charAt(j)) {
+                    match = false;
+                    break;
+                }
+            }
+
+            if (match) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Finds the first byte in the specified region of the data that is a member of the specified ASCII character
+     * set. Bytes of non-ASCII characters never match.
+     *
+     * @param asciiSet ASCII characters to find
+     * @param fromIndex Index from which to start looking for a character (inclusive)
+     * @param toIndex Index at which to stop looking for a character (exclusive)
+     * @return Index of the first matching byte in the region. Returns -1 if no byte in the region matches.
+     */
+    @Override
+    int indexOfAny(final AsciiSet asciiSet, final int fromIndex, final int toIndex) {
+        Objects.checkFromToIndex(fromIndex, toIndex, this.length);
+        final int index = SCANNER.indexOfAny(this.buffer, this.offset + fromIndex, this.offset + toIndex, asciiSet);
+        return (index < 0) ? -1 : index - this.offset;
+    }
+
+    @Override
+    Reader createReader() {
+        return new InputStreamReader(new ByteArrayInputStream(this.buffer, this.offset, this.length),
+                                     StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return new String(this.buffer, this.offset, this.length, StandardCharsets.UTF_8);
+    }
+}
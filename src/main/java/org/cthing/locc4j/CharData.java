@@ -21,7 +21,7 @@ import java.util.regex.Pattern;
  * this class to be used with classes that implement or accept that interface.
  */
 @SuppressWarnings("Convert2streamapi")
-class CharData implements CharSequence {
+class CharData extends AbstractTextData implements CharSequence {
 
     /**
      * Provides iteration over the character data by line. In addition to the line character data, the start
@@ -49,16 +49,29 @@ class CharData implements CharSequence {
 
         @Override
         public CharData next() {
-            this.start = this.end;
-            while (true) {
-                if (this.end >= CharData.this.length
-                        || CharData.this.buffer[CharData.this.offset + this.end++] == '\n') {
-                    break;
-                }
-            }
+            advance();
             return CharData.this.subSequence(this.start, this.end);
         }
 
+        /**
+         * Advances the iterator to the next line without creating character data for the line. Use
+         * {@link #getStart()} and {@link #getEnd()} to obtain the extent of the line.
+         */
+        void advance() {
+            this.start = this.end;
+            this.end = findLineEnd(this.start);
+        }
+
+        /**
+         * Repositions the iterator so that the next line starts at the specified index.
+         *
+         * @param index Index in the character data at which the next line starts
+         */
+        void reset(final int index) {
+            this.start = index;
+            this.end = index;
+        }
+
         /**
          * Obtains the index of the start of the line.
          *
@@ -84,6 +97,8 @@ class CharData implements CharSequence {
     }
 
 
+    private static final CharScanner SCANNER = CharScanners.get();
+
     private final char[] buffer;
     private final int offset;
     private final int length;
@@ -133,7 +148,7 @@ class CharData implements CharSequence {
      * @param offset Zero-based position in the specified array to begin reading the character data
      * @param length Length to read the character data in the specified array
      */
-    private CharData(final char[] buffer, final int offset, final int length) {
+    CharData(final char[] buffer, final int offset, final int length) {
         this.buffer = buffer;
         this.offset = offset;
         this.length = length;
@@ -156,12 +171,20 @@ class CharData implements CharSequence {
      * @return {@code true} if the data is all whitespace or empty.
      */
     boolean isBlank() {
-        for (int i = 0, j = this.offset; i < this.length; i++, j++) {
-            if (!Character.isWhitespace(this.buffer[j])) {
-                return false;
-            }
-        }
-        return true;
+        return isBlank(0, this.length);
+    }
+
+    /**
+     * Indicates whether the specified region of the data is all whitespace or empty.
+     *
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the region is all whitespace or empty.
+     */
+    @Override
+    boolean isBlank(final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        return SCANNER.indexOfNonWhitespace(this.buffer, this.offset + start, this.offset + end) < 0;
     }
 
     @Override
@@ -194,12 +217,42 @@ class CharData implements CharSequence {
      *      the prefix is longer than the character data.
      */
     boolean startsWith(final CharSequence prefix) {
+        return startsWith(prefix, 0, this.length);
+    }
+
+    /**
+     * Indicates whether the character data starting at the specified index starts with the specified prefix. This
+     * is equivalent to calling {@code buffer.subSequence(index).startsWith(prefix)} without creating a new buffer.
+     *
+     * @param prefix Prefix to test
+     * @param index Index in the character data at which to test for the prefix
+     * @return {@code true} if the character data at the specified index starts with the specified prefix.
+     *      {@code false} if it does not or the prefix is longer than the remaining character data.
+     */
+    @Override
+    boolean startsWith(final CharSequence prefix, final int index) {
+        return startsWith(prefix, index, this.length);
+    }
+
+    /**
+     * Indicates whether the specified region of the character data starts with the specified prefix. This is
+     * equivalent to calling {@code buffer.subSequence(start, end).startsWith(prefix)} without creating a new buffer.
+     *
+     * @param prefix Prefix to test
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the region starts with the specified prefix. {@code false} if it does not or
+     *      the prefix is longer than the region.
+     */
+    @Override
+    boolean startsWith(final CharSequence prefix, final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
         final int prefixLen = prefix.length();
-        if (prefixLen > this.length) {
+        if (prefixLen > end - start) {
             return false;
         }
 
-        for (int i = 0, j = this.offset; i < prefixLen; i++, j++) {
+        for (int i = 0, j = this.offset + start; i < prefixLen; i++, j++) {
             if (prefix.charAt(i) != this.buffer[j]) {
                 return false;
             }
@@ -216,12 +269,28 @@ class CharData implements CharSequence {
      *      the suffix is longer than the character data.
      */
     boolean endsWith(final CharSequence suffix) {
+        return endsWith(suffix, 0, this.length);
+    }
+
+    /**
+     * Indicates whether the specified region of the character data ends with the specified suffix. This is
+     * equivalent to calling {@code buffer.subSequence(start, end).endsWith(suffix)} without creating a new buffer.
+     *
+     * @param suffix Suffix to test
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the region ends with the specified suffix. {@code false} if it does not or
+     *      the suffix is longer than the region.
+     */
+    @Override
+    boolean endsWith(final CharSequence suffix, final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
         final int suffixLen = suffix.length();
-        if (suffixLen > this.length) {
+        if (suffixLen > end - start) {
             return false;
         }
 
-        for (int i = 0, j = this.offset + this.length - suffixLen; i < suffixLen; i++, j++) {
+        for (int i = 0, j = this.offset + end - suffixLen; i < suffixLen; i++, j++) {
             if (suffix.charAt(i) != this.buffer[j]) {
                 return false;
             }
@@ -239,25 +308,51 @@ class CharData implements CharSequence {
         return new LineIterator();
     }
 
+    @Override
+    int findLineEnd(final int start) {
+        Objects.checkIndex(start, this.length + 1);
+        final int newline = SCANNER.indexOf(this.buffer, this.offset + start, this.offset + this.length, '\n');
+        return (newline < 0) ? this.length : newline - this.offset + 1;
+    }
+
+    /**
+     * Counts the number of newline characters in the specified region of the character data.
+     *
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return Number of newline characters in the region.
+     */
+    int countNewlines(final int start, final int end) {
+        return SCANNER.count(this.buffer, this.offset + start, this.offset + end, '\n');
+    }
+
+    /**
+     * Obtains the position of the start of this character data within the specified character data. This is
+     * only possible if this character data is a region of the same buffer (e.g. created using
+     * {@link #subSequence(int, int)}).
+     *
+     * @param data Character data that may contain this character data
+     * @return Position of the start of this character data relative to the start of the specified data, or -1 if
+     *      this character data is not a region of the same buffer.
+     */
+    int positionIn(final CharData data) {
+        return (this.buffer == data.buffer) ? (this.offset - data.offset) : -1;
+    }
+
     /**
      * Counts the number of lines in the character data.
      *
      * @return Number of lines in the character data.
      */
+    @Override
     int countLines() {
         if (this.length == 0) {
             return 0;
         }
 
-        boolean endedNewline = false;
-        int count = 0;
-        for (int i = this.offset; i < this.length; i++) {
-            endedNewline = this.buffer[i] == '\n';
-            if (endedNewline) {
-                count++;
-            }
-        }
-        return endedNewline ? count : (count + 1);
+        final int end = this.offset + this.length;
+        final int count = SCANNER.count(this.buffer, this.offset, end, '\n');
+        return (this.buffer[end - 1] == '\n') ? count : (count + 1);
     }
 
     /**
@@ -314,6 +409,22 @@ class CharData implements CharSequence {
         return -1;
     }
 
+    /**
+     * Finds the index of the first character in the specified region of the data that is either a member of the
+     * specified ASCII character set or is not an ASCII character.
+     *
+     * @param asciiSet ASCII characters to find
+     * @param fromIndex Index from which to start looking for a character (inclusive)
+     * @param toIndex Index at which to stop looking for a character (exclusive)
+     * @return Index of the first matching character in the region. Returns -1 if no character in the region matches.
+     */
+    @Override
+    int indexOfAny(final AsciiSet asciiSet, final int fromIndex, final int toIndex) {
+        Objects.checkFromToIndex(fromIndex, toIndex, this.length);
+        final int index = SCANNER.indexOfAny(this.buffer, this.offset + fromIndex, this.offset + toIndex, asciiSet);
+        return (index < 0) ? -1 : index - this.offset;
+    }
+
     /**
      * Finds the index of the first occurrence of the specified character sequence in the data.
      *
@@ -431,40 +542,55 @@ class CharData implements CharSequence {
         return -1;
     }
 
+    /**
+     * Finds the first character in the specified region that is not whitespace.
+     *
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return Index of the first non-whitespace character in the region or {@code end} if the region is all
+     *      whitespace.
+     */
+    @Override
+    int trimStart(final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        final int index = SCANNER.indexOfNonWhitespace(this.buffer, this.offset + start, this.offset + end);
+        return (index < 0) ? end : index - this.offset;
+    }
+
+    /**
+     * Finds the end of the specified region excluding any trailing whitespace.
+     *
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return Index immediately following the last non-whitespace character in the region or {@code start} if the
+     *      region is all whitespace.
+     */
+    @Override
+    int trimEnd(final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
+        final int index = SCANNER.lastIndexOfNonWhitespace(this.buffer, this.offset + start, this.offset + end);
+        return (index < 0) ? start : index - this.offset + 1;
+    }
+
     /**
      * Trims any leading and trailing whitespace from the data.
      *
      * @return New character data buffer with leading and trailing whitespace removed.
      */
     CharData trim() {
-        int start = this.offset;
-        int end = this.offset + this.length - 1;
+        final int limit = this.offset + this.length;
 
         // Trim from the start
-        while (start <= end) {
-            final char ch = this.buffer[start];
-            if (ch == ' ' || ch == '\t' || Character.isWhitespace(ch)) {
-                start++;
-            } else {
-                break;
-            }
-        }
-
-        // Trim from the end
-        while (end >= start) {
-            final char ch = this.buffer[end];
-            if (ch == ' ' || ch == '\t' || Character.isWhitespace(ch)) {
-                end--;
-            } else {
-                break;
-            }
-        }
+        final int start = SCANNER.indexOfNonWhitespace(this.buffer, this.offset, limit);
 
         // Check if the entire string is whitespace
-        if (start > end) {
-            return new CharData(this.buffer, (start == 0) ? 0 : start - 1, 0);
+        if (start < 0) {
+            return new CharData(this.buffer, (limit == 0) ? 0 : limit - 1, 0);
         }
 
+        // Trim from the end
+        final int end = SCANNER.lastIndexOfNonWhitespace(this.buffer, start, limit);
+
         return new CharData(this.buffer, start, end - start + 1);
     }
 
@@ -474,25 +600,17 @@ class CharData implements CharSequence {
      * @return New character data buffer with leading whitespace removed.
      */
     CharData trimLeading() {
-        int start = this.offset;
-        final int end = this.offset + this.length - 1;
+        final int limit = this.offset + this.length;
 
         // Trim from the start
-        while (start <= end) {
-            final char ch = this.buffer[start];
-            if (ch == ' ' || ch == '\t' || Character.isWhitespace(ch)) {
-                start++;
-            } else {
-                break;
-            }
-        }
+        final int start = SCANNER.indexOfNonWhitespace(this.buffer, this.offset, limit);
 
         // Check if the entire string is whitespace
-        if (start > end) {
-            return new CharData(this.buffer, (start == 0) ? 0 : start - 1, 0);
+        if (start < 0) {
+            return new CharData(this.buffer, (limit == 0) ? 0 : limit - 1, 0);
         }
 
-        return new CharData(this.buffer, start, end - start + 1);
+        return new CharData(this.buffer, start, limit - start);
     }
 
     /**
@@ -501,20 +619,11 @@ class CharData implements CharSequence {
      * @return New character data buffer with trailing whitespace removed.
      */
     CharData trimTrailing() {
-        int end = this.offset + this.length - 1;
-
         // Trim from the end
-        while (end >= this.offset) {
-            final char ch = this.buffer[end];
-            if (ch == ' ' || ch == '\t' || Character.isWhitespace(ch)) {
-                end--;
-            } else {
-                break;
-            }
-        }
+        final int end = SCANNER.lastIndexOfNonWhitespace(this.buffer, this.offset, this.offset + this.length);
 
         // Check if the entire string is whitespace
-        if (this.offset > end) {
+        if (end < 0) {
             return new CharData(this.buffer, (this.offset == 0) ? 0 : this.offset - 1, 0);
         }
 
@@ -681,13 +790,28 @@ class CharData implements CharSequence {
      * @return {@code true} if the character data contains the specified sequence.
      */
     boolean contains(final CharSequence sequence) {
+        return contains(sequence, 0, this.length);
+    }
+
+    /**
+     * Indicates if the specified region of the character data contains the specified sequence. This is equivalent
+     * to calling {@code buffer.subSequence(start, end).contains(sequence)} without creating a new buffer.
+     *
+     * @param sequence Character sequence to test
+     * @param start Start of the region (inclusive)
+     * @param end End of the region (exclusive)
+     * @return {@code true} if the region contains the specified sequence.
+     */
+    @Override
+    boolean contains(final CharSequence sequence, final int start, final int end) {
+        Objects.checkFromToIndex(start, end, this.length);
         final int seqLen = sequence.length();
         if (seqLen == 0) {
             return true;
         }
 
-        final int maxLen = this.length - seqLen;
-        for (int i = 0; i <= maxLen; i++) {
+        final int maxStart = end - seqLen;
+        for (int i = start; i <= maxStart; i++) {
             boolean match = true;
 
             for (int j = 0, k = this.offset + i; j < seqLen; j++, k++) {
@@ -710,6 +834,7 @@ class CharData implements CharSequence {
      *
      * @return Newly created Reader to read the character data.
      */
+    @Override
     public Reader createReader() {
         return new CharArrayReader(this.buffer, this.offset, this.length);
     }
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+/**
+ * Scans regions of a character array, or of an array of UTF-8 encoded bytes, for newlines, whitespace and other
+ * characters of interest. These scans touch every character that is counted, so implementations may use platform
+ * specific techniques (e.g. SIMD instructions) to examine many characters at once. All indices are absolute
+ * positions in the array and regions are specified as a start index (inclusive) and an end index (exclusive).
+ * Whitespace is as defined by {@link Character#isWhitespace(int)}. In UTF-8 encoded bytes, a non-ASCII whitespace
+ * character occupies several positions, all of which are considered whitespace.
+ */
+interface CharScanner {
+
+    /**
+     * Finds the first occurrence of the specified character in the specified region.
+     *
+     * @param buffer Characters to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @param ch Character to find
+     * @return Index of the first occurrence of the character or -1 if the character does not occur in the region.
+     */
+    int indexOf(char[] buffer, int from, int to, char ch);
+
+    /**
+     * Counts the occurrences of the specified character in the specified region.
+     *
+     * @param buffer Characters to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @param ch Character to count
+     * @return Number of occurrences of the character in the region.
+     */
+    int count(char[] buffer, int from, int to, char ch);
+
+    /**
+     * Finds the first character in the specified region that is not whitespace.
+     *
+     * @param buffer Characters to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @return Index of the first non-whitespace character or -1 if the region is blank.
+     */
+    int indexOfNonWhitespace(char[] buffer, int from, int to);
+
+    /**
+     * Finds the last character in the specified region that is not whitespace.
+     *
+     * @param buffer Characters to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @return Index of the last non-whitespace character or -1 if the region is blank.
+     */
+    int lastIndexOfNonWhitespace(char[] buffer, int from, int to);
+
+    /**
+     * Finds the first character in the specified region that is either a member of the specified set or is not
+     * an ASCII character.
+     *
+     * @param buffer Characters to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @param set ASCII characters to find
+     * @return Index of the first matching character or -1 if no character in the region matches.
+     */
+    int indexOfAny(char[] buffer, int from, int to, AsciiSet set);
+
+    /**
+     * Finds the first occurrence of the specified byte in the specified region.
+     *
+     * @param buffer UTF-8 encoded bytes to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @param b Byte to find
+     * @return Index of the first occurrence of the byte or -1 if the byte does not occur in the region.
+     */
+    int indexOf(byte[] buffer, int from, int to, byte b);
+
+    /**
+     * Counts the occurrences of the specified byte in the specified region.
+     *
+     * @param buffer UTF-8 encoded bytes to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @param b Byte to count
+     * @return Number of occurrences of the byte in the region.
+     */
+    int count(byte[] buffer, int from, int to, byte b);
+
+    /**
+     * Finds the first byte in the specified region that is not part of a whitespace character.
+     *
+     * @param buffer UTF-8 encoded bytes to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @return Index of the first byte of the first non-whitespace character or -1 if the region is blank.
+     */
+    int indexOfNonWhitespace(byte[] buffer, int from, int to);
+
+    /**
+     * Finds the last byte in the specified region that is not part of a whitespace character.
+     *
+     * @param buffer UTF-8 encoded bytes to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @return Index of the last byte of the last non-whitespace character or -1 if the region is blank.
+     */
+    int lastIndexOfNonWhitespace(byte[] buffer, int from, int to);
+
+    /**
+     * Finds the first byte in the specified region that is a member of the specified set. Unlike the character
+     * array variant, non-ASCII bytes never match. Byte data is only counted for languages whose delimiters are all
+     * ASCII, so a byte of a multibyte character can never start a delimiter.
+     *
+     * @param buffer UTF-8 encoded bytes to scan
+     * @param from Start of the region (inclusive)
+     * @param to End of the region (exclusive)
+     * @param set ASCII characters to find
+     * @return Index of the first matching byte or -1 if no byte in the region matches.
+     */
+    int indexOfAny(byte[] buffer, int from, int to, AsciiSet set);
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+/**
+ * Selects the character scanner to use on the current platform. This is the Java 17 version of the class, which
+ * always selects the {@link ScalarCharScanner}. The library is packaged as a multi-release JAR, which contains a
+ * Java 21 version of this class that selects a vectorized scanner when the {@code jdk.incubator.vector} module
+ * is available.
+ */
+final class CharScanners {
+
+    private static final CharScanner SCANNER = ScalarCharScanner.INSTANCE;
+
+    private CharScanners() {
+    }
+
+    /**
+     * Obtains the character scanner for the current platform.
+     *
+     * @return Character scanner.
+     */
+    static CharScanner get() {
+        return SCANNER;
+    }
+}
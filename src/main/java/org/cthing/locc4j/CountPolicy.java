@@ -0,0 +1,297 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Determines which files are counted by a {@link FileCounter} or {@link CountingTreeWalker}, so that files that
+ * are expensive to count and meaningless to include, such as binaries, minified bundles and generated sources,
+ * can be skipped. Specify a policy using {@link FileCounter#countPolicy(CountPolicy)},
+ * {@link CountingTreeWalker#countPolicy(CountPolicy)} or {@link ArchiveCounter#countPolicy(CountPolicy)}. A newly
+ * constructed policy counts all files, and each check is enabled individually.
+ *
+ * <p>
+ * A file's size is obtained from the file system, and all other checks examine only the head of the file, which
+ * is its first {@value #HEAD_LENGTH} bytes. The head is read as part of the content that is counted, so the checks
+ * do not read the file again, and the rest of a skipped file is not read. A file that is skipped is reported with
+ * the {@link SkipReason reason} it was skipped, and is not included in the counting results. Skipped files are
+ * therefore distinct from files whose language is not recognized (see {@link CountUtils#unrecognized(java.util.Map)}).
+ * </p>
+ */
+public final class CountPolicy {
+
+    /**
+     * Reason a file was skipped rather than counted.
+     */
+    public enum SkipReason {
+        /** The file contains NUL bytes or a high proportion of control characters (see {@link #skipBinary}). */
+        BINARY,
+        /** The file is larger than the maximum size (see {@link #maxFileSize}). */
+        TOO_LARGE,
+        /** The file contains a line longer than the maximum length (see {@link #maxLineLength}). */
+        LONG_LINE,
+        /** The file contains a generated file marker (see {@link #skipGenerated}). */
+        GENERATED,
+    }
+
+    /** Number of bytes at the start of a file that are examined by the policy. */
+    public static final int HEAD_LENGTH = 8192;
+
+    /** Number of lines at the start of a file that are searched for generated file markers. */
+    public static final int MARKER_LINES = 10;
+
+    /** Percentage of control characters in the head of a file above which the file is considered binary. */
+    static final int MAX_CONTROL_PERCENT = 30;
+
+    private static final String[] DEFAULT_GENERATED_MARKERS = { "@generated", "DO NOT EDIT", "<auto-generated" };
+
+    private boolean skipBinary;
+    private long maxFileSize = Long.MAX_VALUE;
+    private boolean truncateLargeFiles;
+    private int maxLineLength = Integer.MAX_VALUE;
+    private boolean skipGenerated;
+    private byte[][] generatedMarkers;
+
+    /**
+     * Constructs a policy that counts all files.
+     */
+    public CountPolicy() {
+        this.generatedMarkers = encodeMarkers(DEFAULT_GENERATED_MARKERS);
+    }
+
+    /**
+     * Sets whether to skip binary files. A file is considered binary if its head contains a NUL byte, or if more
+     * than 30% of its head consists of control characters other than whitespace, backspace and escape. This
+     * detects binary files whose names map to a language, such as compiled files that are misnamed.
+     *
+     * @param enable {@code true} to skip binary files. The default is to count them.
+     * @return This policy.
+     */
+    public CountPolicy skipBinary(final boolean enable) {
+        this.skipBinary = enable;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of a file that is counted. Larger files are skipped, unless they are truncated (see
+     * {@link #truncateLargeFiles(boolean)}).
+     *
+     * @param size Maximum size of a file, in bytes. The default is no limit.
+     * @return This policy.
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public CountPolicy maxFileSize(final long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Maximum file size must not be negative");
+        }
+        this.maxFileSize = size;
+        return this;
+    }
+
+    /**
+     * Sets whether files larger than the maximum size are counted up to the maximum size rather than skipped.
+     * A truncated file is counted up to the end of the last complete line within the maximum size, or within 2GB
+     * if that is smaller.
+     *
+     * @param enable {@code true} to count the beginning of files larger than the maximum size or {@code false}
+     *      to skip those files. The default is to skip them.
+     * @return This policy.
+     */
+    public CountPolicy truncateLargeFiles(final boolean enable) {
+        this.truncateLargeFiles = enable;
+        return this;
+    }
+
+    /**
+     * Sets the maximum length of a line in a file that is counted. A file whose head contains a longer line is
+     * skipped. This detects minified files, such as JavaScript and CSS bundles, which consist of few lines that are
+     * very long. Because only the head of the file is examined, the length must be less than
+     * {@value #HEAD_LENGTH}.
+     *
+     * @param length Maximum number of bytes in a line, excluding its line terminator. The default is no limit.
+     * @return This policy.
+     * @throws IllegalArgumentException if the length is less than 1 or not less than {@value #HEAD_LENGTH}
+     */
+    public CountPolicy maxLineLength(final int length) {
+        if (length < 1 || length >= HEAD_LENGTH) {
+            throw new IllegalArgumentException("Maximum line length must be between 1 and " + (HEAD_LENGTH - 1));
+        }
+        this.maxLineLength = length;
+        return this;
+    }
+
+    /**
+     * Sets whether to skip generated files. A file is considered generated if one of the generated file markers
+     * appears within its first {@value #MARKER_LINES} lines (see {@link #generatedMarkers(String...)}).
+     *
+     * @param enable {@code true} to skip generated files. The default is to count them.
+     * @return This policy.
+     */
+    public CountPolicy skipGenerated(final boolean enable) {
+        this.skipGenerated = enable;
+        return this;
+    }
+
+    /**
+     * Sets the markers that identify a generated file. Markers are matched ignoring the case of ASCII letters.
+     *
+     * @param markers Text whose presence near the start of a file indicates that the file is generated. The
+     *      default markers are "@generated", "DO NOT EDIT" and "&lt;auto-generated".
+     * @return This policy.
+     * @throws IllegalArgumentException if a marker is empty
+     */
+    public CountPolicy generatedMarkers(final String... markers) {
+        for (final String marker : markers) {
+            if (marker.isEmpty()) {
+                throw new IllegalArgumentException("Generated file markers must not be empty");
+            }
+        }
+        this.generatedMarkers = encodeMarkers(markers);
+        return this;
+    }
+
+    /**
+     * Indicates whether the policy examines the head of a file.
+     *
+     * @return {@code true} if the head of a file must be provided to {@link #examine(long, ByteBuffer)}.
+     */
+    boolean examinesContent() {
+        return this.skipBinary || this.maxLineLength != Integer.MAX_VALUE || this.skipGenerated;
+    }
+
+    /**
+     * Obtains the maximum size of a file that is counted without truncation.
+     *
+     * @return Maximum size of a file, in bytes, or {@link Long#MAX_VALUE} if there is no limit.
+     */
+    long getMaxFileSize() {
+        return this.maxFileSize;
+    }
+
+    /**
+     * Obtains the number of bytes of a file that are counted.
+     *
+     * @param size Size of the file
+     * @return Number of bytes of the file to count before considering line boundaries. This is less than the size
+     *      of the file if the file is to be truncated.
+     */
+    long countedSize(final long size) {
+        return (this.truncateLargeFiles && size > this.maxFileSize) ? Math.min(this.maxFileSize, Integer.MAX_VALUE)
+                                                                    : size;
+    }
+
+    /**
+     * Determines whether a file is to be skipped.
+     *
+     * @param size Size of the file
+     * @param head Content at the start of the file. The bytes from the position to the limit of the buffer are
+     *      examined, up to a maximum of {@value #HEAD_LENGTH} bytes. The position of the buffer is not changed.
+     * @return Reason the file is to be skipped, or {@code null} if the file is to be counted.
+     */
+    @Nullable
+    SkipReason examine(final long size, final ByteBuffer head) {
+        if (size > this.maxFileSize && !this.truncateLargeFiles) {
+            return SkipReason.TOO_LARGE;
+        }
+
+        final int start = head.position();
+        final int end = Math.min(head.limit(), start + HEAD_LENGTH);
+        if (this.skipBinary && isBinary(head, start, end)) {
+            return SkipReason.BINARY;
+        }
+        if (this.maxLineLength != Integer.MAX_VALUE && hasLongLine(head, start, end)) {
+            return SkipReason.LONG_LINE;
+        }
+        if (this.skipGenerated && isGenerated(head, start, end)) {
+            return SkipReason.GENERATED;
+        }
+        return null;
+    }
+
+    private static boolean isBinary(final ByteBuffer head, final int start, final int end) {
+        int controlCount = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = head.get(i);
+            if (b == 0) {
+                return true;
+            }
+            if (b > 0 && b < ' ' && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != '\b' && b != 0x1B) {
+                controlCount++;
+            }
+        }
+        return controlCount * 100L > (end - start) * (long)MAX_CONTROL_PERCENT;
+    }
+
+    private boolean hasLongLine(final ByteBuffer head, final int start, final int end) {
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            final byte b = head.get(i);
+            if (b == '\n' || b == '\r') {
+                if (i - lineStart > this.maxLineLength) {
+                    return true;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return end - lineStart > this.maxLineLength;
+    }
+
+    private boolean isGenerated(final ByteBuffer head, final int start, final int end) {
+        int lines = 0;
+        for (int i = start; i < end && lines < MARKER_LINES; i++) {
+            final byte b = head.get(i);
+            if (b == '\n') {
+                lines++;
+                continue;
+            }
+            for (final byte[] marker : this.generatedMarkers) {
+                if (matches(head, i, end, marker)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(final ByteBuffer head, final int index, final int end, final byte[] marker) {
+        if (end - index < marker.length) {
+            return false;
+        }
+        for (int i = 0; i < marker.length; i++) {
+            byte b = head.get(index + i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != marker[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[][] encodeMarkers(final String[] markers) {
+        final byte[][] encoded = new byte[markers.length][];
+        for (int i = 0; i < markers.length; i++) {
+            // Only ASCII letters are lowercased, so that the encoded marker can be compared byte by byte
+            encoded[i] = lowercaseAscii(markers[i]).getBytes(StandardCharsets.UTF_8);
+        }
+        return encoded;
+    }
+
+    private static String lowercaseAscii(final String marker) {
+        final StringBuilder builder = new StringBuilder(marker.length());
+        for (int i = 0; i < marker.length(); i++) {
+            final char ch = marker.charAt(i);
+            builder.append((ch >= 'A' && ch <= 'Z') ? Character.toLowerCase(ch) : ch);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Compact store for the line counts of a large number of files. Rather than a map entry, a language map and a
+ * {@link Counts} object for every file, the results are held in columns of primitive arrays:
+ *
+ * <ul>
+ *     <li>A path table, in which each file is held as the identifier of its directory and its file name. Each
+ *         directory is held once and shared by all the files in it. An open addressing hash table of file
+ *         identifiers, keyed on the directory identifier and file name, finds a file in constant time on
+ *         average.</li>
+ *     <li>Entry columns holding the language ordinal and the code, comment and blank line counts of each language
+ *         in each file. The entries are held in the order of the files, and the entries of a file are found from
+ *         the index of its first entry.</li>
+ * </ul>
+ *
+ * <p>
+ * The {@link CountUtils} methods that accept a {@code CountResults} (e.g. {@link CountUtils#byLanguage(CountResults)})
+ * scan the columns directly. For compatibility with code that expects the map returned by
+ * {@link CountingTreeWalker#count()}, {@link #asMap()} provides a read-only map view of the results.
+ * </p>
+ *
+ * <p>
+ * Results are added using {@link #add(Path, Map)}, for example by {@link CountingTreeWalker#countResults()} or by
+ * passing {@code results::add} as a listener. Instances of this class are not thread safe.
+ * </p>
+ */
+public final class CountResults {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Language[] LANGUAGES = Language.values();
+
+    /** Number of files. */
+    int numFiles;
+
+    /** Identifier of the directory of each file, indexed by file identifier. */
+    int[] fileDirectories;
+
+    /** File name of each file, indexed by file identifier. */
+    String[] fileNames;
+
+    /**
+     * Open addressing hash table, with linear probing, of file identifiers keyed on the directory identifier and
+     * file name. Each slot holds the file identifier plus one, so that zero marks an empty slot. The length is a
+     * power of two and is kept at least twice the number of files.
+     */
+    int[] fileTable;
+
+    /** Index of the first entry of each file, indexed by file identifier, followed by the number of entries. */
+    int[] entryStarts;
+
+    /** Number of entries. */
+    int numEntries;
+
+    /** Language ordinal of each entry. */
+    int[] languages;
+
+    /** Number of lines of code of each entry. */
+    int[] codeLines;
+
+    /** Number of comment lines of each entry. */
+    int[] commentLines;
+
+    /** Number of blank lines of each entry. */
+    int[] blankLines;
+
+    private final List<Path> directories;
+    private final Map<Path, Integer> directoryIds;
+
+    /**
+     * Constructs an empty store.
+     */
+    public CountResults() {
+        this.directories = new ArrayList<>();
+        this.directoryIds = new HashMap<>();
+        this.fileDirectories = new int[INITIAL_CAPACITY];
+        this.fileNames = new String[INITIAL_CAPACITY];
+        this.fileTable = new int[INITIAL_CAPACITY * 2];
+        this.entryStarts = new int[INITIAL_CAPACITY + 1];
+        this.languages = new int[INITIAL_CAPACITY];
+        this.codeLines = new int[INITIAL_CAPACITY];
+        this.commentLines = new int[INITIAL_CAPACITY];
+        this.blankLines = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates a store containing the specified counts.
+     *
+     * @param counts Line counts for each language in individual files (e.g. as returned by
+     *      {@link CountingTreeWalker#count()})
+     * @return Store containing the counts.
+     */
+    public static CountResults of(final Map<Path, Map<Language, Counts>> counts) {
+        final CountResults results = new CountResults();
+        for (final Map.Entry<Path, Map<Language, Counts>> entry : counts.entrySet()) {
+            results.add(entry.getKey(), entry.getValue());
+        }
+        return results;
+    }
+
+    /**
+     * Adds the counts for a file. Each file must be added only once.
+     *
+     * @param file File that was counted
+     * @param counts Line counts for each language in the file. If the language of the file cannot be determined,
+     *      the map is empty.
+     * @throws IllegalArgumentException if the path does not name a file or the file has already been added
+     */
+    public void add(final Path file, final Map<Language, Counts> counts) {
+        final Path fileName = file.getFileName();
+        if (fileName == null) {
+            throw new IllegalArgumentException("Not a file: " + file);
+        }
+        final Path directory = directory(file);
+        final String name = fileName.toString();
+        final Integer existingId = this.directoryIds.get(directory);
+        if (existingId != null && this.fileTable[slot(existingId, name)] != 0) {
+            throw new IllegalArgumentException("File already added: " + file);
+        }
+
+        if (this.numFiles == this.fileNames.length) {
+            final int capacity = this.numFiles * 2;
+            this.fileDirectories = Arrays.copyOf(this.fileDirectories, capacity);
+            this.fileNames = Arrays.copyOf(this.fileNames, capacity);
+            this.entryStarts = Arrays.copyOf(this.entryStarts, capacity + 1);
+        }
+        final int required = this.numEntries + counts.size();
+        if (required > this.languages.length) {
+            final int capacity = Math.max(required, this.languages.length * 2);
+            this.languages = Arrays.copyOf(this.languages, capacity);
+            this.codeLines = Arrays.copyOf(this.codeLines, capacity);
+            this.commentLines = Arrays.copyOf(this.commentLines, capacity);
+            this.blankLines = Arrays.copyOf(this.blankLines, capacity);
+        }
+
+        final int dirId;
+        if (existingId == null) {
+            dirId = this.directories.size();
+            this.directories.add(directory);
+            this.directoryIds.put(directory, dirId);
+        } else {
+            dirId = existingId;
+        }
+        if ((this.numFiles + 1) * 2 > this.fileTable.length) {
+            rehash(this.fileTable.length * 2);
+        }
+        this.fileTable[slot(dirId, name)] = this.numFiles + 1;
+        this.fileDirectories[this.numFiles] = dirId;
+        this.fileNames[this.numFiles] = name;
+        for (final Map.Entry<Language, Counts> entry : counts.entrySet()) {
+            final Counts entryCounts = entry.getValue();
+            this.languages[this.numEntries] = entry.getKey().ordinal();
+            this.codeLines[this.numEntries] = entryCounts.codeLines;
+            this.commentLines[this.numEntries] = entryCounts.commentLines;
+            this.blankLines[this.numEntries] = entryCounts.blankLines;
+            this.numEntries++;
+        }
+        this.numFiles++;
+        this.entryStarts[this.numFiles] = this.numEntries;
+    }
+
+    /**
+     * Obtains the number of files in the store.
+     *
+     * @return Number of files.
+     */
+    public int size() {
+        return this.numFiles;
+    }
+
+    /**
+     * Obtains a read-only map view of the results, in the form returned by {@link CountingTreeWalker#count()}.
+     * The paths and language maps are created as they are obtained from the view, so the view is compatible with
+     * code that expects a map but does not have the compactness of the store. Looking up a file in the view
+     * uses the hash table of the store. The view reflects files that are added to the store after it is obtained.
+     *
+     * @return Map view of the line counts for each file.
+     */
+    public Map<Path, Map<Language, Counts>> asMap() {
+        return new MapView();
+    }
+
+    /**
+     * Obtains the path of the specified file.
+     *
+     * @param id Identifier of the file
+     * @return Path of the file.
+     */
+    Path file(final int id) {
+        return this.directories.get(this.fileDirectories[id]).resolve(this.fileNames[id]);
+    }
+
+    /**
+     * Obtains the line counts for each language in the specified file.
+     *
+     * @param id Identifier of the file
+     * @return Line counts for each language in the file, which is empty if the file was not recognized.
+     */
+    Map<Language, Counts> counts(final int id) {
+        final int start = this.entryStarts[id];
+        final int end = this.entryStarts[id + 1];
+        if (start == end) {
+            return Map.of();
+        }
+        final Map<Language, Counts> langMap = new EnumMap<>(Language.class);
+        for (int i = start; i < end; i++) {
+            langMap.put(LANGUAGES[this.languages[i]],
+                        new Counts(this.codeLines[i], this.commentLines[i], this.blankLines[i]));
+        }
+        return Collections.unmodifiableMap(langMap);
+    }
+
+    /**
+     * Finds the identifier of the specified file.
+     *
+     * @param file File to find
+     * @return Identifier of the file, or -1 if the file is not in the store.
+     */
+    int indexOf(final Path file) {
+        final Path fileName = file.getFileName();
+        if (fileName == null) {
+            return -1;
+        }
+        final Integer directoryId = this.directoryIds.get(directory(file));
+        return (directoryId == null) ? -1 : this.fileTable[slot(directoryId, fileName.toString())] - 1;
+    }
+
+    /**
+     * Finds the slot of the hash table that holds the specified file or, if the file is not in the store, the
+     * empty slot at which it would be inserted.
+     *
+     * @param dirId Identifier of the directory containing the file
+     * @param name File name of the file
+     * @return Index of the slot in the hash table.
+     */
+    private int slot(final int dirId, final String name) {
+        final int mask = this.fileTable.length - 1;
+        int index = hash(dirId, name.hashCode()) & mask;
+        while (true) {
+            final int entry = this.fileTable[index];
+            if (entry == 0 || (this.fileDirectories[entry - 1] == dirId && this.fileNames[entry - 1].equals(name))) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Rebuilds the hash table with the specified number of slots.
+     *
+     * @param capacity Number of slots, which must be a power of two larger than twice the number of files
+     */
+    private void rehash(final int capacity) {
+        final int mask = capacity - 1;
+        final int[] table = new int[capacity];
+        for (int id = 0; id < this.numFiles; id++) {
+            int index = hash(this.fileDirectories[id], this.fileNames[id].hashCode()) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = id + 1;
+        }
+        this.fileTable = table;
+    }
+
+    /**
+     * Combines the directory identifier and file name hash code of a file, spreading the bits so that the low
+     * bits used to index the hash table depend on all of them.
+     *
+     * @param dirId Identifier of the directory containing the file
+     * @param nameHash Hash code of the file name
+     * @return Hash code of the file.
+     */
+    private static int hash(final int dirId, final int nameHash) {
+        final int h = dirId * 0x9E3779B9 + nameHash;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Obtains the directory containing the specified file.
+     *
+     * @param file File whose directory is to be obtained
+     * @return Directory containing the file. A file without a parent is in the empty path.
+     */
+    private static Path directory(final Path file) {
+        final Path parent = file.getParent();
+        return (parent == null) ? file.getFileSystem().getPath("") : parent;
+    }
+
+    /**
+     * Read-only map view of the results.
+     */
+    private final class MapView extends AbstractMap<Path, Map<Language, Counts>> {
+
+        @Override
+        public int size() {
+            return CountResults.this.numFiles;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return key instanceof Path path && indexOf(path) >= 0;
+        }
+
+        @Override
+        @Nullable
+        public Map<Language, Counts> get(final Object key) {
+            if (key instanceof Path path) {
+                final int id = indexOf(path);
+                if (id >= 0) {
+                    return counts(id);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Entry<Path, Map<Language, Counts>>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Path, Map<Language, Counts>>> iterator() {
+                    return new Iterator<>() {
+                        private int id;
+
+                        @Override
+                        public boolean hasNext() {
+                            return this.id < CountResults.this.numFiles;
+                        }
+
+                        @Override
+                        public Entry<Path, Map<Language, Counts>> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final int current = this.id++;
+                            return new SimpleImmutableEntry<>(file(current), counts(current));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return CountResults.this.numFiles;
+                }
+            };
+        }
+    }
+}
@@ -8,6 +8,7 @@ package org.cthing.locc4j;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -22,6 +23,8 @@ import org.cthing.annotations.NoCoverageGenerated;
 @SuppressWarnings("Convert2streamapi")
 public final class CountUtils {
 
+    private static final Language[] LANGUAGES = Language.values();
+
     @NoCoverageGenerated
     private CountUtils() {
     }
@@ -134,4 +137,115 @@ public final class CountUtils {
         }
         return s;
     }
+
+    /**
+     * Calculates the line counts for each language in the specified results.
+     *
+     * @param results Line counts for each language in individual files
+     * @return Line counts for each language in the specified results
+     */
+    public static Map<Language, Counts> byLanguage(final CountResults results) {
+        final int numLanguages = LANGUAGES.length;
+        final int[] code = new int[numLanguages];
+        final int[] comment = new int[numLanguages];
+        final int[] blank = new int[numLanguages];
+        final boolean[] present = new boolean[numLanguages];
+        for (int i = 0; i < results.numEntries; i++) {
+            final int language = results.languages[i];
+            code[language] += results.codeLines[i];
+            comment[language] += results.commentLines[i];
+            blank[language] += results.blankLines[i];
+            present[language] = true;
+        }
+
+        final Map<Language, Counts> langMap = new EnumMap<>(Language.class);
+        for (int language = 0; language < numLanguages; language++) {
+            if (present[language]) {
+                langMap.put(LANGUAGES[language], new Counts(code[language], comment[language], blank[language]));
+            }
+        }
+        return Collections.unmodifiableMap(langMap);
+    }
+
+    /**
+     * Calculates the line counts for each file in the specified results.
+     *
+     * @param results Line counts for each language in individual files
+     * @return Line counts for each file regardless of language
+     */
+    public static Map<Path, Counts> byFile(final CountResults results) {
+        final Map<Path, Counts> fileMap = new HashMap<>();
+        for (int id = 0; id < results.numFiles; id++) {
+            final int start = results.entryStarts[id];
+            final int end = results.entryStarts[id + 1];
+            if (start < end) {
+                int code = 0;
+                int comment = 0;
+                int blank = 0;
+                for (int i = start; i < end; i++) {
+                    code += results.codeLines[i];
+                    comment += results.commentLines[i];
+                    blank += results.blankLines[i];
+                }
+                fileMap.put(results.file(id), new Counts(code, comment, blank));
+            }
+        }
+        return Collections.unmodifiableMap(fileMap);
+    }
+
+    /**
+     * Obtains the languages in the specified results.
+     *
+     * @param results Line counts for each language in the specified files
+     * @return All languages in the specified results
+     */
+    public static Set<Language> languages(final CountResults results) {
+        final boolean[] present = new boolean[LANGUAGES.length];
+        for (int i = 0; i < results.numEntries; i++) {
+            present[results.languages[i]] = true;
+        }
+
+        final Set<Language> langs = EnumSet.noneOf(Language.class);
+        for (int language = 0; language < present.length; language++) {
+            if (present[language]) {
+                langs.add(LANGUAGES[language]);
+            }
+        }
+        return Collections.unmodifiableSet(langs);
+    }
+
+    /**
+     * Obtains the files that were not recognized and therefore produced no counts.
+     *
+     * @param results Line counts for each language in the specified files
+     * @return Files that were not recognized. If the primary language of a file cannot be determined or
+     *      is not supported by this library, the file has no language entries.
+     */
+    public static Set<Path> unrecognized(final CountResults results) {
+        final Set<Path> unrecog = new HashSet<>();
+        for (int id = 0; id < results.numFiles; id++) {
+            if (results.entryStarts[id] == results.entryStarts[id + 1]) {
+                unrecog.add(results.file(id));
+            }
+        }
+        return Collections.unmodifiableSet(unrecog);
+    }
+
+    /**
+     * Calculates the total line count based on the specified results.
+     *
+     * @param results Line counts for each language in the specified files
+     * @return Total line count for all files and languages.
+     */
+    public static Counts total(final CountResults results) {
+        int code = 0;
+        int comment = 0;
+        int blank = 0;
+        for (int i = 0; i < results.numEntries; i++) {
+            code += results.codeLines[i];
+            comment += results.commentLines[i];
+            blank += results.blankLines[i];
+        }
+        return new Counts(code, comment, blank);
+    }
 }
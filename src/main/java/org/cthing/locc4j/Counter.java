@@ -9,13 +9,18 @@ import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Pattern;
 
 import org.cthing.annotations.AccessForTesting;
 import org.jspecify.annotations.Nullable;
@@ -33,7 +38,9 @@ import static org.cthing.locc4j.Counter.QuoteType.VERBATIM;
 
 
 /**
- * Counts lines in the specified character data according to the specified language.
+ * Counts lines in the specified character data according to the specified language. A counter can be reused to
+ * count any number of inputs because its parsing state is reset at the start of each count. A counter is not
+ * thread safe.
  */
 public class Counter {
 
@@ -69,15 +76,97 @@ public class Counter {
         @Nullable
         CharSequence quote;
         QuoteType quoteType = NORMAL;
-        final LinkedList<CharSequence> commentStack = new LinkedList<>();
 
         /**
-         * Resets the state to its initial setting.
+         * Identifiers of the open multiline comment delimiters, innermost last. Only the first
+         * {@link #maxCommentDepth} comments are recorded. Comments opened beyond that depth are only counted
+         * by {@link #commentDepth} and are assumed to close with the same delimiter as the deepest recorded
+         * comment.
+         */
+        int[] commentStack = new int[INITIAL_COMMENT_STACK_CAPACITY];
+        int commentDepth;
+        int maxCommentDepth = DEFAULT_MAX_COMMENT_DEPTH;
+
+        /**
+         * Indicates whether a multiline comment is open.
+         *
+         * @return {@code true} if within a multiline comment.
+         */
+        boolean inComment() {
+            return this.commentDepth > 0;
+        }
+
+        /**
+         * Obtains the innermost open multiline comment.
+         *
+         * @return Delimiter identifier of the innermost open multiline comment or
+         *      {@link DelimiterAutomaton#NO_MATCH} if not within a multiline comment.
+         */
+        int currentComment() {
+            return (this.commentDepth == 0)
+                   ? DelimiterAutomaton.NO_MATCH
+                   : this.commentStack[Math.min(this.commentDepth, this.maxCommentDepth) - 1];
+        }
+
+        /**
+         * Records the opening of a multiline comment. The stack is grown as needed up to the maximum comment
+         * depth.
+         *
+         * @param delimId Delimiter identifier of the multiline comment
+         */
+        void pushComment(final int delimId) {
+            if (this.commentDepth < this.maxCommentDepth) {
+                if (this.commentDepth == this.commentStack.length) {
+                    this.commentStack = Arrays.copyOf(this.commentStack,
+                                                      Math.min(this.commentStack.length * 2, this.maxCommentDepth));
+                }
+                this.commentStack[this.commentDepth] = delimId;
+            }
+            this.commentDepth++;
+        }
+
+        /**
+         * Records the closing of the innermost multiline comment.
+         */
+        void popComment() {
+            this.commentDepth--;
+        }
+
+        /**
+         * Resets the state to its initial setting. The comment stack storage is retained for reuse.
          */
         void reset() {
             this.quote = null;
             this.quoteType = NORMAL;
-            this.commentStack.clear();
+            this.commentDepth = 0;
+        }
+
+        /**
+         * Captures the state so that counting can later resume from it.
+         *
+         * @return Immutable copy of the state.
+         */
+        SpeculativeCount.EntryState save() {
+            final CharSequence openQuote = this.quote;
+            return new SpeculativeCount.EntryState((openQuote == null) ? null : openQuote.toString(),
+                                                   this.quoteType, this.commentDepth,
+                                                   Arrays.copyOf(this.commentStack,
+                                                                 Math.min(this.commentDepth, this.maxCommentDepth)));
+        }
+
+        /**
+         * Sets the state to a previously captured state.
+         *
+         * @param saved State captured using {@link #save()}
+         */
+        void restore(final SpeculativeCount.EntryState saved) {
+            this.quote = saved.quote();
+            this.quoteType = saved.quoteType();
+            this.commentDepth = 0;
+            for (final int delimId : saved.comments()) {
+                pushComment(delimId);
+            }
+            this.commentDepth = saved.depth();
         }
     }
 
@@ -99,14 +188,31 @@ public class Counter {
         }
     }
 
+    static final int DEFAULT_MAX_COMMENT_DEPTH = 256;
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
     private static final JsonPointer JUPYTER_LANGUAGE_PTR = JsonPointer.compile("/metadata/kernelspec/language");
     private static final JsonPointer JUPYTER_EXTENSION_PTR = JsonPointer.compile("/metadata/language_info/file_extension");
 
-    private static final int COPY_BUFSIZE = 8192;
+    private static final int INITIAL_COMMENT_STACK_CAPACITY = 8;
+    private static final int NEED_MORE_DATA = -1;
 
     private final Language language;
+    private final DelimiterAutomaton delimiters;
+    private final AsciiSet interestingChars;
+    private final boolean countBytes;
+    private final boolean trimLines;
     private final State state;
     private boolean countDocStrings = true;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int parallelism = 1;
+    @Nullable
+    private LanguageRegistry languageRegistry;
+    @Nullable
+    private LineMap lineMap;
+    @Nullable
+    private LineMap recordedLines;
+    private int lineNumber;
 
     /**
      * Constructs a counter for the specified language.
@@ -126,7 +232,76 @@ public class Counter {
     @AccessForTesting
     Counter(final Language language, final State state) {
         this.language = language;
+        this.delimiters = language.delimiterAutomaton;
+        this.interestingChars = language.interestingCharacters;
         this.state = state;
+
+        // UTF-8 encoded data can be counted without decoding it if every delimiter is ASCII. Jupyter notebooks
+        // and languages with embedded languages require character data.
+        this.countBytes = language != Language.Jupyter
+                && language.getEmbedSyntax() == null
+                && this.delimiters.isAscii();
+
+        // Languages such as FORTRAN treat column positions as significant. For example, in legacy FORTRAN,
+        // a "C" in the first column signifies a comment line. Therefore, do not trim lines for languages
+        // where columns are significant.
+        this.trimLines = !language.isColumnSignificant();
+    }
+
+    /**
+     * Obtains the language counted by this counter.
+     *
+     * @return Language counted by this counter.
+     */
+    Language getLanguage() {
+        return this.language;
+    }
+
+    /**
+     * Indicates whether this counter counts UTF-8 encoded bytes directly rather than decoding them into characters.
+     *
+     * @return {@code true} if bytes are counted without decoding them.
+     */
+    boolean isCountBytes() {
+        return this.countBytes;
+    }
+
+    /**
+     * Obtains the number of characters or bytes read at a time when counting a stream or channel.
+     *
+     * @return Initial size of the buffer used to read the text.
+     */
+    int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Indicates whether documentation strings are counted as comments.
+     *
+     * @return {@code true} if documentation strings are counted as comments.
+     */
+    boolean isCountDocStrings() {
+        return this.countDocStrings;
+    }
+
+    /**
+     * Obtains the maximum depth of nested multiline comments that are tracked individually.
+     *
+     * @return Maximum number of nested multiline comments tracked.
+     */
+    int getMaxCommentDepth() {
+        return this.state.maxCommentDepth;
+    }
+
+    /**
+     * Obtains the registry used to determine the languages of embedded content.
+     *
+     * @return Registry used to determine the languages of embedded content, or {@code null} if the registry of
+     *      the static lookup methods of {@link Language} is used.
+     */
+    @Nullable
+    LanguageRegistry getLanguageRegistry() {
+        return this.languageRegistry;
     }
 
     /**
@@ -142,15 +317,225 @@ public class Counter {
     }
 
     /**
-     * Performs the counting of lines in the input stream.
+     * Sets the maximum depth of nested multiline comments that are tracked individually. Comments nested more
+     * deeply are still counted but are assumed to end with the same delimiter as the deepest tracked comment.
+     * This bounds the memory used for pathological input containing a very large number of nested comment
+     * start delimiters.
+     *
+     * @param depth Maximum number of nested multiline comments to track. The default is 256.
+     * @return This counter.
+     * @throws IllegalArgumentException if the depth is less than 1
+     */
+    public Counter maxCommentDepth(final int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Maximum comment depth must be at least 1");
+        }
+        this.state.maxCommentDepth = depth;
+        return this;
+    }
+
+    /**
+     * Sets the registry used to determine the languages of embedded content that are identified by MIME type
+     * (e.g. the type of an HTML script) or by file extension (e.g. the language of a Jupyter notebook). This
+     * allows the counter to use the same mappings as the counting job that determined the language of the file
+     * (see {@link FileCounter#languageRegistry(LanguageRegistry)}).
+     *
+     * @param registry Registry used to determine the languages of embedded content, or {@code null} to use the
+     *      registry of the static lookup methods of {@link Language} at the time the text is counted (see
+     *      {@link LanguageRegistry#current()}). The default is to use the registry of the static lookup methods.
+     * @return This counter.
+     */
+    public Counter languageRegistry(@Nullable final LanguageRegistry registry) {
+        this.languageRegistry = registry;
+        return this;
+    }
+
+    /**
+     * Sets a map in which to record the type and language of each line as it is counted. The map is cleared at the
+     * start of each count, and the lines are recorded in the same pass as they are counted. Because the map is
+     * updated by each count, a map should only be used by one counter at a time.
+     *
+     * @param map Map in which to record the counted lines or {@code null} to not record them. By default, the
+     *      lines are not recorded.
+     * @return This counter.
+     */
+    public Counter lineMap(@Nullable final LineMap map) {
+        this.lineMap = map;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads on which to count a single large input. A byte array or buffer of at least
+     * {@value SpeculativeCount#MIN_LENGTH} bytes is split at line boundaries into chunks that are counted
+     * concurrently (see {@link SpeculativeCount}). Because the parsing state at the start of a chunk is not known
+     * until the preceding chunks have been counted, each chunk is counted for every state in which a chunk can
+     * commonly start, and the results are then joined in order. The counts are identical to counting the input
+     * sequentially. This trades additional total work for lower latency, so it is worthwhile only for very large
+     * files when cores would otherwise be idle. Inputs are counted sequentially if their language embeds other
+     * languages or has non-ASCII delimiters, or if lines are being recorded (see {@link #lineMap(LineMap)}).
+     *
+     * @param threads Number of threads on which to count a large input, or 1 to count on the calling thread. The
+     *      default is to count on the calling thread.
+     * @return This counter.
+     * @throws IllegalArgumentException if the number of threads is less than 1 or greater than
+     *      {@value FileCounter#MAX_PARALLELISM}
+     */
+    public Counter parallelism(final int threads) {
+        if (threads < 1 || threads > FileCounter.MAX_PARALLELISM) {
+            throw new IllegalArgumentException("Parallelism must be between 1 and " + FileCounter.MAX_PARALLELISM);
+        }
+        this.parallelism = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of characters or bytes read at a time when counting a stream or channel.
+     *
+     * @param size Initial size of the buffer used to read the text
+     * @return This counter.
+     */
+    @AccessForTesting
+    Counter chunkSize(final int size) {
+        this.chunkSize = size;
+        return this;
+    }
+
+    /**
+     * Performs the counting of lines in the input stream. The stream must provide UTF-8 encoded text. The stream is
+     * read and counted in chunks (see {@link #count(ReadableByteChannel)}).
      *
      * @param inputStream Stream providing the text to be counted. The stream will not be closed.
      * @return Map of the languages in the data and their line counts
      * @throws IOException if there was a problem counting the lines.
      */
-    @SuppressWarnings("NestedAssignment")
     public Map<Language, Counts> count(final InputStream inputStream) throws IOException {
-        return count(toCharArray(inputStream));
+        return count(Channels.newChannel(inputStream));
+    }
+
+    /**
+     * Performs the counting of lines in the channel. The channel must provide UTF-8 encoded text and must be in
+     * blocking mode. The text is read and counted in fixed size chunks, so that the memory used is bounded by the
+     * chunk size rather than by the amount of text. The parsing state (e.g. an open string or nested comments)
+     * carries over from one chunk to the next. A line longer than a chunk, or content in an embedded language whose
+     * end has not yet been read, is retained until it can be counted. If all the delimiters of the language are
+     * ASCII and the language does not embed other languages, the bytes are counted directly without decoding them
+     * into characters. Jupyter notebooks are read in full because they must be parsed as JSON.
+     *
+     * @param channel Channel providing the text to be counted. The channel will not be closed.
+     * @return Map of the languages in the data and their line counts
+     * @throws IOException if there was a problem counting the lines.
+     */
+    public Map<Language, Counts> count(final ReadableByteChannel channel) throws IOException {
+        if (this.language == Language.Jupyter) {
+            return count(Channels.newInputStream(channel).readAllBytes());
+        }
+        if (!this.countBytes) {
+            return count(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        }
+
+        final Map<Language, Counts> languageMap = new EnumMap<>(Language.class);
+        count(AbstractTextWindow.of(channel, this.chunkSize), languageMap);
+        return Collections.unmodifiableMap(languageMap);
+    }
+
+    /**
+     * Performs the counting of lines in the character stream. The stream is read and counted in fixed size chunks
+     * (see {@link #count(ReadableByteChannel)}).
+     *
+     * @param reader Stream providing the text to be counted. The stream will not be closed.
+     * @return Map of the languages in the data and their line counts
+     * @throws IOException if there was a problem counting the lines.
+     */
+    public Map<Language, Counts> count(final Reader reader) throws IOException {
+        final Map<Language, Counts> languageMap = new EnumMap<>(Language.class);
+        if (this.language == Language.Jupyter) {
+            final CharArrayWriter writer = new CharArrayWriter();
+            reader.transferTo(writer);
+            count(new CharData(writer.toCharArray()), languageMap);
+        } else {
+            count(AbstractTextWindow.of(reader, this.chunkSize), languageMap);
+        }
+        return Collections.unmodifiableMap(languageMap);
+    }
+
+    /**
+     * Performs the counting of lines in the specified UTF-8 encoded bytes. If all the delimiters of the language
+     * are ASCII and the language does not embed other languages, the bytes are counted directly without decoding
+     * them into characters. Otherwise, the bytes are decoded before counting.
+     *
+     * @param bytes UTF-8 encoded text to be counted
+     * @return Map of the languages in the data and their line counts
+     * @throws IOException if there was a problem counting the lines.
+     */
+    public Map<Language, Counts> count(final byte[] bytes) throws IOException {
+        return count(bytes, bytes.length);
+    }
+
+    /**
+     * Performs the counting of lines in the specified number of UTF-8 encoded bytes at the start of the specified
+     * array. If the bytes must be decoded (see {@link #count(byte[])}), they are decoded in a single pass into a
+     * character array drawn from the current thread's {@link BufferPool}, which is returned to the pool once the
+     * counting is complete.
+     *
+     * @param bytes Array whose initial bytes are the UTF-8 encoded text to be counted
+     * @param length Number of bytes to count
+     * @return Map of the languages in the data and their line counts
+     * @throws IOException if there was a problem counting the lines.
+     */
+    Map<Language, Counts> count(final byte[] bytes, final int length) throws IOException {
+        if (isCountInParallel(length)) {
+            return new SpeculativeCount(this, this.parallelism).count(ByteBuffer.wrap(bytes, 0, length));
+        }
+
+        final Map<Language, Counts> languageMap = new EnumMap<>(Language.class);
+        if (this.countBytes) {
+            count(new ByteData(bytes, 0, length), languageMap);
+        } else {
+            // A UTF-8 encoded character is never decoded into more characters than it has bytes.
+            final BufferPool pool = BufferPool.get();
+            final char[] chars = pool.acquireChars(length);
+            try {
+                final CharsetDecoder decoder = pool.decoder();
+                final CharBuffer decoded = CharBuffer.wrap(chars);
+                decoder.decode(ByteBuffer.wrap(bytes, 0, length), decoded, true);
+                decoder.flush(decoded);
+                count(new CharData(chars, 0, decoded.position()), languageMap);
+            } finally {
+                pool.release(chars);
+            }
+        }
+        return Collections.unmodifiableMap(languageMap);
+    }
+
+    /**
+     * Performs the counting of lines in the UTF-8 encoded bytes remaining in the specified buffer, such as a memory
+     * mapped file. The bytes are copied from the buffer and counted in chunks (see
+     * {@link #count(ReadableByteChannel)}), so that a direct or mapped buffer is never copied to the heap in full.
+     *
+     * @param buffer Buffer containing the UTF-8 encoded text to be counted between its position and its limit. The
+     *      position of the buffer is advanced to its limit.
+     * @return Map of the languages in the data and their line counts
+     * @throws IOException if there was a problem counting the lines.
+     */
+    public Map<Language, Counts> count(final ByteBuffer buffer) throws IOException {
+        if (isCountInParallel(buffer.remaining())) {
+            final Map<Language, Counts> languageMap = new SpeculativeCount(this, this.parallelism).count(buffer);
+            buffer.position(buffer.limit());
+            return languageMap;
+        }
+        return count(new ByteBufferChannel(buffer));
+    }
+
+    /**
+     * Determines whether an input of the specified length is split into chunks that are counted in parallel (see
+     * {@link #parallelism(int)}).
+     *
+     * @param length Number of bytes in the input
+     * @return {@code true} if the input is counted in parallel.
+     */
+    private boolean isCountInParallel(final int length) {
+        return this.parallelism > 1 && this.countBytes && this.lineMap == null
+                && length >= SpeculativeCount.MIN_LENGTH;
     }
 
     /**
@@ -178,67 +563,319 @@ public class Counter {
     }
 
     /**
-     * Creates a new counter with the same configuration as this counter.
+     * Starts counting text that is provided in pieces as it becomes available, such as text arriving through a
+     * pipe. The text is counted as it is fed to the session, so that it need not be collected first. The session
+     * counts using a copy of this counter's configuration and its own parsing state, so this counter can continue
+     * to be used, including to start other sessions.
      *
-     * @param lang Language for the counter
-     * @return Newly created counter
+     * @return Session to which the text to be counted is fed.
      */
-    private Counter newCounter(final Language lang) {
-        return new Counter(lang).countDocStrings(this.countDocStrings);
+    public CountingSession newSession() {
+        final Counter counter = new Counter(this.language).countDocStrings(this.countDocStrings)
+                                                          .maxCommentDepth(this.state.maxCommentDepth)
+                                                          .languageRegistry(this.languageRegistry);
+        counter.chunkSize = this.chunkSize;
+        counter.lineMap = this.lineMap;
+        counter.startCount();
+        return new CountingSession(counter);
     }
 
     /**
-     * Performs the counting of lines in the specified data. Counts will be added to the specified counts object.
-     * Note that the counts are added to any existing counts in the specified counts object.
+     * Counts the specified data as the specified language using a counter with the same configuration as this
+     * counter. The counter is drawn from the current thread's {@link CounterPool} and returned to it once the
+     * counting is complete.
      *
+     * @param lang Language of the data
      * @param data Text to be counted
      * @param languageCounts Map to collect the line counts for all counted languages.
+     * @param lines Map in which to record the counted lines as a run of embedded content, or {@code null} to not
+     *      record them
+     * @param firstLine Line number of the first line of the data in the line map
      * @throws IOException if there was a problem counting the lines.
      */
-    private void count(final CharData data, final Map<Language, Counts> languageCounts) throws IOException {
+    private void countEmbedded(final Language lang, final AbstractTextData data,
+                               final Map<Language, Counts> languageCounts, @Nullable final LineMap lines,
+                               final int firstLine) throws IOException {
+        final CounterPool pool = CounterPool.get();
+        final Counter counter = pool.acquire(lang, this.countDocStrings, this.state.maxCommentDepth,
+                                             this.languageRegistry);
+        final int run = (lines == null) ? -1 : lines.startRun(lang, firstLine);
+        try {
+            counter.state.reset();
+            counter.recordedLines = lines;
+            counter.lineNumber = firstLine;
+            counter.countText(data, languageCounts);
+        } finally {
+            counter.recordedLines = null;
+            pool.release(counter);
+        }
+        if (lines != null) {
+            lines.endRun(run);
+        }
+    }
+
+    /**
+     * Prepares the counter to count new text by resetting its parsing state and clearing the line map, if any.
+     */
+    void startCount() {
         this.state.reset();
+        this.recordedLines = this.lineMap;
+        this.lineNumber = 0;
+        if (this.lineMap != null) {
+            this.lineMap.clear(this.language);
+        }
+    }
 
+    /**
+     * Performs the counting of lines in the specified data. Counts will be added to the specified counts object.
+     * Note that the counts are added to any existing counts in the specified counts object. Lines are processed
+     * as regions of the data so that, apart from embedded languages, no objects are allocated per line or per
+     * character.
+     *
+     * @param data Text to be counted
+     * @param languageCounts Map to collect the line counts for all counted languages.
+     * @throws IOException if there was a problem counting the lines.
+     */
+    void count(final AbstractTextData data, final Map<Language, Counts> languageCounts) throws IOException {
+        startCount();
+        countText(data, languageCounts);
+    }
+
+    /**
+     * Performs the counting of lines in the specified data using the current parsing state. Counts will be added to
+     * the specified counts object.
+     *
+     * @param data Text to be counted
+     * @param languageCounts Map to collect the line counts for all counted languages.
+     * @throws IOException if there was a problem counting the lines.
+     */
+    private void countText(final AbstractTextData data, final Map<Language, Counts> languageCounts)
+            throws IOException {
         if (this.language == Language.Jupyter) {
             countJupyter(data, languageCounts);
             return;
         }
 
         final Counts counts = languageCounts.computeIfAbsent(this.language, lang -> new Counts());
-        CharData.LineIterator lineIter = data.lineIterator();
+        final int length = data.length();
+
+        int nextLineStart = 0;
+        while (nextLineStart < length) {
+            nextLineStart = countLine(data, nextLineStart, length, false, counts, languageCounts);
+        }
+    }
 
-        while (lineIter.hasNext()) {
-            CharData line = lineIter.next();
+    /**
+     * Counts the lines in a chunk of byte data starting from the current parsing state, which may have been set
+     * using {@link #restoreState(SpeculativeCount.EntryState)}. The parsing state following the chunk can be
+     * obtained using {@link #saveState()}.
+     *
+     * @param data Chunk of text to be counted, which must start at the start of a line
+     * @return Line counts for the chunk.
+     * @throws IOException if there was a problem counting the lines.
+     */
+    Counts countChunk(final AbstractTextData data) throws IOException {
+        final Counts counts = new Counts();
+        final Map<Language, Counts> languageCounts = new EnumMap<>(Language.class);
+        final int length = data.length();
+
+        int nextLineStart = 0;
+        while (nextLineStart < length) {
+            nextLineStart = countLine(data, nextLineStart, length, false, counts, languageCounts);
+        }
+        return counts;
+    }
 
-            // Languages such as FORTRAN treat column positions as significant. For example, in legacy FORTRAN,
-            // a "C" in the first column signifies a comment line. Therefore, do not trim lines for languages
-            // where columns are significant.
-            if (!this.language.isColumnSignificant()) {
-                line = line.trim();
-            }
+    /**
+     * Captures the current parsing state.
+     *
+     * @return Immutable copy of the parsing state.
+     */
+    SpeculativeCount.EntryState saveState() {
+        return this.state.save();
+    }
 
-            if (parseSingleLine(line, counts)) {
-                continue;
+    /**
+     * Sets the parsing state to a previously captured state, so that counting resumes from it.
+     *
+     * @param saved Parsing state to resume from
+     */
+    void restoreState(final SpeculativeCount.EntryState saved) {
+        this.state.restore(saved);
+    }
+
+    /**
+     * Performs the counting of lines in the text read into the specified window. Complete lines are counted as
+     * the text is read, and the counted text is discarded from the window.
+     *
+     * @param window Window onto the text to be counted
+     * @param languageCounts Map to collect the line counts for all counted languages.
+     * @throws IOException if there was a problem reading the text or counting the lines.
+     */
+    private void count(final AbstractTextWindow window, final Map<Language, Counts> languageCounts)
+            throws IOException {
+        startCount();
+
+        final Counts counts = languageCounts.computeIfAbsent(this.language, lang -> new Counts());
+
+        while (window.fill()) {
+            countCompleteLines(window, counts, languageCounts);
+        }
+    }
+
+    /**
+     * Counts the complete lines currently in the specified window and discards them from the window. Lines are
+     * counted using the current parsing state, so that the state carries over from the text previously counted.
+     * If the end of the text has not been reached, a line that starts embedded content whose end is not yet in
+     * the window is left in the window along with the lines following it.
+     *
+     * @param window Window onto the text to be counted
+     * @param counts Line counts for the language of this counter
+     * @param languageCounts Map to collect the line counts for all counted languages.
+     * @return Number of positions counted and discarded from the window.
+     * @throws IOException if there was a problem counting the lines.
+     */
+    int countCompleteLines(final AbstractTextWindow window, final Counts counts,
+                           final Map<Language, Counts> languageCounts) throws IOException {
+        final AbstractTextData data = window.data();
+        final int limit = window.completeLinesEnd();
+        final boolean moreData = !window.isEof();
+
+        int nextLineStart = 0;
+        while (nextLineStart < limit) {
+            final int lineStart = countLine(data, nextLineStart, limit, moreData, counts, languageCounts);
+            if (lineStart == NEED_MORE_DATA) {
+                break;
             }
+            nextLineStart = lineStart;
+        }
 
-            final boolean startedInComments = !this.state.commentStack.isEmpty()
-                    || (this.countDocStrings && this.state.quote != null && this.state.quoteType == DOC);
+        window.discard(nextLineStart);
+        return nextLineStart;
+    }
 
-            final Embedding.Embedded embedded = performMultiLineAnalysis(data, lineIter.getStart(),
-                                                                         lineIter.getEnd(), languageCounts);
+    /**
+     * Counts the line starting at the specified position in the data. Counts will be added to the specified counts
+     * objects. If the line starts content in an embedded language, the embedded content is counted as well.
+     *
+     * @param data Text to be counted
+     * @param lineStart Start of the line in the data (inclusive)
+     * @param limit Position following the last complete line in the data
+     * @param moreData {@code true} if more text may follow the data
+     * @param counts Line counts for the language of this counter
+     * @param languageCounts Map to collect the line counts for all counted languages.
+     * @return Position in the data at which to continue counting. Returns {@link #NEED_MORE_DATA}, without
+     *      counting the line, if the line starts embedded content whose end is not in the data.
+     * @throws IOException if there was a problem counting the lines.
+     */
+    private int countLine(final AbstractTextData data, final int lineStart, final int limit, final boolean moreData,
+                          final Counts counts, final Map<Language, Counts> languageCounts) throws IOException {
+        final int lineEnd = data.findLineEnd(lineStart);
+
+        int start = lineStart;
+        int end = lineEnd;
+        if (this.trimLines) {
+            start = data.trimStart(lineStart, lineEnd);
+            end = data.trimEnd(start, lineEnd);
+        }
 
-            if (embedded != null) {
-                counts.codeLines += embedded.getAdditionalCodeLines();
+        if (parseSingleLine(data, start, end, counts)) {
+            return nextLine(data, lineEnd);
+        }
 
-                lineIter = data.lineIterator(embedded.getCodeEnd());
-                continue;
+        // Embedded content is found before the parsing state is changed, so that the line can be counted again
+        // once more data is available. Byte data is only counted for languages without embedded languages.
+        Embedding.Embedded embedded = null;
+        if (data instanceof CharData chars) {
+            embedded = Embedding.find(this.language, chars, lineStart, lineEnd, lookupRegistry());
+            if (moreData && Embedding.isIncomplete(this.language, chars, lineStart, lineEnd, limit, embedded)) {
+                return NEED_MORE_DATA;
+            }
+        }
+
+        final boolean startedInComments = this.state.inComment()
+                || (this.countDocStrings && this.state.quote != null && this.state.quoteType == DOC);
+
+        if (performMultiLineAnalysis(data, lineStart, lineEnd, embedded, languageCounts)) {
+            //noinspection DataFlowIssue
+            final int additionalCodeLines = embedded.getAdditionalCodeLines();
+            counts.codeLines += additionalCodeLines;
+            final int codeEnd = embedded.getCodeEnd();
+            final LineMap lines = this.recordedLines;
+            if (lines != null) {
+                recordAdditionalLines(lines, (CharData)data, lineStart, codeEnd, additionalCodeLines);
             }
+            return codeEnd;
+        }
+
+        if (isComment(data, start, end, startedInComments)) {
+            counts.commentLines++;
+            recordLine(LineMap.LineType.COMMENT);
+        } else {
+            counts.codeLines++;
+            recordLine(LineMap.LineType.CODE);
+        }
+        return nextLine(data, lineEnd);
+    }
 
-            if (isComment(line, startedInComments)) {
-                counts.commentLines++;
-            } else {
-                counts.codeLines++;
+    /**
+     * Records the additional code lines of embedded content in the line map and advances the current line number
+     * to the line containing the end of the embedded content. The first additional line is the line starting the
+     * embedding (e.g. an HTML script tag or a Markdown code fence). Any other additional lines end the embedding
+     * (e.g. a closing Markdown code fence), and are therefore the last lines of the embedded content.
+     *
+     * @param lines Map in which the lines are being recorded
+     * @param data Text being counted
+     * @param lineStart Start of the line starting the embedding
+     * @param codeEnd Position following the embedded content
+     * @param additionalCodeLines Number of additional code lines of the embedded content
+     */
+    private void recordAdditionalLines(final LineMap lines, final CharData data, final int lineStart,
+                                       final int codeEnd, final int additionalCodeLines) {
+        if (additionalCodeLines > 0) {
+            lines.set(this.lineNumber, LineMap.LineType.CODE);
+            final int lastLine = this.lineNumber + data.countNewlines(lineStart, Math.max(lineStart, codeEnd - 1));
+            for (int i = 1; i < additionalCodeLines; i++) {
+                lines.set(lastLine - i + 1, LineMap.LineType.CODE);
             }
         }
+        this.lineNumber += data.countNewlines(lineStart, codeEnd);
+    }
+
+    /**
+     * Records the type of the current line in the line map, if lines are being recorded.
+     *
+     * @param type Type of the current line
+     */
+    private void recordLine(final LineMap.LineType type) {
+        if (this.recordedLines != null) {
+            this.recordedLines.set(this.lineNumber, type);
+        }
+    }
+
+    /**
+     * Advances the current line number past the line ending at the specified position, if lines are being
+     * recorded.
+     *
+     * @param data Text being counted
+     * @param lineEnd Position following the end of the current line
+     * @return The end of the current line, which is the start of the next line.
+     */
+    private int nextLine(final AbstractTextData data, final int lineEnd) {
+        if (this.recordedLines != null && lineEnd > 0 && data.charAt(lineEnd - 1) == '\n') {
+            this.lineNumber++;
+        }
+        return lineEnd;
+    }
+
+    /**
+     * Obtains the registry with which to look up the languages of embedded content.
+     *
+     * @return Registry given to this counter, or the registry of the static lookup methods of {@link Language}
+     *      if none was given.
+     */
+    private LanguageRegistry lookupRegistry() {
+        return (this.languageRegistry == null) ? LanguageRegistry.current() : this.languageRegistry;
     }
 
     /**
@@ -248,7 +885,8 @@ public class Counter {
      * @param languageCounts Map to collect the line counts for all counted languages.
      * @throws IOException if there was a problem reading the data
      */
-    private void countJupyter(final CharData data, final Map<Language, Counts> languageCounts) throws IOException {
+    private void countJupyter(final AbstractTextData data, final Map<Language, Counts> languageCounts)
+            throws IOException {
         final ObjectMapper mapper = ObjectMapperProvider.getInstance();
         final JsonNode jupyterNode = mapper.readTree(data.createReader());
 
@@ -262,7 +900,7 @@ public class Counter {
             final JsonNode extensionNode = jupyterNode.at(JUPYTER_EXTENSION_PTR);
             if (!extensionNode.isMissingNode()) {
                 final String extension = extensionNode.asText();
-                languageOpt = Language.fromFileExtension(extension);
+                languageOpt = lookupRegistry().fromFileExtension(extension);
             }
         }
         final Language lang = languageOpt.orElse(Language.Python);
@@ -278,16 +916,14 @@ public class Counter {
                         final StringBuilder source = new StringBuilder();
                         sourceNode.forEach(node -> source.append(node.asText()));
                         switch (cellType) {
-                            case "markdown": {
-                                final Counter counter = newCounter(Language.Markdown);
-                                counter.count(new CharData(source.toString().toCharArray()), languageCounts);
+                            case "markdown":
+                                countEmbedded(Language.Markdown, new CharData(source.toString().toCharArray()),
+                                              languageCounts, null, 0);
                                 break;
-                            }
-                            case "code": {
-                                final Counter counter = newCounter(lang);
-                                counter.count(new CharData(source.toString().toCharArray()), languageCounts);
+                            case "code":
+                                countEmbedded(lang, new CharData(source.toString().toCharArray()), languageCounts,
+                                              null, 0);
                                 break;
-                            }
                             default:
                                 break;
                         }
@@ -299,7 +935,36 @@ public class Counter {
         final Counts markdownCounts = languageCounts.getOrDefault(Language.Markdown, new Counts());
         final Counts langCounts = languageCounts.getOrDefault(lang, new Counts());
         final Counts jupyterCounts = languageCounts.computeIfAbsent(Language.Jupyter, l -> new Counts());
-        jupyterCounts.codeLines = data.countLines() - (markdownCounts.getTotalLines() + langCounts.getTotalLines());
+        final int numLines = data.countLines();
+        jupyterCounts.codeLines = numLines - (markdownCounts.getTotalLines() + langCounts.getTotalLines());
+
+        // The cells are JSON strings whose lines do not correspond to lines of the notebook file.
+        if (this.recordedLines != null) {
+            for (int i = 0; i < numLines; i++) {
+                this.recordedLines.set(i, LineMap.LineType.CODE);
+            }
+        }
+    }
+
+    /**
+     * Determines the line number of the first line of the specified embedded content, if lines are being
+     * recorded.
+     *
+     * @param lines Character data containing the embedded content
+     * @param start Start of the current line in the character data
+     * @param embedded Embedded content starting in the current line
+     * @return Line number of the first line of the embedded content, or 0 if lines are not being recorded.
+     */
+    private int embeddedLine(final CharData lines, final int start, final Embedding.Embedded embedded) {
+        if (this.recordedLines == null) {
+            return 0;
+        }
+
+        // Embedded content is usually a region of the data. Otherwise (e.g. a Rust doc comment with the comment
+        // delimiters removed), the lines of the content correspond to the lines starting with the embedding.
+        final int codeStart = embedded.getCode().positionIn(lines);
+        final int position = (codeStart < 0) ? embedded.getEmbeddedStart() : codeStart;
+        return this.lineNumber + lines.countNewlines(start, position);
     }
 
     /**
@@ -313,25 +978,56 @@ public class Counter {
      * @throws IOException If there was a problem processing the character data.
      */
     @AccessForTesting
-    Embedding.@Nullable Embedded performMultiLineAnalysis(final CharData lines, final int start, final int end,
-                                                          final Map<Language, Counts> languageCounts)
+    Embedding.@Nullable Embedded performMultiLineAnalysis(final AbstractTextData lines, final int start,
+                                                          final int end, final Map<Language, Counts> languageCounts)
             throws IOException {
-        final Embedding.Embedded embedded = Embedding.find(this.language, lines, start, end);
+        // Byte data is only counted for languages without embedded languages.
+        final Embedding.Embedded embedded = (lines instanceof CharData chars)
+                                            ? Embedding.find(this.language, chars, start, end, lookupRegistry())
+                                            : null;
+        return performMultiLineAnalysis(lines, start, end, embedded, languageCounts) ? embedded : null;
+    }
+
+    /**
+     * Processes the specified character data to handle multiline constructs and embedded languages.
+     *
+     * @param lines Character data to analyze
+     * @param start Location in the data to start analyzing (inclusive)
+     * @param end Location in the data to end analyzing (exclusive)
+     * @param embedded Embedded language content found in the region, if any
+     * @param languageCounts Line counts
+     * @return {@code true} if the embedded language content was counted.
+     * @throws IOException If there was a problem processing the character data.
+     */
+    private boolean performMultiLineAnalysis(final AbstractTextData lines, final int start, final int end,
+                                     final Embedding.@Nullable Embedded embedded,
+                                     final Map<Language, Counts> languageCounts) throws IOException {
+        final int embeddedStart = (embedded == null) ? -1 : embedded.getEmbeddedStart();
 
+        final int length = lines.length();
         int skip = 0;
         for (int i = start; i < end; i += skip + 1, skip = 0) {
             // Numbering is referenced in unit test cases.
 
+            // 0) Characters that cannot start a delimiter, escape sequence or important syntax cannot change
+            //    the parsing state, so skip directly to the next character that can. Stop at the start of an
+            //    embedded language regardless.
+            final int limit = (i <= embeddedStart && embeddedStart < end) ? embeddedStart : end;
+            final int candidate = lines.indexOfAny(this.interestingChars, i, limit);
+            i = (candidate < 0) ? limit : candidate;
+            if (i == end) {
+                break;
+            }
+
             // 1) The data is empty or whitespace.
-            final CharData window = lines.subSequence(i);
-            if (window.isBlank()) {
+            if (lines.isBlank(i, length)) {
                 break;
             }
 
             // 2) Quote end delimiter
-            int endOfQuote = parseEndOfQuote(window);
+            int endOfQuote = parseEndOfQuote(lines, i);
             if (endOfQuote == 0) {
-                endOfQuote = parseEndOfMultiLine(window);
+                endOfQuote = parseEndOfMultiLine(lines, i);
             }
             if (endOfQuote > 0) {
                 skip = endOfQuote - 1;
@@ -342,48 +1038,51 @@ public class Counter {
             }
 
             // 3) Embedded language
-            if (embedded != null && this.state.commentStack.isEmpty()) {
-                final int embeddedStart = embedded.getEmbeddedStart();
+            if (embedded != null && !this.state.inComment()) {
                 if (i == embeddedStart) {
-                    final Counter counter = newCounter(embedded.getLanguage());
-                    counter.count(embedded.getCode(), languageCounts);
-                    return embedded;
+                    countEmbedded(embedded.getLanguage(), embedded.getCode(), languageCounts, this.recordedLines,
+                                  embeddedLine((CharData)lines, start, embedded));
+                    return true;
                 }
             }
 
-            // 4) Quote start delimiter
-            int quoteOrMultiLine = parseQuote(window);
-            if (quoteOrMultiLine == 0) {
-                quoteOrMultiLine = parseMultiLineComment(window);
-            }
-
-            if (quoteOrMultiLine > 0) {
-                skip = quoteOrMultiLine - 1;
+            // 4) Quote or multiline comment start delimiter. A single walk of the delimiter automaton determines
+            //    which delimiter, if any, starts at this position. Quotes cannot start within a comment.
+            final int kindMask = this.state.inComment()
+                                 ? DelimiterAutomaton.MULTI_LINE_COMMENT_MASK
+                                 : DelimiterAutomaton.ALL_MASK;
+            final int delimId = this.delimiters.match(lines, i, kindMask);
+            if (delimId == DelimiterAutomaton.NO_MATCH) {
                 continue;
             }
 
             // 5) Single line comment
-            if (isLineComment(window)) {
+            if (this.delimiters.kind(delimId) == DelimiterAutomaton.LINE_COMMENT) {
                 break;
             }
+
+            skip = startDelimiter(delimId) - 1;
         }
 
         // 6) Nothing of interest
-        return null;
+        return false;
     }
 
     /**
      * Determines whether the specified line is a comment.
      *
-     * @param line Character data to test
+     * @param data Character data containing the line
+     * @param start Index of the start of the line in the data (inclusive)
+     * @param end Index of the end of the line in the data (exclusive)
      * @param startedInComments Indicates whether already in a multiline comment
      * @return {@code true} if the line is a comment.
      */
     @AccessForTesting
-    boolean isComment(final CharData line, final boolean startedInComments) {
+    boolean isComment(final AbstractTextData data, final int start, final int end, final boolean startedInComments) {
         // Numbering is referenced in unit test cases.
 
-        final CharData trimmed = line.trim();
+        final int trimmedStart = data.trimStart(start, end);
+        final int trimmedEnd = data.trimEnd(trimmedStart, end);
 
         // 1) If in a doc string, count it as a comment if configured to do so
         if (this.state.quote != null) {
@@ -391,15 +1090,27 @@ public class Counter {
         }
 
         // 2) If in a multiline comment and the line contains the doc string end delimiter
-        if (this.language.isDocQuote(bd -> line.contains(bd.end())) && startedInComments) {
-            return true;
+        if (startedInComments) {
+            for (int id = this.delimiters.firstId(DelimiterAutomaton.DOC_QUOTE);
+                 id < this.delimiters.endId(DelimiterAutomaton.DOC_QUOTE); id++) {
+                if (data.contains(this.delimiters.end(id), start, end)) {
+                    return true;
+                }
+            }
         }
 
         // 3) If this is a line comment or the line contains a single line comment using multiline syntax
-        if (this.language.isLineComment(trimmed::startsWith)
-                || this.language.isAnyMultiLineComment(bd -> trimmed.startsWith(bd.start()) && trimmed.endsWith(bd.end()))) {
+        if (this.delimiters.match(data, trimmedStart, trimmedEnd, DelimiterAutomaton.LINE_COMMENT_MASK)
+                != DelimiterAutomaton.NO_MATCH) {
             return true;
         }
+        for (int id = this.delimiters.firstId(DelimiterAutomaton.MULTI_LINE_COMMENT);
+             id < this.delimiters.endId(DelimiterAutomaton.MULTI_LINE_COMMENT); id++) {
+            if (data.startsWith(this.delimiters.start(id), trimmedStart, trimmedEnd)
+                    && data.endsWith(this.delimiters.end(id), trimmedStart, trimmedEnd)) {
+                return true;
+            }
+        }
 
         // 4) If in a multiline comment
         if (startedInComments) {
@@ -407,58 +1118,77 @@ public class Counter {
         }
 
         // 5) If there is an open multiline comment
-        final CharSequence currentComment = this.state.commentStack.peek();
-        if (currentComment == null) {
+        final int currentComment = this.state.currentComment();
+        if (currentComment == DelimiterAutomaton.NO_MATCH) {
             return false;
         }
 
-        // 6) If the line starts a multiline comment
-        return this.language.isAnyMultiLineComment(bd -> bd.end().contentEquals(currentComment) && trimmed.startsWith(bd.start()));
+        // 6) If the line starts a multiline comment ending with the same delimiter as the open comment
+        final int currentEndGroup = this.delimiters.endGroup(currentComment);
+        for (int id = this.delimiters.firstId(DelimiterAutomaton.MULTI_LINE_COMMENT);
+             id < this.delimiters.endId(DelimiterAutomaton.MULTI_LINE_COMMENT); id++) {
+            if (this.delimiters.endGroup(id) == currentEndGroup
+                    && data.startsWith(this.delimiters.start(id), trimmedStart, trimmedEnd)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Parses the specified character data to determine whether it represents a line comment.
+     * Parses the specified character data to determine whether a line comment starts at the specified position.
      *
-     * @param window Character data to parse
-     * @return {@code true} if the specified character data represents a line comment
+     * @param data Character data to parse
+     * @param index Position in the data at which to parse
+     * @return {@code true} if a line comment starts at the specified position
      */
     @AccessForTesting
-    boolean isLineComment(final CharData window) {
-        return parsingMode() == CODE && this.language.isLineComment(window::startsWith);
+    boolean isLineComment(final AbstractTextData data, final int index) {
+        return parsingMode() == CODE
+                && this.delimiters.match(data, index, DelimiterAutomaton.LINE_COMMENT_MASK) != DelimiterAutomaton.NO_MATCH;
     }
 
     /**
-     * Attempts to count the specified character data as a line. If the line contains characters that introduce
-     * multiline constructs (e.g. strings, comments), it cannot be counted yet.
+     * Attempts to count the specified line. If the line contains characters that introduce multiline constructs
+     * (e.g. strings, comments), it cannot be counted yet.
      *
-     * @param line Character data to count
+     * @param data Character data containing the line
+     * @param start Index of the start of the line in the data (inclusive)
+     * @param end Index of the end of the line in the data (exclusive)
      * @param counts Line counts to update
      * @return {@code true} if the line could be counted.
      */
     @AccessForTesting
-    boolean parseSingleLine(final CharData line, final Counts counts) {
+    boolean parseSingleLine(final AbstractTextData data, final int start, final int end, final Counts counts) {
         // If in a string or block comment, single line parsing cannot be used.
         if (parsingMode() != CODE) {
             return false;
         }
 
         // If the line is blank, count it.
-        if (line.isBlank()) {
+        if (data.isBlank(start, end)) {
             counts.blankLines++;
+            recordLine(LineMap.LineType.BLANK);
             return true;
         }
 
         // If the line contains important syntax (e.g. a <script> tag), single line parsing cannot be used.
-        final Pattern importantSyntax = this.language.getImportantSyntax();
-        if (importantSyntax != null && line.matcher(importantSyntax).find()) {
-            return false;
+        for (int i = data.indexOfAny(this.interestingChars, start, end); i >= 0;
+             i = data.indexOfAny(this.interestingChars, i + 1, end)) {
+            if (this.delimiters.match(data, i, end, DelimiterAutomaton.IMPORTANT_SYNTAX_MASK)
+                    != DelimiterAutomaton.NO_MATCH) {
+                return false;
+            }
         }
 
         // Count the line
-        if (this.language.isLineComment(line::startsWith)) {
+        if (this.delimiters.match(data, start, end, DelimiterAutomaton.LINE_COMMENT_MASK)
+                != DelimiterAutomaton.NO_MATCH) {
             counts.commentLines++;
+            recordLine(LineMap.LineType.COMMENT);
         } else {
             counts.codeLines++;
+            recordLine(LineMap.LineType.CODE);
         }
 
         return true;
@@ -467,62 +1197,44 @@ public class Counter {
     /**
      * Parses the specified character data for the start of a quote.
      *
-     * @param window Character data to parse
+     * @param data Character data to parse
+     * @param index Position in the data at which to parse
      * @return Length of the quote start delimiter if found or 0 if not found.
      */
     @AccessForTesting
-    int parseQuote(final CharData window) {
-        if (!this.state.commentStack.isEmpty()) {
+    int parseQuote(final AbstractTextData data, final int index) {
+        if (this.state.inComment()) {
             return 0;
         }
 
-        final BlockDelimiter docDelim = this.language.findDocQuote(delim -> window.startsWith(delim.start()));
-        if (docDelim != null) {
-            this.state.quote = docDelim.end();
-            this.state.quoteType = DOC;
-            return docDelim.start().length();
-        }
-
-        final BlockDelimiter verbatimDelim = this.language.findVerbatimQuote(delim -> window.startsWith(delim.start()));
-        if (verbatimDelim != null) {
-            this.state.quote = verbatimDelim.end();
-            this.state.quoteType = VERBATIM;
-            return verbatimDelim.start().length();
-        }
-
-        final BlockDelimiter quoteDelim = this.language.findQuote(delim -> window.startsWith(delim.start()));
-        if (quoteDelim != null) {
-            this.state.quote = quoteDelim.end();
-            this.state.quoteType = NORMAL;
-            return quoteDelim.start().length();
-        }
-
-        return 0;
+        final int delimId = this.delimiters.match(data, index, DelimiterAutomaton.QUOTES_MASK);
+        return (delimId == DelimiterAutomaton.NO_MATCH) ? 0 : startDelimiter(delimId);
     }
 
     /**
      * Parses the specified character data for the end of a quote.
      *
-     * @param window Character data to parse
+     * @param data Character data to parse
+     * @param index Position in the data at which to parse
      * @return The number of characters to advance if the end of a quote has been found or escaping is being used
      *      outside a verbatim string.
      */
     @AccessForTesting
-    int parseEndOfQuote(final CharData window) {
+    int parseEndOfQuote(final AbstractTextData data, final int index) {
         //noinspection DataFlowIssue
-        if (parsingMode() == STRING && window.startsWith(this.state.quote)) {
+        if (parsingMode() == STRING && data.startsWith(this.state.quote, index)) {
             final CharSequence quote = this.state.quote;
             this.state.quote = null;
             return quote.length();
         }
 
-        if (this.state.quoteType != VERBATIM && window.startsWith("\\\\")) {
+        if (this.state.quoteType != VERBATIM && data.startsWith("\\\\", index)) {
             return 2;
         }
 
         if (this.state.quoteType != VERBATIM
-                && window.startsWith("\\")
-                && this.language.isQuote(delim -> window.subSequence(1).startsWith(delim.start()))) {
+                && data.startsWith("\\", index)
+                && this.delimiters.match(data, index + 1, DelimiterAutomaton.QUOTE_MASK) != DelimiterAutomaton.NO_MATCH) {
             // Tell the state machine to skip the next character because it has been escaped if the
             // string is not a verbatim string.
             return 2;
@@ -534,43 +1246,68 @@ public class Counter {
     /**
      * Parses the specified character data for the start of a multiline comment.
      *
-     * @param window Character data to parse
+     * @param data Character data to parse
+     * @param index Position in the data at which to parse
      * @return The length of the comment start delimiter if one is found or 0 if not found
      */
     @AccessForTesting
-    int parseMultiLineComment(final CharData window) {
+    int parseMultiLineComment(final AbstractTextData data, final int index) {
         if (this.state.quote != null) {
             return 0;
         }
 
-        final BlockDelimiter commentDelim = this.language.findAnyMultiLineComment(delim -> window.startsWith(delim.start()));
-        if (commentDelim == null) {
-            return 0;
-        }
-        if (this.state.commentStack.isEmpty()
-                || this.language.isNestable()
-                || this.language.isNestedComment(delim -> delim.equals(commentDelim))) {
-            this.state.commentStack.push(commentDelim.end());
-        }
+        final int delimId = this.delimiters.match(data, index, DelimiterAutomaton.MULTI_LINE_COMMENT_MASK);
+        return (delimId == DelimiterAutomaton.NO_MATCH) ? 0 : startDelimiter(delimId);
+    }
 
-        return commentDelim.start().length();
+    /**
+     * Updates the counting state to reflect the start of the specified quote or multiline comment delimiter.
+     *
+     * @param delimId Identifier of the quote or multiline comment delimiter in the language's delimiter automaton
+     * @return The length of the start delimiter.
+     */
+    private int startDelimiter(final int delimId) {
+        switch (this.delimiters.kind(delimId)) {
+            case DelimiterAutomaton.DOC_QUOTE -> {
+                this.state.quote = this.delimiters.end(delimId);
+                this.state.quoteType = DOC;
+            }
+            case DelimiterAutomaton.VERBATIM_QUOTE -> {
+                this.state.quote = this.delimiters.end(delimId);
+                this.state.quoteType = VERBATIM;
+            }
+            case DelimiterAutomaton.QUOTE -> {
+                this.state.quote = this.delimiters.end(delimId);
+                this.state.quoteType = NORMAL;
+            }
+            default -> {
+                if (!this.state.inComment()
+                        || this.language.isNestable()
+                        || this.delimiters.isNested(delimId)) {
+                    this.state.pushComment(delimId);
+                }
+            }
+        }
+        return this.delimiters.start(delimId).length();
     }
 
     /**
      * Parses the specified character data for the presence of a multiline comment end delimiter.
      *
-     * @param window Character data to parse
+     * @param data Character data to parse
+     * @param index Position in the data at which to parse
      * @return The length of the comment end delimiter if one is found.
      */
     @AccessForTesting
-    int parseEndOfMultiLine(final CharData window) {
-        final CharSequence endComment = this.state.commentStack.peek();
-        if (endComment == null) {
+    int parseEndOfMultiLine(final AbstractTextData data, final int index) {
+        final int currentComment = this.state.currentComment();
+        if (currentComment == DelimiterAutomaton.NO_MATCH) {
             return 0;
         }
 
-        if (window.startsWith(endComment)) {
-            this.state.commentStack.pop();
+        final String endComment = this.delimiters.end(currentComment);
+        if (data.startsWith(endComment, index)) {
+            this.state.popComment();
             return endComment.length();
         }
 
@@ -585,7 +1322,7 @@ public class Counter {
      */
     @AccessForTesting
     ParsingMode parsingMode() {
-        if (this.state.quote == null && this.state.commentStack.isEmpty()) {
+        if (this.state.quote == null && !this.state.inComment()) {
             return CODE;
         }
         if (this.state.quote != null) {
@@ -593,27 +1330,4 @@ public class Counter {
         }
         return COMMENT;
     }
-
-    /**
-     * Creates a character array from the contents of the specified input stream.
-     *
-     * @param inputStream Input stream whose contents will be read into a character array.
-     *      The stream will not be closed.
-     * @return Character array containing the contents of the specified input stream
-     * @throws IOException if there is a problem reading the specified input stream.
-     */
-    @AccessForTesting
-    @SuppressWarnings({ "NestedAssignment", "IOResourceOpenedButNotSafelyClosed" })
-    static char[] toCharArray(final InputStream inputStream) throws IOException {
-        final char[] buffer = new char[COPY_BUFSIZE];
-        final InputStreamReader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-        final CharArrayWriter writer = new CharArrayWriter();
-
-        int amount;
-        while ((amount = reader.read(buffer)) != -1) {
-            writer.write(buffer, 0, amount);
-        }
-
-        return writer.toCharArray();
-    }
 }
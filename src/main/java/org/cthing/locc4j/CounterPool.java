@@ -0,0 +1,129 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import org.cthing.annotations.AccessForTesting;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Pool of reusable counters that is confined to a single thread. Counters are kept in a free list for each
+ * language, indexed by the ordinal of the language. A counter is removed from its free list when it is acquired
+ * and returned to the list when it is released. Because an acquired counter is not in the free list, a counter
+ * for a language can be acquired while another counter for the same language is in use, as happens when counting
+ * an embedded language recursively (e.g. a Markdown code fence containing Markdown). Only a few counters are
+ * retained for each language so that the pool's memory stays bounded. Use {@link #get()} to obtain the pool for
+ * the current thread.
+ */
+final class CounterPool {
+
+    /** Maximum number of released counters retained for each language. */
+    static final int MAX_POOLED_PER_LANGUAGE = 4;
+
+    private static final ThreadLocal<CounterPool> POOLS = ThreadLocal.withInitial(CounterPool::new);
+
+    private final Counter[][] freeCounters;
+    private final int[] freeCounts;
+
+    private CounterPool() {
+        final int numLanguages = Language.values().length;
+        this.freeCounters = new Counter[numLanguages][];
+        this.freeCounts = new int[numLanguages];
+    }
+
+    /**
+     * Obtains the counter pool for the current thread.
+     *
+     * @return Counter pool confined to the current thread.
+     */
+    static CounterPool get() {
+        return POOLS.get();
+    }
+
+    /**
+     * Creates a pool that is not confined to a thread. The pool can be confined to a thread for a time using
+     * {@link #attach()}, so that a bounded number of pools can be shared by many short-lived threads (e.g. a
+     * virtual thread for each file) rather than each thread creating its own pool.
+     *
+     * @return Newly created pool.
+     */
+    static CounterPool create() {
+        return new CounterPool();
+    }
+
+    /**
+     * Confines this pool to the current thread, in place of the thread's own pool, until {@link #detach()} is
+     * called on the thread. The pool must not be attached to more than one thread at a time.
+     */
+    void attach() {
+        POOLS.set(this);
+    }
+
+    /**
+     * Ends the confinement of the pool attached to the current thread using {@link #attach()}. The thread
+     * obtains a new pool if it uses one again.
+     */
+    static void detach() {
+        POOLS.remove();
+    }
+
+    /**
+     * Obtains a counter for the specified language configured as specified. A previously released counter is
+     * reused if one is available. Otherwise, a new counter is created. The counter must be returned to the pool
+     * using {@link #release(Counter)} when it is no longer needed.
+     *
+     * @param language Language for the counter
+     * @param countDocStrings {@code true} to count documentation strings as comments
+     * @param maxCommentDepth Maximum number of nested multiline comments to track
+     * @param registry Registry used to determine the languages of embedded content, or {@code null} to use the
+     *      registry of the static lookup methods of {@link Language}
+     * @return Counter for the specified language.
+     */
+    Counter acquire(final Language language, final boolean countDocStrings, final int maxCommentDepth,
+                    @Nullable final LanguageRegistry registry) {
+        final int index = language.ordinal();
+        final int count = this.freeCounts[index];
+        final Counter counter;
+        if (count > 0) {
+            counter = this.freeCounters[index][count - 1];
+            this.freeCounters[index][count - 1] = null;
+            this.freeCounts[index] = count - 1;
+        } else {
+            counter = new Counter(language);
+        }
+        return counter.countDocStrings(countDocStrings).maxCommentDepth(maxCommentDepth).languageRegistry(registry);
+    }
+
+    /**
+     * Returns the specified counter to the pool for reuse. If the maximum number of counters is already retained
+     * for the counter's language, the counter is discarded.
+     *
+     * @param counter Counter previously obtained from this pool using
+     *      {@link #acquire(Language, boolean, int)}
+     */
+    void release(final Counter counter) {
+        final int index = counter.getLanguage().ordinal();
+        final int count = this.freeCounts[index];
+        if (count < MAX_POOLED_PER_LANGUAGE) {
+            if (this.freeCounters[index] == null) {
+                this.freeCounters[index] = new Counter[MAX_POOLED_PER_LANGUAGE];
+            }
+            this.freeCounters[index][count] = counter;
+            this.freeCounts[index] = count + 1;
+        }
+    }
+
+    /**
+     * Obtains the number of released counters retained for the specified language.
+     *
+     * @param language Language whose counters are to be counted
+     * @return Number of counters available for reuse.
+     */
+    @AccessForTesting
+    int available(final Language language) {
+        return this.freeCounts[language.ordinal()];
+    }
+}
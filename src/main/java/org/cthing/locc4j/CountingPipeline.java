@@ -0,0 +1,298 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Counts files in a pipeline of three stages, each on its own threads: a traversal thread that produces the files
+ * to count, a {@link ReadAhead} stage that reads them, and a {@link ParallelCount} stage that counts them. The
+ * traversal places files in a bounded queue, blocking when the queue is full, and the read and count stages limit
+ * the number of files they hold and the total size of the files that have been read but not counted. A slow
+ * directory listing therefore does not stop the files already found from being read and counted, and a slow file
+ * does not stop the traversal until the queue has filled.
+ *
+ * <p>
+ * The calling thread moves files from one stage to the next in the order in which they were produced, and gathers
+ * the counts. It waits only when no stage has anything to hand on, so that the results, the files reported as
+ * skipped and any failure are the same as when the files are counted sequentially.
+ * </p>
+ */
+final class CountingPipeline {
+
+    /** Maximum number of files that have been produced by the traversal but not yet submitted for reading. */
+    static final int QUEUE_SIZE = 1024;
+
+    /** Number of files per reader thread that can be read ahead of counting. */
+    static final int FILES_PER_READER = 4;
+
+    /** Marks the end of the traversal. Compared by identity, so it cannot be confused with a produced file. */
+    private static final Path END = Path.of("");
+
+    /**
+     * Produces the files to count on the traversal thread.
+     */
+    @FunctionalInterface
+    interface Traversal {
+
+        /**
+         * Produces the files to count by calling {@link CountingPipeline#emit(Path)} for each one.
+         *
+         * @throws IOException if there was a problem finding the files
+         */
+        void walk() throws IOException;
+    }
+
+    private final FileCounter counter;
+    @Nullable
+    private final Predicate<Language> filter;
+    private final int readers;
+    private final int counters;
+    private final long maxBytes;
+    private final BlockingQueue<Path> queue;
+    private volatile boolean stopped;
+    @Nullable
+    private volatile Throwable failure;
+    private long signals;
+
+    /**
+     * Constructs a pipeline.
+     *
+     * @param counter Counter whose configuration determines how files are read and counted
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @param readers Number of threads on which to read files
+     * @param counters Number of threads on which to count files
+     * @param maxBytes Maximum total size of the arrays holding files that have been read but not counted
+     */
+    CountingPipeline(final FileCounter counter, @Nullable final Predicate<Language> filter, final int readers,
+                     final int counters, final long maxBytes) {
+        this.counter = counter;
+        this.filter = filter;
+        this.readers = readers;
+        this.counters = counters;
+        this.maxBytes = maxBytes;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    }
+
+    /**
+     * Adds a file to be counted. Called on the traversal thread, which waits while the queue of files to be read is
+     * full.
+     *
+     * @param file File to count
+     * @throws IOException if counting has stopped, in which case the traversal should stop
+     */
+    void emit(final Path file) throws IOException {
+        if (this.stopped) {
+            throw new InterruptedIOException("Counting has stopped");
+        }
+        try {
+            this.queue.put(file);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to count " + file);
+        }
+        signal();
+    }
+
+    /**
+     * Counts the files produced by the specified traversal, which is run on a dedicated thread. Returns once all
+     * files have been counted, or a failure has occurred, and the traversal thread has finished.
+     *
+     * @param traversal Produces the files to count
+     * @param results Called on the calling thread with each file and its line counts, in the order in which the
+     *      files were produced, unless a file is not counted (see {@link FileCounter#count(Path, Predicate)})
+     * @throws IOException if there was a problem finding or reading the files
+     * @throws IllegalArgumentException if a file is a directory
+     */
+    void run(final Traversal traversal, final BiConsumer<Path, Map<Language, Counts>> results) throws IOException {
+        final Thread walker = new Thread(() -> walk(traversal), "locc4j-walker");
+        walker.setDaemon(true);
+
+        try (ReadAhead reads = new ReadAhead(this.counter, this.filter, this.readers,
+                                             this.readers * FILES_PER_READER, this.maxBytes);
+             ParallelCount counts = ParallelCount.afterRead(this.counter, reads, this.counters)) {
+            reads.preparedListener(this::signal);
+            counts.preparedListener(this::signal);
+            walker.start();
+
+            boolean walking = true;
+            while (walking || !reads.isEmpty() || !counts.isEmpty()) {
+                final long observed = getSignals();
+                boolean progressed = false;
+
+                while (walking && !reads.isFull()) {
+                    final Path file = this.queue.poll();
+                    if (file == null) {
+                        break;
+                    }
+                    if (file == END) {
+                        walking = false;
+                    } else {
+                        reads.submit(file);
+                    }
+                    progressed = true;
+                }
+
+                while (!counts.isFull() && reads.isNextPrepared()) {
+                    counts.submit(take(reads, counts, results));
+                    progressed = true;
+                }
+
+                while (counts.isNextPrepared()) {
+                    this.counter.countNext(counts, results);
+                    progressed = true;
+                }
+
+                if (!progressed) {
+                    awaitSignal(observed);
+                }
+            }
+
+            // A failure of the traversal is reported once the files found before it have been counted.
+            rethrowFailure();
+        } finally {
+            stop(walker);
+        }
+    }
+
+    /**
+     * Takes the next file that has been read. If the file could not be read, the files before it are counted
+     * before the failure is reported, so that failures are reported in the same order as when the files are
+     * counted sequentially.
+     *
+     * @param reads Stage that reads the files
+     * @param counts Stage that counts the files
+     * @param results Called with each file and its line counts, including the files before a failure
+     * @return Content of the next file.
+     * @throws IOException if there was a problem reading a file
+     * @throws IllegalArgumentException if a file is a directory
+     */
+    private FileContent take(final ReadAhead reads, final ParallelCount counts,
+                             final BiConsumer<Path, Map<Language, Counts>> results) throws IOException {
+        try {
+            return reads.take();
+        } catch (final IOException | RuntimeException ex) {
+            while (!counts.isEmpty()) {
+                this.counter.countNext(counts, results);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Runs the traversal on the traversal thread and marks its end in the queue.
+     *
+     * @param traversal Produces the files to count
+     */
+    private void walk(final Traversal traversal) {
+        try {
+            traversal.walk();
+        } catch (final IOException | RuntimeException | Error ex) {
+            this.failure = ex;
+        } finally {
+            if (!this.stopped) {
+                try {
+                    this.queue.put(END);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            signal();
+        }
+    }
+
+    /**
+     * Stops the traversal, if it is still running, and waits for the traversal thread to finish.
+     *
+     * @param walker Traversal thread
+     */
+    private void stop(final Thread walker) {
+        if (walker.getState() == Thread.State.NEW) {
+            return;
+        }
+
+        // The queue is cleared so that the traversal cannot be blocked adding a file.
+        this.stopped = true;
+        this.queue.clear();
+        walker.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                walker.join();
+                break;
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Throws the failure that stopped the traversal, if any.
+     *
+     * @throws IOException if there was a problem finding the files
+     */
+    private void rethrowFailure() throws IOException {
+        final Throwable cause = this.failure;
+        if (cause instanceof IOException ioe) {
+            throw ioe;
+        }
+        if (cause instanceof RuntimeException rte) {
+            throw rte;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+    }
+
+    /**
+     * Notes that a stage may be able to make progress. Called on any thread.
+     */
+    private synchronized void signal() {
+        this.signals++;
+        notifyAll();
+    }
+
+    /**
+     * Obtains the number of times progress has been signaled, which is noted before checking the stages so that a
+     * signal while checking is not missed.
+     *
+     * @return Number of signals.
+     */
+    private synchronized long getSignals() {
+        return this.signals;
+    }
+
+    /**
+     * Waits until a stage may be able to make progress.
+     *
+     * @param observed Number of signals noted before the stages were checked
+     * @throws InterruptedIOException if the wait was interrupted
+     */
+    private synchronized void awaitSignal(final long observed) throws InterruptedIOException {
+        try {
+            while (this.signals == observed) {
+                wait();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to count files");
+        }
+    }
+}
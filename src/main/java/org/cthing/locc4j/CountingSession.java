@@ -0,0 +1,253 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.cthing.locc4j.AbstractTextWindow.ByteWindow;
+import org.cthing.locc4j.AbstractTextWindow.CharWindow;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Counts lines in text that is provided in pieces as it becomes available. Obtain a session using
+ * {@link Counter#newSession()}, feed it the text using {@link #feed(char[], int, int)} or
+ * {@link #feed(byte[], int, int)}, and then call {@link #finish()} to obtain the line counts. The counts are the
+ * same as those obtained by counting all the text at once using {@link Counter#count(char[])} or
+ * {@link Counter#count(byte[])}.
+ *
+ * <p>
+ * The complete lines in each piece are counted as soon as it is fed to the session. The parsing state (e.g. an open
+ * string or nested comments) is retained between pieces, and only a partial last line, or content in an embedded
+ * language whose end has not yet been fed, is retained until more text arrives. Jupyter notebooks are retained in
+ * full and counted when the session is finished because they must be parsed as JSON.
+ * </p>
+ *
+ * <p>
+ * A session is fed either characters or UTF-8 encoded bytes, but not both. Bytes are counted without decoding
+ * them if the language permits (see {@link Counter#count(byte[])}), otherwise they are decoded as they are fed. A
+ * multibyte character may be split across pieces. A session is not thread safe, but it may be fed from different
+ * threads provided the calls are properly synchronized.
+ * </p>
+ */
+public final class CountingSession {
+
+    private static final int MAX_BYTES_PER_CHAR = 4;
+
+    private final Counter counter;
+    private final Map<Language, Counts> languageCounts;
+    private final Counts counts;
+    private final boolean buffered;
+    private final ByteBuffer partialChar;
+    @Nullable
+    private CharWindow charWindow;
+    @Nullable
+    private ByteWindow byteWindow;
+    @Nullable
+    private CharsetDecoder decoder;
+    private int retryLength;
+    private boolean finished;
+
+    /**
+     * Constructs a session that counts using the specified counter.
+     *
+     * @param counter Counter dedicated to this session
+     */
+    CountingSession(final Counter counter) {
+        this.counter = counter;
+        this.partialChar = ByteBuffer.allocate(MAX_BYTES_PER_CHAR);
+        this.languageCounts = new EnumMap<>(Language.class);
+        this.buffered = counter.getLanguage() == Language.Jupyter;
+        this.counts = this.buffered
+                      ? new Counts()
+                      : this.languageCounts.computeIfAbsent(counter.getLanguage(), lang -> new Counts());
+    }
+
+    /**
+     * Counts the specified characters, which follow any previously fed characters.
+     *
+     * @param chars Array containing the characters to be counted. The characters are copied as needed, so the
+     *      array can be reused once this method returns.
+     * @param offset Position of the first character to be counted
+     * @param length Number of characters to be counted
+     * @throws IOException if there was a problem counting the lines.
+     * @throws IndexOutOfBoundsException if the offset and length do not specify a region of the array
+     * @throws IllegalStateException if the session has been finished or has been fed bytes
+     */
+    public void feed(final char[] chars, final int offset, final int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, chars.length);
+        checkActive();
+
+        if (this.charWindow == null) {
+            if (this.byteWindow != null || this.decoder != null) {
+                throw new IllegalStateException("Cannot feed characters to a session that has been fed bytes");
+            }
+            this.charWindow = AbstractTextWindow.ofChars(this.counter.getChunkSize());
+        } else if (this.decoder != null) {
+            throw new IllegalStateException("Cannot feed characters to a session that has been fed bytes");
+        }
+
+        int start = offset;
+        int remaining = length;
+        while (remaining > 0) {
+            final int count = this.charWindow.append(chars, start, remaining);
+            start += count;
+            remaining -= count;
+            countFed(this.charWindow);
+        }
+    }
+
+    /**
+     * Counts the specified UTF-8 encoded bytes, which follow any previously fed bytes. A multibyte character may
+     * be split between this call and the next.
+     *
+     * @param bytes Array containing the UTF-8 encoded bytes to be counted. The bytes are copied as needed, so the
+     *      array can be reused once this method returns.
+     * @param offset Position of the first byte to be counted
+     * @param length Number of bytes to be counted
+     * @throws IOException if there was a problem counting the lines.
+     * @throws IndexOutOfBoundsException if the offset and length do not specify a region of the array
+     * @throws IllegalStateException if the session has been finished or has been fed characters
+     */
+    public void feed(final byte[] bytes, final int offset, final int length) throws IOException {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        checkActive();
+
+        if (this.byteWindow == null && this.decoder == null) {
+            if (this.charWindow != null) {
+                throw new IllegalStateException("Cannot feed bytes to a session that has been fed characters");
+            }
+            if (this.counter.isCountBytes()) {
+                this.byteWindow = AbstractTextWindow.ofBytes(this.counter.getChunkSize());
+            } else {
+                this.charWindow = AbstractTextWindow.ofChars(this.counter.getChunkSize());
+                this.decoder = StandardCharsets.UTF_8.newDecoder()
+                                                     .onMalformedInput(CodingErrorAction.REPLACE)
+                                                     .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+        }
+
+        final ByteWindow window = this.byteWindow;
+        if (window == null) {
+            //noinspection DataFlowIssue
+            decode(this.charWindow, this.decoder, ByteBuffer.wrap(bytes, offset, length));
+        } else {
+            int start = offset;
+            int remaining = length;
+            while (remaining > 0) {
+                final int count = window.append(bytes, start, remaining);
+                start += count;
+                remaining -= count;
+                countFed(window);
+            }
+        }
+    }
+
+    /**
+     * Counts any text that has been fed but not yet counted and ends the session. The session cannot be used
+     * once it has been finished.
+     *
+     * @return Map of the languages in the text and their line counts
+     * @throws IOException if there was a problem counting the lines.
+     * @throws IllegalStateException if the session has already been finished
+     */
+    public Map<Language, Counts> finish() throws IOException {
+        checkActive();
+        this.finished = true;
+
+        if (this.decoder != null) {
+            //noinspection DataFlowIssue
+            finishDecode(this.charWindow, this.decoder);
+        }
+
+        final AbstractTextWindow window = (this.byteWindow != null) ? this.byteWindow : this.charWindow;
+        if (this.buffered) {
+            this.counter.count((window == null) ? new CharData(new char[0]) : window.data(), this.languageCounts);
+        } else if (window != null) {
+            window.markEof();
+            this.counter.countCompleteLines(window, this.counts, this.languageCounts);
+        }
+        return Collections.unmodifiableMap(this.languageCounts);
+    }
+
+    /**
+     * Decodes the specified bytes into the specified window and counts the complete lines. Bytes at the end that
+     * form an incomplete character are retained until the following bytes are fed.
+     *
+     * @param window Window onto the decoded characters
+     * @param charDecoder Decoder for the session's bytes
+     * @param bytes UTF-8 encoded bytes to decode
+     * @throws IOException if there was a problem counting the lines.
+     */
+    private void decode(final CharWindow window, final CharsetDecoder charDecoder,
+                        final ByteBuffer bytes) throws IOException {
+        // Complete a character split from the previous bytes by adding the following bytes one at a time.
+        while (this.partialChar.position() > 0 && bytes.hasRemaining()) {
+            this.partialChar.put(bytes.get()).flip();
+            while (window.append(charDecoder, this.partialChar, false)) {
+                countFed(window);
+            }
+            this.partialChar.compact();
+        }
+
+        while (window.append(charDecoder, bytes, false)) {
+            countFed(window);
+        }
+        countFed(window);
+        this.partialChar.put(bytes);
+    }
+
+    /**
+     * Decodes any bytes retained from an incomplete character at the end of the fed bytes. Because no more bytes
+     * will be fed, the incomplete character is decoded as a replacement character.
+     *
+     * @param window Window onto the decoded characters
+     * @param charDecoder Decoder for the session's bytes
+     * @throws IOException if there was a problem counting the lines.
+     */
+    private void finishDecode(final CharWindow window, final CharsetDecoder charDecoder)
+            throws IOException {
+        this.partialChar.flip();
+        while (window.append(charDecoder, this.partialChar, true)) {
+            countFed(window);
+        }
+    }
+
+    /**
+     * Counts the complete lines in the specified window. If the window contained no lines that could be counted
+     * (e.g. a long line or embedded content whose end has not been fed), counting is not attempted again until the
+     * amount of text in the window has doubled. This avoids rescanning the same text each time a small piece is
+     * fed, so that the time taken remains proportional to the amount of text.
+     *
+     * @param window Window onto the text to count
+     * @throws IOException if there was a problem counting the lines.
+     */
+    private void countFed(final AbstractTextWindow window) throws IOException {
+        if (!this.buffered && window.length() >= this.retryLength) {
+            final int counted = this.counter.countCompleteLines(window, this.counts, this.languageCounts);
+            this.retryLength = (counted == 0) ? 2 * window.length() : 0;
+        }
+    }
+
+    /**
+     * Verifies that the session has not been finished.
+     *
+     * @throws IllegalStateException if the session has been finished
+     */
+    private void checkActive() {
+        if (this.finished) {
+            throw new IllegalStateException("Counting session has been finished");
+        }
+    }
+}
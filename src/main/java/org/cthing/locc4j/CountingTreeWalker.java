@@ -9,15 +9,21 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.cthing.filevisitor.MatchHandler;
 import org.cthing.filevisitor.MatchingTreeWalker;
+import org.jspecify.annotations.Nullable;
 
 
 /**
@@ -25,53 +31,152 @@ import org.cthing.filevisitor.MatchingTreeWalker;
  */
 public class CountingTreeWalker {
 
-    private abstract static class AbstractCountHandler implements MatchHandler {
+    private static final class CountHandler implements MatchHandler {
 
-        protected final FileCounter counter;
-        protected final Map<Path, Map<Language, Counts>> counts;
+        private final FileCounter counter;
+        @Nullable
+        private final Predicate<Language> filter;
+        private final Map<Path, Map<Language, Counts>> counts;
+        private final Map<Path, CountPolicy.SkipReason> skipped;
+        @Nullable
+        private BiConsumer<Path, CountPolicy.SkipReason> skipListener;
+        private boolean retainSkipped;
+        private BiConsumer<Path, Map<Language, Counts>> results;
+        @Nullable
+        private AbstractFileStage stage;
+        @Nullable
+        private CountingPipeline pipeline;
 
-        AbstractCountHandler() {
-            this.counter = new FileCounter();
+        CountHandler(@Nullable final Predicate<Language> filter) {
+            this.filter = filter;
             this.counts = new HashMap<>();
+            this.skipped = new HashMap<>();
+            this.results = this.counts::put;
+            this.counter = new FileCounter().skipListener(this::skip);
         }
 
         void countDocStrings(final boolean enable) {
             this.counter.countDocStrings(enable);
         }
 
-        Map<Path, Map<Language, Counts>> getCounts() {
-            return Collections.unmodifiableMap(this.counts);
+        void countPolicy(@Nullable final CountPolicy policy) {
+            this.counter.countPolicy(policy);
         }
-    }
 
-    private static final class PlainHandler extends AbstractCountHandler {
+        void skipListener(@Nullable final BiConsumer<Path, CountPolicy.SkipReason> listener) {
+            this.skipListener = listener;
+        }
 
-        @Override
-        public boolean file(final Path file, final BasicFileAttributes basicFileAttributes) throws IOException {
-            this.counts.putAll(this.counter.count(file));
-            return true;
+        void languageRegistry(@Nullable final LanguageRegistry registry) {
+            this.counter.languageRegistry(registry);
+        }
+
+        void totals(@Nullable final LanguageTotals totals) {
+            this.counter.totals(totals);
+        }
+
+        void readAhead(final int files, final long bytes) {
+            this.counter.readAhead(files, bytes);
+        }
+
+        void parallelism(final int threads) {
+            this.counter.parallelism(threads);
+        }
+
+        void virtualThreads(final int threads) {
+            this.counter.virtualThreads(threads);
         }
-    }
 
-    private static final class LanguageFilterHandler extends AbstractCountHandler {
+        void pipeline(final int readers, final int counters) {
+            this.counter.pipeline(readers, counters);
+        }
+
+        void walk(final MatchingTreeWalker walker) throws IOException {
+            walk(walker, this.counts::put, true);
+        }
+
+        void walk(final MatchingTreeWalker walker, final BiConsumer<Path, Map<Language, Counts>> fileResults,
+                  final boolean retainSkippedFiles) throws IOException {
+            this.results = fileResults;
+            this.retainSkipped = retainSkippedFiles;
 
-        private final Set<Language> languages;
+            // In a pipeline, the tree is walked on a traversal thread while the files that have been found are
+            // read and counted on the threads of the later stages.
+            final CountingPipeline countingPipeline = this.counter.newPipeline(this.filter);
+            if (countingPipeline != null) {
+                this.pipeline = countingPipeline;
+                try {
+                    countingPipeline.run(walker::walk, fileResults);
+                } finally {
+                    this.pipeline = null;
+                }
+                return;
+            }
+
+            // Files are submitted to be read ahead or counted in parallel as they are encountered, and are
+            // gathered once the maximum number of files are pending and after the walk is complete.
+            try (AbstractFileStage fileStage = this.counter.startStage(this.filter)) {
+                this.stage = fileStage;
+                walker.walk();
+                if (fileStage != null) {
+                    while (!fileStage.isEmpty()) {
+                        this.counter.countNext(fileStage, fileResults);
+                    }
+                }
+            } finally {
+                this.stage = null;
+            }
+        }
 
-        LanguageFilterHandler(final Set<Language> languages) {
-            this.languages = languages;
+        /**
+         * Reports a file skipped by the count policy to the skip listener and, if the walk retains its results,
+         * records it for {@link #getSkipped()}.
+         *
+         * @param file File that was skipped
+         * @param reason Reason the file was skipped
+         */
+        private void skip(final Path file, final CountPolicy.SkipReason reason) {
+            if (this.retainSkipped) {
+                this.skipped.put(file, reason);
+            }
+            if (this.skipListener != null) {
+                this.skipListener.accept(file, reason);
+            }
         }
 
         @Override
         public boolean file(final Path file, final BasicFileAttributes basicFileAttributes) throws IOException {
-            final Optional<Language> languageOpt = Language.fromFile(file);
-            if (languageOpt.isPresent() && this.languages.contains(languageOpt.get())) {
-                this.counts.putAll(this.counter.count(file));
+            final CountingPipeline countingPipeline = this.pipeline;
+            if (countingPipeline != null) {
+                countingPipeline.emit(file);
+                return true;
+            }
+
+            final AbstractFileStage fileStage = this.stage;
+            if (fileStage == null) {
+                final Map<Language, Counts> fileCounts = this.counter.count(file, this.filter);
+                if (fileCounts != null) {
+                    this.results.accept(file, fileCounts);
+                }
+            } else {
+                fileStage.submit(file);
+                if (fileStage.isFull()) {
+                    this.counter.countNext(fileStage, this.results);
+                }
             }
             return true;
         }
+
+        Map<Path, Map<Language, Counts>> getCounts() {
+            return Collections.unmodifiableMap(this.counts);
+        }
+
+        Map<Path, CountPolicy.SkipReason> getSkipped() {
+            return Collections.unmodifiableMap(this.skipped);
+        }
     }
 
-    private final AbstractCountHandler handler;
+    private final CountHandler handler;
     private final MatchingTreeWalker walker;
 
     /**
@@ -99,7 +204,7 @@ public class CountingTreeWalker {
      *      files and directories are considered a match.
      */
     public CountingTreeWalker(final Path start, final List<String> matchPatterns) {
-        this.handler = new PlainHandler();
+        this.handler = new CountHandler(null);
         this.walker = new MatchingTreeWalker(start, this.handler, matchPatterns);
     }
 
@@ -124,7 +229,7 @@ public class CountingTreeWalker {
      *      because certain types of file (e.g. HTML) can embed additional languages.
      */
     public CountingTreeWalker(final Path start, final Set<Language> languages) {
-        this.handler = new LanguageFilterHandler(languages);
+        this.handler = new CountHandler(languages::contains);
         this.walker = new MatchingTreeWalker(start, this.handler);
     }
 
@@ -188,6 +293,143 @@ public class CountingTreeWalker {
         return this;
     }
 
+    /**
+     * Sets how far to read ahead of counting, so that files are read while the preceding files are counted. See
+     * {@link FileCounter#readAhead(int, long)}.
+     *
+     * @param files Maximum number of files to read ahead, or 0 to read each file as it is counted. The default is
+     *      to read each file as it is counted.
+     * @param bytes Maximum total size, in bytes, of the files that have been read ahead but not yet counted
+     * @return This walker
+     * @throws IllegalArgumentException if the number of files is negative or the number of bytes is not positive
+     */
+    public CountingTreeWalker readAhead(final int files, final long bytes) {
+        this.handler.readAhead(files, bytes);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads on which to count files, so that files are counted concurrently while the tree is
+     * walked. See {@link FileCounter#parallelism(int)}. The results are the same as when files are counted on the
+     * calling thread.
+     *
+     * @param threads Number of threads on which to count files, or 1 to count files on the calling thread. The
+     *      default is to count files on the calling thread.
+     * @return This walker
+     * @throws IllegalArgumentException if the number of threads is less than 1 or greater than 256
+     */
+    public CountingTreeWalker parallelism(final int threads) {
+        this.handler.parallelism(threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of virtual threads on which to count files, so that many files on high latency storage can
+     * be read at once while the tree is walked. See {@link FileCounter#virtualThreads(int)}. Before Java 21, files
+     * are instead counted in parallel on platform threads. The results are the same as when files are counted on
+     * the calling thread.
+     *
+     * @param threads Maximum number of files to read and count concurrently on virtual threads, or 0 to not use
+     *      virtual threads. The default is to not use virtual threads.
+     * @return This walker
+     * @throws IllegalArgumentException if the number of threads is negative or greater than 65536
+     */
+    public CountingTreeWalker virtualThreads(final int threads) {
+        this.handler.virtualThreads(threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads in each stage of a pipeline, so that the tree is walked on its own thread while
+     * the files that have been found are read and counted on separate pools of threads. See
+     * {@link FileCounter#pipeline(int, int)}. The results are the same as when files are counted on the calling
+     * thread.
+     *
+     * @param readers Number of threads on which to read files, or 0 to not use a pipeline. The default is to not
+     *      use a pipeline.
+     * @param counters Number of threads on which to count files that have been read
+     * @return This walker
+     * @throws IllegalArgumentException if the number of readers is negative, or either number of threads is
+     *      greater than 256, or the number of counting threads is less than 1
+     */
+    public CountingTreeWalker pipeline(final int readers, final int counters) {
+        this.handler.pipeline(readers, counters);
+        return this;
+    }
+
+    /**
+     * Sets the policy that determines which files are counted (e.g. to skip binary and generated files). Files
+     * that are skipped are not included in the counting results. They are reported to the skip listener, if one has
+     * been set (see {@link #skipListener(BiConsumer)}), and, for the walks that retain their results, by
+     * {@link #getSkipped()}.
+     *
+     * @param policy Policy that determines which files are counted, or {@code null} to count all files. The
+     *      default is to count all files.
+     * @return This walker
+     */
+    public CountingTreeWalker countPolicy(@Nullable final CountPolicy policy) {
+        this.handler.countPolicy(policy);
+        return this;
+    }
+
+    /**
+     * Sets a listener that is called for each file that is skipped by the count policy (see
+     * {@link #countPolicy(CountPolicy)}). The listener is called on the thread that walks the tree, which for
+     * {@link #stream()} is the thread producing the stream. Unlike {@link #getSkipped()}, the listener reports the
+     * files skipped by every kind of walk, including those that do not retain their results.
+     *
+     * @param listener Called with each skipped file and the reason it was skipped, or {@code null} to not report
+     *      skipped files to a listener. The default is to not report skipped files to a listener.
+     * @return This walker
+     */
+    public CountingTreeWalker skipListener(@Nullable final BiConsumer<Path, CountPolicy.SkipReason> listener) {
+        this.handler.skipListener(listener);
+        return this;
+    }
+
+    /**
+     * Sets the registry used to determine the language of each file from its name or shebang. Walkers with
+     * different registries can count concurrently without affecting each other. See
+     * {@link FileCounter#languageRegistry(LanguageRegistry)}.
+     *
+     * @param registry Registry used to determine the language of each file, or {@code null} to use the registry
+     *      of the static lookup methods of {@link Language} (see {@link LanguageRegistry#current()}). The default
+     *      is to use the registry of the static lookup methods.
+     * @return This walker
+     */
+    public CountingTreeWalker languageRegistry(@Nullable final LanguageRegistry registry) {
+        this.handler.languageRegistry(registry);
+        return this;
+    }
+
+    /**
+     * Sets the totals to which the counts for each file are added as soon as the file has been counted. See
+     * {@link FileCounter#totals(LanguageTotals)}.
+     *
+     * @param totals Totals to which the counts for each file are added, or {@code null} to not accumulate totals.
+     *      The default is to not accumulate totals.
+     * @return This walker
+     */
+    public CountingTreeWalker totals(@Nullable final LanguageTotals totals) {
+        this.handler.totals(totals);
+        return this;
+    }
+
+    /**
+     * Obtains the files that were skipped by the count policy during the walks that retain their results,
+     * {@link #count()} and {@link #countResults()}. Files skipped by {@link #count(Consumer)}, {@link #stream()},
+     * {@link #countByLanguage()} and {@link #countTotal()} are not retained, so that memory does not grow with the
+     * number of files in the tree, and are only reported to the skip listener (see
+     * {@link #skipListener(BiConsumer)}).
+     *
+     * @return The files skipped during the walks that retain their results and the reason each was skipped.
+     *      Skipped files are not included in the results of {@link #count()}, and so are distinct from files that
+     *      were not recognized (see {@link CountUtils#unrecognized(Map)}).
+     */
+    public Map<Path, CountPolicy.SkipReason> getSkipped() {
+        return this.handler.getSkipped();
+    }
+
     /**
      * Performs the walk of the file system tree and the counting of file lines.
      *
@@ -196,7 +438,113 @@ public class CountingTreeWalker {
      * @throws IOException if a problem was encountered during the walk.
      */
     public Map<Path, Map<Language, Counts>> count() throws IOException {
-        this.walker.walk();
+        this.handler.walk(this.walker);
         return this.handler.getCounts();
     }
+
+    /**
+     * Performs the walk of the file system tree and the counting of file lines, delivering the counts for each file
+     * to the specified listener as soon as the file has been counted. Unlike {@link #count()}, the counts are not
+     * retained, so the memory used does not grow with the number of files in the tree. The listener is called on
+     * the calling thread, in the order in which the files are counted, and is given the same counts as
+     * {@link #count()} returns. Files skipped by the count policy are not retained either, and are only reported to
+     * the skip listener (see {@link #skipListener(BiConsumer)}).
+     *
+     * @param listener Called with the line counts for each file encountered on the walk. If the language of a file
+     *      cannot be determined, the listener is given an empty language map for that file.
+     * @throws IOException if a problem was encountered during the walk.
+     */
+    public void count(final Consumer<FileCount> listener) throws IOException {
+        this.handler.walk(this.walker, (file, counts) -> listener.accept(new FileCount(file, counts)), false);
+    }
+
+    /**
+     * Performs the walk of the file system tree and the counting of file lines, storing the counts for each file
+     * in a compact columnar store. The store holds the same counts as {@link #count()} returns, in much less
+     * memory, and the {@link CountUtils} methods that accept a {@link CountResults} operate on it directly.
+     *
+     * @return The line counts for each file encountered on the walk.
+     * @throws IOException if a problem was encountered during the walk.
+     */
+    public CountResults countResults() throws IOException {
+        final CountResults results = new CountResults();
+        this.handler.walk(this.walker, results::add, true);
+        return results;
+    }
+
+    /**
+     * Performs the walk of the file system tree and the counting of file lines, accumulating the line counts for
+     * each language. The counts for each file are added to the totals as soon as the file has been counted and are
+     * then discarded, so the memory used does not grow with the number of files in the tree. The result is the same
+     * as applying {@link CountUtils#byLanguage(Map)} to the results of {@link #count()}. Files skipped by the count
+     * policy are not retained either, and are only reported to the skip listener (see
+     * {@link #skipListener(BiConsumer)}).
+     *
+     * @return The line counts for each language encountered on the walk.
+     * @throws IOException if a problem was encountered during the walk.
+     */
+    public Map<Language, Counts> countByLanguage() throws IOException {
+        final Map<Language, Counts> langMap = new EnumMap<>(Language.class);
+        this.handler.walk(this.walker, (file, fileCounts) -> {
+            for (final Map.Entry<Language, Counts> entry : fileCounts.entrySet()) {
+                langMap.computeIfAbsent(entry.getKey(), l -> new Counts())
+                       .add(entry.getValue());
+            }
+        }, false);
+        return Collections.unmodifiableMap(langMap);
+    }
+
+    /**
+     * Performs the walk of the file system tree and the counting of file lines, accumulating the total line counts
+     * for all languages. The counts for each file are added to the total as soon as the file has been counted and
+     * are then discarded, so the memory used does not grow with the number of files in the tree. The result is the
+     * same as applying {@link CountUtils#total(Map)} to the results of {@link #count()}. Files skipped by the count
+     * policy are not retained either, and are only reported to the skip listener (see
+     * {@link #skipListener(BiConsumer)}).
+     *
+     * @return Total line counts for all files and languages encountered on the walk.
+     * @throws IOException if a problem was encountered during the walk.
+     */
+    public Counts countTotal() throws IOException {
+        final Counts total = new Counts();
+        this.handler.walk(this.walker, (file, fileCounts) -> {
+            for (final Counts counts : fileCounts.values()) {
+                total.add(counts);
+            }
+        }, false);
+        return total;
+    }
+
+    /**
+     * Obtains a lazily evaluated stream of the counts for each file in the file system tree. The walk starts on a
+     * separate thread when the first element is requested, and runs no more than a fixed number of files ahead of
+     * the consumer of the stream, so the memory used does not depend on the number of files in the tree. The stream
+     * contains the same counts as {@link #count()} returns, in the order in which the files are counted. Files
+     * skipped by the count policy are only reported to the skip listener (see {@link #skipListener(BiConsumer)}).
+     *
+     * <p>
+     * The stream must be closed if it is not consumed to its end, for example by a short-circuiting operation, so
+     * that the walk is stopped. Use a try-with-resources statement:
+     * </p>
+     * <pre>{@code
+     * try (Stream<FileCount> counts = walker.stream()) {
+     *     counts.filter(fileCount -> fileCount.counts().containsKey(Language.Java))
+     *           .limit(10)
+     *           .forEach(fileCount -> System.out.println(fileCount.file()));
+     * }
+     * }</pre>
+     *
+     * <p>
+     * The walker must not be used for another walk until the stream has been consumed or closed. A problem
+     * encountered during the walk is thrown by the stream as an {@link java.io.UncheckedIOException} once the
+     * counts for the files before it have been consumed.
+     * </p>
+     *
+     * @return Sequential stream of the line counts for each file encountered on the walk.
+     */
+    public Stream<FileCount> stream() {
+        final FileCountSpliterator spliterator = new FileCountSpliterator(this::count,
+                                                                          FileCountSpliterator.QUEUE_SIZE);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
 }
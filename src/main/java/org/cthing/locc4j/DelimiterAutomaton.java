@@ -0,0 +1,441 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+
+/**
+ * A compiled automaton over all the start delimiters of a language (i.e. quotes, documentation quotes, verbatim
+ * quotes, multiline comments, and line comments) and any additional syntax the language considers important
+ * (e.g. the start of an HTML script tag). Given a position in character data, a single walk of the
+ * automaton determines which delimiter, if any, starts at that position. Each delimiter is assigned an identifier
+ * which is used to obtain its kind and its start and end character sequences.
+ *
+ * <p>
+ * Identifiers are assigned in the order in which the counter tests for delimiters (documentation quotes, verbatim
+ * quotes, normal quotes, multiline comments, line comments, and then important syntax) and, within each kind, in
+ * the order the delimiters are specified for the language. Therefore, when more than one delimiter starts at a
+ * position, the delimiter with the lowest identifier is the one the counter would have selected.
+ * </p>
+ *
+ * <p>
+ * The alphabet of the automaton is compressed to the characters that actually appear in the delimiters. All other
+ * characters map to class 0, which never has a transition.
+ * </p>
+ */
+final class DelimiterAutomaton {
+
+    /** Documentation quote delimiter kind. */
+    static final int DOC_QUOTE = 0;
+    /** Verbatim quote delimiter kind. */
+    static final int VERBATIM_QUOTE = 1;
+    /** Normal quote delimiter kind. */
+    static final int QUOTE = 2;
+    /** Multiline comment delimiter kind (both normal and nested). */
+    static final int MULTI_LINE_COMMENT = 3;
+    /** Line comment delimiter kind. */
+    static final int LINE_COMMENT = 4;
+    /** Additional important syntax kind. This syntax is not a delimiter but requires multiline analysis. */
+    static final int IMPORTANT_SYNTAX = 5;
+
+    /** Mask selecting documentation, verbatim and normal quotes. */
+    static final int QUOTES_MASK = (1 << DOC_QUOTE) | (1 << VERBATIM_QUOTE) | (1 << QUOTE);
+    /** Mask selecting normal quotes. */
+    static final int QUOTE_MASK = 1 << QUOTE;
+    /** Mask selecting multiline comments. */
+    static final int MULTI_LINE_COMMENT_MASK = 1 << MULTI_LINE_COMMENT;
+    /** Mask selecting line comments. */
+    static final int LINE_COMMENT_MASK = 1 << LINE_COMMENT;
+    /** Mask selecting all delimiter kinds. */
+    static final int ALL_MASK = QUOTES_MASK | MULTI_LINE_COMMENT_MASK | LINE_COMMENT_MASK;
+    /**
+     * Mask selecting the syntax that prevents a line from being counted without multiline analysis. This is the
+     * same syntax matched by {@link Language#getImportantSyntax()}.
+     */
+    static final int IMPORTANT_SYNTAX_MASK = (1 << DOC_QUOTE) | (1 << QUOTE) | MULTI_LINE_COMMENT_MASK
+            | (1 << IMPORTANT_SYNTAX);
+
+    /** Identifier returned when no delimiter is found. */
+    static final int NO_MATCH = -1;
+
+    private static final int NUM_KINDS = 6;
+    private static final int ASCII_LIMIT = 128;
+
+    private final String[] starts;
+    private final String[] ends;
+    private final int[] kinds;
+    private final int[] kindStarts;
+    private final boolean[] nested;
+    private final int[] endGroups;
+    private final boolean ascii;
+
+    private final byte[] asciiClasses;
+    private final char[] extendedChars;
+    private final byte[] extendedClasses;
+    private final int stride;
+    private final int[] transitions;
+    private final byte[] acceptKinds;
+    private final int[] accepts;
+
+    /**
+     * Compiles an automaton for the specified delimiters.
+     *
+     * @param docQuotes Documentation quote delimiters
+     * @param verbatimQuotes Verbatim quote delimiters
+     * @param quotes Normal quote delimiters
+     * @param multiLineComments All multiline comment delimiters, both normal and nested
+     * @param nestedComments Nested comment delimiters
+     * @param lineComments Line comment delimiters
+     * @param importantSyntax Additional important syntax
+     */
+    DelimiterAutomaton(final BlockDelimiter[] docQuotes, final BlockDelimiter[] verbatimQuotes,
+                       final BlockDelimiter[] quotes, final BlockDelimiter[] multiLineComments,
+                       final BlockDelimiter[] nestedComments, final String[] lineComments,
+                       final String[] importantSyntax) {
+        final int count = docQuotes.length + verbatimQuotes.length + quotes.length + multiLineComments.length
+                + lineComments.length + importantSyntax.length;
+        this.starts = new String[count];
+        this.ends = new String[count];
+        this.kinds = new int[count];
+        this.kindStarts = new int[NUM_KINDS + 1];
+        this.nested = new boolean[count];
+        this.endGroups = new int[count];
+
+        int id = 0;
+        id = addBlockDelimiters(id, docQuotes, DOC_QUOTE);
+        id = addBlockDelimiters(id, verbatimQuotes, VERBATIM_QUOTE);
+        id = addBlockDelimiters(id, quotes, QUOTE);
+        final int firstComment = id;
+        id = addBlockDelimiters(id, multiLineComments, MULTI_LINE_COMMENT);
+        id = addSequences(id, lineComments, LINE_COMMENT);
+        id = addSequences(id, importantSyntax, IMPORTANT_SYNTAX);
+        this.kindStarts[NUM_KINDS] = id;
+        for (int i = 0; i < multiLineComments.length; i++) {
+            this.nested[firstComment + i] = Arrays.asList(nestedComments).contains(multiLineComments[i]);
+        }
+
+        // Delimiters of the same kind sharing an end sequence are assigned the identifier of the first such
+        // delimiter as their end group, so that end sequences can be compared by identifier.
+        for (int i = 0; i < count; i++) {
+            int group = this.kindStarts[this.kinds[i]];
+            while (!this.ends[group].equals(this.ends[i])) {
+                group++;
+            }
+            this.endGroups[i] = group;
+        }
+
+        // End sequences are not part of the alphabet because they are matched by comparison, so they are
+        // checked for non-ASCII characters separately from the start sequences.
+        boolean asciiDelimiters = true;
+        for (int i = 0; i < count && asciiDelimiters; i++) {
+            asciiDelimiters = isAsciiSequence(this.starts[i]) && isAsciiSequence(this.ends[i]);
+        }
+        this.ascii = asciiDelimiters;
+
+        // Compress the alphabet to the characters used by the delimiters. Class 0 is reserved for all
+        // other characters.
+        final NavigableSet<Character> alphabet = new TreeSet<>();
+        for (final String start : this.starts) {
+            for (int i = 0; i < start.length(); i++) {
+                alphabet.add(start.charAt(i));
+            }
+        }
+        this.asciiClasses = new byte[ASCII_LIMIT];
+        final int numExtended = alphabet.tailSet((char)ASCII_LIMIT).size();
+        this.extendedChars = new char[numExtended];
+        this.extendedClasses = new byte[numExtended];
+        int cls = 0;
+        int extendedIdx = 0;
+        for (final Character ch : alphabet) {
+            cls++;
+            if (ch < ASCII_LIMIT) {
+                this.asciiClasses[ch] = (byte)cls;
+            } else {
+                // The alphabet is sorted so the extended characters are suitable for a binary search.
+                this.extendedChars[extendedIdx] = ch;
+                this.extendedClasses[extendedIdx] = (byte)cls;
+                extendedIdx++;
+            }
+        }
+        this.stride = cls + 1;
+
+        // Build the trie. Node 0 is the root. Because no transition leads back to the root, a transition
+        // value of 0 indicates that there is no transition.
+        final List<Map<Integer, Integer>> trie = new ArrayList<>();
+        trie.add(new HashMap<>());
+        final List<Integer> terminals = new ArrayList<>(count);
+        for (final String start : this.starts) {
+            int node = 0;
+            for (int i = 0; i < start.length(); i++) {
+                final int charClass = classOf(start.charAt(i));
+                final Map<Integer, Integer> children = trie.get(node);
+                Integer child = children.get(charClass);
+                if (child == null) {
+                    child = trie.size();
+                    children.put(charClass, child);
+                    trie.add(new HashMap<>());
+                }
+                node = child;
+            }
+            terminals.add(node);
+        }
+
+        this.transitions = new int[trie.size() * this.stride];
+        for (int node = 0; node < trie.size(); node++) {
+            for (final Map.Entry<Integer, Integer> entry : trie.get(node).entrySet()) {
+                this.transitions[node * this.stride + entry.getKey()] = entry.getValue();
+            }
+        }
+
+        this.acceptKinds = new byte[trie.size()];
+        this.accepts = new int[trie.size() * NUM_KINDS];
+        Arrays.fill(this.accepts, NO_MATCH);
+        for (int i = 0; i < count; i++) {
+            final int node = terminals.get(i);
+            final int slot = node * NUM_KINDS + this.kinds[i];
+            // Identifiers are assigned in priority order so keep the first delimiter accepted by a node.
+            if (this.accepts[slot] == NO_MATCH) {
+                this.accepts[slot] = i;
+                this.acceptKinds[node] |= (byte)(1 << this.kinds[i]);
+            }
+        }
+    }
+
+    /**
+     * Records the specified block delimiters as the specified kind.
+     *
+     * @param firstId Identifier to assign to the first delimiter
+     * @param delimiters Delimiters to record
+     * @param kind Kind of the delimiters
+     * @return Identifier to assign to the next delimiter.
+     */
+    private int addBlockDelimiters(final int firstId, final BlockDelimiter[] delimiters, final int kind) {
+        this.kindStarts[kind] = firstId;
+        int id = firstId;
+        for (final BlockDelimiter delimiter : delimiters) {
+            this.starts[id] = delimiter.start();
+            this.ends[id] = delimiter.end();
+            this.kinds[id] = kind;
+            id++;
+        }
+        return id;
+    }
+
+    /**
+     * Records the specified character sequences, which have no end sequence, as the specified kind.
+     *
+     * @param firstId Identifier to assign to the first sequence
+     * @param sequences Character sequences to record
+     * @param kind Kind of the sequences
+     * @return Identifier to assign to the next sequence.
+     */
+    private int addSequences(final int firstId, final String[] sequences, final int kind) {
+        this.kindStarts[kind] = firstId;
+        int id = firstId;
+        for (final String sequence : sequences) {
+            this.starts[id] = sequence;
+            this.ends[id] = "";
+            this.kinds[id] = kind;
+            id++;
+        }
+        return id;
+    }
+
+    /**
+     * Indicates whether the specified delimiter sequence consists solely of ASCII characters.
+     *
+     * @param sequence Start or end sequence of a delimiter
+     * @return {@code true} if the sequence contains no non-ASCII character.
+     */
+    private static boolean isAsciiSequence(final String sequence) {
+        for (int i = 0; i < sequence.length(); i++) {
+            if (sequence.charAt(i) >= ASCII_LIMIT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Obtains the alphabet class of the specified character.
+     *
+     * @param ch Character whose class is desired
+     * @return Alphabet class of the character. Class 0 indicates that the character does not appear in any
+     *      delimiter.
+     */
+    private int classOf(final char ch) {
+        if (ch < ASCII_LIMIT) {
+            return this.asciiClasses[ch] & 0xFF;
+        }
+        final int idx = Arrays.binarySearch(this.extendedChars, ch);
+        return (idx < 0) ? 0 : (this.extendedClasses[idx] & 0xFF);
+    }
+
+    /**
+     * Determines which delimiter, if any, starts at the specified position in the character data. If more than one
+     * delimiter starts at the position, the delimiter with the highest priority (i.e. the lowest identifier) is
+     * returned.
+     *
+     * @param data Character data to examine
+     * @param index Position in the character data at which to look for a delimiter
+     * @param kindMask Bit mask of the delimiter kinds to consider (e.g. {@link #QUOTES_MASK})
+     * @return Identifier of the delimiter starting at the specified position or {@link #NO_MATCH} if no delimiter
+     *      of the requested kinds starts there.
+     */
+    int match(final AbstractTextData data, final int index, final int kindMask) {
+        return match(data, index, data.length(), kindMask);
+    }
+
+    /**
+     * Determines which delimiter, if any, starts at the specified position in the character data and ends before
+     * the specified limit. If more than one delimiter starts at the position, the delimiter with the highest
+     * priority (i.e. the lowest identifier) is returned.
+     *
+     * @param data Character data to examine
+     * @param index Position in the character data at which to look for a delimiter
+     * @param limit Position in the character data beyond which a delimiter cannot extend (exclusive)
+     * @param kindMask Bit mask of the delimiter kinds to consider (e.g. {@link #QUOTES_MASK})
+     * @return Identifier of the delimiter starting at the specified position or {@link #NO_MATCH} if no delimiter
+     *      of the requested kinds starts there.
+     */
+    int match(final AbstractTextData data, final int index, final int limit, final int kindMask) {
+        int matched = NO_MATCH;
+        int node = 0;
+        for (int i = index; i < limit; i++) {
+            final int charClass = classOf(data.charAt(i));
+            if (charClass == 0) {
+                break;
+            }
+            node = this.transitions[node * this.stride + charClass];
+            if (node == 0) {
+                break;
+            }
+            if ((this.acceptKinds[node] & kindMask) != 0) {
+                final int id = acceptedId(node, kindMask);
+                if (matched == NO_MATCH || id < matched) {
+                    matched = id;
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Obtains the highest priority delimiter of the requested kinds accepted by the specified node.
+     *
+     * @param node Node whose accepted delimiter is desired
+     * @param kindMask Bit mask of the delimiter kinds to consider
+     * @return Identifier of the accepted delimiter.
+     */
+    private int acceptedId(final int node, final int kindMask) {
+        final int base = node * NUM_KINDS;
+        for (int kind = 0; kind < NUM_KINDS; kind++) {
+            if ((kindMask & (1 << kind)) != 0 && this.accepts[base + kind] != NO_MATCH) {
+                return this.accepts[base + kind];
+            }
+        }
+        return NO_MATCH;
+    }
+
+    /**
+     * Obtains the number of delimiters in the automaton.
+     *
+     * @return Number of delimiters.
+     */
+    int size() {
+        return this.starts.length;
+    }
+
+    /**
+     * Indicates whether all delimiters and important syntax consist solely of ASCII characters.
+     *
+     * @return {@code true} if no start or end sequence of a delimiter contains a non-ASCII character.
+     */
+    boolean isAscii() {
+        return this.ascii;
+    }
+
+    /**
+     * Obtains the identifier of the first delimiter of the specified kind. The identifiers of the delimiters of
+     * a kind are contiguous.
+     *
+     * @param kind Kind of delimiter (e.g. {@link #MULTI_LINE_COMMENT})
+     * @return Identifier of the first delimiter of the specified kind.
+     */
+    int firstId(final int kind) {
+        return this.kindStarts[kind];
+    }
+
+    /**
+     * Obtains the identifier immediately following the last delimiter of the specified kind.
+     *
+     * @param kind Kind of delimiter (e.g. {@link #MULTI_LINE_COMMENT})
+     * @return Identifier following the last delimiter of the specified kind (exclusive).
+     */
+    int endId(final int kind) {
+        return this.kindStarts[kind + 1];
+    }
+
+    /**
+     * Obtains the kind of the specified delimiter (e.g. {@link #QUOTE}).
+     *
+     * @param id Identifier of the delimiter
+     * @return Kind of the delimiter.
+     */
+    int kind(final int id) {
+        return this.kinds[id];
+    }
+
+    /**
+     * Obtains the start character sequence of the specified delimiter.
+     *
+     * @param id Identifier of the delimiter
+     * @return Start character sequence of the delimiter.
+     */
+    String start(final int id) {
+        return this.starts[id];
+    }
+
+    /**
+     * Obtains the end character sequence of the specified delimiter. Line comments and important syntax do not
+     * have an end sequence so an empty string is returned for them.
+     *
+     * @param id Identifier of the delimiter
+     * @return End character sequence of the delimiter.
+     */
+    String end(final int id) {
+        return this.ends[id];
+    }
+
+    /**
+     * Obtains the end group of the specified delimiter. Delimiters of the same kind that share an end character
+     * sequence belong to the same end group, which allows end sequences to be compared by identifier.
+     *
+     * @param id Identifier of the delimiter
+     * @return Identifier of the first delimiter of the same kind with the same end character sequence.
+     */
+    int endGroup(final int id) {
+        return this.endGroups[id];
+    }
+
+    /**
+     * Indicates whether the specified multiline comment delimiter is one of the language's nested comment
+     * delimiters.
+     *
+     * @param id Identifier of the delimiter
+     * @return {@code true} if the delimiter is a nested comment delimiter.
+     */
+    boolean isNested(final int id) {
+        return this.nested[id];
+    }
+}
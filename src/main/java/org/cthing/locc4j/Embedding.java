@@ -184,7 +184,8 @@ final class Embedding {
     }
 
     /**
-     * Attempts to find embedded content in the specified region of character data.
+     * Attempts to find embedded content in the specified region of character data, using the registry of the
+     * static lookup methods of {@link Language} to determine the language of the content.
      *
      * @param language Language of the file in which content may be embedded
      * @param lines Character data
@@ -195,33 +196,129 @@ final class Embedding {
      */
     @Nullable
     static Embedded find(final Language language, final CharData lines, final int start, final int end) {
+        return find(language, lines, start, end, LanguageRegistry.current());
+    }
+
+    /**
+     * Attempts to find embedded content in the specified region of character data.
+     *
+     * @param language Language of the file in which content may be embedded
+     * @param lines Character data
+     * @param start Starting position in the character data in which to look for embedded content
+     * @param end Ending position in the character data in which to look for embedded content
+     * @param registry Registry used to determine the language of content identified by MIME type
+     * @return Information about the embedded content, if found. The information returned is
+     *      relative to the start of the specified data.
+     */
+    @Nullable
+    static Embedded find(final Language language, final CharData lines, final int start, final int end,
+                         final LanguageRegistry registry) {
         return (language.getEmbedSyntax() == null)
                ? null
                : switch (language.getEmbedSyntax()) {
-            case html -> findHtml(lines, start, end);
+            case html -> findHtml(lines, start, end, registry);
             case liquid -> findLiquid(lines, start, end);
             case markdown -> findMarkdown(lines, start, end);
             case rust -> findRust(lines, start);
         };
     }
 
+    /**
+     * Determines whether the search for embedded content in the specified region could have a different result
+     * if the character data were followed by more data. This is the case if embedded content was found that
+     * extends to or beyond the specified limit, or if the start of embedded content was found but not its end.
+     * The result of {@link #find(Language, CharData, int, int)} for the region is only final when this method
+     * returns {@code false} or when there is no more data.
+     *
+     * @param language Language of the file in which content may be embedded
+     * @param lines Character data available so far
+     * @param start Starting position in the character data in which to look for embedded content
+     * @param end Ending position in the character data in which to look for embedded content
+     * @param limit Position in the character data following the last complete line
+     * @param embedded Result of finding the embedded content in the region, if any
+     * @return {@code true} if more data is required to determine the embedded content in the region.
+     */
+    static boolean isIncomplete(final Language language, final CharData lines, final int start, final int end,
+                                final int limit, @Nullable final Embedded embedded) {
+        if (embedded != null) {
+            return embedded.getCodeEnd() >= limit;
+        }
+
+        final Syntax syntax = language.getEmbedSyntax();
+        if (syntax == null) {
+            return false;
+        }
+
+        return switch (syntax) {
+            case html -> isUnterminated(lines, start, end, HTML_SCRIPT_START_REGEX, HTML_SCRIPT_END_REGEX)
+                    || isUnterminated(lines, start, end, HTML_STYLE_START_REGEX, HTML_STYLE_END_REGEX)
+                    || isUnterminated(lines, start, end, HTML_SVG_START_REGEX, HTML_SVG_END_REGEX)
+                    || isUnterminated(lines, start, end, HTML_TEMPLATE_START_REGEX, HTML_TEMPLATE_END_REGEX);
+            case liquid -> isUnterminated(lines, start, end, LIQUID_SCHEMA_START_REGEX, LIQUID_SCHEMA_END_REGEX)
+                    || isUnterminated(lines, start, end, LIQUID_JAVASCRIPT_START_REGEX, LIQUID_JAVASCRIPT_END_REGEX)
+                    || isUnterminated(lines, start, end, LIQUID_STYLESHEET_START_REGEX, LIQUID_STYLESHEET_END_REGEX);
+            case markdown -> {
+                final Matcher blockStartMatcher = lines.subSequence(start, end).matcher(MARKDOWN_CODE_START_REGEX);
+                yield blockStartMatcher.find()
+                        && isUnterminated(lines, start + blockStartMatcher.end(),
+                                          MARKDOWN_BLOCK_DELIM_1.equals(blockStartMatcher.group(1))
+                                          ? MARKDOWN_CODE_END_1_REGEX
+                                          : MARKDOWN_CODE_END_2_REGEX);
+            }
+            // Leading whitespace, including blank lines, is skipped when looking for a doc comment.
+            case rust -> lines.isBlank(start, limit);
+        };
+    }
+
+    /**
+     * Determines whether the specified start pattern is found in the specified region of character data but
+     * the specified end pattern is not found in the remainder of the data.
+     *
+     * @param lines Character data
+     * @param start Starting position in the character data in which to look for the start pattern
+     * @param end Ending position in the character data in which to look for the start pattern
+     * @param startRegex Start of the embedded content
+     * @param endRegex End of the embedded content
+     * @return {@code true} if the start pattern is found without the end pattern.
+     */
+    private static boolean isUnterminated(final CharData lines, final int start, final int end,
+                                          final Pattern startRegex, final Pattern endRegex) {
+        final Matcher startMatcher = lines.subSequence(start, end).matcher(startRegex);
+        return startMatcher.find() && isUnterminated(lines, start + startMatcher.end(), endRegex);
+    }
+
+    /**
+     * Determines whether the specified end pattern is not found in the character data following the specified
+     * position.
+     *
+     * @param lines Character data
+     * @param codeStart Position in the character data from which to look for the end pattern
+     * @param endRegex End of the embedded content
+     * @return {@code true} if the end pattern is not found.
+     */
+    private static boolean isUnterminated(final CharData lines, final int codeStart, final Pattern endRegex) {
+        return !lines.subSequence(codeStart).matcher(endRegex).find();
+    }
+
     /**
      * Attempts to find embedded content in the specified region of HTML character data.
      *
      * @param lines HTML character data
      * @param start Starting position in the character data in which to look for embedded content
      * @param end Ending position in the character data in which to look for embedded content
+     * @param registry Registry used to determine the language of content identified by MIME type
      * @return Information about the embedded content, if found. The information returned is
      *      relative to the start of the specified data.
      */
     @Nullable
-    private static Embedded findHtml(final CharData lines, final int start, final int end) {
-        final Embedded embeddedScript = findHtmlScript(lines, start, end);
+    private static Embedded findHtml(final CharData lines, final int start, final int end,
+                                     final LanguageRegistry registry) {
+        final Embedded embeddedScript = findHtmlScript(lines, start, end, registry);
         if (embeddedScript != null) {
             return embeddedScript;
         }
 
-        final Embedded embeddedStyle = findHtmlStyle(lines, start, end);
+        final Embedded embeddedStyle = findHtmlStyle(lines, start, end, registry);
         if (embeddedStyle != null) {
             return embeddedStyle;
         }
@@ -240,11 +337,13 @@ final class Embedding {
      * @param lines HTML character data
      * @param start Starting position in the character data in which to look for an embedded script
      * @param end Ending position in the character data in which to look for an embedded script
+     * @param registry Registry used to determine the language of the script from its MIME type
      * @return Information about the embedded script, if found. The information returned is
      *      relative to the start of the specified data.
      */
     @Nullable
-    private static Embedded findHtmlScript(final CharData lines, final int start, final int end) {
+    private static Embedded findHtmlScript(final CharData lines, final int start, final int end,
+                                           final LanguageRegistry registry) {
         final CharData window1 = lines.subSequence(start, end);
         final Matcher scriptStartMatcher = window1.matcher(HTML_SCRIPT_START_REGEX);
         if (scriptStartMatcher.find()) {
@@ -256,7 +355,7 @@ final class Embedding {
             if (mimeType != null) {
                 mimeType = mimeType.trim();
                 if (!mimeType.isEmpty()) {
-                    languageOpt = Language.fromMime(mimeType);
+                    languageOpt = registry.fromMime(mimeType);
                 }
             }
             final Language language = languageOpt.orElse(Language.JavaScript);
@@ -280,11 +379,13 @@ final class Embedding {
      * @param lines HTML character data
      * @param start Starting position in the character data in which to look for an embedded style sheet
      * @param end Ending position in the character data in which to look for an embedded style sheet
+     * @param registry Registry used to determine the language of the style sheet from its MIME type
      * @return Information about the embedded style sheet, if found. The information returned is
      *      relative to the start of the specified data.
      */
     @Nullable
-    private static Embedded findHtmlStyle(final CharData lines, final int start, final int end) {
+    private static Embedded findHtmlStyle(final CharData lines, final int start, final int end,
+                                          final LanguageRegistry registry) {
         final CharData window1 = lines.subSequence(start, end);
         final Matcher styleStartMatcher = window1.matcher(HTML_STYLE_START_REGEX);
         if (styleStartMatcher.find()) {
@@ -296,7 +397,7 @@ final class Embedding {
             if (styleType != null) {
                 styleType = styleType.trim();
                 if (!styleType.isEmpty()) {
-                    languageOpt = Language.fromMime(styleType);
+                    languageOpt = registry.fromMime(styleType);
                     if (languageOpt.isEmpty()) {
                         languageOpt = Language.fromDisplayName(styleType);
                     }
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Content of a file that has been read in preparation for counting its lines. Reading a file (see
+ * {@link FileCounter#read(FileContent, java.util.function.Predicate, java.util.function.IntFunction)}) determines
+ * its language and whether it is to be counted, and obtains its content in one of three forms: an array holding
+ * the entire file, a memory mapping of the file, or an open channel for files too large to map. Separating the
+ * reading of a file from the counting of its lines allows files to be read ahead on other threads while the
+ * current file is counted.
+ */
+final class FileContent implements Closeable {
+
+    /** File whose content this is. */
+    final Path file;
+
+    /** Language of the file if it is to be counted, or {@code null} if it is not to be counted. */
+    @Nullable
+    Language language;
+
+    /** Result for a file that is not to be counted or has already been counted, and was not skipped. */
+    @Nullable
+    Map<Language, Counts> result;
+
+    /** Reason the file was skipped by the count policy, or {@code null} if it was not skipped. */
+    CountPolicy.@Nullable SkipReason skipReason;
+
+    /**
+     * Array holding the content of the file, or {@code null} if the file is not read into an array. The array is
+     * obtained from the buffer supplier provided to the read, and must be returned to it once the file has been
+     * counted, even if the file is not counted.
+     */
+    @Nullable
+    byte[] bytes;
+
+    /** Number of bytes of the array to count. */
+    int length;
+
+    /** Mapping of the content of the file to count, or {@code null} if the file is not mapped. */
+    @Nullable
+    ByteBuffer mapping;
+
+    /** Open channel from which to count the file, or {@code null} if the file is read or mapped. */
+    @Nullable
+    FileChannel channel;
+
+    /**
+     * Constructs the content for the specified file, before the file has been read.
+     *
+     * @param file File whose content is to be read
+     */
+    FileContent(final Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Counts the lines in the content.
+     *
+     * @param counter Counter for the language of the file
+     * @return Map of the languages found in the file and their counts.
+     * @throws IOException if there was a problem reading the file
+     */
+    Map<Language, Counts> count(final Counter counter) throws IOException {
+        if (this.bytes != null) {
+            return counter.count(this.bytes, this.length);
+        }
+        if (this.mapping != null) {
+            return counter.count(this.mapping);
+        }
+        //noinspection DataFlowIssue
+        return counter.count(this.channel);
+    }
+
+    /**
+     * Closes the channel from which the file is counted, if any. The array holding the content is not released.
+     *
+     * @throws IOException if there was a problem closing the channel
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+}
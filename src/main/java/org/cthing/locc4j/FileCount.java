@@ -0,0 +1,21 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+
+/**
+ * Line counts for a single file, as delivered as soon as the file has been counted to a listener (see
+ * {@link CountingTreeWalker#count(java.util.function.Consumer)}) or stream (see {@link CountingTreeWalker#stream()}).
+ *
+ * @param file File that was counted
+ * @param counts Line counts for each language in the file. If the language of the file cannot be determined, the
+ *      map is empty.
+ */
+public record FileCount(Path file, Map<Language, Counts> counts) {
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Pulls the counts for each file from a count that runs on a producer thread, so that a walk can be consumed as a
+ * lazily evaluated stream (see {@link CountingTreeWalker#stream()}). The producer thread is started when the first
+ * element is requested. It places the counts for each file in a bounded queue, waiting when the queue is full, so
+ * that no more than a fixed number of results are held however many files are counted and however slowly they are
+ * consumed.
+ *
+ * <p>
+ * A failure of the count is reported once the files counted before it have been consumed. If the stream is not
+ * consumed to its end, it must be closed (see {@link #close()}) to stop the producer thread.
+ * </p>
+ */
+final class FileCountSpliterator implements Spliterator<FileCount> {
+
+    /** Maximum number of file counts that have been produced but not yet consumed. */
+    static final int QUEUE_SIZE = 1024;
+
+    /** Marks the end of the count. Compared by identity, so it cannot be confused with the counts of a file. */
+    private static final FileCount END = new FileCount(Path.of(""), Map.of());
+
+    /**
+     * Performs the count on the producer thread.
+     */
+    @FunctionalInterface
+    interface Producer {
+
+        /**
+         * Counts files, passing the counts for each file to the specified listener.
+         *
+         * @param listener Called with the counts for each file. Throws {@link CancellationException} if the stream
+         *      has been closed, in which case the count should stop.
+         * @throws IOException if there was a problem counting the files
+         */
+        void produce(Consumer<FileCount> listener) throws IOException;
+    }
+
+    private final Producer producer;
+    private final BlockingQueue<FileCount> queue;
+    private final Thread thread;
+    private volatile boolean stopped;
+    @Nullable
+    private volatile Throwable failure;
+    private boolean started;
+    private boolean finished;
+
+    /**
+     * Constructs a spliterator over the counts produced by the specified producer.
+     *
+     * @param producer Performs the count on the producer thread
+     * @param capacity Maximum number of file counts that have been produced but not yet consumed
+     */
+    FileCountSpliterator(final Producer producer, final int capacity) {
+        this.producer = producer;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::produce, "locc4j-stream");
+        this.thread.setDaemon(true);
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super FileCount> action) {
+        if (this.finished || this.stopped) {
+            return false;
+        }
+        if (!this.started) {
+            this.started = true;
+            this.thread.start();
+        }
+
+        final FileCount next;
+        try {
+            next = this.queue.take();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for file counts"));
+        }
+        if (next == END) {
+            this.finished = true;
+            rethrowFailure();
+            return false;
+        }
+        action.accept(next);
+        return true;
+    }
+
+    @Override
+    @Nullable
+    public Spliterator<FileCount> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Stops the count, if it is still running, and waits for the producer thread to finish. Counts that have been
+     * produced but not consumed are discarded.
+     */
+    void close() {
+        this.stopped = true;
+        if (!this.started) {
+            return;
+        }
+
+        // The queue is cleared so that the producer cannot be blocked adding the counts for a file.
+        this.queue.clear();
+        this.thread.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                this.thread.join();
+                break;
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the count on the producer thread and marks its end in the queue.
+     */
+    private void produce() {
+        try {
+            this.producer.produce(this::put);
+        } catch (final IOException | RuntimeException | Error ex) {
+            if (!this.stopped) {
+                this.failure = ex;
+            }
+        } finally {
+            if (!this.stopped) {
+                try {
+                    this.queue.put(END);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the counts for a file to the queue. Called on the producer thread, which waits while the queue is full.
+     *
+     * @param fileCount Counts for a file
+     * @throws CancellationException if the stream has been closed
+     */
+    private void put(final FileCount fileCount) {
+        if (this.stopped) {
+            throw new CancellationException("The stream has been closed");
+        }
+        try {
+            this.queue.put(fileCount);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The stream has been closed");
+        }
+    }
+
+    /**
+     * Throws the failure that stopped the count, if any.
+     *
+     * @throws UncheckedIOException if there was a problem counting the files
+     */
+    private void rethrowFailure() {
+        final Throwable cause = this.failure;
+        if (cause instanceof IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        if (cause instanceof RuntimeException rte) {
+            throw rte;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+    }
+}
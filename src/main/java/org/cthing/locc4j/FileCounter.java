@@ -7,15 +7,22 @@ package org.cthing.locc4j;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+import org.jspecify.annotations.Nullable;
 
 
 /**
@@ -23,7 +30,36 @@ import java.util.Optional;
  */
 public class FileCounter {
 
+    /** Default size at or above which files are memory mapped rather than read. */
+    static final long DEFAULT_MAP_THRESHOLD = 1024 * 1024;
+
+    /** Default maximum total size of the files that have been read ahead but not yet counted. */
+    static final long DEFAULT_READ_AHEAD_BYTES = 16 * 1024 * 1024;
+
+    /** Maximum number of threads on which files can be counted in parallel. */
+    static final int MAX_PARALLELISM = 256;
+
+    /** Maximum number of virtual threads on which files can be counted concurrently. */
+    static final int MAX_VIRTUAL_THREADS = 65536;
+
     private boolean countDocStrings = true;
+    private int maxCommentDepth = Counter.DEFAULT_MAX_COMMENT_DEPTH;
+    private long mapThreshold = DEFAULT_MAP_THRESHOLD;
+    @Nullable
+    private CountPolicy countPolicy;
+    @Nullable
+    private BiConsumer<Path, CountPolicy.SkipReason> skipListener;
+    @Nullable
+    private LanguageRegistry languageRegistry;
+    @Nullable
+    private LanguageTotals totals;
+    private int readAheadFiles;
+    private long readAheadBytes = DEFAULT_READ_AHEAD_BYTES;
+    private int parallelism = 1;
+    private int virtualThreads;
+    private int pipelineReaders;
+    private int pipelineCounters;
+    private int largeFileParallelism = 1;
 
     /**
      * Sets whether to count documentation string as comments or ignore them.
@@ -37,19 +73,239 @@ public class FileCounter {
         return this;
     }
 
+    /**
+     * Sets the maximum depth of nested multiline comments that are tracked individually. See
+     * {@link Counter#maxCommentDepth(int)}.
+     *
+     * @param depth Maximum number of nested multiline comments to track. The default is 256.
+     * @return This counter.
+     * @throws IllegalArgumentException if the depth is less than 1
+     */
+    public FileCounter maxCommentDepth(final int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Maximum comment depth must be at least 1");
+        }
+        this.maxCommentDepth = depth;
+        return this;
+    }
+
+    /**
+     * Sets the size at or above which a file is memory mapped and counted directly from the mapping, rather than
+     * being read into an array. A mapped file is counted a chunk at a time (see {@link Counter#count(ByteBuffer)}),
+     * so that large files, such as generated sources and amalgamations, do not need to be copied to the heap in
+     * full. Smaller files are read with a single read into an array of the file's size, which is cheaper than
+     * establishing a mapping. Note that a mapped file must not be truncated while it is being counted.
+     *
+     * @param size Size of a file, in bytes, at or above which the file is memory mapped. The default is 1MB.
+     * @return This counter.
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public FileCounter mapThreshold(final long size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Memory map threshold must not be negative");
+        }
+        this.mapThreshold = size;
+        return this;
+    }
+
+    /**
+     * Sets the policy that determines which files are counted. Files that are skipped by the policy are not
+     * included in the counting results, and are reported to the skip listener, if one has been set (see
+     * {@link #skipListener(BiConsumer)}).
+     *
+     * @param policy Policy that determines which files are counted, or {@code null} to count all files. The
+     *      default is to count all files.
+     * @return This counter.
+     */
+    public FileCounter countPolicy(@Nullable final CountPolicy policy) {
+        this.countPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets a listener that is called for each file that is skipped by the count policy (see
+     * {@link #countPolicy(CountPolicy)}).
+     *
+     * @param listener Called with each skipped file and the reason it was skipped, or {@code null} to not report
+     *      skipped files
+     * @return This counter.
+     */
+    public FileCounter skipListener(@Nullable final BiConsumer<Path, CountPolicy.SkipReason> listener) {
+        this.skipListener = listener;
+        return this;
+    }
+
+    /**
+     * Sets the registry used to determine the language of each file from its name or shebang. Because a registry
+     * cannot be modified, counters with different registries can count concurrently without affecting each
+     * other.
+     *
+     * @param registry Registry used to determine the language of each file, or {@code null} to use the registry
+     *      of the static lookup methods of {@link Language} at the time each file is counted (see
+     *      {@link LanguageRegistry#current()}). The default is to use the registry of the static lookup methods.
+     * @return This counter.
+     */
+    public FileCounter languageRegistry(@Nullable final LanguageRegistry registry) {
+        this.languageRegistry = registry;
+        return this;
+    }
+
+    /**
+     * Sets the totals to which the counts for each file are added as soon as the file has been counted, on the
+     * thread that counted it. This provides the counts for each language without a pass over the results once
+     * counting is complete. The same totals can be shared by several counters counting concurrently. If counting
+     * fails, the totals include the files counted before the failure was reported, and may include files that were
+     * counted concurrently on other threads.
+     *
+     * @param languageTotals Totals to which the counts for each file are added, or {@code null} to not accumulate
+     *      totals. The default is to not accumulate totals.
+     * @return This counter.
+     */
+    public FileCounter totals(@Nullable final LanguageTotals languageTotals) {
+        this.totals = languageTotals;
+        return this;
+    }
+
+    /**
+     * Sets how far to read ahead when counting multiple files. Files are read on a small pool of dedicated reader
+     * threads while the preceding files are counted, so that reading and counting overlap. This hides read latency,
+     * particularly on file systems with high latency such as network mounts, and when files are not in the
+     * operating system's cache. Files are still counted on the calling thread, in order.
+     *
+     * @param files Maximum number of files to read ahead, or 0 to read each file as it is counted. The default is
+     *      to read each file as it is counted. At most {@value ReadAhead#MAX_READERS} files are read at once.
+     * @param bytes Maximum total size, in bytes, of the files that have been read ahead but not yet counted. Files
+     *      that are memory mapped do not count toward this limit because they are read as they are counted.
+     * @return This counter.
+     * @throws IllegalArgumentException if the number of files is negative or the number of bytes is not positive
+     */
+    public FileCounter readAhead(final int files, final long bytes) {
+        if (files < 0) {
+            throw new IllegalArgumentException("Number of files to read ahead must not be negative");
+        }
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Number of bytes to read ahead must be positive");
+        }
+        this.readAheadFiles = files;
+        this.readAheadBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads on which to count files when counting multiple files. Files are read and counted
+     * concurrently on a work-stealing pool of the specified number of threads, which is created for each count and
+     * shut down when the count is complete. The results, the files reported as skipped, and any failure are the
+     * same as when the files are counted sequentially, and skipped files are reported on the calling thread. When
+     * files are counted in parallel, read ahead (see {@link #readAhead(int, long)}) is not used because each file
+     * is read by the thread that counts it.
+     *
+     * @param threads Number of threads on which to count files, or 1 to count files on the calling thread. The
+     *      default is to count files on the calling thread. The number of available processors (see
+     *      {@link Runtime#availableProcessors()}) is a good choice for counting a large number of files.
+     * @return This counter.
+     * @throws IllegalArgumentException if the number of threads is less than 1 or greater than
+     *      {@value #MAX_PARALLELISM}
+     */
+    public FileCounter parallelism(final int threads) {
+        if (threads < 1 || threads > MAX_PARALLELISM) {
+            throw new IllegalArgumentException("Parallelism must be between 1 and " + MAX_PARALLELISM);
+        }
+        this.parallelism = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of virtual threads on which to count files when counting multiple files. This suits files
+     * on high latency storage, such as network and FUSE file systems, where the time to count a file is dominated
+     * by waiting for reads. Many reads can then be outstanding at once without a large pool of platform threads.
+     * Each file is read and counted on its own virtual thread, and the number of files read and counted at once is
+     * bounded by the specified number of threads. Virtual threads are available from Java 21. On earlier versions,
+     * files are instead counted in parallel on the specified number of platform threads, up to
+     * {@value #MAX_PARALLELISM} (see {@link #parallelism(int)}). As with parallel counting (see
+     * {@link #parallelism(int)}), the results are the same as when the files are counted sequentially. Counting
+     * on virtual threads takes precedence over parallel counting and read ahead, but not over a pipeline (see
+     * {@link #pipeline(int, int)}).
+     *
+     * @param threads Maximum number of files to read and count concurrently on virtual threads, or 0 to not use
+     *      virtual threads. The default is to not use virtual threads.
+     * @return This counter.
+     * @throws IllegalArgumentException if the number of threads is negative or greater than
+     *      {@value #MAX_VIRTUAL_THREADS}
+     */
+    public FileCounter virtualThreads(final int threads) {
+        if (threads < 0 || threads > MAX_VIRTUAL_THREADS) {
+            throw new IllegalArgumentException("Number of virtual threads must be between 0 and "
+                                                       + MAX_VIRTUAL_THREADS);
+        }
+        this.virtualThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads in each stage of a pipeline for counting multiple files. The files to count are
+     * produced on a dedicated traversal thread (e.g. by {@link CountingTreeWalker}), read on a pool of reader
+     * threads and counted on a pool of counting threads. Bounded queues between the stages provide backpressure, so
+     * that a slow directory listing or a slow file stalls only the stage it occupies until the queues fill. The
+     * number of readers can be tuned to the latency of the storage (e.g. a few for a local SSD and many for a
+     * network mount), independently of the number of counting threads, which can be tuned to the number of cores.
+     * The total size of the files that have been read but not yet counted is limited by the byte budget set using
+     * {@link #readAhead(int, long)}. As with parallel counting (see {@link #parallelism(int)}), the results are the
+     * same as when the files are counted sequentially. A pipeline takes precedence over virtual threads, parallel
+     * counting and read ahead.
+     *
+     * @param readers Number of threads on which to read files, or 0 to not use a pipeline. The default is to not
+     *      use a pipeline.
+     * @param counters Number of threads on which to count files that have been read
+     * @return This counter.
+     * @throws IllegalArgumentException if the number of readers is negative, or either number of threads is
+     *      greater than {@value #MAX_PARALLELISM}, or the number of counting threads is less than 1
+     */
+    public FileCounter pipeline(final int readers, final int counters) {
+        if (readers < 0 || readers > MAX_PARALLELISM) {
+            throw new IllegalArgumentException("Number of readers must be between 0 and " + MAX_PARALLELISM);
+        }
+        if (counters < 1 || counters > MAX_PARALLELISM) {
+            throw new IllegalArgumentException("Number of counters must be between 1 and " + MAX_PARALLELISM);
+        }
+        this.pipelineReaders = readers;
+        this.pipelineCounters = counters;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads on which to count each large file. A file of at least
+     * {@value SpeculativeCount#MIN_LENGTH} bytes is split into chunks that are counted concurrently, so that the
+     * time to count a very large file (e.g. a generated source or a concatenated SQL dump) is not bound to a
+     * single core. See {@link Counter#parallelism(int)} for the languages to which this applies. The counts are
+     * identical to counting the file sequentially. This is independent of counting multiple files in parallel
+     * (see {@link #parallelism(int)}).
+     *
+     * @param threads Number of threads on which to count a large file, or 1 to count each file on a single thread.
+     *      The default is to count each file on a single thread.
+     * @return This counter.
+     * @throws IllegalArgumentException if the number of threads is less than 1 or greater than
+     *      {@value #MAX_PARALLELISM}
+     */
+    public FileCounter largeFileParallelism(final int threads) {
+        if (threads < 1 || threads > MAX_PARALLELISM) {
+            throw new IllegalArgumentException("Large file parallelism must be between 1 and " + MAX_PARALLELISM);
+        }
+        this.largeFileParallelism = threads;
+        return this;
+    }
+
     /**
      * Counts the number of lines in the specified files.
      *
      * @param pathnames Files whose lines are to be counted
      * @return The line counts for each pathname. If the language of a file cannot be determined, an empty
-     *      language map is returned for that file.
+     *      language map is returned for that file. Files skipped by the count policy are not included.
      * @throws IOException if there was a problem reading the files
      * @throws IllegalArgumentException if the collection is empty or a file is a directory
      */
     public Map<Path, Map<Language, Counts>> count(final String... pathnames) throws IOException {
         if (pathnames.length == 1) {
-            final Path path = Path.of(pathnames[0]);
-            return Map.of(path, count(path));
+            return countFile(Path.of(pathnames[0]));
         }
         return count(Arrays.stream(pathnames).map(Path::of).toList());
     }
@@ -59,12 +315,12 @@ public class FileCounter {
      *
      * @param files Files whose lines are to be counted
      * @return The line counts for each file. If the language of a file cannot be determined, an empty
-     *      language map is returned for that file.
+     *      language map is returned for that file. Files skipped by the count policy are not included.
      * @throws IOException if there was a problem reading the files
      * @throws IllegalArgumentException if the collection is empty or a file is a directory
      */
     public Map<Path, Map<Language, Counts>> count(final Path... files) throws IOException {
-        return files.length == 1 ? Map.of(files[0], count(files[0])) : count(List.of(files));
+        return files.length == 1 ? countFile(files[0]) : count(List.of(files));
     }
 
     /**
@@ -72,7 +328,7 @@ public class FileCounter {
      *
      * @param files Files whose lines are to be counted
      * @return The line counts for each file. If the language of a file cannot be determined, an empty
-     *      language map is returned for that file.
+     *      language map is returned for that file. Files skipped by the count policy are not included.
      * @throws IOException if there was a problem reading the files
      * @throws IllegalArgumentException if the collection is empty or a file is a directory
      */
@@ -82,27 +338,282 @@ public class FileCounter {
         }
 
         if (files.size() == 1) {
-            final Path path = files.iterator().next();
-            return Map.of(path, count(path));
+            return countFile(files.iterator().next());
         }
 
         final Map<Path, Map<Language, Counts>> results = new HashMap<>(files.size());
-        for (final Path file : files) {
-            results.put(file, count(file));
-        }
+        countAll(files, results::put);
         return results;
     }
 
+    /**
+     * Counts the number of lines in the specified files, delivering the counts for each file to the specified
+     * listener as soon as the file has been counted. The counts are not retained, so the memory used does not grow
+     * with the number of files. The listener is called on the calling thread, in the order of the files in the
+     * collection, and is given the same counts as {@link #count(Collection)} returns.
+     *
+     * @param files Files whose lines are to be counted
+     * @param listener Called with the line counts for each file. If the language of a file cannot be determined,
+     *      the listener is given an empty language map for that file. The listener is not called for files skipped
+     *      by the count policy.
+     * @throws IOException if there was a problem reading the files
+     * @throws IllegalArgumentException if the collection is empty or a file is a directory
+     */
+    public void count(final Collection<Path> files, final Consumer<FileCount> listener) throws IOException {
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("At least one pathname must be specified.");
+        }
+
+        countAll(files, (file, counts) -> listener.accept(new FileCount(file, counts)));
+    }
+
+    /**
+     * Counts the number of lines in the specified files, using a pipeline or stage if one has been configured.
+     *
+     * @param files Files whose lines are to be counted
+     * @param results Called with the line counts for each file that is counted, in the order of the files
+     * @throws IOException if there was a problem reading the files
+     * @throws IllegalArgumentException if a file is a directory
+     */
+    private void countAll(final Collection<Path> files, final BiConsumer<Path, Map<Language, Counts>> results)
+            throws IOException {
+        final CountingPipeline pipeline = newPipeline(null);
+        if (pipeline != null) {
+            pipeline.run(() -> {
+                for (final Path file : files) {
+                    pipeline.emit(file);
+                }
+            }, results);
+            return;
+        }
+
+        try (AbstractFileStage stage = startStage(null)) {
+            if (stage == null) {
+                for (final Path file : files) {
+                    final Map<Language, Counts> counts = count(file, null);
+                    if (counts != null) {
+                        results.accept(file, counts);
+                    }
+                }
+            } else {
+                final Iterator<Path> iter = files.iterator();
+                stage.fill(iter);
+                while (!stage.isEmpty()) {
+                    countNext(stage, results);
+                    stage.fill(iter);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a pipeline for counting multiple files, if one has been configured (see {@link #pipeline(int, int)}).
+     *
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @return Pipeline with which to count files, or {@code null} if a pipeline is not to be used.
+     */
+    @Nullable
+    CountingPipeline newPipeline(@Nullable final Predicate<Language> filter) {
+        return (this.pipelineReaders == 0) ? null : new CountingPipeline(this, filter, this.pipelineReaders,
+                                                                          this.pipelineCounters,
+                                                                          this.readAheadBytes);
+    }
+
+    /**
+     * Starts the stage that prepares files on other threads for counting multiple files, if counting on virtual
+     * threads (see {@link #virtualThreads(int)}), parallel counting (see {@link #parallelism(int)}) or read ahead
+     * (see {@link #readAhead(int, long)}) is enabled.
+     *
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @return Stage to which files to be counted are submitted, or {@code null} if files are to be read and
+     *      counted on the calling thread. The stage must be closed when counting is complete.
+     */
+    @Nullable
+    AbstractFileStage startStage(@Nullable final Predicate<Language> filter) {
+        if (this.virtualThreads > 0) {
+            final ParallelCount stage = ParallelCount.onVirtualThreads(this, filter, this.virtualThreads);
+            return (stage == null) ? new ParallelCount(this, filter, Math.min(this.virtualThreads, MAX_PARALLELISM))
+                                   : stage;
+        }
+        if (this.parallelism > 1) {
+            return new ParallelCount(this, filter, this.parallelism);
+        }
+        return (this.readAheadFiles == 0) ? null
+                                          : new ReadAhead(this, filter, this.readAheadFiles, this.readAheadBytes);
+    }
+
+    /**
+     * Counts the next file that has been prepared by a stage and passes its counts to the specified results.
+     *
+     * @param stage Stage from which to take the file
+     * @param results Called with the file and its line counts unless the file is not counted (see
+     *      {@link #count(Path, Predicate)})
+     * @throws IOException if there was a problem reading the file
+     * @throws IllegalArgumentException if the file is a directory
+     */
+    void countNext(final AbstractFileStage stage, final BiConsumer<Path, Map<Language, Counts>> results)
+            throws IOException {
+        final FileContent content = stage.take();
+        try {
+            final Map<Language, Counts> counts = count(content);
+            if (counts != null) {
+                results.accept(content.file, counts);
+            }
+        } finally {
+            stage.release(content);
+        }
+    }
+
     /**
      * Counts the number of lines in the specified file.
      *
      * @param file File whose lines are to be counted
-     * @return Map of the languages found in the specified file and their counts. If the language of the file
-     *      cannot be determined, an empty map is returned.
+     * @return The line counts for the file, or an empty map if the file is skipped by the count policy.
      * @throws IOException if there was a problem reading the file
      * @throws IllegalArgumentException if the specified file is a directory
      */
-    private Map<Language, Counts> count(final Path file) throws IOException {
+    private Map<Path, Map<Language, Counts>> countFile(final Path file) throws IOException {
+        final Map<Language, Counts> counts = count(file, null);
+        return (counts == null) ? Map.of() : Map.of(file, counts);
+    }
+
+    /**
+     * Counts the number of lines in the specified file, if its language is accepted by the specified filter and
+     * the file is not skipped by the count policy. The file is read (see
+     * {@link #read(FileContent, Predicate, IntFunction)}) and counted on the current thread.
+     *
+     * @param file File whose lines are to be counted
+     * @param filter Determines whether a file in the specified language is counted, or {@code null} to count
+     *      files in any language
+     * @return Map of the languages found in the specified file and their counts. If the file cannot be read, an
+     *      empty map is returned. If the language of the file cannot be determined, an empty map is returned if
+     *      there is no filter and {@code null} is returned otherwise. If the language is not accepted by the
+     *      filter or the file is skipped by the count policy, {@code null} is returned.
+     * @throws IOException if there was a problem reading the file
+     * @throws IllegalArgumentException if the specified file is a directory
+     */
+    @Nullable
+    Map<Language, Counts> count(final Path file, @Nullable final Predicate<Language> filter) throws IOException {
+        final FileContent content = new FileContent(file);
+        readAndCount(content, filter);
+        return count(content);
+    }
+
+    /**
+     * Reads and counts a file on the current thread, recording its counts in its content as the result for a file
+     * that is not to be counted further. A file skipped by the count policy is recorded but not reported, so that
+     * files can be counted on other threads and gathered in order using {@link #count(FileContent)}.
+     *
+     * @param content Content of the file to count, which is filled in by this method
+     * @param filter Determines whether a file in the specified language is counted, or {@code null} to count
+     *      files in any language
+     * @throws IOException if there was a problem reading the file
+     * @throws IllegalArgumentException if the specified file is a directory
+     */
+    void readAndCount(final FileContent content, @Nullable final Predicate<Language> filter) throws IOException {
+        // The file is read into a buffer drawn from the current thread's pool, so that counting many files only
+        // allocates when a file is larger than any previously counted.
+        final BufferPool buffers = BufferPool.get();
+        try {
+            read(content, filter, buffers::acquireBytes);
+            countRead(content);
+        } finally {
+            content.close();
+            if (content.bytes != null) {
+                buffers.release(content.bytes);
+                content.bytes = null;
+            }
+        }
+    }
+
+    /**
+     * Counts a file that has been read using {@link #read(FileContent, Predicate, IntFunction)} on the current
+     * thread, recording its counts in its content as the result for a file that is not to be counted further. The
+     * file is not closed and its array is not released. The counts are gathered using {@link #count(FileContent)}.
+     *
+     * @param content Content of the file to count
+     * @throws IOException if there was a problem reading the file
+     */
+    void countRead(final FileContent content) throws IOException {
+        final Language language = content.language;
+        if (language != null) {
+            content.result = count(content, language);
+            content.language = null;
+        }
+    }
+
+    /**
+     * Counts the lines in a file that has been read, or gathers the counts of a file that has been counted.
+     *
+     * @param content Content of the file read using {@link #read(FileContent, Predicate, IntFunction)} or counted
+     *      using {@link #readAndCount(FileContent, Predicate)}
+     * @return Map of the languages found in the file and their counts, or the result for a file that is not
+     *      counted (see {@link #count(Path, Predicate)}). A file skipped by the count policy is reported to the
+     *      skip listener and {@code null} is returned.
+     * @throws IOException if there was a problem reading the file
+     */
+    @Nullable
+    Map<Language, Counts> count(final FileContent content) throws IOException {
+        if (content.skipReason != null) {
+            if (this.skipListener != null) {
+                this.skipListener.accept(content.file, content.skipReason);
+            }
+            return null;
+        }
+
+        final Language language = content.language;
+        return (language == null) ? content.result : count(content, language);
+    }
+
+    /**
+     * Counts the lines in the content of a file using a counter from the current thread's pool.
+     *
+     * @param content Content of the file to count
+     * @param language Language of the file
+     * @return Map of the languages found in the file and their counts.
+     * @throws IOException if there was a problem reading the file
+     */
+    private Map<Language, Counts> count(final FileContent content, final Language language) throws IOException {
+        final CounterPool pool = CounterPool.get();
+        final Counter counter = pool.acquire(language, this.countDocStrings, this.maxCommentDepth,
+                                             this.languageRegistry)
+                                    .parallelism(this.largeFileParallelism);
+        try {
+            final Map<Language, Counts> counts = content.count(counter);
+            if (this.totals != null) {
+                this.totals.add(counts);
+            }
+            return counts;
+        } finally {
+            // Counters in the pool are shared with other users of the thread, which count on a single thread.
+            counter.parallelism(1);
+            pool.release(counter);
+        }
+    }
+
+    /**
+     * Reads a file in preparation for counting its lines. The language of the file is determined from its name if
+     * possible (see {@link LanguageRegistry#fromFileName(Path)}). Otherwise, the language is determined from a
+     * shebang at the start of the content that is read for counting (see
+     * {@link LanguageRegistry#fromShebang(ByteBuffer)}). The count
+     * policy examines the same content, so that the file is opened and read only once. Only as much of the file as
+     * is needed to find a shebang or apply the count policy is read until it has been determined that the file is
+     * to be counted. This method does not use any state of the current thread, so that files can be read on other
+     * threads.
+     *
+     * @param content Content of the file to read, which is filled in by this method
+     * @param filter Determines whether a file in the specified language is counted, or {@code null} to count
+     *      files in any language
+     * @param buffers Supplies an array of at least the specified length into which to read the file. The array is
+     *      recorded in the content as soon as it is obtained, so that it can be released even if the read fails.
+     * @throws IOException if there was a problem reading the file
+     * @throws IllegalArgumentException if the specified file is a directory
+     */
+    void read(final FileContent content, @Nullable final Predicate<Language> filter,
+              final IntFunction<byte[]> buffers) throws IOException {
+        final Path file = content.file;
         if (Files.isDirectory(file)) {
             throw new IllegalArgumentException("Specified path must be a file");
         }
@@ -111,17 +622,164 @@ public class FileCounter {
             throw new FileNotFoundException("Could not find file: " + file);
         }
 
+        final Language namedLanguage = getLanguageRegistry().fromFileName(file).orElse(null);
+        if (namedLanguage != null && filter != null && !filter.test(namedLanguage)) {
+            return;
+        }
+
         if (!Files.isReadable(file)) {
-            return Map.of();
+            content.result = (namedLanguage == null) ? unrecognized(filter) : Map.of();
+            return;
+        }
+
+        final CountPolicy policy = this.countPolicy;
+        final int headLength = (policy != null && policy.examinesContent())
+                               ? CountPolicy.HEAD_LENGTH
+                               : (namedLanguage == null) ? Language.MAX_SHEBANG_LENGTH : 0;
+
+        final FileChannel channel = FileChannel.open(file);
+        try {
+            final long fileSize = channel.size();
+            final long size = (policy == null) ? fileSize : policy.countedSize(fileSize);
+            if (size > Integer.MAX_VALUE) {
+                // Too large to map or read into an array, so it is read in chunks as it is counted. A positional
+                // read of the head leaves the channel at the start of the file for counting.
+                final ByteBuffer head = ByteBuffer.allocate(headLength);
+                while (head.hasRemaining()) {
+                    if (channel.read(head, head.position()) < 0) {
+                        break;
+                    }
+                }
+                if (accept(content, namedLanguage, head.flip(), fileSize, filter)) {
+                    content.channel = channel;
+                }
+                return;
+            }
+
+            if (size >= this.mapThreshold) {
+                final ByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (accept(content, namedLanguage, mapping, fileSize, filter)) {
+                    if (size < fileSize) {
+                        mapping.limit(lastLineEnd(mapping));
+                    }
+                    content.mapping = mapping;
+                }
+                return;
+            }
+
+            final byte[] bytes = buffers.apply((int)size);
+            content.bytes = bytes;
+            final int headEnd = read(channel, bytes, 0, Math.min((int)size, headLength));
+            if (accept(content, namedLanguage, ByteBuffer.wrap(bytes, 0, headEnd), fileSize, filter)) {
+                final int end = read(channel, bytes, headEnd, (int)size);
+                content.length = (size < fileSize) ? lastLineEnd(ByteBuffer.wrap(bytes, 0, end)) : end;
+            }
+        } finally {
+            if (content.channel == null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Determines the language of a file and whether it is to be counted.
+     *
+     * @param content Content of the file, in which the language, or the reason the file is not counted, is recorded
+     * @param namedLanguage Language determined from the name of the file, or {@code null} if it could not be
+     *      determined from the name
+     * @param head Content at the start of the file
+     * @param size Size of the file
+     * @param filter Determines whether a file in the language is counted, or {@code null} to accept any language
+     * @return {@code true} if the file is to be counted.
+     */
+    private boolean accept(final FileContent content, @Nullable final Language namedLanguage, final ByteBuffer head,
+                           final long size, @Nullable final Predicate<Language> filter) {
+        final Language language = (namedLanguage == null) ? fromShebang(head, filter) : namedLanguage;
+        if (language == null) {
+            content.result = unrecognized(filter);
+            return false;
         }
 
-        final Optional<Language> languageOpt = Language.fromFile(file);
-        if (languageOpt.isEmpty()) {
-            return Map.of();
+        final CountPolicy policy = this.countPolicy;
+        content.skipReason = (policy == null) ? null : policy.examine(size, head);
+        if (content.skipReason != null) {
+            return false;
         }
 
-        try (InputStream ins = Files.newInputStream(file)) {
-            return new Counter(languageOpt.get()).countDocStrings(this.countDocStrings).count(ins);
+        content.language = language;
+        return true;
+    }
+
+    /**
+     * Obtains the registry used to determine the language of each file.
+     *
+     * @return Registry set on this counter, or the current registry if none has been set.
+     */
+    private LanguageRegistry getLanguageRegistry() {
+        return (this.languageRegistry == null) ? LanguageRegistry.current() : this.languageRegistry;
+    }
+
+    /**
+     * Attempts to obtain the language of a file from a shebang at the start of its content.
+     *
+     * @param content Content at the start of the file
+     * @param filter Determines whether a file in the language is counted, or {@code null} to accept any language
+     * @return Language of the file, or {@code null} if there is no recognized shebang or its language is not
+     *      accepted by the filter.
+     */
+    @Nullable
+    private Language fromShebang(final ByteBuffer content, @Nullable final Predicate<Language> filter) {
+        final Language language = getLanguageRegistry().fromShebang(content).orElse(null);
+        return (language == null || filter == null || filter.test(language)) ? language : null;
+    }
+
+    /**
+     * Obtains the result for a file whose language cannot be determined or is not accepted by the filter.
+     *
+     * @param filter Filter for the languages of counted files, or {@code null} if files in any language are counted
+     * @return An empty map if there is no filter, so that the file is reported as unrecognized, or {@code null}
+     *      if there is a filter, so that the file is omitted.
+     */
+    @Nullable
+    private static Map<Language, Counts> unrecognized(@Nullable final Predicate<Language> filter) {
+        return (filter == null) ? Map.of() : null;
+    }
+
+    /**
+     * Finds the end of the last complete line in a truncated file, so that a partial line is not counted.
+     *
+     * @param content Truncated content of the file, from position zero to the limit
+     * @return Position after the last line terminator in the content, or the limit of the content if it does not
+     *      contain a line terminator.
+     */
+    static int lastLineEnd(final ByteBuffer content) {
+        for (int i = content.limit() - 1; i >= 0; i--) {
+            if (content.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return content.limit();
+    }
+
+    /**
+     * Reads the contents of the specified file into the specified array.
+     *
+     * @param channel Channel for reading the file
+     * @param bytes Array into which to read the file
+     * @param start Index in the array at which to start reading, which is the number of bytes already read
+     * @param end Index in the array at which to stop reading, which is the size of the file
+     * @return Index in the array after the last byte read. This is less than the end if the file has shrunk since
+     *      its size was obtained.
+     * @throws IOException if there was a problem reading the file
+     */
+    private static int read(final FileChannel channel, final byte[] bytes, final int start, final int end)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, start, end - start);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
         }
+        return buffer.position();
     }
 }
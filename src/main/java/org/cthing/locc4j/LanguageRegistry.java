@@ -0,0 +1,427 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+
+/**
+ * Immutable mapping of file names, file extensions, shebangs and MIME types to languages. A registry is never
+ * modified once it has been created, so it can be shared by any number of threads and its lookups do not lock.
+ * A registry with different mappings is derived from an existing one (e.g. using
+ * {@link #withExtension(String, Language)}), leaving the existing registry unchanged. This allows concurrent
+ * counting jobs to each use their own mappings. For example:
+ * <pre>{@code
+ * final LanguageRegistry registry = LanguageRegistry.defaults().withExtension("inc", Language.Php);
+ * final FileCounter counter = new FileCounter().languageRegistry(registry);
+ * }</pre>
+ *
+ * <p>
+ * The static lookup methods of {@link Language} (e.g. {@link Language#fromFileName(Path)}) use the registry
+ * obtained from {@link #current()}, which reflects changes made using
+ * {@link Language#addExtension(String, Language)} and {@link Language#removeExtension(String)}. Counters that have
+ * not been given a registry also use the current registry.
+ * </p>
+ */
+public final class LanguageRegistry {
+
+    private static final String ENV_SHEBANG = "#!/usr/bin/env";
+    private static final Pattern WHITESPACE_REGEX = Pattern.compile("\\s+");
+
+    private final Map<String, Language> extensions;
+    private final Map<String, Language> fileNames;
+    private final Map<String, Language> interpreters;
+    private final Map<String, Language> envPrograms;
+    private final Map<String, Language> mimeTypes;
+
+    /**
+     * Constructs a registry with the specified mappings, which are copied.
+     *
+     * @param extensions File extensions, in lowercase, and their languages
+     * @param fileNames File names, in lowercase, and their languages
+     * @param interpreters Shebang interpreters, including the leading "#!", and their languages
+     * @param envPrograms Programs run by {@code env} in a shebang and their languages
+     * @param mimeTypes MIME types and their languages
+     */
+    LanguageRegistry(final Map<String, Language> extensions, final Map<String, Language> fileNames,
+                     final Map<String, Language> interpreters, final Map<String, Language> envPrograms,
+                     final Map<String, Language> mimeTypes) {
+        this.extensions = Map.copyOf(extensions);
+        this.fileNames = Map.copyOf(fileNames);
+        this.interpreters = Map.copyOf(interpreters);
+        this.envPrograms = Map.copyOf(envPrograms);
+        this.mimeTypes = Map.copyOf(mimeTypes);
+    }
+
+    /**
+     * Obtains the registry containing the default mappings for all languages.
+     *
+     * @return Default registry.
+     */
+    public static LanguageRegistry defaults() {
+        return Language.DEFAULT_REGISTRY;
+    }
+
+    /**
+     * Obtains the registry used by the static lookup methods of {@link Language}. This is the default registry
+     * with any changes made using {@link Language#addExtension(String, Language)} and
+     * {@link Language#removeExtension(String)}. The registry is a snapshot, which does not reflect later changes.
+     *
+     * @return Current registry.
+     */
+    public static LanguageRegistry current() {
+        return Language.getRegistry();
+    }
+
+    /**
+     * Obtains the mapping of file extensions to languages.
+     *
+     * @return Read-only map of file extensions, in lowercase, to languages.
+     */
+    public Map<String, Language> getExtensions() {
+        return this.extensions;
+    }
+
+    /**
+     * Obtains the mapping of file names to languages (e.g. Makefile).
+     *
+     * @return Read-only map of file names, in lowercase, to languages.
+     */
+    public Map<String, Language> getFileNames() {
+        return this.fileNames;
+    }
+
+    /**
+     * Obtains the mapping of shebang interpreters to languages.
+     *
+     * @return Read-only map of shebang interpreters, including the leading "#!", to languages.
+     */
+    public Map<String, Language> getInterpreters() {
+        return this.interpreters;
+    }
+
+    /**
+     * Obtains the mapping of programs run by {@code env} in a shebang to languages.
+     *
+     * @return Read-only map of {@code env} programs to languages.
+     */
+    public Map<String, Language> getEnvPrograms() {
+        return this.envPrograms;
+    }
+
+    /**
+     * Obtains the mapping of MIME types to languages.
+     *
+     * @return Read-only map of MIME types to languages.
+     */
+    public Map<String, Language> getMimeTypes() {
+        return this.mimeTypes;
+    }
+
+    /**
+     * Derives a registry in which the specified file extension maps to the specified language. If the extension
+     * already maps to a language, it is replaced.
+     *
+     * @param extension File extension (without the leading period). Extensions are case-insensitive.
+     * @param language Language to map to the extension
+     * @return New registry with the extension. This registry is not changed.
+     */
+    public LanguageRegistry withExtension(final String extension, final Language language) {
+        return new LanguageRegistry(put(this.extensions, extension.toLowerCase(Locale.ROOT), language),
+                                    this.fileNames, this.interpreters, this.envPrograms, this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry without the specified file extension.
+     *
+     * @param extension File extension (without the leading period). Extensions are case-insensitive.
+     * @return New registry without the extension. This registry is not changed.
+     */
+    public LanguageRegistry withoutExtension(final String extension) {
+        return new LanguageRegistry(remove(this.extensions, extension.toLowerCase(Locale.ROOT)),
+                                    this.fileNames, this.interpreters, this.envPrograms, this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry in which the specified file name maps to the specified language. File names are matched
+     * before file extensions.
+     *
+     * @param fileName Name of the file (e.g. Jenkinsfile). File names are case-insensitive.
+     * @param language Language to map to the file name
+     * @return New registry with the file name. This registry is not changed.
+     */
+    public LanguageRegistry withFileName(final String fileName, final Language language) {
+        return new LanguageRegistry(this.extensions, put(this.fileNames, fileName.toLowerCase(Locale.ROOT), language),
+                                    this.interpreters, this.envPrograms, this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry without the specified file name.
+     *
+     * @param fileName Name of the file. File names are case-insensitive.
+     * @return New registry without the file name. This registry is not changed.
+     */
+    public LanguageRegistry withoutFileName(final String fileName) {
+        return new LanguageRegistry(this.extensions, remove(this.fileNames, fileName.toLowerCase(Locale.ROOT)),
+                                    this.interpreters, this.envPrograms, this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry in which the specified shebang interpreter maps to the specified language.
+     *
+     * @param interpreter Shebang interpreter, including the leading "#!" (e.g. "#!/usr/local/bin/bash")
+     * @param language Language to map to the interpreter
+     * @return New registry with the interpreter. This registry is not changed.
+     */
+    public LanguageRegistry withInterpreter(final String interpreter, final Language language) {
+        return new LanguageRegistry(this.extensions, this.fileNames, put(this.interpreters, interpreter, language),
+                                    this.envPrograms, this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry without the specified shebang interpreter.
+     *
+     * @param interpreter Shebang interpreter, including the leading "#!"
+     * @return New registry without the interpreter. This registry is not changed.
+     */
+    public LanguageRegistry withoutInterpreter(final String interpreter) {
+        return new LanguageRegistry(this.extensions, this.fileNames, remove(this.interpreters, interpreter),
+                                    this.envPrograms, this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry in which the specified program run by {@code env} in a shebang maps to the specified
+     * language.
+     *
+     * @param program Program run by {@code env} (e.g. "node")
+     * @param language Language to map to the program
+     * @return New registry with the program. This registry is not changed.
+     */
+    public LanguageRegistry withEnvProgram(final String program, final Language language) {
+        return new LanguageRegistry(this.extensions, this.fileNames, this.interpreters,
+                                    put(this.envPrograms, program, language), this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry without the specified program run by {@code env} in a shebang.
+     *
+     * @param program Program run by {@code env}
+     * @return New registry without the program. This registry is not changed.
+     */
+    public LanguageRegistry withoutEnvProgram(final String program) {
+        return new LanguageRegistry(this.extensions, this.fileNames, this.interpreters,
+                                    remove(this.envPrograms, program), this.mimeTypes);
+    }
+
+    /**
+     * Derives a registry in which the specified MIME type maps to the specified language.
+     *
+     * @param mimeType MIME type (e.g. "text/x-c")
+     * @param language Language to map to the MIME type
+     * @return New registry with the MIME type. This registry is not changed.
+     */
+    public LanguageRegistry withMimeType(final String mimeType, final Language language) {
+        return new LanguageRegistry(this.extensions, this.fileNames, this.interpreters, this.envPrograms,
+                                    put(this.mimeTypes, mimeType, language));
+    }
+
+    /**
+     * Derives a registry without the specified MIME type.
+     *
+     * @param mimeType MIME type
+     * @return New registry without the MIME type. This registry is not changed.
+     */
+    public LanguageRegistry withoutMimeType(final String mimeType) {
+        return new LanguageRegistry(this.extensions, this.fileNames, this.interpreters, this.envPrograms,
+                                    remove(this.mimeTypes, mimeType));
+    }
+
+    /**
+     * Attempts to obtain the language of a file from its name, its extension and then the shebang in its first
+     * line. See {@link Language#fromFile(Path)}.
+     *
+     * @param file File whose language is to be determined
+     * @return Language corresponding to the specified file. If the file cannot be found or read, or the language
+     *     cannot be determined, an empty {@link Optional} is returned.
+     */
+    public Optional<Language> fromFile(final Path file) {
+        if (Files.isDirectory(file)) {
+            throw new IllegalArgumentException("Path must be a file");
+        }
+
+        return fromFileName(file).or(() -> fromShebang(file));
+    }
+
+    /**
+     * Attempts to obtain the language of a file from its name and then its extension. See
+     * {@link Language#fromFileName(Path)}.
+     *
+     * @param file File whose language is to be determined
+     * @return Language corresponding to the name of the specified file. If the language cannot be determined, an
+     *      empty {@link Optional} is returned.
+     */
+    public Optional<Language> fromFileName(final Path file) {
+        final Path filenamePath = file.getFileName();
+        if (filenamePath == null) {
+            throw new IllegalArgumentException("Path is empty");
+        }
+        return fromFileName(filenamePath.toString());
+    }
+
+    /**
+     * Attempts to obtain the language of a file from its name and then its extension. See
+     * {@link Language#fromFileName(String)}.
+     *
+     * @param name Name of the file whose language is to be determined. Any leading directories, separated by '/',
+     *      are ignored.
+     * @return Language corresponding to the specified name. If the language cannot be determined, an empty
+     *      {@link Optional} is returned.
+     */
+    public Optional<Language> fromFileName(final String name) {
+        final String filename = name.substring(name.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        if (filename.isEmpty()) {
+            throw new IllegalArgumentException("Name is empty");
+        }
+
+        final Language language = this.fileNames.get(filename);
+        if (language != null) {
+            return Optional.of(language);
+        }
+
+        final int extIdx = filename.lastIndexOf('.');
+        return (extIdx == -1 || filename.length() < 2)
+                ? Optional.empty()
+                : Optional.ofNullable(this.extensions.get(filename.substring(extIdx + 1)));
+    }
+
+    /**
+     * Attempts to obtain the language of a file based on its file extension.
+     *
+     * @param extension File extension to search (without the leading ".")
+     * @return Language corresponding to the specified file extension. If the language cannot be determined, an
+     *      empty {@link Optional} is returned. The matching is case-insensitive.
+     */
+    public Optional<Language> fromFileExtension(final String extension) {
+        return Optional.ofNullable(this.extensions.get(extension.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Attempts to obtain the language of a file based on its MIME type.
+     *
+     * @param mimeType File MIME type
+     * @return Language corresponding to the specified MIME type. If the language cannot be determined, an empty
+     *      {@link Optional} is returned.
+     */
+    public Optional<Language> fromMime(final String mimeType) {
+        return Optional.ofNullable(this.mimeTypes.get(mimeType));
+    }
+
+    /**
+     * Attempts to obtain the language of the specified file based on a shebang ("#!") on its first line. See
+     * {@link Language#fromShebang(Path)}.
+     *
+     * @param file File whose shebang is to be matched
+     * @return Language corresponding to the specified file's shebang, if found.
+     */
+    public Optional<Language> fromShebang(final Path file) {
+        if (Files.isDirectory(file)) {
+            throw new IllegalArgumentException("Path must be a file");
+        }
+
+        final ByteBuffer head = ByteBuffer.allocate(Language.MAX_SHEBANG_LENGTH);
+        try (FileChannel channel = FileChannel.open(file)) {
+            while (head.hasRemaining()) {
+                if (channel.read(head) < 0) {
+                    break;
+                }
+            }
+        } catch (final IOException ex) {
+            return Optional.empty();
+        }
+
+        return fromShebang(head.flip());
+    }
+
+    /**
+     * Attempts to obtain the language of UTF-8 encoded file content based on a shebang ("#!") on its first line.
+     * See {@link Language#fromShebang(ByteBuffer)}.
+     *
+     * @param content Content whose shebang is to be matched. The bytes from the position to the limit of the
+     *      buffer are examined, up to a maximum of 1024 bytes. The position of the buffer is not changed.
+     * @return Language corresponding to the specified content's shebang, if found.
+     */
+    public Optional<Language> fromShebang(final ByteBuffer content) {
+        // Every interpreter and environment shebang starts with "#!", so the line need only be decoded when the
+        // content starts with those characters.
+        final int start = content.position();
+        final int limit = Math.min(content.limit(), start + Language.MAX_SHEBANG_LENGTH);
+        if (limit - start < 2 || content.get(start) != '#' || content.get(start + 1) != '!') {
+            return Optional.empty();
+        }
+
+        int end = start + 2;
+        while (end < limit && content.get(end) != '\n' && content.get(end) != '\r') {
+            end++;
+        }
+        final String firstLine = StandardCharsets.UTF_8.decode(content.slice(start, end - start)).toString();
+
+        final String[] words = WHITESPACE_REGEX.split(firstLine);
+        if (words.length == 0) {
+            return Optional.empty();
+        }
+
+        // First try looking for a shebang interpreter
+        final Language language = this.interpreters.get(words[0]);
+        if (language != null) {
+            return Optional.of(language);
+        }
+
+        // Next try looking for a shebang env program
+        if (words.length < 2 || !ENV_SHEBANG.equals(words[0])) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(this.envPrograms.get(words[1]));
+    }
+
+    /**
+     * Copies the specified mapping with an added entry.
+     *
+     * @param map Mapping to copy
+     * @param key Key to add or replace
+     * @param language Language to map to the key
+     * @return Copy of the mapping with the entry.
+     */
+    private static Map<String, Language> put(final Map<String, Language> map, final String key,
+                                             final Language language) {
+        final Map<String, Language> copy = new HashMap<>(map);
+        copy.put(key, language);
+        return copy;
+    }
+
+    /**
+     * Copies the specified mapping without an entry.
+     *
+     * @param map Mapping to copy
+     * @param key Key to remove
+     * @return Copy of the mapping without the entry.
+     */
+    private static Map<String, Language> remove(final Map<String, Language> map, final String key) {
+        final Map<String, Language> copy = new HashMap<>(map);
+        copy.remove(key);
+        return copy;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Accumulates line counts for each language as files are counted, on any number of threads. This allows the totals
+ * for a tree to be obtained without building the counts for every file and then adding them up (see
+ * {@link CountUtils#byLanguage(Map)}). Give the totals to a {@link FileCounter} or {@link CountingTreeWalker} and
+ * the counts for each file are added as soon as the file has been counted, on the thread that counted it.
+ *
+ * <p>
+ * The counts for each language are held in striped counters ({@link LongAdder}), which threads update without
+ * locking and with little contention, even when many threads count files in the same language. The counters for a
+ * language are created when the language is first added. The counts are summed when they are obtained, so a
+ * snapshot taken while files are being counted may include only some of the counts of a file. Once counting has
+ * finished, a snapshot contains the counts of every file that was counted.
+ * </p>
+ *
+ * <p>
+ * The counters hold long values, but the counts are obtained as {@link Counts}, whose values are {@code int}. A
+ * count that exceeds {@link Integer#MAX_VALUE} cannot be represented, so obtaining it throws an
+ * {@link ArithmeticException} rather than returning a count that has wrapped around.
+ * </p>
+ */
+public final class LanguageTotals {
+
+    /**
+     * Striped counters for a language.
+     */
+    private static final class Totals {
+        final LongAdder codeLines = new LongAdder();
+        final LongAdder commentLines = new LongAdder();
+        final LongAdder blankLines = new LongAdder();
+
+        /**
+         * Sums the counters.
+         *
+         * @return Counts for the language.
+         * @throws ArithmeticException if a count exceeds {@link Integer#MAX_VALUE}
+         */
+        Counts sum() {
+            return new Counts(Math.toIntExact(this.codeLines.sum()), Math.toIntExact(this.commentLines.sum()),
+                              Math.toIntExact(this.blankLines.sum()));
+        }
+    }
+
+    private static final Language[] LANGUAGES = Language.values();
+
+    private final AtomicReferenceArray<Totals> totals = new AtomicReferenceArray<>(LANGUAGES.length);
+
+    /**
+     * Adds the specified counts for a file to the totals. May be called on any thread.
+     *
+     * @param counts Line counts for each language in a file
+     */
+    public void add(final Map<Language, Counts> counts) {
+        for (final Map.Entry<Language, Counts> entry : counts.entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Adds the specified counts to the totals for a language. May be called on any thread.
+     *
+     * @param language Language of the counts
+     * @param counts Line counts to add
+     */
+    public void add(final Language language, final Counts counts) {
+        final Totals languageTotals = getTotals(language);
+        if (counts.codeLines != 0) {
+            languageTotals.codeLines.add(counts.codeLines);
+        }
+        if (counts.commentLines != 0) {
+            languageTotals.commentLines.add(counts.commentLines);
+        }
+        if (counts.blankLines != 0) {
+            languageTotals.blankLines.add(counts.blankLines);
+        }
+    }
+
+    /**
+     * Obtains the total line counts for the specified language.
+     *
+     * @param language Language whose counts are to be obtained
+     * @return Line counts for the language, which are zero if no counts have been added for the language.
+     * @throws ArithmeticException if a count for the language exceeds {@link Integer#MAX_VALUE}
+     */
+    public Counts get(final Language language) {
+        final Totals languageTotals = this.totals.get(language.ordinal());
+        return (languageTotals == null) ? Counts.ZERO : languageTotals.sum();
+    }
+
+    /**
+     * Obtains the total line counts for each language. The result is the same as applying
+     * {@link CountUtils#byLanguage(Map)} to the counts of every file that has been added.
+     *
+     * @return Line counts for each language for which counts have been added.
+     * @throws ArithmeticException if a count for a language exceeds {@link Integer#MAX_VALUE}
+     */
+    public Map<Language, Counts> snapshot() {
+        final Map<Language, Counts> langMap = new EnumMap<>(Language.class);
+        for (int i = 0; i < LANGUAGES.length; i++) {
+            final Totals languageTotals = this.totals.get(i);
+            if (languageTotals != null) {
+                langMap.put(LANGUAGES[i], languageTotals.sum());
+            }
+        }
+        return Collections.unmodifiableMap(langMap);
+    }
+
+    /**
+     * Obtains the total line counts for all languages. The result is the same as applying
+     * {@link CountUtils#total(Map)} to the counts of every file that has been added.
+     *
+     * @return Total line counts.
+     * @throws ArithmeticException if a total count exceeds {@link Integer#MAX_VALUE}
+     */
+    public Counts total() {
+        long codeLines = 0;
+        long commentLines = 0;
+        long blankLines = 0;
+        for (int i = 0; i < LANGUAGES.length; i++) {
+            final Totals languageTotals = this.totals.get(i);
+            if (languageTotals != null) {
+                codeLines += languageTotals.codeLines.sum();
+                commentLines += languageTotals.commentLines.sum();
+                blankLines += languageTotals.blankLines.sum();
+            }
+        }
+        return new Counts(Math.toIntExact(codeLines), Math.toIntExact(commentLines), Math.toIntExact(blankLines));
+    }
+
+    /**
+     * Obtains the counters for the specified language, creating them if this is the first time the language has
+     * been added.
+     *
+     * @param language Language whose counters are to be obtained
+     * @return Counters for the language.
+     */
+    private Totals getTotals(final Language language) {
+        final int index = language.ordinal();
+        final Totals languageTotals = this.totals.get(index);
+        if (languageTotals != null) {
+            return languageTotals;
+        }
+        final Totals created = new Totals();
+        return this.totals.compareAndSet(index, null, created) ? created : this.totals.get(index);
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Records the classification of each line counted by a {@link Counter}. Specify a line map using
+ * {@link Counter#lineMap(LineMap)} and it is filled in while the lines are counted, in the same pass over the
+ * text. The map is cleared at the start of each count, so it describes the most recent count.
+ *
+ * <p>
+ * Lines are identified by their zero based line number in the counted text. The type of each line is packed into
+ * two bits, so that a map for a million line file occupies 250KB. Content in an embedded language (e.g. a script in
+ * HTML or a code block in Markdown) is recorded as a run of consecutive lines in that language. Runs are nested
+ * when embedded content itself contains embedded content, and the innermost run determines the language of a line.
+ * </p>
+ *
+ * <p>
+ * A line whose content is split between languages (e.g. a script element on a single line of HTML) is counted
+ * for each language but is recorded once, with the type of the line as last counted. Lines of a Jupyter notebook
+ * are recorded as code because its cells are JSON strings that do not correspond to lines of the file.
+ * </p>
+ */
+public final class LineMap {
+
+    /**
+     * Type of a counted line.
+     */
+    public enum LineType {
+        /** Line of code (see {@link Counts#getCodeLines()}). */
+        CODE,
+        /** Line consisting solely of comments (see {@link Counts#getCommentLines()}). */
+        COMMENT,
+        /** Line containing only whitespace (see {@link Counts#getBlankLines()}). */
+        BLANK,
+    }
+
+    private static final LineType[] LINE_TYPES = LineType.values();
+    private static final int BITS_PER_LINE = 2;
+    private static final int LINES_PER_WORD = Long.SIZE / BITS_PER_LINE;
+    private static final long LINE_MASK = (1L << BITS_PER_LINE) - 1;
+    private static final int INITIAL_WORDS = 16;
+    private static final int INITIAL_RUNS = 8;
+
+    @Nullable
+    private Language language;
+    private long[] lineTypes;
+    private int lineCount;
+    private int[] runStarts;
+    private int[] runEnds;
+    private Language[] runLanguages;
+    private int runCount;
+
+    /**
+     * Constructs an empty line map.
+     */
+    public LineMap() {
+        this.lineTypes = new long[INITIAL_WORDS];
+        this.runStarts = new int[INITIAL_RUNS];
+        this.runEnds = new int[INITIAL_RUNS];
+        this.runLanguages = new Language[INITIAL_RUNS];
+    }
+
+    /**
+     * Obtains the language of the counted text.
+     *
+     * @return Language of the counted text or {@code null} if no text has been counted.
+     */
+    @Nullable
+    public Language getLanguage() {
+        return this.language;
+    }
+
+    /**
+     * Obtains the number of lines recorded.
+     *
+     * @return One more than the line number of the last line recorded.
+     */
+    public int getLineCount() {
+        return this.lineCount;
+    }
+
+    /**
+     * Obtains the type of the specified line.
+     *
+     * @param line Zero based line number
+     * @return Type of the line or {@code null} if the line was not counted (e.g. whitespace preceding a Rust
+     *      documentation comment, which is skipped when counting the comment).
+     * @throws IndexOutOfBoundsException if the line number is negative or not less than the line count
+     */
+    @Nullable
+    public LineType getLineType(final int line) {
+        Objects.checkIndex(line, this.lineCount);
+        final int code = (int)((this.lineTypes[line / LINES_PER_WORD] >>> shift(line)) & LINE_MASK);
+        return (code == 0) ? null : LINE_TYPES[code - 1];
+    }
+
+    /**
+     * Obtains the language of the specified line. This is the language of the innermost run of embedded content
+     * containing the line or, if the line is not embedded content, the language of the counted text.
+     *
+     * @param line Zero based line number
+     * @return Language of the line.
+     * @throws IndexOutOfBoundsException if the line number is negative or not less than the line count
+     */
+    public Language getLineLanguage(final int line) {
+        Objects.checkIndex(line, this.lineCount);
+
+        // Runs are ordered by their first line, and a nested run follows the run containing it. Therefore, the
+        // innermost run containing the line is the last such run starting at or before the line.
+        int index = Arrays.binarySearch(this.runStarts, 0, this.runCount, line);
+        if (index >= 0) {
+            while (index + 1 < this.runCount && this.runStarts[index + 1] == line) {
+                index++;
+            }
+        } else {
+            index = -index - 2;
+        }
+        for (int i = index; i >= 0; i--) {
+            if (line < this.runEnds[i]) {
+                return this.runLanguages[i];
+            }
+        }
+
+        return Objects.requireNonNull(this.language);
+    }
+
+    /**
+     * Obtains the number of runs of embedded content.
+     *
+     * @return Number of runs of lines in an embedded language.
+     */
+    public int getRunCount() {
+        return this.runCount;
+    }
+
+    /**
+     * Obtains the first line of the specified run of embedded content. Runs are ordered by their first line.
+     *
+     * @param run Index of the run
+     * @return Zero based line number of the first line of the run.
+     * @throws IndexOutOfBoundsException if the run index is negative or not less than the run count
+     */
+    public int getRunStart(final int run) {
+        return this.runStarts[Objects.checkIndex(run, this.runCount)];
+    }
+
+    /**
+     * Obtains the end of the specified run of embedded content.
+     *
+     * @param run Index of the run
+     * @return Zero based line number following the last line of the run.
+     * @throws IndexOutOfBoundsException if the run index is negative or not less than the run count
+     */
+    public int getRunEnd(final int run) {
+        return this.runEnds[Objects.checkIndex(run, this.runCount)];
+    }
+
+    /**
+     * Obtains the language of the specified run of embedded content.
+     *
+     * @param run Index of the run
+     * @return Language of the lines in the run.
+     * @throws IndexOutOfBoundsException if the run index is negative or not less than the run count
+     */
+    public Language getRunLanguage(final int run) {
+        return this.runLanguages[Objects.checkIndex(run, this.runCount)];
+    }
+
+    /**
+     * Removes all lines and runs from the map in preparation for counting text in the specified language. The
+     * storage is retained for reuse.
+     *
+     * @param textLanguage Language of the text to be counted
+     */
+    void clear(final Language textLanguage) {
+        this.language = textLanguage;
+        Arrays.fill(this.lineTypes, 0, Math.min(wordCount(this.lineCount), this.lineTypes.length), 0L);
+        this.lineCount = 0;
+        Arrays.fill(this.runLanguages, 0, this.runCount, null);
+        this.runCount = 0;
+    }
+
+    /**
+     * Records the type of the specified line.
+     *
+     * @param line Zero based line number
+     * @param type Type of the line
+     */
+    void set(final int line, final LineType type) {
+        final int word = line / LINES_PER_WORD;
+        if (word >= this.lineTypes.length) {
+            this.lineTypes = Arrays.copyOf(this.lineTypes, Math.max(this.lineTypes.length * 2, word + 1));
+        }
+        final int shift = shift(line);
+        this.lineTypes[word] = (this.lineTypes[word] & ~(LINE_MASK << shift))
+                | ((long)(type.ordinal() + 1) << shift);
+        this.lineCount = Math.max(this.lineCount, line + 1);
+    }
+
+    /**
+     * Records the start of a run of embedded content. The end of the run is set by {@link #endRun(int)}.
+     *
+     * @param runLanguage Language of the embedded content
+     * @param line Zero based line number of the first line of the embedded content
+     * @return Index of the run.
+     */
+    int startRun(final Language runLanguage, final int line) {
+        if (this.runCount == this.runStarts.length) {
+            final int capacity = this.runCount * 2;
+            this.runStarts = Arrays.copyOf(this.runStarts, capacity);
+            this.runEnds = Arrays.copyOf(this.runEnds, capacity);
+            this.runLanguages = Arrays.copyOf(this.runLanguages, capacity);
+        }
+        this.runStarts[this.runCount] = line;
+        this.runEnds[this.runCount] = line;
+        this.runLanguages[this.runCount] = runLanguage;
+        return this.runCount++;
+    }
+
+    /**
+     * Records the end of a run of embedded content once its lines have been recorded. The run ends after the last
+     * line recorded. A run in which no lines were recorded is removed.
+     *
+     * @param run Index of the run returned by {@link #startRun(Language, int)}
+     */
+    void endRun(final int run) {
+        if (this.lineCount > this.runStarts[run]) {
+            this.runEnds[run] = this.lineCount;
+        } else if (run == this.runCount - 1) {
+            this.runLanguages[run] = null;
+            this.runCount--;
+        }
+    }
+
+    private static int shift(final int line) {
+        return (line % LINES_PER_WORD) * BITS_PER_LINE;
+    }
+
+    private static int wordCount(final int lines) {
+        return (lines + LINES_PER_WORD - 1) / LINES_PER_WORD;
+    }
+}
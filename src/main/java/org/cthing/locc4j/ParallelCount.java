@@ -0,0 +1,226 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Reads and counts files concurrently on a work-stealing pool of platform threads, or on a virtual thread for each
+ * file. Each file is read and counted entirely on one thread, using that thread's buffer and counter pools, and the
+ * counts are recorded in the file's content (see {@link FileCounter#readAndCount(FileContent, Predicate)}). The
+ * thread that submitted the files takes them in submission order and gathers their counts, so that the results, the
+ * files reported as skipped and any failure are the same as when the files are counted sequentially.
+ *
+ * <p>
+ * On a work-stealing pool, the number of files that have been submitted but not yet taken is limited to
+ * {@value #FILES_PER_THREAD} per thread. This is enough to keep every thread busy when files vary greatly in
+ * size, while bounding the number of pending tasks for trees with millions of files. Because a file's array is
+ * returned to its thread's pool as soon as the file has been counted, files that are waiting to be taken hold only
+ * their counts.
+ * </p>
+ *
+ * <p>
+ * On virtual threads, a permit limits the number of files that are read and counted at once. Because a virtual
+ * thread is created for each file, its own buffer and counter pools would be created for each file and discarded
+ * with the thread. Instead, the stage keeps a buffer pool and counter pool for each file being counted at once,
+ * and attaches them to the virtual thread while it counts a file.
+ * </p>
+ *
+ * <p>
+ * In a {@link CountingPipeline}, files are read by a separate {@link ReadAhead} stage and submitted to this stage
+ * once they have been read, so that the threads of this stage only count. Each file is returned to the read ahead
+ * stage as soon as it has been counted.
+ * </p>
+ */
+final class ParallelCount extends AbstractFileStage {
+
+    /** Maximum number of files per thread that have been submitted but not yet taken. */
+    static final int FILES_PER_THREAD = 64;
+
+    /**
+     * Buffer and counter pools attached to a virtual thread while it counts a file.
+     *
+     * @param buffers Buffer pool
+     * @param counters Counter pool
+     */
+    private record ThreadPools(BufferPool buffers, CounterPool counters) {
+    }
+
+    private final FileCounter counter;
+    @Nullable
+    private final Predicate<Language> filter;
+    @Nullable
+    private final ReadAhead reader;
+    @Nullable
+    private final Semaphore permits;
+    private final Queue<ThreadPools> threadPools;
+
+    /**
+     * Constructs a parallel counting stage that counts files on a work-stealing pool of platform threads.
+     *
+     * @param counter Counter whose configuration determines how files are read and counted
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @param parallelism Number of threads on which to count files
+     */
+    ParallelCount(final FileCounter counter, @Nullable final Predicate<Language> filter, final int parallelism) {
+        this(counter, filter, newPool(parallelism), parallelism * FILES_PER_THREAD, null, null);
+    }
+
+    /**
+     * Constructs a parallel counting stage that counts files on the specified executor.
+     *
+     * @param counter Counter whose configuration determines how files are read and counted
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @param executor Executor on which to count files, which is shut down when the stage is closed
+     * @param maxFiles Maximum number of files that have been submitted but not taken
+     * @param reader Stage that has read the files, or {@code null} if this stage reads them
+     * @param permits Limits the number of files counted at once on a thread per task executor, or {@code null}
+     *      if the executor bounds the number of threads
+     */
+    private ParallelCount(final FileCounter counter, @Nullable final Predicate<Language> filter,
+                          final ExecutorService executor, final int maxFiles, @Nullable final ReadAhead reader,
+                          @Nullable final Semaphore permits) {
+        super(executor, maxFiles);
+        this.counter = counter;
+        this.filter = filter;
+        this.reader = reader;
+        this.permits = permits;
+        this.threadPools = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Creates a parallel counting stage that counts files that have already been read by the specified stage. The
+     * content of each file must be taken from the read ahead stage and submitted to this stage using
+     * {@link #submit(FileContent)}, and is released to the read ahead stage once it has been counted.
+     *
+     * @param counter Counter whose configuration determines how files are counted
+     * @param reader Stage that reads the files, which must not be closed before this stage is closed
+     * @param parallelism Number of threads on which to count files
+     * @return Parallel counting stage.
+     */
+    static ParallelCount afterRead(final FileCounter counter, final ReadAhead reader, final int parallelism) {
+        return new ParallelCount(counter, null, newPool(parallelism), parallelism * FILES_PER_THREAD, reader, null);
+    }
+
+    /**
+     * Creates a parallel counting stage that counts each file on its own virtual thread, if virtual threads are
+     * available. No more than the specified number of files are read and counted at once. The number of files that
+     * have been submitted but not yet taken is limited to twice that number, so that another file can be started
+     * as soon as one finishes, while the counted files are being gathered.
+     *
+     * @param counter Counter whose configuration determines how files are read and counted
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @param threads Maximum number of files that are read and counted concurrently
+     * @return Parallel counting stage, or {@code null} if virtual threads are not available.
+     */
+    @Nullable
+    static ParallelCount onVirtualThreads(final FileCounter counter, @Nullable final Predicate<Language> filter,
+                                          final int threads) {
+        final ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+        return (executor == null) ? null : new ParallelCount(counter, filter, executor, 2 * threads, null,
+                                                             new Semaphore(threads));
+    }
+
+    /**
+     * Releases the specified file once its counts have been gathered. There is normally nothing to release because
+     * the file was closed and its array returned to the pool when it was counted. A file read by another stage
+     * that was not counted because this stage was closed is returned to that stage.
+     *
+     * @param content Content of the file obtained from {@link #take()}
+     * @throws IOException if there was a problem closing the file
+     */
+    @Override
+    void release(final FileContent content) throws IOException {
+        if (this.reader != null) {
+            this.reader.release(content);
+        }
+    }
+
+    /**
+     * Reads and counts the specified file. Called on a thread of the pool.
+     *
+     * @param content Content of the file to count
+     * @param sequence Submission sequence number of the file
+     * @throws IOException if there was a problem reading the file
+     */
+    @Override
+    void prepare(final FileContent content, final long sequence) throws IOException {
+        final Semaphore virtualPermits = this.permits;
+        if (virtualPermits != null) {
+            prepareOnVirtualThread(content, virtualPermits);
+        } else if (this.reader == null) {
+            this.counter.readAndCount(content, this.filter);
+        } else {
+            try {
+                this.counter.countRead(content);
+            } finally {
+                this.reader.release(content);
+            }
+        }
+    }
+
+    /**
+     * Reads and counts the specified file on a virtual thread, once a permit is available, using buffer and counter
+     * pools kept by this stage.
+     *
+     * @param content Content of the file to count
+     * @param virtualPermits Limits the number of files that are read and counted at once
+     * @throws IOException if there was a problem reading the file
+     */
+    private void prepareOnVirtualThread(final FileContent content, final Semaphore virtualPermits)
+            throws IOException {
+        try {
+            virtualPermits.acquire();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to count " + content.file);
+        }
+
+        // There are never more pools than permits, because pools are only taken while holding a permit.
+        ThreadPools pools = this.threadPools.poll();
+        if (pools == null) {
+            pools = new ThreadPools(BufferPool.create(), CounterPool.create());
+        }
+        pools.buffers().attach();
+        pools.counters().attach();
+        try {
+            this.counter.readAndCount(content, this.filter);
+        } finally {
+            BufferPool.detach();
+            CounterPool.detach();
+            this.threadPools.add(pools);
+            virtualPermits.release();
+        }
+    }
+
+    /**
+     * Creates a work-stealing pool of platform threads on which to count files.
+     *
+     * @param parallelism Number of threads in the pool
+     * @return Newly created pool.
+     */
+    private static ForkJoinPool newPool(final int parallelism) {
+        return new ForkJoinPool(parallelism, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("locc4j-counter-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+import org.cthing.annotations.AccessForTesting;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Reads files on a small pool of dedicated reader threads ahead of counting them, so that reading the next files
+ * overlaps with counting the current file. Files are submitted in the order in which they are to be counted, and
+ * are taken in the same order once they have been read. Each reader reads its file completely into an array, so
+ * that the thread counting the file does not wait for I/O. Files that are memory mapped or read in chunks (see
+ * {@link FileCounter#mapThreshold(long)}) are prepared by the readers, but their content is read as they are
+ * counted.
+ *
+ * <p>
+ * The number of files that are read ahead is limited, as is the total size of the arrays holding files that have
+ * been read but not yet counted. A reader waits for files to be counted before reading a file that would exceed
+ * the byte budget, unless that file is the next one to be counted, so that a file larger than the budget cannot
+ * stall counting. Arrays are recycled once the files they hold have been counted.
+ * </p>
+ *
+ * <p>
+ * Files taken from this stage may be counted on other threads (see {@link CountingPipeline}), so files can be
+ * released on any thread.
+ * </p>
+ */
+final class ReadAhead extends AbstractFileStage {
+
+    /** Maximum number of reader threads. */
+    static final int MAX_READERS = 4;
+
+    private final FileCounter counter;
+    @Nullable
+    private final Predicate<Language> filter;
+    private final int maxFiles;
+    private final long maxBytes;
+    private final ArrayDeque<byte[]> freeBuffers;
+    private long takenSequence = -1;
+    private long bytesInFlight;
+
+    /**
+     * Constructs a read ahead stage.
+     *
+     * @param counter Counter whose configuration determines how files are read (see
+     *      {@link FileCounter#read(FileContent, Predicate, java.util.function.IntFunction)})
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @param maxFiles Maximum number of files that are read ahead
+     * @param maxBytes Maximum total size of the arrays holding files that have been read ahead but not counted
+     */
+    ReadAhead(final FileCounter counter, @Nullable final Predicate<Language> filter, final int maxFiles,
+              final long maxBytes) {
+        this(counter, filter, Math.min(maxFiles, MAX_READERS), maxFiles, maxBytes);
+    }
+
+    /**
+     * Constructs a read ahead stage with the specified number of reader threads.
+     *
+     * @param counter Counter whose configuration determines how files are read (see
+     *      {@link FileCounter#read(FileContent, Predicate, java.util.function.IntFunction)})
+     * @param filter Determines whether a file in a language is counted, or {@code null} to count files in any
+     *      language
+     * @param readers Number of reader threads
+     * @param maxFiles Maximum number of files that are read ahead
+     * @param maxBytes Maximum total size of the arrays holding files that have been read ahead but not counted
+     */
+    ReadAhead(final FileCounter counter, @Nullable final Predicate<Language> filter, final int readers,
+              final int maxFiles, final long maxBytes) {
+        super(Executors.newFixedThreadPool(readers, runnable -> {
+            final Thread thread = new Thread(runnable, "locc4j-reader");
+            thread.setDaemon(true);
+            return thread;
+        }), maxFiles);
+        this.counter = counter;
+        this.filter = filter;
+        this.maxFiles = maxFiles;
+        this.maxBytes = maxBytes;
+        this.freeBuffers = new ArrayDeque<>(maxFiles);
+    }
+
+    /**
+     * Releases the specified file once it has been counted, recycling the array holding its content.
+     *
+     * @param content Content of the file obtained from {@link #take()}
+     * @throws IOException if there was a problem closing the file
+     */
+    @Override
+    void release(final FileContent content) throws IOException {
+        try {
+            content.close();
+        } finally {
+            final byte[] buffer = content.bytes;
+            if (buffer != null) {
+                content.bytes = null;
+                synchronized (this) {
+                    this.bytesInFlight -= buffer.length;
+                    if (this.freeBuffers.size() < this.maxFiles) {
+                        this.freeBuffers.addLast(buffer);
+                    }
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the specified file. Called on a reader thread.
+     *
+     * @param content Content of the file to read
+     * @param sequence Submission sequence number of the file
+     * @throws IOException if there was a problem reading the file
+     */
+    @Override
+    void prepare(final FileContent content, final long sequence) throws IOException {
+        this.counter.read(content, this.filter, length -> acquire(sequence, length));
+    }
+
+    /**
+     * Allows the file about to be counted to exceed the byte budget, so that it cannot be stalled by the budget.
+     *
+     * @param sequence Submission sequence number of the file
+     */
+    @Override
+    synchronized void taking(final long sequence) {
+        this.takenSequence = sequence;
+        notifyAll();
+    }
+
+    /**
+     * Obtains the number of bytes in the arrays holding files that have been read but not yet counted.
+     *
+     * @return Number of bytes in flight.
+     */
+    @AccessForTesting
+    synchronized long getBytesInFlight() {
+        return this.bytesInFlight;
+    }
+
+    /**
+     * Obtains an array into which to read a file, waiting until the array fits within the byte budget unless the
+     * file is the next to be counted. Called on a reader thread.
+     *
+     * @param sequence Submission sequence number of the file
+     * @param length Minimum length of the array
+     * @return Array of at least the specified length.
+     */
+    private synchronized byte[] acquire(final long sequence, final int length) {
+        try {
+            while (this.bytesInFlight > 0 && this.bytesInFlight + length > this.maxBytes
+                    && sequence != this.takenSequence) {
+                wait();
+            }
+        } catch (final InterruptedException ex) {
+            // Reading is being stopped, so the array is obtained without waiting and is released on close.
+            Thread.currentThread().interrupt();
+        }
+
+        byte[] buffer = null;
+        final Iterator<byte[]> iter = this.freeBuffers.iterator();
+        while (iter.hasNext()) {
+            final byte[] candidate = iter.next();
+            if (candidate.length >= length) {
+                iter.remove();
+                buffer = candidate;
+                break;
+            }
+        }
+        if (buffer == null) {
+            buffer = new byte[length];
+        }
+        this.bytesInFlight += buffer.length;
+        return buffer;
+    }
+}
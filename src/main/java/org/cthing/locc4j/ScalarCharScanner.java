@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+/**
+ * Character scanner that examines one character at a time. This scanner is available on all platforms.
+ */
+final class ScalarCharScanner implements CharScanner {
+
+    static final ScalarCharScanner INSTANCE = new ScalarCharScanner();
+
+    private static final int WHITESPACE_SEQUENCE_LENGTH = 3;
+
+    private ScalarCharScanner() {
+    }
+
+    @Override
+    public int indexOf(final char[] buffer, final int from, final int to, final char ch) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int count(final char[] buffer, final int from, final int to, final char ch) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == ch) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int indexOfNonWhitespace(final char[] buffer, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final char ch = buffer[i];
+            if (ch != ' ' && ch != '\t' && !Character.isWhitespace(ch)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOfNonWhitespace(final char[] buffer, final int from, final int to) {
+        for (int i = to - 1; i >= from; i--) {
+            final char ch = buffer[i];
+            if (ch != ' ' && ch != '\t' && !Character.isWhitespace(ch)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOfAny(final char[] buffer, final int from, final int to, final AsciiSet set) {
+        for (int i = from; i < to; i++) {
+            final char ch = buffer[i];
+            if (ch >= 128 || set.contains(ch)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(final byte[] buffer, final int from, final int to, final byte b) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int count(final byte[] buffer, final int from, final int to, final byte b) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == b) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int indexOfNonWhitespace(final byte[] buffer, final int from, final int to) {
+        int i = from;
+        while (i < to) {
+            final byte b = buffer[i];
+            if (b >= 0) {
+                if (b != ' ' && b != '\t' && !Character.isWhitespace(b)) {
+                    return i;
+                }
+                i++;
+            } else if (isWhitespaceSequence(buffer, i, to)) {
+                i += WHITESPACE_SEQUENCE_LENGTH;
+            } else {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOfNonWhitespace(final byte[] buffer, final int from, final int to) {
+        int i = to - 1;
+        while (i >= from) {
+            final byte b = buffer[i];
+            if (b >= 0) {
+                if (b != ' ' && b != '\t' && !Character.isWhitespace(b)) {
+                    return i;
+                }
+                i--;
+            } else if (i - WHITESPACE_SEQUENCE_LENGTH + 1 >= from
+                    && isWhitespaceSequence(buffer, i - WHITESPACE_SEQUENCE_LENGTH + 1, i + 1)) {
+                i -= WHITESPACE_SEQUENCE_LENGTH;
+            } else {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOfAny(final byte[] buffer, final int from, final int to, final AsciiSet set) {
+        for (int i = from; i < to; i++) {
+            final byte b = buffer[i];
+            if (b >= 0 && set.contains((char)b)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether a non-ASCII whitespace character is encoded at the specified position. All non-ASCII
+     * whitespace characters (e.g. U+2003 EM SPACE, U+3000 IDEOGRAPHIC SPACE) lie between U+0800 and U+FFFF and
+     * are therefore encoded using three bytes.
+     *
+     * @param buffer UTF-8 encoded bytes
+     * @param index Position of the first byte of the character
+     * @param to End of the region containing the character (exclusive)
+     * @return {@code true} if a whitespace character is encoded at the specified position and lies entirely
+     *      within the region.
+     */
+    static boolean isWhitespaceSequence(final byte[] buffer, final int index, final int to) {
+        if (index + WHITESPACE_SEQUENCE_LENGTH > to) {
+            return false;
+        }
+        final int b0 = buffer[index];
+        final int b1 = buffer[index + 1];
+        final int b2 = buffer[index + 2];
+        if ((b0 & 0xF0) != 0xE0 || (b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80) {
+            return false;
+        }
+        return Character.isWhitespace(((b0 & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F));
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cthing.annotations.AccessForTesting;
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Counts a single large input on multiple threads. The input is split at line boundaries into chunks. Because the
+ * lines of a chunk are counted the same way whatever precedes them, given the parsing state at the start of the
+ * chunk, each chunk can be counted independently once that state is known. The state is only known once the
+ * preceding chunks have been counted, so each chunk is counted speculatively, in parallel, for every state in which
+ * a chunk can commonly start: in code, within each kind of quote, and within each kind of multiline comment. For
+ * languages with nestable comments, a chunk is also counted within each nestable comment nested up to
+ * {@value #MAX_SPECULATED_DEPTH} deep. The chunk results are then joined in order on the calling thread, each chunk
+ * contributing the counts for the state in which the preceding chunk ended. A chunk that starts in a state that was
+ * not speculated (e.g. within comments nested more deeply, or within different kinds of nested comment) is counted
+ * again from that state on the calling thread, so the counts are always identical to counting the input
+ * sequentially.
+ *
+ * <p>
+ * Each chunk is counted once for each speculated state, so the total work is a multiple of that needed to count
+ * the input sequentially. Only languages whose delimiters are all ASCII and that do not embed other languages are
+ * counted this way, because their inputs are counted as bytes without decoding and have a small, fixed set of
+ * parsing states.
+ * </p>
+ *
+ * <p>
+ * The chunks are counted on a pool of daemon threads that is shared by all counts. Each count submits no more tasks
+ * than its parallelism, and each task counts chunks in order until none remain, so the parallelism of a count is
+ * honored without creating a pool for it.
+ * </p>
+ */
+final class SpeculativeCount {
+
+    /** Minimum number of bytes in an input for it to be counted in parallel. */
+    static final int MIN_LENGTH = 4 * 1024 * 1024;
+
+    /** Minimum number of bytes in a chunk. */
+    static final int MIN_CHUNK_LENGTH = 256 * 1024;
+
+    /** Number of chunks per thread, so that threads are kept busy when chunks take differing times to count. */
+    static final int CHUNKS_PER_THREAD = 4;
+
+    /** Maximum depth of nested comments in which a chunk is speculatively counted. */
+    static final int MAX_SPECULATED_DEPTH = 3;
+
+    /**
+     * Holds the pool on which chunks are counted, which is created when first used.
+     */
+    private static final class SharedPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(FileCounter.MAX_PARALLELISM, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("locc4j-chunk-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Parsing state of a counter at the start or end of a chunk.
+     *
+     * @param quote End delimiter of the open quote, or {@code null} if not within a quote
+     * @param quoteType Type of the most recent quote, which also affects the handling of escapes outside quotes
+     * @param depth Number of open multiline comments
+     * @param comments Delimiter identifiers of the open multiline comments that are tracked, innermost last
+     */
+    record EntryState(@Nullable String quote, Counter.QuoteType quoteType, int depth, int[] comments) {
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EntryState other)) {
+                return false;
+            }
+            return Objects.equals(this.quote, other.quote)
+                    && this.quoteType == other.quoteType
+                    && this.depth == other.depth
+                    && Arrays.equals(this.comments, other.comments);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.quote, this.quoteType, this.depth, Arrays.hashCode(this.comments));
+        }
+
+        @Override
+        public String toString() {
+            return "EntryState[quote=" + this.quote + ", quoteType=" + this.quoteType + ", depth=" + this.depth
+                    + ", comments=" + Arrays.toString(this.comments) + "]";
+        }
+    }
+
+    /**
+     * Result of counting a chunk from a given state.
+     *
+     * @param counts Line counts for the chunk
+     * @param exit Parsing state at the end of the chunk
+     */
+    private record Outcome(Counts counts, EntryState exit) {
+    }
+
+    private final Counter counter;
+    private final int parallelism;
+    private final int minChunkLength;
+
+    /**
+     * Constructs a parallel count.
+     *
+     * @param counter Counter whose language and configuration determine how the input is counted. The counter
+     *      itself is not used to count, so its state is not changed.
+     * @param parallelism Number of threads on which to count the input
+     */
+    SpeculativeCount(final Counter counter, final int parallelism) {
+        this(counter, parallelism, MIN_CHUNK_LENGTH);
+    }
+
+    /**
+     * Constructs a parallel count with the specified minimum chunk length.
+     *
+     * @param counter Counter whose language and configuration determine how the input is counted
+     * @param parallelism Number of threads on which to count the input
+     * @param minChunkLength Minimum number of bytes in a chunk
+     */
+    @AccessForTesting
+    SpeculativeCount(final Counter counter, final int parallelism, final int minChunkLength) {
+        this.counter = counter;
+        this.parallelism = parallelism;
+        this.minChunkLength = minChunkLength;
+    }
+
+    /**
+     * Counts the lines in the UTF-8 encoded bytes remaining in the specified buffer.
+     *
+     * @param buffer Buffer containing the text to count between its position and its limit. The position of the
+     *      buffer is not changed.
+     * @return Map of the language of the counter and its line counts.
+     * @throws IOException if there was a problem counting the lines or the count was interrupted
+     */
+    Map<Language, Counts> count(final ByteBuffer buffer) throws IOException {
+        final int[] bounds = split(buffer, this.parallelism * CHUNKS_PER_THREAD, this.minChunkLength);
+        final int numChunks = bounds.length - 1;
+        final EntryState initial = initialState();
+        final List<EntryState> speculated = entryStates(this.counter.getLanguage(),
+                                                        this.counter.getMaxCommentDepth());
+
+        final List<FutureTask<Map<EntryState, Outcome>>> tasks = new ArrayList<>(numChunks);
+        for (int i = 0; i < numChunks; i++) {
+            // The state at the start of the input is known, so the first chunk is only counted from it.
+            final List<EntryState> entries = (i == 0) ? List.of(initial) : speculated;
+            final ByteBuffer chunk = buffer.duplicate();
+            final int start = bounds[i];
+            final int end = bounds[i + 1];
+            tasks.add(new FutureTask<>(() -> countChunk(chunk, start, end, entries)));
+        }
+
+        // Each runner counts the next chunk that has not been claimed until all chunks have been claimed.
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Runnable runner = () -> {
+            int chunkIndex = nextChunk.getAndIncrement();
+            while (chunkIndex < numChunks) {
+                tasks.get(chunkIndex).run();
+                chunkIndex = nextChunk.getAndIncrement();
+            }
+        };
+        try {
+            for (int i = Math.min(this.parallelism, numChunks); i > 0; i--) {
+                SharedPool.POOL.execute(runner);
+            }
+
+            final Counts total = new Counts();
+            EntryState state = initial;
+            for (int i = 0; i < numChunks; i++) {
+                Outcome outcome = await(tasks.get(i)).get(state);
+                if (outcome == null) {
+                    outcome = countChunk(buffer.duplicate(), bounds[i], bounds[i + 1], List.of(state)).get(state);
+                }
+                total.add(outcome.counts);
+                state = outcome.exit;
+            }
+
+            final Map<Language, Counts> languageMap = new EnumMap<>(Language.class);
+            languageMap.put(this.counter.getLanguage(), total);
+            return Collections.unmodifiableMap(languageMap);
+        } finally {
+            // Chunks that have not started are not counted if the count is abandoned.
+            for (final FutureTask<Map<EntryState, Outcome>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Obtains the states in which a chunk of text in the specified language is speculatively counted. These are
+     * the states in which a line can start: in code or within a single multiline comment, following any type of
+     * quote, and within each quote. For comments that can be nested, the states within the comment nested up to
+     * {@value #MAX_SPECULATED_DEPTH} deep are included.
+     *
+     * @param language Language of the text
+     * @param maxCommentDepth Maximum number of nested multiline comments tracked by the counter
+     * @return States in which to count a chunk, most likely first.
+     */
+    @AccessForTesting
+    static List<EntryState> entryStates(final Language language, final int maxCommentDepth) {
+        final DelimiterAutomaton delimiters = language.delimiterAutomaton;
+        final Set<Counter.QuoteType> quoteTypes = new LinkedHashSet<>();
+        quoteTypes.add(Counter.QuoteType.NORMAL);
+        final Set<EntryState> states = new LinkedHashSet<>();
+        addQuotes(delimiters, DelimiterAutomaton.QUOTE, Counter.QuoteType.NORMAL, states, quoteTypes);
+        addQuotes(delimiters, DelimiterAutomaton.DOC_QUOTE, Counter.QuoteType.DOC, states, quoteTypes);
+        addQuotes(delimiters, DelimiterAutomaton.VERBATIM_QUOTE, Counter.QuoteType.VERBATIM, states, quoteTypes);
+
+        final List<EntryState> entries = new ArrayList<>();
+        for (final Counter.QuoteType quoteType : quoteTypes) {
+            entries.add(new EntryState(null, quoteType, 0, new int[0]));
+            for (int id = delimiters.firstId(DelimiterAutomaton.MULTI_LINE_COMMENT);
+                 id < delimiters.endId(DelimiterAutomaton.MULTI_LINE_COMMENT); id++) {
+                entries.add(new EntryState(null, quoteType, 1, new int[] { id }));
+            }
+        }
+        entries.addAll(states);
+
+        // Deeper states are less likely, so they come last.
+        for (final Counter.QuoteType quoteType : quoteTypes) {
+            for (int id = delimiters.firstId(DelimiterAutomaton.MULTI_LINE_COMMENT);
+                 id < delimiters.endId(DelimiterAutomaton.MULTI_LINE_COMMENT); id++) {
+                if (language.isNestable() || delimiters.isNested(id)) {
+                    for (int depth = 2; depth <= MAX_SPECULATED_DEPTH; depth++) {
+                        final int[] comments = new int[Math.min(depth, maxCommentDepth)];
+                        Arrays.fill(comments, id);
+                        entries.add(new EntryState(null, quoteType, depth, comments));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Splits the remaining bytes in the specified buffer into chunks at line boundaries.
+     *
+     * @param buffer Buffer containing the text to split between its position and its limit
+     * @param maxChunks Maximum number of chunks
+     * @param minChunkLength Minimum number of bytes in a chunk, other than the last
+     * @return Position of the start of each chunk, followed by the limit of the buffer.
+     */
+    @AccessForTesting
+    static int[] split(final ByteBuffer buffer, final int maxChunks, final int minChunkLength) {
+        final int limit = buffer.limit();
+        final int target = Math.max(minChunkLength, buffer.remaining() / maxChunks);
+        final List<Integer> bounds = new ArrayList<>();
+        int start = buffer.position();
+        bounds.add(start);
+        while (limit - start > target) {
+            int end = start + target;
+            while (end < limit && buffer.get(end - 1) != '\n') {
+                end++;
+            }
+            if (end >= limit) {
+                break;
+            }
+            bounds.add(end);
+            start = end;
+        }
+        bounds.add(limit);
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Counts a chunk from each of the specified states, using a counter from the current thread's pool.
+     *
+     * @param buffer Buffer containing the text to count, whose position and limit are ignored
+     * @param start Position of the start of the chunk in the buffer
+     * @param end Position following the end of the chunk in the buffer
+     * @param entries States from which to count the chunk
+     * @return Result of counting the chunk from each state.
+     * @throws IOException if there was a problem counting the lines
+     */
+    private Map<EntryState, Outcome> countChunk(final ByteBuffer buffer, final int start, final int end,
+                                                final List<EntryState> entries) throws IOException {
+        final int length = end - start;
+        final BufferPool buffers = BufferPool.get();
+        byte[] copy = null;
+        final ByteData data;
+        if (buffer.hasArray()) {
+            data = new ByteData(buffer.array(), buffer.arrayOffset() + start, length);
+        } else {
+            copy = buffers.acquireBytes(length);
+            buffer.get(start, copy, 0, length);
+            data = new ByteData(copy, 0, length);
+        }
+
+        final CounterPool counters = CounterPool.get();
+        final Counter chunkCounter = counters.acquire(this.counter.getLanguage(), this.counter.isCountDocStrings(),
+                                                      this.counter.getMaxCommentDepth(),
+                                                      this.counter.getLanguageRegistry());
+        try {
+            final Map<EntryState, Outcome> outcomes = new HashMap<>();
+            for (final EntryState entry : entries) {
+                chunkCounter.restoreState(entry);
+                final Counts counts = chunkCounter.countChunk(data);
+                outcomes.put(entry, new Outcome(counts, chunkCounter.saveState()));
+            }
+            return outcomes;
+        } finally {
+            counters.release(chunkCounter);
+            if (copy != null) {
+                buffers.release(copy);
+            }
+        }
+    }
+
+    /**
+     * Obtains the state at the start of a count.
+     *
+     * @return Initial parsing state.
+     */
+    private static EntryState initialState() {
+        return new EntryState(null, Counter.QuoteType.NORMAL, 0, new int[0]);
+    }
+
+    /**
+     * Adds the states within each quote of the specified kind.
+     *
+     * @param delimiters Delimiters of the language
+     * @param kind Kind of quote delimiter
+     * @param quoteType Type of quote of the delimiters
+     * @param states States to which the states within the quotes are added
+     * @param quoteTypes Quote types to which the type is added if there are quotes of the kind
+     */
+    private static void addQuotes(final DelimiterAutomaton delimiters, final int kind,
+                                  final Counter.QuoteType quoteType, final Set<EntryState> states,
+                                  final Set<Counter.QuoteType> quoteTypes) {
+        for (int id = delimiters.firstId(kind); id < delimiters.endId(kind); id++) {
+            states.add(new EntryState(delimiters.end(id), quoteType, 0, new int[0]));
+            quoteTypes.add(quoteType);
+        }
+    }
+
+    /**
+     * Waits for the results of counting a chunk.
+     *
+     * @param task Task counting the chunk
+     * @return Results of counting the chunk.
+     * @throws IOException if there was a problem counting the chunk or the wait was interrupted
+     */
+    private static Map<EntryState, Outcome> await(final FutureTask<Map<EntryState, Outcome>> task)
+            throws IOException {
+        try {
+            return task.get();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a chunk to be counted");
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException rte) {
+                throw rte;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw (cause instanceof IOException ioe) ? ioe : new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Reads the entries of a tar archive from a stream, in the same manner as {@link java.util.zip.ZipInputStream}.
+ * Each call to {@link #getNextEntry()} positions the stream at the start of the content of the next entry, and
+ * reading from the stream returns the content of that entry until its end. POSIX ustar archives, including the
+ * name prefix field, are supported, as are the GNU long name and POSIX pax extensions for names longer than 100
+ * characters and sizes of 8GB or more. Other header fields, such as permissions and timestamps, are not used.
+ */
+final class TarInputStream extends InputStream {
+
+    /** Size of a tar header and of the unit in which entry content is stored. */
+    static final int BLOCK_SIZE = 512;
+
+    /** Maximum size of a GNU long name or pax extended header that is read. */
+    static final int MAX_EXTENSION_SIZE = 1024 * 1024;
+
+    private static final int NAME_OFFSET = 0;
+    private static final int NAME_LENGTH = 100;
+    private static final int SIZE_OFFSET = 124;
+    private static final int SIZE_LENGTH = 12;
+    private static final int CHECKSUM_OFFSET = 148;
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final int TYPE_OFFSET = 156;
+    private static final int MAGIC_OFFSET = 257;
+    private static final int PREFIX_OFFSET = 345;
+    private static final int PREFIX_LENGTH = 155;
+    private static final byte[] USTAR_MAGIC = { 'u', 's', 't', 'a', 'r', 0 };
+
+    /**
+     * Entry in a tar archive.
+     *
+     * @param name Name of the entry, which is its path within the archive
+     * @param size Size of the entry's content, in bytes
+     * @param isFile {@code true} if the entry is a regular file, or {@code false} if it is a directory, link or
+     *      other special file
+     */
+    record Entry(String name, long size, boolean isFile) {
+    }
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+    private long remaining;
+    private long padding;
+    private boolean finished;
+
+    /**
+     * Constructs a tar stream reading the archive from the specified stream.
+     *
+     * @param in Stream providing the uncompressed tar archive
+     */
+    TarInputStream(final InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the header of the next entry in the archive, skipping any unread content of the current entry.
+     *
+     * @return Next entry, or {@code null} if the end of the archive has been reached.
+     * @throws IOException if there was a problem reading the archive or the archive is not a valid tar archive
+     */
+    @Nullable
+    Entry getNextEntry() throws IOException {
+        if (this.finished) {
+            return null;
+        }
+        this.in.skipNBytes(this.remaining + this.padding);
+        this.remaining = 0;
+        this.padding = 0;
+
+        String longName = null;
+        long longSize = -1;
+        while (readHeader()) {
+            final byte type = this.header[TYPE_OFFSET];
+            final long size = parseNumber(SIZE_OFFSET, SIZE_LENGTH);
+            switch (type) {
+                case 'L' -> longName = parseString(readExtension(size), 0, (int)size);
+                case 'x' -> {
+                    final byte[] records = readExtension(size);
+                    final String path = parsePaxRecord(records, (int)size, "path");
+                    if (path != null) {
+                        longName = path;
+                    }
+                    final String paxSize = parsePaxRecord(records, (int)size, "size");
+                    if (paxSize != null) {
+                        longSize = parsePaxSize(paxSize);
+                    }
+                }
+                case 'g', 'K' -> this.in.skipNBytes(size + padding(size));
+                default -> {
+                    final String name = (longName == null) ? parseName() : longName;
+                    final long entrySize = (longSize < 0) ? size : longSize;
+                    // Links, devices, FIFOs and directories have no content, whatever their size field holds
+                    final boolean hasContent = type != '1' && type != '2' && type != '3' && type != '4'
+                            && type != '5' && type != '6';
+                    this.remaining = hasContent ? entrySize : 0;
+                    this.padding = hasContent ? padding(entrySize) : 0;
+                    final boolean isFile = (type == '0' || type == 0 || type == '7') && !name.endsWith("/");
+                    return new Entry(name, entrySize, isFile);
+                }
+            }
+        }
+        this.finished = true;
+        return null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.remaining == 0) {
+            return -1;
+        }
+        final int b = this.in.read();
+        if (b < 0) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        this.remaining--;
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (this.remaining == 0) {
+            return -1;
+        }
+        final int count = this.in.read(buffer, offset, (int)Math.min(length, this.remaining));
+        if (count < 0) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        this.remaining -= count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int)Math.min(this.in.available(), this.remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    /**
+     * Reads the next header block.
+     *
+     * @return {@code true} if a header was read, or {@code false} if the end of the archive has been reached.
+     *      The end of the archive is marked by a block of zeros, but an archive that ends without the marker is
+     *      also accepted.
+     * @throws IOException if there was a problem reading the archive or the header is not valid
+     */
+    private boolean readHeader() throws IOException {
+        final int count = this.in.readNBytes(this.header, 0, BLOCK_SIZE);
+        if (count == 0) {
+            return false;
+        }
+        if (count < BLOCK_SIZE) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+
+        long unsignedSum = 0;
+        long signedSum = 0;
+        boolean zeros = true;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            final byte b = (i >= CHECKSUM_OFFSET && i < CHECKSUM_OFFSET + CHECKSUM_LENGTH) ? (byte)' ' : this.header[i];
+            unsignedSum += b & 0xFF;
+            signedSum += b;
+            zeros &= this.header[i] == 0;
+        }
+        if (zeros) {
+            return false;
+        }
+
+        // Some historic implementations computed the checksum using signed bytes, so either sum is accepted.
+        final long checksum = parseNumber(CHECKSUM_OFFSET, CHECKSUM_LENGTH);
+        if (checksum != unsignedSum && checksum != signedSum) {
+            throw new IOException("Invalid tar header checksum");
+        }
+        return true;
+    }
+
+    /**
+     * Reads the content of a GNU long name or pax extended header.
+     *
+     * @param size Size of the content
+     * @return Array holding the content, followed by any unused space.
+     * @throws IOException if there was a problem reading the archive or the content is too large
+     */
+    private byte[] readExtension(final long size) throws IOException {
+        if (size > MAX_EXTENSION_SIZE) {
+            throw new IOException("Tar extended header is too large: " + size);
+        }
+        final byte[] content = this.in.readNBytes((int)size);
+        if (content.length < size) {
+            throw new EOFException("Unexpected end of tar archive");
+        }
+        this.in.skipNBytes(padding(size));
+        return content;
+    }
+
+    /**
+     * Obtains the name of the entry from the header, including any ustar prefix.
+     *
+     * @return Name of the entry.
+     */
+    private String parseName() {
+        final String name = parseString(this.header, NAME_OFFSET, NAME_LENGTH);
+        for (int i = 0; i < USTAR_MAGIC.length; i++) {
+            if (this.header[MAGIC_OFFSET + i] != USTAR_MAGIC[i]) {
+                // GNU archives use the prefix field for other purposes
+                return name;
+            }
+        }
+        final String prefix = parseString(this.header, PREFIX_OFFSET, PREFIX_LENGTH);
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    /**
+     * Parses a numeric header field. Fields hold octal digits, optionally surrounded by spaces and NULs, or a big
+     * endian binary number if the high bit of the first byte is set.
+     *
+     * @param offset Offset of the field in the header
+     * @param length Length of the field
+     * @return Value of the field.
+     * @throws IOException if the field is not a valid number
+     */
+    private long parseNumber(final int offset, final int length) throws IOException {
+        final int end = offset + length;
+        if ((this.header[offset] & 0x80) != 0) {
+            if (this.header[offset] != (byte)0x80) {
+                throw new IOException("Invalid tar header number");
+            }
+            long value = 0;
+            for (int i = offset + 1; i < end; i++) {
+                if ((value >>> 55) != 0) {
+                    throw new IOException("Invalid tar header number");
+                }
+                value = (value << 8) | (this.header[i] & 0xFF);
+            }
+            return value;
+        }
+
+        int i = offset;
+        while (i < end && (this.header[i] == ' ' || this.header[i] == 0)) {
+            i++;
+        }
+        long value = 0;
+        while (i < end && this.header[i] >= '0' && this.header[i] <= '7') {
+            value = (value << 3) + (this.header[i] - '0');
+            i++;
+        }
+        while (i < end) {
+            if (this.header[i] != ' ' && this.header[i] != 0) {
+                throw new IOException("Invalid tar header number");
+            }
+            i++;
+        }
+        return value;
+    }
+
+    /**
+     * Obtains the value of a record in a pax extended header. Records have the form "length key=value\n", where
+     * the length is the decimal number of bytes in the record, including the length itself.
+     *
+     * @param records Content of the extended header
+     * @param size Number of bytes of content
+     * @param key Key of the record to obtain
+     * @return Value of the last record with the specified key, or {@code null} if there is no such record.
+     * @throws IOException if the records are not valid
+     */
+    @Nullable
+    private static String parsePaxRecord(final byte[] records, final int size, final String key)
+            throws IOException {
+        String value = null;
+        int start = 0;
+        while (start < size) {
+            int length = 0;
+            int i = start;
+            while (i < size && records[i] >= '0' && records[i] <= '9' && length < MAX_EXTENSION_SIZE) {
+                length = length * 10 + (records[i] - '0');
+                i++;
+            }
+            final int end = start + length;
+            if (i >= size || records[i] != ' ' || end > size || end <= i || records[end - 1] != '\n') {
+                throw new IOException("Invalid tar extended header");
+            }
+            final String record = new String(records, i + 1, end - i - 2, StandardCharsets.UTF_8);
+            if (record.startsWith(key) && record.length() > key.length() && record.charAt(key.length()) == '=') {
+                value = record.substring(key.length() + 1);
+            }
+            start = end;
+        }
+        return value;
+    }
+
+    private static long parsePaxSize(final String size) throws IOException {
+        try {
+            final long value = Long.parseLong(size);
+            if (value < 0) {
+                throw new IOException("Invalid tar extended header size");
+            }
+            return value;
+        } catch (final NumberFormatException ex) {
+            throw new IOException("Invalid tar extended header size", ex);
+        }
+    }
+
+    private static String parseString(final byte[] bytes, final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long padding(final long size) {
+        final long partial = size % BLOCK_SIZE;
+        return (partial == 0) ? 0 : BLOCK_SIZE - partial;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.util.concurrent.ExecutorService;
+
+import org.jspecify.annotations.Nullable;
+
+
+/**
+ * Creates executors that run tasks on virtual threads. This is the Java 17 version of the class, on which virtual
+ * threads are not available. The library is packaged as a multi-release JAR, which contains a Java 21 version of
+ * this class that creates virtual threads.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Indicates whether virtual threads are available on the current platform.
+     *
+     * @return {@code true} if virtual threads are available.
+     */
+    static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread.
+     *
+     * @return Always {@code null} because virtual threads are not available.
+     */
+    @Nullable
+    static ExecutorService newThreadPerTaskExecutor() {
+        return null;
+    }
+}
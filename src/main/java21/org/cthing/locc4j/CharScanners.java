@@ -0,0 +1,32 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+/**
+ * Selects the character scanner to use on the current platform. This is the Java 21 version of the class, which
+ * selects the {@link VectorCharScanner} when the {@code jdk.incubator.vector} module has been added to the
+ * runtime (e.g. {@code --add-modules jdk.incubator.vector}). Otherwise, the {@link ScalarCharScanner} is selected.
+ */
+final class CharScanners {
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private static final CharScanner SCANNER = ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()
+                                               ? VectorCharScanner.INSTANCE
+                                               : ScalarCharScanner.INSTANCE;
+
+    private CharScanners() {
+    }
+
+    /**
+     * Obtains the character scanner for the current platform.
+     *
+     * @return Character scanner.
+     */
+    static CharScanner get() {
+        return SCANNER;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * Character scanner that uses the Vector API to examine as many characters at once as the platform's preferred
+ * vector size allows. Characters are loaded as unsigned 16-bit lanes. Regions shorter than a vector, and the
+ * remainder of a region that does not fill a vector, are delegated to the {@link ScalarCharScanner}.
+ *
+ * <p>
+ * Whitespace is detected in two steps. The ASCII whitespace characters ({@code '\t'} through {@code '\r'} and
+ * {@code '\u001C'} through {@code ' '}) are matched in the vector. Any other character is a candidate
+ * non-whitespace character. ASCII candidates are definitely not whitespace. Non-ASCII candidates, which are rare
+ * in source code, are checked using {@link Character#isWhitespace(char)}.
+ * </p>
+ *
+ * <p>
+ * UTF-8 encoded bytes are loaded as 8-bit lanes, so twice as many positions are examined per operation as for
+ * characters. Whitespace detection is the same, except that a non-ASCII candidate byte may begin a whitespace
+ * character that extends beyond the vector. The scan of the region is therefore completed by the
+ * {@link ScalarCharScanner} from the first candidate.
+ * </p>
+ *
+ * <p>
+ * When searching for any member of a character set, each member is compared separately and only the lane of the
+ * earliest match is carried from one member to the next. Combining the comparison masks instead would carry a
+ * mask through the loop, which the JIT compiler does not always keep in registers and may then allocate.
+ * </p>
+ */
+final class VectorCharScanner implements CharScanner {
+
+    static final VectorCharScanner INSTANCE = new VectorCharScanner();
+
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int BYTE_LANES = BYTE_SPECIES.length();
+    private static final ScalarCharScanner SCALAR = ScalarCharScanner.INSTANCE;
+
+    // ASCII whitespace consists of two ranges of characters. Subtracting the start of a range from a character
+    // and performing an unsigned comparison with the size of the range tests for membership in a single operation.
+    private static final short CONTROL_WHITESPACE_START = '\t';
+    private static final short CONTROL_WHITESPACE_RANGE = '\r' - '\t';
+    private static final short SEPARATOR_WHITESPACE_START = '\u001C';
+    private static final short SEPARATOR_WHITESPACE_RANGE = ' ' - '\u001C';
+
+    private VectorCharScanner() {
+    }
+
+    @Override
+    public int indexOf(final char[] buffer, final int from, final int to, final char ch) {
+        final short target = (short)ch;
+        int i = from;
+        for (final int bound = to - LANES; i <= bound; i += LANES) {
+            final VectorMask<Short> found = ShortVector.fromCharArray(SPECIES, buffer, i).eq(target);
+            if (found.anyTrue()) {
+                return i + found.firstTrue();
+            }
+        }
+        return SCALAR.indexOf(buffer, i, to, ch);
+    }
+
+    @Override
+    public int count(final char[] buffer, final int from, final int to, final char ch) {
+        final short target = (short)ch;
+        int count = 0;
+        int i = from;
+        for (final int bound = to - LANES; i <= bound; i += LANES) {
+            count += ShortVector.fromCharArray(SPECIES, buffer, i).eq(target).trueCount();
+        }
+        return count + SCALAR.count(buffer, i, to, ch);
+    }
+
+    @Override
+    public int indexOfNonWhitespace(final char[] buffer, final int from, final int to) {
+        int i = from;
+        for (final int bound = to - LANES; i <= bound; i += LANES) {
+            final ShortVector chars = ShortVector.fromCharArray(SPECIES, buffer, i);
+            final VectorMask<Short> candidates = chars.sub(CONTROL_WHITESPACE_START)
+                                                      .compare(VectorOperators.UNSIGNED_GT, CONTROL_WHITESPACE_RANGE)
+                                                      .and(chars.sub(SEPARATOR_WHITESPACE_START)
+                                                                .compare(VectorOperators.UNSIGNED_GT,
+                                                                         SEPARATOR_WHITESPACE_RANGE));
+            if (candidates.anyTrue()) {
+                final int index = SCALAR.indexOfNonWhitespace(buffer, i + candidates.firstTrue(), i + LANES);
+                if (index >= 0) {
+                    return index;
+                }
+            }
+        }
+        return SCALAR.indexOfNonWhitespace(buffer, i, to);
+    }
+
+    @Override
+    public int lastIndexOfNonWhitespace(final char[] buffer, final int from, final int to) {
+        int i = to;
+        for (final int bound = from + LANES; i >= bound; i -= LANES) {
+            final int base = i - LANES;
+            final ShortVector chars = ShortVector.fromCharArray(SPECIES, buffer, base);
+            final VectorMask<Short> candidates = chars.sub(CONTROL_WHITESPACE_START)
+                                                      .compare(VectorOperators.UNSIGNED_GT, CONTROL_WHITESPACE_RANGE)
+                                                      .and(chars.sub(SEPARATOR_WHITESPACE_START)
+                                                                .compare(VectorOperators.UNSIGNED_GT,
+                                                                         SEPARATOR_WHITESPACE_RANGE));
+            if (candidates.anyTrue()) {
+                final int index = SCALAR.lastIndexOfNonWhitespace(buffer, base, base + candidates.lastTrue() + 1);
+                if (index >= 0) {
+                    return index;
+                }
+            }
+        }
+        return SCALAR.lastIndexOfNonWhitespace(buffer, from, i);
+    }
+
+    @Override
+    public int indexOfAny(final char[] buffer, final int from, final int to, final AsciiSet set) {
+        final char[] members = set.members();
+        int i = from;
+        for (final int bound = to - LANES; i <= bound; i += LANES) {
+            final ShortVector chars = ShortVector.fromCharArray(SPECIES, buffer, i);
+            int first = chars.compare(VectorOperators.UNSIGNED_GE, (short)128).firstTrue();
+            for (final char member : members) {
+                first = Math.min(first, chars.eq((short)member).firstTrue());
+            }
+            if (first < LANES) {
+                return i + first;
+            }
+        }
+        return SCALAR.indexOfAny(buffer, i, to, set);
+    }
+
+    @Override
+    public int indexOf(final byte[] buffer, final int from, final int to, final byte b) {
+        int i = from;
+        for (final int bound = to - BYTE_LANES; i <= bound; i += BYTE_LANES) {
+            final VectorMask<Byte> found = ByteVector.fromArray(BYTE_SPECIES, buffer, i).eq(b);
+            if (found.anyTrue()) {
+                return i + found.firstTrue();
+            }
+        }
+        return SCALAR.indexOf(buffer, i, to, b);
+    }
+
+    @Override
+    public int count(final byte[] buffer, final int from, final int to, final byte b) {
+        int count = 0;
+        int i = from;
+        for (final int bound = to - BYTE_LANES; i <= bound; i += BYTE_LANES) {
+            count += ByteVector.fromArray(BYTE_SPECIES, buffer, i).eq(b).trueCount();
+        }
+        return count + SCALAR.count(buffer, i, to, b);
+    }
+
+    @Override
+    public int indexOfNonWhitespace(final byte[] buffer, final int from, final int to) {
+        int i = from;
+        for (final int bound = to - BYTE_LANES; i <= bound; i += BYTE_LANES) {
+            final ByteVector bytes = ByteVector.fromArray(BYTE_SPECIES, buffer, i);
+            final VectorMask<Byte> candidates = bytes.sub((byte)CONTROL_WHITESPACE_START)
+                                                     .compare(VectorOperators.UNSIGNED_GT,
+                                                              (byte)CONTROL_WHITESPACE_RANGE)
+                                                     .and(bytes.sub((byte)SEPARATOR_WHITESPACE_START)
+                                                               .compare(VectorOperators.UNSIGNED_GT,
+                                                                        (byte)SEPARATOR_WHITESPACE_RANGE));
+            if (candidates.anyTrue()) {
+                return SCALAR.indexOfNonWhitespace(buffer, i + candidates.firstTrue(), to);
+            }
+        }
+        return SCALAR.indexOfNonWhitespace(buffer, i, to);
+    }
+
+    @Override
+    public int lastIndexOfNonWhitespace(final byte[] buffer, final int from, final int to) {
+        int i = to;
+        for (final int bound = from + BYTE_LANES; i >= bound; i -= BYTE_LANES) {
+            final int base = i - BYTE_LANES;
+            final ByteVector bytes = ByteVector.fromArray(BYTE_SPECIES, buffer, base);
+            final VectorMask<Byte> candidates = bytes.sub((byte)CONTROL_WHITESPACE_START)
+                                                     .compare(VectorOperators.UNSIGNED_GT,
+                                                              (byte)CONTROL_WHITESPACE_RANGE)
+                                                     .and(bytes.sub((byte)SEPARATOR_WHITESPACE_START)
+                                                               .compare(VectorOperators.UNSIGNED_GT,
+                                                                        (byte)SEPARATOR_WHITESPACE_RANGE));
+            if (candidates.anyTrue()) {
+                return SCALAR.lastIndexOfNonWhitespace(buffer, from, base + candidates.lastTrue() + 1);
+            }
+        }
+        return SCALAR.lastIndexOfNonWhitespace(buffer, from, i);
+    }
+
+    @Override
+    public int indexOfAny(final byte[] buffer, final int from, final int to, final AsciiSet set) {
+        final char[] members = set.members();
+        int i = from;
+        for (final int bound = to - BYTE_LANES; i <= bound; i += BYTE_LANES) {
+            final ByteVector bytes = ByteVector.fromArray(BYTE_SPECIES, buffer, i);
+            int first = BYTE_LANES;
+            for (final char member : members) {
+                first = Math.min(first, bytes.eq((byte)member).firstTrue());
+            }
+            if (first < BYTE_LANES) {
+                return i + first;
+            }
+        }
+        return SCALAR.indexOfAny(buffer, i, to, set);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * Creates executors that run tasks on virtual threads. This is the Java 21 version of the class, on which virtual
+ * threads are available.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Indicates whether virtual threads are available on the current platform.
+     *
+     * @return {@code true} if virtual threads are available.
+     */
+    static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread. Virtual threads are cheap to create, so they
+     * are not pooled. The caller bounds the number of concurrent tasks.
+     *
+     * @return Executor running each task on a new virtual thread.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("locc4j-virtual-", 0).factory());
+    }
+}
@@ -0,0 +1,12 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+/**
+ * Classes for counting lines of source code that replace the base classes when running on Java 21 or newer.
+ */
+@NullMarked
+package org.cthing.locc4j;
+
+import org.jspecify.annotations.NullMarked;
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class AbstractTextWindowTest {
+
+    @Test
+    public void testCharWindow() throws IOException {
+        final AbstractTextWindow window = AbstractTextWindow.of(new StringReader("abc\ndef\ngh"), 6);
+        assertThat(window.length()).isZero();
+        assertThat(window.isEof()).isFalse();
+
+        assertThat(window.fill()).isTrue();
+        assertThat(window.data()).hasToString("abc\nde");
+        assertThat(window.completeLinesEnd()).isEqualTo(4);
+
+        window.discard(4);
+        assertThat(window.data()).hasToString("de");
+        assertThat(window.completeLinesEnd()).isZero();
+
+        assertThat(window.fill()).isTrue();
+        assertThat(window.data()).hasToString("def\ngh");
+        assertThat(window.isEof()).isFalse();
+
+        window.discard(4);
+        assertThat(window.fill()).isTrue();
+        assertThat(window.isEof()).isTrue();
+        assertThat(window.data()).hasToString("gh");
+        assertThat(window.completeLinesEnd()).isEqualTo(2);
+
+        window.discard(2);
+        assertThat(window.fill()).isFalse();
+    }
+
+    @Test
+    public void testByteWindow() throws IOException {
+        final byte[] bytes = "h\u00E9\nworld\n".getBytes(StandardCharsets.UTF_8);
+        final AbstractTextWindow window = AbstractTextWindow.of(Channels.newChannel(new ByteArrayInputStream(bytes)),
+                                                                8);
+        assertThat(window.fill()).isTrue();
+        assertThat(window.length()).isEqualTo(8);
+        assertThat(window.completeLinesEnd()).isEqualTo(4);
+
+        window.discard(4);
+        assertThat(window.fill()).isTrue();
+        assertThat(window.data()).hasToString("world\n");
+        assertThat(window.completeLinesEnd()).isEqualTo(6);
+
+        window.discard(6);
+        assertThat(window.fill()).isFalse();
+        assertThat(window.isEof()).isTrue();
+    }
+
+    @Test
+    public void testGrow() throws IOException {
+        final AbstractTextWindow window = AbstractTextWindow.of(new StringReader("a long line\nb"), 4);
+        assertThat(window.fill()).isTrue();
+        assertThat(window.data()).hasToString("a lo");
+        assertThat(window.completeLinesEnd()).isZero();
+
+        assertThat(window.fill()).isTrue();
+        assertThat(window.data()).hasToString("a long l");
+
+        assertThat(window.fill()).isTrue();
+        assertThat(window.data()).hasToString("a long line\nb");
+        assertThat(window.isEof()).isTrue();
+        assertThat(window.completeLinesEnd()).isEqualTo(13);
+    }
+
+    @Test
+    public void testAppend() {
+        final AbstractTextWindow.CharWindow charWindow = AbstractTextWindow.ofChars(4);
+        assertThat(charWindow.append("abcdef".toCharArray(), 0, 6)).isEqualTo(4);
+        assertThat(charWindow.append("abcdef".toCharArray(), 4, 2)).isEqualTo(2);
+        assertThat(charWindow.data()).hasToString("abcdef");
+        assertThat(charWindow.isEof()).isFalse();
+        charWindow.markEof();
+        assertThat(charWindow.completeLinesEnd()).isEqualTo(6);
+
+        final AbstractTextWindow.ByteWindow byteWindow = AbstractTextWindow.ofBytes(2);
+        assertThat(byteWindow.append("ab\nc".getBytes(StandardCharsets.UTF_8), 0, 4)).isEqualTo(2);
+        assertThat(byteWindow.append("ab\nc".getBytes(StandardCharsets.UTF_8), 2, 2)).isEqualTo(2);
+        assertThat(byteWindow.data()).hasToString("ab\nc");
+        assertThat(byteWindow.completeLinesEnd()).isEqualTo(3);
+    }
+
+    @Test
+    public void testAppendDecoded() {
+        final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        final AbstractTextWindow.CharWindow window = AbstractTextWindow.ofChars(1);
+        final ByteBuffer bytes = ByteBuffer.wrap("a\uD83D\uDE00".getBytes(StandardCharsets.UTF_8));
+        assertThat(window.append(decoder, bytes, false)).isTrue();
+        assertThat(window.append(decoder, bytes, true)).isFalse();
+        assertThat(bytes.hasRemaining()).isFalse();
+        assertThat(window.data()).hasToString("a\uD83D\uDE00");
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.entry;
+
+
+public class ArchiveCounterTest {
+
+    private static final String JAVA_CONTENT = """
+                                               package org.foo;
+
+                                               // Comment
+                                               public class Bar {
+                                               }
+                                               """;
+    private static final String SCRIPT_CONTENT = "#!/bin/sh\necho 'hello'\n";
+    private static final Map<Language, Counts> JAVA_COUNTS = Map.of(Language.Java, new Counts(3, 1, 1));
+    private static final Map<Language, Counts> SCRIPT_COUNTS = Map.of(Language.Sh, new Counts(1, 1, 0));
+
+    @Test
+    public void testFormat() {
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo.zip"))).contains(ArchiveCounter.Format.ZIP);
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("lib", "foo-sources.JAR")))
+                .contains(ArchiveCounter.Format.ZIP);
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo.war"))).contains(ArchiveCounter.Format.ZIP);
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo.ear"))).contains(ArchiveCounter.Format.ZIP);
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo.tar"))).contains(ArchiveCounter.Format.TAR);
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo-1.0.tar.gz")))
+                .contains(ArchiveCounter.Format.TAR_GZIP);
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo.tgz"))).contains(ArchiveCounter.Format.TAR_GZIP);
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo.gz"))).isEmpty();
+        assertThat(ArchiveCounter.Format.fromFileName(Path.of("foo.java"))).isEmpty();
+    }
+
+    @Test
+    public void testInvalidArguments(@TempDir final Path tempDir) throws IOException {
+        final ArchiveCounter counter = new ArchiveCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.maxCommentDepth(0));
+        assertThatIllegalArgumentException().isThrownBy(counter::count);
+
+        final Path file = tempDir.resolve("foo.rar");
+        Files.writeString(file, "Not supported");
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.count(file));
+    }
+
+    @Test
+    public void testZip(@TempDir final Path tempDir) throws IOException {
+        final Path archive = tempDir.resolve("foo-sources.jar");
+        Files.write(archive, zip(ZipEntry.STORED));
+
+        final Map<Path, Map<Language, Counts>> counts = new ArchiveCounter().count(archive);
+        assertThat(counts).containsOnly(entry(archive.resolve("org/foo/Bar.java"), JAVA_COUNTS),
+                                        entry(archive.resolve("bin/run"), SCRIPT_COUNTS),
+                                        entry(archive.resolve("data/unknown"), Map.of()));
+    }
+
+    @Test
+    public void testLanguageRegistry(@TempDir final Path tempDir) throws IOException {
+        final Path archive = tempDir.resolve("foo-sources.jar");
+        Files.write(archive, zip(ZipEntry.STORED));
+
+        final LanguageRegistry registry = LanguageRegistry.defaults()
+                                                          .withoutExtension("java")
+                                                          .withFileName("unknown", Language.Text);
+        final Map<Path, Map<Language, Counts>> counts = new ArchiveCounter().languageRegistry(registry).count(archive);
+        assertThat(counts).containsOnly(entry(archive.resolve("org/foo/Bar.java"), Map.of()),
+                                        entry(archive.resolve("bin/run"), SCRIPT_COUNTS),
+                                        entry(archive.resolve("data/unknown"),
+                                              Map.of(Language.Text, new Counts(1, 0, 0))));
+    }
+
+    @Test
+    public void testZipStream() throws IOException {
+        final Path archive = Path.of("foo.jar");
+        for (final int method : new int[] { ZipEntry.STORED, ZipEntry.DEFLATED }) {
+            final InputStream in = new ByteArrayInputStream(zip(method));
+            final Map<Path, Map<Language, Counts>> counts = new ArchiveCounter().count(in, ArchiveCounter.Format.ZIP,
+                                                                                      archive);
+            assertThat(counts).containsOnly(entry(archive.resolve("org/foo/Bar.java"), JAVA_COUNTS),
+                                            entry(archive.resolve("bin/run"), SCRIPT_COUNTS),
+                                            entry(archive.resolve("data/unknown"), Map.of()));
+        }
+    }
+
+    @Test
+    public void testTar(@TempDir final Path tempDir) throws IOException {
+        final byte[] content = tar();
+        final Path tarArchive = tempDir.resolve("foo.tar");
+        Files.write(tarArchive, content);
+        final Path gzipArchive = tempDir.resolve("foo-1.0.tar.gz");
+        Files.write(gzipArchive, gzip(content));
+
+        final Map<Path, Map<Language, Counts>> counts = new ArchiveCounter().count(tarArchive, gzipArchive);
+        assertThat(counts).containsOnly(entry(tarArchive.resolve("foo/org/foo/Bar.java"), JAVA_COUNTS),
+                                        entry(tarArchive.resolve("foo/bin/run"), SCRIPT_COUNTS),
+                                        entry(tarArchive.resolve("foo/" + "x".repeat(120) + ".py"),
+                                              Map.of(Language.Python, new Counts(1, 0, 0))),
+                                        entry(tarArchive.resolve("foo/unknown"), Map.of()),
+                                        entry(gzipArchive.resolve("foo/org/foo/Bar.java"), JAVA_COUNTS),
+                                        entry(gzipArchive.resolve("foo/bin/run"), SCRIPT_COUNTS),
+                                        entry(gzipArchive.resolve("foo/" + "x".repeat(120) + ".py"),
+                                              Map.of(Language.Python, new Counts(1, 0, 0))),
+                                        entry(gzipArchive.resolve("foo/unknown"), Map.of()));
+    }
+
+    @Test
+    public void testLargeEntries(@TempDir final Path tempDir) throws IOException {
+        final int repeat = (int)(ArchiveCounter.STREAM_THRESHOLD / 16) + 1000;
+        final String largeContent = "x = 1\n# Comment\n".repeat(repeat);
+        final Map<Language, Counts> largeCounts = Map.of(Language.Python, new Counts(repeat, repeat, 0));
+
+        final Path zipArchive = tempDir.resolve("large.zip");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zipArchive))) {
+            out.putNextEntry(new ZipEntry("large.py"));
+            out.write(largeContent.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        final Path tarArchive = tempDir.resolve("large.tgz");
+        Files.write(tarArchive, gzip(new TarWriter().file("large.py", largeContent).toByteArray()));
+
+        final ArchiveCounter counter = new ArchiveCounter();
+        assertThat(counter.count(zipArchive, tarArchive))
+                .containsOnly(entry(zipArchive.resolve("large.py"), largeCounts),
+                              entry(tarArchive.resolve("large.py"), largeCounts));
+        try (InputStream in = Files.newInputStream(zipArchive)) {
+            assertThat(counter.count(in, ArchiveCounter.Format.ZIP, zipArchive))
+                    .containsOnly(entry(zipArchive.resolve("large.py"), largeCounts));
+        }
+    }
+
+    @Test
+    public void testCountPolicy(@TempDir final Path tempDir) throws IOException {
+        final Path zipArchive = tempDir.resolve("foo.zip");
+        final byte[] zipContent = policyZip();
+        Files.write(zipArchive, zipContent);
+        final Path tarArchive = tempDir.resolve("foo.tar");
+        Files.write(tarArchive, new TarWriter().file("plain.py", "x = 1\n")
+                                               .file("large.py", "x = 1\n".repeat(1000))
+                                               .file("generated", "#!/bin/sh\n# DO NOT EDIT\necho 'hello'\n")
+                                               .toByteArray());
+
+        final CountPolicy policy = new CountPolicy().skipGenerated(true).maxFileSize(1000);
+        final Map<Path, CountPolicy.SkipReason> skipped = new HashMap<>();
+        final ArchiveCounter counter = new ArchiveCounter().countPolicy(policy).skipListener(skipped::put);
+        final Map<Language, Counts> plainCounts = Map.of(Language.Python, new Counts(1, 0, 0));
+        assertThat(counter.count(zipArchive, tarArchive))
+                .containsOnly(entry(zipArchive.resolve("plain.py"), plainCounts),
+                              entry(tarArchive.resolve("plain.py"), plainCounts));
+        assertThat(skipped).containsOnly(entry(zipArchive.resolve("large.py"), CountPolicy.SkipReason.TOO_LARGE),
+                                         entry(zipArchive.resolve("generated"), CountPolicy.SkipReason.GENERATED),
+                                         entry(tarArchive.resolve("large.py"), CountPolicy.SkipReason.TOO_LARGE),
+                                         entry(tarArchive.resolve("generated"), CountPolicy.SkipReason.GENERATED));
+
+        // The sizes of deflated entries are not known ahead of their content in a stream
+        skipped.clear();
+        assertThat(counter.count(new ByteArrayInputStream(zipContent), ArchiveCounter.Format.ZIP, zipArchive))
+                .containsOnly(entry(zipArchive.resolve("plain.py"), plainCounts));
+        assertThat(skipped).containsOnly(entry(zipArchive.resolve("large.py"), CountPolicy.SkipReason.TOO_LARGE),
+                                         entry(zipArchive.resolve("generated"), CountPolicy.SkipReason.GENERATED));
+    }
+
+    @Test
+    public void testTruncateLargeEntries(@TempDir final Path tempDir) throws IOException {
+        final Path archive = tempDir.resolve("foo.zip");
+        final byte[] content = policyZip();
+        Files.write(archive, content);
+
+        // The first 100 bytes of the large entry contain 16 complete lines and part of the next line
+        final CountPolicy policy = new CountPolicy().maxFileSize(100).truncateLargeFiles(true);
+        final ArchiveCounter counter = new ArchiveCounter().countPolicy(policy);
+        final Map<Language, Counts> largeCounts = Map.of(Language.Python, new Counts(16, 0, 0));
+        assertThat(counter.count(archive)).containsEntry(archive.resolve("large.py"), largeCounts);
+        assertThat(counter.count(new ByteArrayInputStream(content), ArchiveCounter.Format.ZIP, archive))
+                .containsEntry(archive.resolve("large.py"), largeCounts);
+    }
+
+    @Test
+    public void testInvalidArchive(@TempDir final Path tempDir) throws IOException {
+        final Path zipArchive = tempDir.resolve("bad.zip");
+        Files.writeString(zipArchive, "Not a zip archive");
+        final Path tarArchive = tempDir.resolve("bad.tar.gz");
+        Files.writeString(tarArchive, "Not a gzip archive");
+
+        final ArchiveCounter counter = new ArchiveCounter();
+        assertThatIOException().isThrownBy(() -> counter.count(zipArchive));
+        assertThatIOException().isThrownBy(() -> counter.count(tarArchive));
+    }
+
+    private static byte[] zip(final int method) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("org/"));
+            out.closeEntry();
+            putEntry(out, "org/foo/Bar.java", JAVA_CONTENT, method);
+            putEntry(out, "bin/run", SCRIPT_CONTENT, method);
+            putEntry(out, "data/unknown", "Unknown content\n", method);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] policyZip() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+            putEntry(out, "plain.py", "x = 1\n", ZipEntry.DEFLATED);
+            putEntry(out, "large.py", "x = 1\n".repeat(1000), ZipEntry.DEFLATED);
+            putEntry(out, "generated", "#!/bin/sh\n# DO NOT EDIT\necho 'hello'\n", ZipEntry.DEFLATED);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void putEntry(final ZipOutputStream out, final String name, final String content,
+                                 final int method) throws IOException {
+        final byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            entry.setSize(data.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static byte[] tar() {
+        return new TarWriter().directory("foo/")
+                              .prefixedFile("foo/org/foo", "Bar.java", JAVA_CONTENT)
+                              .file("foo/bin/run", SCRIPT_CONTENT)
+                              .gnuLongNameFile("foo/" + "x".repeat(120) + ".py", "x = 1\n")
+                              .entry("foo/link.java", "", '2', new byte[0])
+                              .paxFile("foo/unknown", "Unknown content\n")
+                              .toByteArray();
+    }
+
+    private static byte[] gzip(final byte[] content) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class AsciiSetTest {
+
+    @Test
+    public void testEmpty() {
+        final AsciiSet set = new AsciiSet(new long[] { 0L, 0L });
+        assertThat(set.members()).isEmpty();
+        assertThat(set.contains('a')).isFalse();
+        assertThat(set.contains('\0')).isFalse();
+        assertThat(set).hasToString("[]");
+    }
+
+    @Test
+    public void testMembers() {
+        final AsciiSet set = new AsciiSet(new long[] { (1L << '"') | (1L << '/'), (1L << ('\\' - 64)) | (1L << 63) });
+        assertThat(set.members()).containsExactly('"', '/', '\\', '\u007F');
+        assertThat(set.contains('"')).isTrue();
+        assertThat(set.contains('/')).isTrue();
+        assertThat(set.contains('\\')).isTrue();
+        assertThat(set.contains('\u007F')).isTrue();
+        assertThat(set.contains('*')).isFalse();
+        assertThat(set.contains('a')).isFalse();
+        assertThat(set.contains('\u00A2')).isFalse();
+        assertThat(set.contains('\u0122')).isFalse();
+    }
+}
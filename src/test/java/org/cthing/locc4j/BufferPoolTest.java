@@ -0,0 +1,89 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class BufferPoolTest {
+
+    @Test
+    public void testThreadConfined() throws InterruptedException {
+        final BufferPool pool = BufferPool.get();
+        assertThat(BufferPool.get()).isSameAs(pool);
+
+        final AtomicReference<BufferPool> otherPool = new AtomicReference<>();
+        final Thread thread = new Thread(() -> otherPool.set(BufferPool.get()));
+        thread.start();
+        thread.join();
+        assertThat(otherPool.get()).isNotNull().isNotSameAs(pool);
+    }
+
+    @Test
+    public void testBytes() {
+        final BufferPool pool = BufferPool.get();
+        final int length = pool.pooledBytes() + 100;
+
+        final byte[] bytes1 = pool.acquireBytes(length);
+        assertThat(bytes1).hasSize(length);
+        pool.release(bytes1);
+        assertThat(pool.pooledBytes()).isEqualTo(length);
+
+        final byte[] bytes2 = pool.acquireBytes(length - 10);
+        assertThat(bytes2).isSameAs(bytes1);
+        assertThat(pool.pooledBytes()).isZero();
+
+        final byte[] bytes3 = pool.acquireBytes(10);
+        assertThat(bytes3).isNotSameAs(bytes1).hasSize(10);
+        pool.release(bytes3);
+        pool.release(bytes2);
+        assertThat(pool.pooledBytes()).isEqualTo(length);
+        pool.release(new byte[5]);
+        assertThat(pool.pooledBytes()).isEqualTo(length);
+    }
+
+    @Test
+    public void testChars() {
+        final BufferPool pool = BufferPool.get();
+        final int length = pool.pooledChars() + 100;
+
+        final char[] chars1 = pool.acquireChars(length);
+        assertThat(chars1).hasSize(length);
+        pool.release(chars1);
+        assertThat(pool.pooledChars()).isEqualTo(length);
+
+        final char[] chars2 = pool.acquireChars(length);
+        assertThat(chars2).isSameAs(chars1);
+        final char[] chars3 = pool.acquireChars(length);
+        assertThat(chars3).isNotSameAs(chars1);
+        pool.release(chars2);
+        pool.release(chars3);
+        assertThat(pool.pooledChars()).isEqualTo(length);
+    }
+
+    @Test
+    public void testMaxPooledLength() {
+        final BufferPool pool = BufferPool.get();
+        final int pooledBytes = pool.pooledBytes();
+        pool.release(new byte[BufferPool.MAX_POOLED_LENGTH + 1]);
+        assertThat(pool.pooledBytes()).isEqualTo(pooledBytes);
+    }
+
+    @Test
+    public void testDecoder() throws CharacterCodingException {
+        final BufferPool pool = BufferPool.get();
+        final CharBuffer decoded = pool.decoder().decode(ByteBuffer.wrap(new byte[] { 'a', (byte)0xFF, 'b' }));
+        assertThat(decoded.toString()).isEqualTo("a\uFFFDb");
+        assertThat(pool.decoder().decode(ByteBuffer.wrap(new byte[] { 'c' })).toString()).isEqualTo("c");
+    }
+}
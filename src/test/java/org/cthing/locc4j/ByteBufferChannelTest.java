@@ -0,0 +1,46 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class ByteBufferChannelTest {
+
+    @Test
+    public void testRead() throws ClosedChannelException {
+        final ByteBuffer source = ByteBuffer.wrap("abcdefg".getBytes(StandardCharsets.UTF_8)).position(1);
+        final ByteBufferChannel channel = new ByteBufferChannel(source);
+        assertThat(channel.isOpen()).isTrue();
+
+        final ByteBuffer dst = ByteBuffer.allocate(4);
+        dst.put((byte)'x');
+        assertThat(channel.read(dst)).isEqualTo(3);
+        assertThat(dst.array()).containsExactly('x', 'b', 'c', 'd');
+        assertThat(source.position()).isEqualTo(4);
+
+        dst.clear();
+        assertThat(channel.read(dst)).isEqualTo(3);
+        assertThat(dst.position()).isEqualTo(3);
+        assertThat(dst.array()).startsWith('e', 'f', 'g');
+        assertThat(channel.read(dst)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testClose() {
+        final ByteBufferChannel channel = new ByteBufferChannel(ByteBuffer.allocate(4));
+        channel.close();
+        assertThat(channel.isOpen()).isFalse();
+        assertThatThrownBy(() -> channel.read(ByteBuffer.allocate(4))).isInstanceOf(ClosedChannelException.class);
+    }
+}
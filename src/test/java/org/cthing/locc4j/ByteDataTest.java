@@ -0,0 +1,138 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIndexOutOfBoundsException;
+
+
+public class ByteDataTest {
+
+    @Test
+    public void testProperties() {
+        final ByteData buffer = data("h\u00E9llo");
+        assertThat(buffer.length()).isEqualTo(6);
+        assertThat(buffer).hasToString("h\u00E9llo");
+
+        final ByteData buffer2 = new ByteData("xx hello xx".getBytes(StandardCharsets.UTF_8), 3, 5);
+        assertThat(buffer2.length()).isEqualTo(5);
+        assertThat(buffer2).hasToString("hello");
+        assertThatIndexOutOfBoundsException().isThrownBy(() -> new ByteData(new byte[4], 2, 3));
+    }
+
+    @Test
+    public void testCharAt() {
+        final ByteData buffer = data("a\u00E9b");
+        assertThat(buffer.charAt(0)).isEqualTo('a');
+        assertThat(buffer.charAt(1)).isEqualTo('\u00C3');
+        assertThat(buffer.charAt(2)).isEqualTo('\u00A9');
+        assertThat(buffer.charAt(3)).isEqualTo('b');
+        assertThatIndexOutOfBoundsException().isThrownBy(() -> buffer.charAt(4));
+    }
+
+    @Test
+    public void testFindLineEnd() {
+        final ByteData buffer = data("ab\n\ncd");
+        assertThat(buffer.findLineEnd(0)).isEqualTo(3);
+        assertThat(buffer.findLineEnd(3)).isEqualTo(4);
+        assertThat(buffer.findLineEnd(4)).isEqualTo(6);
+        assertThat(buffer.findLineEnd(6)).isEqualTo(6);
+    }
+
+    @Test
+    public void testCountLines() {
+        assertThat(data("").countLines()).isZero();
+        assertThat(data("hello").countLines()).isEqualTo(1);
+        assertThat(data("hello\n").countLines()).isEqualTo(1);
+        assertThat(data("h\u00E9llo\nworld").countLines()).isEqualTo(2);
+        assertThat(data("hello\nworld\n").countLines()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBlankRegion() {
+        final ByteData buffer = data("  \t\u3000 Hello  ");
+        assertThat(buffer.isBlank(0, 7)).isTrue();
+        assertThat(buffer.isBlank(0, 8)).isFalse();
+        assertThat(buffer.isBlank(0, 5)).isFalse();
+        assertThat(buffer.isBlank(12, 14)).isTrue();
+        assertThat(buffer.isBlank(3, 3)).isTrue();
+        assertThatIndexOutOfBoundsException().isThrownBy(() -> buffer.isBlank(0, 15));
+    }
+
+    @Test
+    public void testTrimRegion() {
+        final ByteData buffer = data("  Hello \n\t W\u00F6rld \u2003\n");
+        assertThat(buffer.trimStart(0, 22)).isEqualTo(2);
+        assertThat(buffer.trimEnd(0, 22)).isEqualTo(17);
+        assertThat(buffer.trimStart(7, 22)).isEqualTo(11);
+        assertThat(buffer.trimEnd(0, 10)).isEqualTo(7);
+        assertThat(buffer.trimStart(7, 11)).isEqualTo(11);
+        assertThat(buffer.trimEnd(7, 11)).isEqualTo(7);
+        assertThat(buffer.trimEnd(0, 20)).isEqualTo(20);
+    }
+
+    @Test
+    public void testStartsWithRegion() {
+        final ByteData buffer = data("H\u00E9llo World");
+        assertThat(buffer.startsWith("Wor", 7)).isTrue();
+        assertThat(buffer.startsWith("World", 7)).isTrue();
+        assertThat(buffer.startsWith("World!", 7)).isFalse();
+        assertThat(buffer.startsWith("", 12)).isTrue();
+        assertThat(buffer.startsWith("World", 7, 11)).isFalse();
+        assertThat(buffer.startsWith("Worl", 7, 11)).isTrue();
+        assertThat(buffer.startsWith("H\u00E9", 0)).isFalse();
+    }
+
+    @Test
+    public void testEndsWithRegion() {
+        final ByteData buffer = data("Hello World");
+        assertThat(buffer.endsWith("llo", 0, 5)).isTrue();
+        assertThat(buffer.endsWith("Hello", 0, 5)).isTrue();
+        assertThat(buffer.endsWith("Hello", 1, 5)).isFalse();
+        assertThat(buffer.endsWith("", 3, 3)).isTrue();
+        assertThat(buffer.endsWith("rld", 0, 11)).isTrue();
+    }
+
+    @Test
+    public void testContainsRegion() {
+        final ByteData buffer = data("hello world");
+        assertThat(buffer.contains("lo w", 2, 7)).isTrue();
+        assertThat(buffer.contains("lo wo", 2, 7)).isFalse();
+        assertThat(buffer.contains("hello", 1, 11)).isFalse();
+        assertThat(buffer.contains("", 4, 4)).isTrue();
+    }
+
+    @Test
+    public void testIndexOfAny() {
+        final AsciiSet set = new AsciiSet(new long[] { 1L << '"', 1L << ('|' - 64) });
+        final ByteData buffer = data("abc \"d\" | \u00E9f");
+        assertThat(buffer.indexOfAny(set, 0, buffer.length())).isEqualTo(4);
+        assertThat(buffer.indexOfAny(set, 5, buffer.length())).isEqualTo(6);
+        assertThat(buffer.indexOfAny(set, 7, buffer.length())).isEqualTo(8);
+        assertThat(buffer.indexOfAny(set, 9, buffer.length())).isEqualTo(-1);
+        assertThat(buffer.indexOfAny(set, 0, 4)).isEqualTo(-1);
+        assertThatIndexOutOfBoundsException().isThrownBy(() -> buffer.indexOfAny(set, 0, 14));
+    }
+
+    @Test
+    public void testCreateReader() throws IOException {
+        try (Reader reader = data("h\u00E9llo").createReader()) {
+            final char[] chars = new char[10];
+            assertThat(reader.read(chars)).isEqualTo(5);
+            assertThat(new String(chars, 0, 5)).isEqualTo("h\u00E9llo");
+        }
+    }
+
+    private static ByteData data(final String str) {
+        return new ByteData(str.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -91,6 +91,17 @@ public class CharDataTest {
         assertThat(buffer3.isBlank()).isTrue();
     }
 
+    @Test
+    public void testBlankRegion() {
+        final CharData buffer = new CharData("  \t Hello  ".toCharArray());
+        assertThat(buffer.isBlank(0, 4)).isTrue();
+        assertThat(buffer.isBlank(0, 5)).isFalse();
+        assertThat(buffer.isBlank(8, 11)).isFalse();
+        assertThat(buffer.isBlank(9, 11)).isTrue();
+        assertThat(buffer.isBlank(3, 3)).isTrue();
+        assertThatIndexOutOfBoundsException().isThrownBy(() -> buffer.isBlank(0, 12));
+    }
+
     @Test
     @SuppressWarnings("ResultOfMethodCallIgnored")
     public void testSubSequenceStartEnd() {
@@ -188,6 +199,31 @@ public class CharDataTest {
         assertThat(buffer2.endsWith("ll")).isTrue();
     }
 
+    @Test
+    public void testStartsWithRegion() {
+        final CharData buffer = new CharData("Hello World".toCharArray());
+        assertThat(buffer.startsWith("Wor", 6)).isTrue();
+        assertThat(buffer.startsWith("World", 6)).isTrue();
+        assertThat(buffer.startsWith("World!", 6)).isFalse();
+        assertThat(buffer.startsWith("", 11)).isTrue();
+        assertThat(buffer.startsWith("World", 6, 10)).isFalse();
+        assertThat(buffer.startsWith("Worl", 6, 10)).isTrue();
+
+        final CharData buffer2 = buffer.subSequence(1, 8);
+        assertThat(buffer2.startsWith("lo W", 2)).isTrue();
+        assertThat(buffer2.startsWith("lo Wor", 2)).isFalse();
+    }
+
+    @Test
+    public void testEndsWithRegion() {
+        final CharData buffer = new CharData("Hello World".toCharArray());
+        assertThat(buffer.endsWith("llo", 0, 5)).isTrue();
+        assertThat(buffer.endsWith("Hello", 0, 5)).isTrue();
+        assertThat(buffer.endsWith("Hello", 1, 5)).isFalse();
+        assertThat(buffer.endsWith("", 3, 3)).isTrue();
+        assertThat(buffer.endsWith("rld", 0, 11)).isTrue();
+    }
+
     @Test
     public void testCountLines() {
         assertThat(new CharData("".toCharArray()).countLines()).isZero();
@@ -373,6 +409,17 @@ public class CharDataTest {
         assertThat(buffer2.trim().toString()).isEmpty();
     }
 
+    @Test
+    public void testTrimRegion() {
+        final CharData buffer = new CharData("  Hello \n\t World \n".toCharArray());
+        assertThat(buffer.trimStart(0, 18)).isEqualTo(2);
+        assertThat(buffer.trimEnd(0, 18)).isEqualTo(16);
+        assertThat(buffer.trimStart(7, 18)).isEqualTo(11);
+        assertThat(buffer.trimEnd(0, 10)).isEqualTo(7);
+        assertThat(buffer.trimStart(7, 11)).isEqualTo(11);
+        assertThat(buffer.trimEnd(7, 11)).isEqualTo(7);
+    }
+
     @Test
     public void testTrimLeading() {
         CharData buffer = new CharData("    ".toCharArray());
@@ -577,6 +624,15 @@ public class CharDataTest {
         assertThat(buffer3.contains("")).isTrue();
     }
 
+    @Test
+    public void testContainsRegion() {
+        final CharData buffer = new CharData("hello world".toCharArray());
+        assertThat(buffer.contains("lo w", 2, 7)).isTrue();
+        assertThat(buffer.contains("lo wo", 2, 7)).isFalse();
+        assertThat(buffer.contains("hello", 1, 11)).isFalse();
+        assertThat(buffer.contains("", 4, 4)).isTrue();
+    }
+
     @Test
     public void testIndexOfChar() {
         final CharData buffer1 = new CharData("hello world".toCharArray());
@@ -598,6 +654,23 @@ public class CharDataTest {
         assertThat(buffer2.indexOf('r', 3)).isEqualTo(-1);
     }
 
+    @Test
+    public void testIndexOfAny() {
+        final AsciiSet set = new AsciiSet(new long[] { 1L << '"', 1L << ('|' - 64) });
+        final CharData buffer1 = new CharData("abc \"d\" | \u00e9f".toCharArray());
+        assertThat(buffer1.indexOfAny(set, 0, buffer1.length())).isEqualTo(4);
+        assertThat(buffer1.indexOfAny(set, 5, buffer1.length())).isEqualTo(6);
+        assertThat(buffer1.indexOfAny(set, 7, buffer1.length())).isEqualTo(8);
+        assertThat(buffer1.indexOfAny(set, 9, buffer1.length())).isEqualTo(10);
+        assertThat(buffer1.indexOfAny(set, 11, buffer1.length())).isEqualTo(-1);
+        assertThat(buffer1.indexOfAny(set, 0, 4)).isEqualTo(-1);
+        assertThat(buffer1.indexOfAny(set, 4, 4)).isEqualTo(-1);
+        assertThatIndexOutOfBoundsException().isThrownBy(() -> buffer1.indexOfAny(set, 0, 13));
+
+        final CharData buffer2 = buffer1.subSequence(5, 11);
+        assertThat(buffer2.indexOfAny(set, 0, buffer2.length())).isEqualTo(1);
+    }
+
     @Test
     public void testIndexOfSequence() {
         final CharData buffer1 = new CharData("hello world".toCharArray());
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+/**
+ * Tests the scalar scanner and the scanner selected for the current platform. When the tests are run on Java 21
+ * or newer with the {@code jdk.incubator.vector} module, the selected scanner is the vectorized scanner, which is
+ * compared against the scalar scanner over a range of region lengths to exercise both the vector loop and the
+ * handling of any remainder.
+ */
+public class CharScannerTest {
+
+    private static final ScalarCharScanner SCALAR = ScalarCharScanner.INSTANCE;
+    private static final AsciiSet SET = new AsciiSet(new long[] { (1L << '"') | (1L << '/'), 1L << ('\\' - 64) });
+    private static final char[] ALPHABET = {
+            'a', 'Z', '0', ' ', ' ', ' ', '\t', '\n', '\r', '\u000B', '\f', '\u001C', '\u001F', '"', '/', '\\',
+            '\u00A0', '\u00E9', '\u2003', '\u3000', '\uFFFF',
+    };
+
+    static Stream<CharScanner> scanners() {
+        return Stream.of(SCALAR, CharScanners.get());
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testIndexOf(final CharScanner scanner) {
+        final char[] buffer = "abc\ndef\n\nghi".toCharArray();
+        assertThat(scanner.indexOf(buffer, 0, buffer.length, '\n')).isEqualTo(3);
+        assertThat(scanner.indexOf(buffer, 4, buffer.length, '\n')).isEqualTo(7);
+        assertThat(scanner.indexOf(buffer, 8, buffer.length, '\n')).isEqualTo(8);
+        assertThat(scanner.indexOf(buffer, 9, buffer.length, '\n')).isEqualTo(-1);
+        assertThat(scanner.indexOf(buffer, 0, 3, '\n')).isEqualTo(-1);
+        assertThat(scanner.indexOf(buffer, 0, 0, '\n')).isEqualTo(-1);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testCount(final CharScanner scanner) {
+        final char[] buffer = "abc\ndef\n\nghi".toCharArray();
+        assertThat(scanner.count(buffer, 0, buffer.length, '\n')).isEqualTo(3);
+        assertThat(scanner.count(buffer, 4, 8, '\n')).isEqualTo(1);
+        assertThat(scanner.count(buffer, 0, 0, '\n')).isEqualTo(0);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testWhitespace(final CharScanner scanner) {
+        final char[] buffer = " \t\u2003 hello \u001C\u3000 ".toCharArray();
+        assertThat(scanner.indexOfNonWhitespace(buffer, 0, buffer.length)).isEqualTo(4);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer, 0, buffer.length)).isEqualTo(8);
+        assertThat(scanner.indexOfNonWhitespace(buffer, 0, 4)).isEqualTo(-1);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer, 9, buffer.length)).isEqualTo(-1);
+
+        // Non-breaking spaces are not whitespace
+        final char[] buffer2 = "  \u00A0  ".toCharArray();
+        assertThat(scanner.indexOfNonWhitespace(buffer2, 0, buffer2.length)).isEqualTo(2);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer2, 0, buffer2.length)).isEqualTo(2);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testIndexOfAny(final CharScanner scanner) {
+        final char[] buffer = "abc \"d\" e/f \u00E9".toCharArray();
+        assertThat(scanner.indexOfAny(buffer, 0, buffer.length, SET)).isEqualTo(4);
+        assertThat(scanner.indexOfAny(buffer, 7, buffer.length, SET)).isEqualTo(9);
+        assertThat(scanner.indexOfAny(buffer, 10, buffer.length, SET)).isEqualTo(12);
+        assertThat(scanner.indexOfAny(buffer, 0, 4, SET)).isEqualTo(-1);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testAgreesWithScalar(final CharScanner scanner) {
+        final Random random = new Random(1234);
+        for (int length = 0; length < 200; length++) {
+            for (int trial = 0; trial < 20; trial++) {
+                final char[] buffer = new char[length + 10];
+                for (int i = 0; i < buffer.length; i++) {
+                    buffer[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+                }
+                final int from = random.nextInt(10);
+                final int to = from + length;
+
+                assertThat(scanner.indexOf(buffer, from, to, '\n')).isEqualTo(SCALAR.indexOf(buffer, from, to, '\n'));
+                assertThat(scanner.count(buffer, from, to, '\n')).isEqualTo(SCALAR.count(buffer, from, to, '\n'));
+                assertThat(scanner.indexOfNonWhitespace(buffer, from, to))
+                        .isEqualTo(SCALAR.indexOfNonWhitespace(buffer, from, to));
+                assertThat(scanner.lastIndexOfNonWhitespace(buffer, from, to))
+                        .isEqualTo(SCALAR.lastIndexOfNonWhitespace(buffer, from, to));
+                assertThat(scanner.indexOfAny(buffer, from, to, SET))
+                        .isEqualTo(SCALAR.indexOfAny(buffer, from, to, SET));
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testIndexOfBytes(final CharScanner scanner) {
+        final byte[] buffer = bytes("abc\ndef\n\nghi");
+        assertThat(scanner.indexOf(buffer, 0, buffer.length, (byte)'\n')).isEqualTo(3);
+        assertThat(scanner.indexOf(buffer, 4, buffer.length, (byte)'\n')).isEqualTo(7);
+        assertThat(scanner.indexOf(buffer, 9, buffer.length, (byte)'\n')).isEqualTo(-1);
+        assertThat(scanner.indexOf(buffer, 0, 0, (byte)'\n')).isEqualTo(-1);
+        assertThat(scanner.count(buffer, 0, buffer.length, (byte)'\n')).isEqualTo(3);
+        assertThat(scanner.count(buffer, 4, 8, (byte)'\n')).isEqualTo(1);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testWhitespaceBytes(final CharScanner scanner) {
+        // The em space and ideographic space are each encoded in three bytes
+        final byte[] buffer = bytes(" \t\u2003 hello \u001C\u3000 ");
+        assertThat(scanner.indexOfNonWhitespace(buffer, 0, buffer.length)).isEqualTo(6);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer, 0, buffer.length)).isEqualTo(10);
+        assertThat(scanner.indexOfNonWhitespace(buffer, 0, 6)).isEqualTo(-1);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer, 11, buffer.length)).isEqualTo(-1);
+
+        // A whitespace character cut off by the end of the region is not whitespace
+        assertThat(scanner.indexOfNonWhitespace(buffer, 0, 4)).isEqualTo(2);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer, 11, 15)).isEqualTo(14);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer, 14, buffer.length)).isEqualTo(15);
+
+        // Non-breaking spaces are not whitespace
+        final byte[] buffer2 = bytes("  \u00A0  ");
+        assertThat(scanner.indexOfNonWhitespace(buffer2, 0, buffer2.length)).isEqualTo(2);
+        assertThat(scanner.lastIndexOfNonWhitespace(buffer2, 0, buffer2.length)).isEqualTo(3);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testIndexOfAnyBytes(final CharScanner scanner) {
+        final byte[] buffer = bytes("abc \u00E9\"d\" e/f \u00E9");
+        assertThat(scanner.indexOfAny(buffer, 0, buffer.length, SET)).isEqualTo(6);
+        assertThat(scanner.indexOfAny(buffer, 9, buffer.length, SET)).isEqualTo(11);
+        assertThat(scanner.indexOfAny(buffer, 12, buffer.length, SET)).isEqualTo(-1);
+        assertThat(scanner.indexOfAny(buffer, 0, 4, SET)).isEqualTo(-1);
+    }
+
+    @ParameterizedTest
+    @MethodSource("scanners")
+    public void testBytesAgreeWithChars(final CharScanner scanner) {
+        final Random random = new Random(5678);
+        for (int length = 0; length < 200; length++) {
+            for (int trial = 0; trial < 20; trial++) {
+                final char[] chars = new char[length + 10];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+                }
+                final int from = random.nextInt(10);
+                final int to = from + length;
+
+                // Map each character position to the position of its first byte
+                final byte[] buffer = new String(chars).getBytes(StandardCharsets.UTF_8);
+                final int[] positions = new int[chars.length + 1];
+                for (int i = 0; i < chars.length; i++) {
+                    positions[i + 1] = positions[i] + String.valueOf(chars[i]).getBytes(StandardCharsets.UTF_8).length;
+                }
+                final int byteFrom = positions[from];
+                final int byteTo = positions[to];
+
+                assertThat(scanner.indexOf(buffer, byteFrom, byteTo, (byte)'\n'))
+                        .isEqualTo(SCALAR.indexOf(buffer, byteFrom, byteTo, (byte)'\n'));
+                assertThat(scanner.count(buffer, byteFrom, byteTo, (byte)'\n'))
+                        .isEqualTo(SCALAR.count(chars, from, to, '\n'));
+
+                final int first = SCALAR.indexOfNonWhitespace(chars, from, to);
+                assertThat(scanner.indexOfNonWhitespace(buffer, byteFrom, byteTo))
+                        .isEqualTo((first < 0) ? -1 : positions[first]);
+                final int last = SCALAR.lastIndexOfNonWhitespace(chars, from, to);
+                assertThat(scanner.lastIndexOfNonWhitespace(buffer, byteFrom, byteTo))
+                        .isEqualTo((last < 0) ? -1 : positions[last + 1] - 1);
+
+                assertThat(scanner.indexOfAny(buffer, byteFrom, byteTo, SET))
+                        .isEqualTo(SCALAR.indexOfAny(buffer, byteFrom, byteTo, SET));
+            }
+        }
+    }
+
+    private static byte[] bytes(final String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
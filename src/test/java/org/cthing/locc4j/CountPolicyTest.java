@@ -0,0 +1,108 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.cthing.locc4j.CountPolicy.SkipReason.BINARY;
+import static org.cthing.locc4j.CountPolicy.SkipReason.GENERATED;
+import static org.cthing.locc4j.CountPolicy.SkipReason.LONG_LINE;
+import static org.cthing.locc4j.CountPolicy.SkipReason.TOO_LARGE;
+import static org.cthing.locc4j.TestFiles.content;
+
+
+public class CountPolicyTest {
+
+    @Test
+    public void testDefault() {
+        final CountPolicy policy = new CountPolicy();
+        assertThat(policy.examinesContent()).isFalse();
+        assertThat(policy.examine(Long.MAX_VALUE, content("\0\0\0" + "x".repeat(10000)))).isNull();
+        assertThat(policy.countedSize(Long.MAX_VALUE)).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testInvalidSettings() {
+        final CountPolicy policy = new CountPolicy();
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.maxFileSize(-1));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.maxLineLength(0));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.maxLineLength(CountPolicy.HEAD_LENGTH));
+        assertThatIllegalArgumentException().isThrownBy(() -> policy.generatedMarkers("foo", ""));
+    }
+
+    @Test
+    public void testMaxFileSize() {
+        final CountPolicy policy = new CountPolicy().maxFileSize(100);
+        assertThat(policy.examinesContent()).isFalse();
+        assertThat(policy.examine(100, content(""))).isNull();
+        assertThat(policy.examine(101, content(""))).isEqualTo(TOO_LARGE);
+        assertThat(policy.countedSize(101)).isEqualTo(101);
+
+        policy.truncateLargeFiles(true);
+        assertThat(policy.examine(101, content(""))).isNull();
+        assertThat(policy.countedSize(100)).isEqualTo(100);
+        assertThat(policy.countedSize(101)).isEqualTo(100);
+
+        policy.maxFileSize(Long.MAX_VALUE - 1);
+        assertThat(policy.countedSize(Long.MAX_VALUE)).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testSkipBinary() {
+        final CountPolicy policy = new CountPolicy().skipBinary(true);
+        assertThat(policy.examinesContent()).isTrue();
+        assertThat(policy.examine(0, content(""))).isNull();
+        assertThat(policy.examine(10, content("int x;\n\tx = 1;\r\n\f\b\u001B[0m"))).isNull();
+        assertThat(policy.examine(10, content("caf\u00E9 \u4E2D\u6587\n"))).isNull();
+        assertThat(policy.examine(10, content("int x;\0"))).isEqualTo(BINARY);
+        assertThat(policy.examine(10, content("abcdefg\u0001\u0002\u0003"))).isNull();
+        assertThat(policy.examine(10, content("abcdef\u0001\u0002\u0003\u0004"))).isEqualTo(BINARY);
+
+        // Only the head is examined
+        assertThat(policy.examine(10, content("x".repeat(CountPolicy.HEAD_LENGTH) + "\0"))).isNull();
+    }
+
+    @Test
+    public void testMaxLineLength() {
+        final CountPolicy policy = new CountPolicy().maxLineLength(5);
+        assertThat(policy.examinesContent()).isTrue();
+        assertThat(policy.examine(10, content("12345\n12345\r\n12345"))).isNull();
+        assertThat(policy.examine(10, content("12345\n123456\n12345"))).isEqualTo(LONG_LINE);
+        assertThat(policy.examine(10, content("12345\n123456"))).isEqualTo(LONG_LINE);
+        assertThat(policy.examine(10, content("123456"))).isEqualTo(LONG_LINE);
+
+        final ByteBuffer head = content("123456\n12345").position(1);
+        assertThat(policy.examine(10, head)).isNull();
+        assertThat(head.position()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSkipGenerated() {
+        final CountPolicy policy = new CountPolicy().skipGenerated(true);
+        assertThat(policy.examinesContent()).isTrue();
+        assertThat(policy.examine(10, content("// Code generated by protoc. DO NOT EDIT.\n"))).isEqualTo(GENERATED);
+        assertThat(policy.examine(10, content("/*\n * @generated\n */\n"))).isEqualTo(GENERATED);
+        assertThat(policy.examine(10, content("// <auto-generated />\n"))).isEqualTo(GENERATED);
+        assertThat(policy.examine(10, content("# Do not edit this file"))).isEqualTo(GENERATED);
+        assertThat(policy.examine(10, content("int x;\n// Please edit this file\n"))).isNull();
+        assertThat(policy.examine(10, content("\n".repeat(CountPolicy.MARKER_LINES - 1) + "@generated")))
+                .isEqualTo(GENERATED);
+        assertThat(policy.examine(10, content("\n".repeat(CountPolicy.MARKER_LINES) + "@generated"))).isNull();
+
+        policy.generatedMarkers("Auto\u00C9dit");
+        assertThat(policy.examine(10, content("@generated"))).isNull();
+        assertThat(policy.examine(10, content("AUTO\u00C9DIT"))).isEqualTo(GENERATED);
+        assertThat(policy.examine(10, content("AUTO\u00E9DIT"))).isNull();
+
+        policy.skipGenerated(false);
+        assertThat(policy.examinesContent()).isFalse();
+        assertThat(policy.examine(10, content("AUTO\u00C9DIT"))).isNull();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+
+public class CountResultsTest {
+
+    @RegisterExtension
+    static TreeDataExtension treeData = new TreeDataExtension();
+
+    @Test
+    public void testEmpty() {
+        final CountResults results = new CountResults();
+        assertThat(results.size()).isZero();
+        assertThat(results.asMap()).isEmpty();
+        assertThat(CountUtils.byLanguage(results)).isEmpty();
+        assertThat(CountUtils.byFile(results)).isEmpty();
+        assertThat(CountUtils.languages(results)).isEmpty();
+        assertThat(CountUtils.unrecognized(results)).isEmpty();
+        assertThat(CountUtils.total(results)).isEqualTo(Counts.ZERO);
+    }
+
+    @Test
+    public void testAdd() {
+        final Map<Path, Map<Language, Counts>> counts = new LinkedHashMap<>();
+        counts.put(Path.of("/a/b/index.html"), Map.of(Language.Html, new Counts(10, 2, 3),
+                                                      Language.Css, new Counts(4, 1, 0)));
+        counts.put(Path.of("/a/b/Foo.java"), Map.of(Language.Java, new Counts(7, 1, 1)));
+        counts.put(Path.of("/a/c/Foo.java"), Map.of(Language.Java, new Counts(3, 0, 2)));
+        counts.put(Path.of("/a/b/data.unknown"), Map.of());
+        counts.put(Path.of("relative.py"), Map.of(Language.Python, new Counts(1, 1, 1)));
+        counts.put(Path.of("docs", "notes", "readme.txt"), Map.of(Language.Text, new Counts(0, 0, 5)));
+
+        final CountResults results = CountResults.of(counts);
+        assertThat(results.size()).isEqualTo(counts.size());
+        assertThat(results.asMap()).isEqualTo(counts);
+        assertThat(counts).isEqualTo(results.asMap());
+        assertThat(results.asMap().keySet()).containsExactlyElementsOf(counts.keySet());
+        assertThat(results.asMap()).containsEntry(Path.of("/a/c/Foo.java"), Map.of(Language.Java, new Counts(3, 0, 2)))
+                                   .containsEntry(Path.of("/a/b/data.unknown"), Map.of())
+                                   .containsKey(Path.of("relative.py"))
+                                   .doesNotContainKey(Path.of("/a/d/Foo.java"))
+                                   .doesNotContainKey(Path.of("/a/b/Bar.java"))
+                                   .doesNotContainKey(Path.of("/"));
+
+        assertThat(CountUtils.byLanguage(results)).isEqualTo(CountUtils.byLanguage(counts))
+                                                  .containsEntry(Language.Java, new Counts(10, 1, 3));
+        assertThat(CountUtils.byFile(results)).isEqualTo(CountUtils.byFile(counts))
+                                              .doesNotContainKey(Path.of("/a/b/data.unknown"));
+        assertThat(CountUtils.languages(results)).isEqualTo(CountUtils.languages(counts));
+        assertThat(CountUtils.unrecognized(results)).containsExactly(Path.of("/a/b/data.unknown"));
+        assertThat(CountUtils.total(results)).isEqualTo(CountUtils.total(counts));
+
+        assertThatIllegalArgumentException().isThrownBy(() -> results.add(Path.of("/"), Map.of()));
+        assertThatIllegalArgumentException().isThrownBy(() -> results.add(Path.of("/a/b/Foo.java"), Map.of()))
+                                            .withMessageContaining("already added");
+        assertThatIllegalArgumentException().isThrownBy(() -> results.add(Path.of("relative.py"), Map.of()));
+        assertThat(results.asMap()).isEqualTo(counts);
+        assertThatThrownBy(() -> results.asMap().put(Path.of("x"), Map.of()))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void testGrowth() {
+        final Map<Path, Map<Language, Counts>> counts = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            final Path file = Path.of("dir" + (i % 7), "file" + i + ".html");
+            counts.put(file, (i % 5 == 0) ? Map.of() : Map.of(Language.Html, new Counts(i, i % 3, 1),
+                                                              Language.JavaScript, new Counts(i % 11, 0, 0)));
+        }
+
+        final CountResults results = new CountResults();
+        counts.forEach(results::add);
+        assertThat(results.asMap()).isEqualTo(counts);
+        final Path file500 = Path.of("dir3", "file500.html");
+        assertThat(results.asMap().get(file500)).isEqualTo(counts.get(file500));
+        assertThatIllegalArgumentException().isThrownBy(() -> results.add(file500, Map.of()));
+        assertThat(results.size()).isEqualTo(counts.size());
+        assertThat(CountUtils.byLanguage(results)).isEqualTo(CountUtils.byLanguage(counts));
+        assertThat(CountUtils.byFile(results)).isEqualTo(CountUtils.byFile(counts));
+        assertThat(CountUtils.unrecognized(results)).isEqualTo(CountUtils.unrecognized(counts)).hasSize(200);
+        assertThat(CountUtils.total(results)).isEqualTo(CountUtils.total(counts));
+    }
+
+    @Test
+    public void testLargeDirectory() {
+        final int numFiles = 100_000;
+        final CountResults results = new CountResults();
+        for (int i = 0; i < numFiles; i++) {
+            results.add(Path.of("gen", "File" + i + ".java"), Map.of(Language.Java, new Counts(i, 0, 0)));
+        }
+        assertThat(results.size()).isEqualTo(numFiles);
+
+        final Map<Path, Map<Language, Counts>> view = results.asMap();
+        for (int i = 0; i < numFiles; i += 997) {
+            assertThat(view.get(Path.of("gen", "File" + i + ".java"))).containsExactly(entry(Language.Java,
+                                                                                           new Counts(i, 0, 0)));
+        }
+        assertThat(view).doesNotContainKey(Path.of("gen", "File" + numFiles + ".java"))
+                        .doesNotContainKey(Path.of("other", "File0.java"));
+        assertThatIllegalArgumentException().isThrownBy(() -> results.add(Path.of("gen", "File99999.java"),
+                                                                           Map.of()));
+        assertThat(results.size()).isEqualTo(numFiles);
+    }
+
+    @Test
+    public void testWalk() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).excludeHidden(false)
+                                                                                                 .count();
+        final CountResults results = new CountingTreeWalker(treeData.start).excludeHidden(false).countResults();
+        assertThat(results.asMap()).isEqualTo(expected);
+        assertThat(CountUtils.byLanguage(results)).isEqualTo(CountUtils.byLanguage(expected))
+                                                  .contains(entry(Language.Java, new Counts(52, 18, 18)));
+        assertThat(CountUtils.byFile(results)).isEqualTo(CountUtils.byFile(expected));
+        assertThat(CountUtils.languages(results)).isEqualTo(CountUtils.languages(expected));
+        assertThat(CountUtils.unrecognized(results)).isEqualTo(CountUtils.unrecognized(expected));
+        assertThat(CountUtils.total(results)).isEqualTo(CountUtils.total(expected));
+    }
+}
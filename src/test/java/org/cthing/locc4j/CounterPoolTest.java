@@ -0,0 +1,105 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class CounterPoolTest {
+
+    @Test
+    public void testThreadConfined() throws InterruptedException {
+        final CounterPool pool = CounterPool.get();
+        assertThat(CounterPool.get()).isSameAs(pool);
+
+        final AtomicReference<CounterPool> otherPool = new AtomicReference<>();
+        final Thread thread = new Thread(() -> otherPool.set(CounterPool.get()));
+        thread.start();
+        thread.join();
+        assertThat(otherPool.get()).isNotNull().isNotSameAs(pool);
+    }
+
+    @Test
+    public void testAcquireRelease() {
+        final CounterPool pool = CounterPool.get();
+        final int available = pool.available(Language.Rust);
+
+        final Counter counter1 = pool.acquire(Language.Rust, true, 10, null);
+        assertThat(counter1.getLanguage()).isEqualTo(Language.Rust);
+        pool.release(counter1);
+        assertThat(pool.available(Language.Rust)).isEqualTo(Math.max(available, 1));
+
+        final Counter counter2 = pool.acquire(Language.Rust, true, 10, null);
+        assertThat(counter2).isSameAs(counter1);
+        pool.release(counter2);
+    }
+
+    @Test
+    public void testNestedAcquire() {
+        final CounterPool pool = CounterPool.get();
+        final Counter counter1 = pool.acquire(Language.Markdown, true, 10, null);
+        final Counter counter2 = pool.acquire(Language.Markdown, true, 10, null);
+        assertThat(counter2).isNotSameAs(counter1);
+        pool.release(counter2);
+        pool.release(counter1);
+    }
+
+    @Test
+    public void testReconfigure() throws Exception {
+        final CounterPool pool = CounterPool.get();
+        final String data = "\"\"\"\nDoc string\n\"\"\"\nx = 1\n";
+
+        final Counter counter1 = pool.acquire(Language.Python, true, 10, null);
+        assertThat(counter1.count(data)).containsEntry(Language.Python, new Counts(1, 3, 0));
+        pool.release(counter1);
+
+        final Counter counter2 = pool.acquire(Language.Python, false, 10, null);
+        assertThat(counter2).isSameAs(counter1);
+        assertThat(counter2.count(data)).containsEntry(Language.Python, new Counts(4, 0, 0));
+        pool.release(counter2);
+    }
+
+    @Test
+    public void testMaxPooled() {
+        final CounterPool pool = CounterPool.get();
+        final List<Counter> counters = new ArrayList<>();
+        for (int i = 0; i < CounterPool.MAX_POOLED_PER_LANGUAGE + 2; i++) {
+            counters.add(pool.acquire(Language.Css, true, 10, null));
+        }
+        counters.forEach(pool::release);
+        assertThat(pool.available(Language.Css)).isEqualTo(CounterPool.MAX_POOLED_PER_LANGUAGE);
+    }
+
+    @Test
+    public void testEmbeddedCountersReturned() throws Exception {
+        final String data = """
+                            # Title
+
+                            ```rust
+                            // Comment
+                            fn main() {}
+                            ```
+
+                            ```rust
+                            fn other() {}
+                            ```
+                            """;
+        final CounterPool pool = CounterPool.get();
+        final Counter counter = new Counter(Language.Markdown);
+        counter.count(data);
+        final int available = pool.available(Language.Rust);
+        assertThat(available).isPositive();
+
+        assertThat(counter.count(data)).containsEntry(Language.Rust, new Counts(2, 1, 0));
+        assertThat(pool.available(Language.Rust)).isEqualTo(available);
+    }
+}
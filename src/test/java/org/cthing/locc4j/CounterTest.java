@@ -5,11 +5,19 @@
 
 package org.cthing.locc4j;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Deque;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -23,16 +31,24 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.aggregator.ArgumentsAccessor;
 import org.junit.jupiter.params.provider.ArgumentsSource;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.platform.commons.logging.Logger;
 import org.junit.platform.commons.logging.LoggerFactory;
 
+import com.sun.management.ThreadMXBean;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 
 @SuppressWarnings("MethodOnlyUsedFromInnerClass")
 public class CounterTest {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CounterTest.class);
+    private static final int CHUNK_SIZE = 16;
+    private static final int FEED_SIZE = 7;
 
     private static long countingTime;
     private static int totalLines;
@@ -76,7 +92,7 @@ public class CounterTest {
         @Test
         @DisplayName("Parsing in string mode")
         public void testStringMode() {
-            stack("a");
+            stack("*/");
             quote("b");
             assertThat(makeCounter().parsingMode()).isEqualTo(Counter.ParsingMode.STRING);
         }
@@ -84,7 +100,7 @@ public class CounterTest {
         @Test
         @DisplayName("Parsing in comment mode")
         public void testStringComment() {
-            stack("a");
+            stack("*/");
             assertThat(makeCounter().parsingMode()).isEqualTo(Counter.ParsingMode.COMMENT);
         }
     }
@@ -95,21 +111,21 @@ public class CounterTest {
         @Test
         @DisplayName("Ignore comment end when not in multiline comment")
         public void testNoComment() {
-            assertThat(makeCounter().parseEndOfMultiLine(data("*/"))).isZero();
+            assertThat(makeCounter().parseEndOfMultiLine(data("*/"), 0)).isZero();
         }
 
         @Test
         @DisplayName("Ignore comment end when mismatched delimiters")
         public void testWrongDelimiter() {
-            stack("a");
-            assertThat(makeCounter().parseEndOfMultiLine(data("*/"))).isZero();
+            stack(Language.D, "+/");
+            assertThat(makeCounter(Language.D, true).parseEndOfMultiLine(data("*/"), 0)).isZero();
         }
 
         @Test
         @DisplayName("Found comment end delimiter")
         public void testFoundEndDelimiter() {
             stack("*/");
-            assertThat(makeCounter().parseEndOfMultiLine(data("*/"))).isEqualTo(2);
+            assertThat(makeCounter().parseEndOfMultiLine(data("*/"), 0)).isEqualTo(2);
             assertThat(stack()).isEmpty();
         }
     }
@@ -121,13 +137,13 @@ public class CounterTest {
         @DisplayName("Ignore start of a multiline comment occurring within a string")
         public void testInString() {
             quote("\"");
-            assertThat(makeCounter().parseMultiLineComment(data("/*"))).isZero();
+            assertThat(makeCounter().parseMultiLineComment(data("/*"), 0)).isZero();
         }
 
         @Test
         @DisplayName("Found the start of a multiline comment")
         public void testFound() {
-            assertThat(makeCounter().parseMultiLineComment(data("/* This is a test"))).isEqualTo(2);
+            assertThat(makeCounter().parseMultiLineComment(data("/* This is a test"), 0)).isEqualTo(2);
             assertThat(stack()).containsExactly("*/");
         }
 
@@ -135,24 +151,70 @@ public class CounterTest {
         @DisplayName("Found nested comment in language that ignores nested comments")
         public void testIgnoreNested() {
             stack("*/");
-            assertThat(makeCounter().parseMultiLineComment(data("/*"))).isEqualTo(2);
+            assertThat(makeCounter().parseMultiLineComment(data("/*"), 0)).isEqualTo(2);
             assertThat(stack()).containsExactly("*/");
         }
 
         @Test
         @DisplayName("Found nested comment in language allowing nested comments")
         public void testFoundNestedNestable() {
-            stack("*/");
-            assertThat(makeCounter(Language.Kotlin, true).parseMultiLineComment(data("/*"))).isEqualTo(2);
-            assertThat(stack()).containsExactly("*/", "*/");
+            stack(Language.Kotlin, "*/");
+            assertThat(makeCounter(Language.Kotlin, true).parseMultiLineComment(data("/*"), 0)).isEqualTo(2);
+            assertThat(stack(Language.Kotlin)).containsExactly("*/", "*/");
         }
 
         @Test
         @DisplayName("Found nested comment using dedicated nested comment syntax")
         public void testFoundNestedSyntaxNestable() {
-            stack("*/");
-            assertThat(makeCounter(Language.D, true).parseMultiLineComment(data("/+"))).isEqualTo(2);
-            assertThat(stack()).containsExactly("+/", "*/");
+            stack(Language.D, "*/");
+            assertThat(makeCounter(Language.D, true).parseMultiLineComment(data("/+"), 0)).isEqualTo(2);
+            assertThat(stack(Language.D)).containsExactly("+/", "*/");
+        }
+    }
+
+    @Nested
+    @DisplayName("Comment stack")
+    class CommentStackTest {
+        @Test
+        @DisplayName("Stack grows with nested comments")
+        public void testGrowth() throws IOException {
+            final String text = "/* ".repeat(100) + "\n" + "*/ ".repeat(100) + "\nval x = 1\n";
+            final Map<Language, Counts> counts = makeCounter(Language.Kotlin, true).count(text);
+            assertThat(counts).containsEntry(Language.Kotlin, new Counts(1, 2, 0));
+            assertThat(state.commentStack).hasSize(128);
+            assertThat(stack()).isEmpty();
+        }
+
+        @Test
+        @DisplayName("Stack does not grow beyond the maximum depth")
+        public void testMaxDepth() throws IOException {
+            final String text = "/* ".repeat(100) + "\n" + "*/ ".repeat(100) + "\nval x = 1\n";
+            final Map<Language, Counts> counts = makeCounter(Language.Kotlin, true).maxCommentDepth(4).count(text);
+            assertThat(counts).containsEntry(Language.Kotlin, new Counts(1, 2, 0));
+            assertThat(state.commentStack).hasSize(8);
+        }
+
+        @Test
+        @DisplayName("Comments beyond the maximum depth close like the deepest recorded comment")
+        public void testOverflow() {
+            final Counter counter = makeCounter(Language.D, true).maxCommentDepth(2);
+            assertThat(counter.parseMultiLineComment(data("/*"), 0)).isEqualTo(2);
+            assertThat(counter.parseMultiLineComment(data("/+"), 0)).isEqualTo(2);
+            assertThat(counter.parseMultiLineComment(data("/+"), 0)).isEqualTo(2);
+            assertThat(stack(Language.D)).containsExactly("+/", "*/");
+
+            assertThat(counter.parseEndOfMultiLine(data("*/"), 0)).isZero();
+            assertThat(counter.parseEndOfMultiLine(data("+/"), 0)).isEqualTo(2);
+            assertThat(counter.parseEndOfMultiLine(data("+/"), 0)).isEqualTo(2);
+            assertThat(counter.parsingMode()).isEqualTo(Counter.ParsingMode.COMMENT);
+            assertThat(counter.parseEndOfMultiLine(data("*/"), 0)).isEqualTo(2);
+            assertThat(counter.parsingMode()).isEqualTo(Counter.ParsingMode.CODE);
+        }
+
+        @Test
+        @DisplayName("Maximum depth must be positive")
+        public void testInvalidMaxDepth() {
+            assertThatIllegalArgumentException().isThrownBy(() -> makeCounter().maxCommentDepth(0));
         }
     }
 
@@ -163,7 +225,7 @@ public class CounterTest {
         @DisplayName("Found end of string")
         public void testFoundInString() {
             quote("\"");
-            assertThat(makeCounter().parseEndOfQuote(data("\""))).isEqualTo(1);
+            assertThat(makeCounter().parseEndOfQuote(data("\""), 0)).isEqualTo(1);
             assertThat(quote()).isNull();
         }
 
@@ -171,7 +233,7 @@ public class CounterTest {
         @DisplayName("Found a double backslash")
         public void testFoundInStringDoubleBackslash() {
             quote("\"");
-            assertThat(makeCounter().parseEndOfQuote(data("\\\\"))).isEqualTo(2);
+            assertThat(makeCounter().parseEndOfQuote(data("\\\\"), 0)).isEqualTo(2);
             assertThat(quote()).isNotNull();
         }
 
@@ -180,7 +242,7 @@ public class CounterTest {
         public void testIgnoreInVerbatimDoubleBackslash() {
             quote("\"");
             quoteType(Counter.QuoteType.VERBATIM);
-            assertThat(makeCounter().parseEndOfQuote(data("\\\\"))).isZero();
+            assertThat(makeCounter().parseEndOfQuote(data("\\\\"), 0)).isZero();
             assertThat(quote()).isNotNull();
         }
 
@@ -188,7 +250,7 @@ public class CounterTest {
         @DisplayName("Found escaped quote")
         public void testFoundEscapedQuote() {
             quote("\"");
-            assertThat(makeCounter().parseEndOfQuote(data("\\\""))).isEqualTo(2);
+            assertThat(makeCounter().parseEndOfQuote(data("\\\""), 0)).isEqualTo(2);
             assertThat(quote()).isNotNull();
         }
 
@@ -197,7 +259,7 @@ public class CounterTest {
         public void testIgnoreInVerbatimEscapedQuote() {
             quote("\"");
             quoteType(Counter.QuoteType.VERBATIM);
-            assertThat(makeCounter().parseEndOfQuote(data("\\\""))).isZero();
+            assertThat(makeCounter().parseEndOfQuote(data("\\\""), 0)).isZero();
             assertThat(quote()).isNotNull();
         }
 
@@ -205,7 +267,7 @@ public class CounterTest {
         @DisplayName("Not found")
         public void testNotFound() {
             quote("\"");
-            assertThat(makeCounter().parseEndOfQuote(data("abcd"))).isZero();
+            assertThat(makeCounter().parseEndOfQuote(data("abcd"), 0)).isZero();
             assertThat(quote()).isNotNull();
         }
     }
@@ -217,7 +279,7 @@ public class CounterTest {
         @DisplayName("Ignore quotes in multiline comment")
         public void testIgnoreInComment() {
             stack("*/");
-            assertThat(makeCounter().parseQuote(data("\"Hello"))).isZero();
+            assertThat(makeCounter().parseQuote(data("\"Hello"), 0)).isZero();
             assertThat(quote()).isNull();
             assertThat(quoteType()).isEqualTo(Counter.QuoteType.NORMAL);
         }
@@ -225,7 +287,7 @@ public class CounterTest {
         @Test
         @DisplayName("Found document string")
         public void testFoundDocString() {
-            assertThat(makeCounter(Language.Python, true).parseQuote(data("\"\"\"\nHello world"))).isEqualTo(3);
+            assertThat(makeCounter(Language.Python, true).parseQuote(data("\"\"\"\nHello world"), 0)).isEqualTo(3);
             assertThat(quote()).isEqualTo("\"\"\"");
             assertThat(quoteType()).isEqualTo(Counter.QuoteType.DOC);
         }
@@ -233,7 +295,7 @@ public class CounterTest {
         @Test
         @DisplayName("Found verbatim string")
         public void testFoundVerbatimString() {
-            assertThat(makeCounter(Language.Rust, true).parseQuote(data("r##\"\nHello world"))).isEqualTo(4);
+            assertThat(makeCounter(Language.Rust, true).parseQuote(data("r##\"\nHello world"), 0)).isEqualTo(4);
             assertThat(quote()).isEqualTo("\"##");
             assertThat(quoteType()).isEqualTo(Counter.QuoteType.VERBATIM);
         }
@@ -241,7 +303,7 @@ public class CounterTest {
         @Test
         @DisplayName("Found normal string")
         public void testFoundNormalString() {
-            assertThat(makeCounter().parseQuote(data("\"Hello world"))).isEqualTo(1);
+            assertThat(makeCounter().parseQuote(data("\"Hello world"), 0)).isEqualTo(1);
             assertThat(quote()).isEqualTo("\"");
             assertThat(quoteType()).isEqualTo(Counter.QuoteType.NORMAL);
         }
@@ -249,7 +311,7 @@ public class CounterTest {
         @Test
         @DisplayName("Not found")
         public void testNotFound() {
-            assertThat(makeCounter().parseQuote(data("Hello world"))).isZero();
+            assertThat(makeCounter().parseQuote(data("Hello world"), 0)).isZero();
             assertThat(quote()).isNull();
             assertThat(quoteType()).isEqualTo(Counter.QuoteType.NORMAL);
         }
@@ -262,19 +324,19 @@ public class CounterTest {
         @DisplayName("Not in code mode - comments ignored")
         public void testNotCode() {
             quote("\"");
-            assertThat(makeCounter().isLineComment(data("// Hello world"))).isFalse();
+            assertThat(makeCounter().isLineComment(data("// Hello world"), 0)).isFalse();
         }
 
         @Test
         @DisplayName("No line comment in code")
         public void testNotComment() {
-            assertThat(makeCounter().isLineComment(data("Hello world"))).isFalse();
+            assertThat(makeCounter().isLineComment(data("Hello world"), 0)).isFalse();
         }
 
         @Test
         @DisplayName("Code starts with line comment")
         public void testFound() {
-            assertThat(makeCounter().isLineComment(data("// Hello world"))).isTrue();
+            assertThat(makeCounter().isLineComment(data("// Hello world"), 0)).isTrue();
         }
     }
 
@@ -289,7 +351,7 @@ public class CounterTest {
         public void testCase1A() {
             quote("*/");
             quoteType(Counter.QuoteType.DOC);
-            assertThat(makeCounter(Language.Python, true).isComment(data("hello"), true)).isTrue();
+            assertThat(isComment(makeCounter(Language.Python, true), "hello", true)).isTrue();
         }
 
         @Test
@@ -297,7 +359,7 @@ public class CounterTest {
         public void testCase1B() {
             quote("*/");
             quoteType(Counter.QuoteType.DOC);
-            assertThat(makeCounter(Language.Python, false).isComment(data("hello"), true)).isFalse();
+            assertThat(isComment(makeCounter(Language.Python, false), "hello", true)).isFalse();
         }
 
         @Test
@@ -305,53 +367,53 @@ public class CounterTest {
         public void testCase1C() {
             quote("*/");
             quoteType(Counter.QuoteType.NORMAL);
-            assertThat(makeCounter(Language.Python, false).isComment(data("hello"), true)).isFalse();
+            assertThat(isComment(makeCounter(Language.Python, false), "hello", true)).isFalse();
         }
 
         @Test
         @DisplayName("Last line of doc comments")
         public void testCase2() {
-            assertThat(makeCounter(Language.Python, true).isComment(data("hello\"\"\""), true)).isTrue();
+            assertThat(isComment(makeCounter(Language.Python, true), "hello\"\"\"", true)).isTrue();
 
         }
 
         @Test
         @DisplayName("Line comment")
         public void testCase3A() {
-            assertThat(makeCounter().isComment(data("// hello"), false)).isTrue();
+            assertThat(isComment(makeCounter(), "// hello", false)).isTrue();
 
         }
 
         @Test
         @DisplayName("Multiline comment on a single line")
         public void testCase3B() {
-            assertThat(makeCounter().isComment(data("/* hello */"), false)).isTrue();
+            assertThat(isComment(makeCounter(), "/* hello */", false)).isTrue();
         }
 
         @Test
         @DisplayName("In a multiline comment")
         public void testCase4() {
-            assertThat(makeCounter().isComment(data("hello"), true)).isTrue();
+            assertThat(isComment(makeCounter(), "hello", true)).isTrue();
         }
 
         @Test
         @DisplayName("Not in comment and nothing on the comment stack")
         public void testCase5() {
-            assertThat(makeCounter().isComment(data("hello"), false)).isFalse();
+            assertThat(isComment(makeCounter(), "hello", false)).isFalse();
         }
 
         @Test
         @DisplayName("Start of multiline comment")
         public void testCase6A() {
             stack("*/");
-            assertThat(makeCounter().isComment(data("/* hello"), false)).isTrue();
+            assertThat(isComment(makeCounter(), "/* hello", false)).isTrue();
         }
 
         @Test
         @DisplayName("Start of multiline comment")
         public void testCase6B() {
             stack("*/");
-            assertThat(makeCounter().isComment(data("hello"), false)).isFalse();
+            assertThat(isComment(makeCounter(), "hello", false)).isFalse();
         }
     }
 
@@ -364,7 +426,7 @@ public class CounterTest {
             quote("/*");
 
             final Counts counts = new Counts();
-            assertThat(makeCounter().parseSingleLine(data("hello"), counts)).isFalse();
+            assertThat(parseSingleLine(makeCounter(), "hello", counts)).isFalse();
             verifyCounts(counts, 0, 0, 0);
         }
 
@@ -372,7 +434,7 @@ public class CounterTest {
         @DisplayName("Blank line")
         public void testBlankLine() {
             final Counts counts = new Counts();
-            assertThat(makeCounter().parseSingleLine(data("  "), counts)).isTrue();
+            assertThat(parseSingleLine(makeCounter(), "  ", counts)).isTrue();
             verifyCounts(counts, 0, 0, 1);
         }
 
@@ -380,7 +442,7 @@ public class CounterTest {
         @DisplayName("Multiline")
         public void testMultiline() {
             final Counts counts = new Counts();
-            assertThat(makeCounter().parseSingleLine(data("/*"), counts)).isFalse();
+            assertThat(parseSingleLine(makeCounter(), "/*", counts)).isFalse();
             verifyCounts(counts, 0, 0, 0);
         }
 
@@ -388,7 +450,7 @@ public class CounterTest {
         @DisplayName("Line comment")
         public void testLineComment() {
             final Counts counts = new Counts();
-            assertThat(makeCounter().parseSingleLine(data("// Hello world"), counts)).isTrue();
+            assertThat(parseSingleLine(makeCounter(), "// Hello world", counts)).isTrue();
             verifyCounts(counts, 0, 1, 0);
         }
 
@@ -396,7 +458,7 @@ public class CounterTest {
         @DisplayName("Code")
         public void testCode() {
             final Counts counts = new Counts();
-            assertThat(makeCounter().parseSingleLine(data("int foo = 1;"), counts)).isTrue();
+            assertThat(parseSingleLine(makeCounter(), "int foo = 1;", counts)).isTrue();
             verifyCounts(counts, 1, 0, 0);
         }
     }
@@ -479,6 +541,120 @@ public class CounterTest {
         }
     }
 
+    @Nested
+    @DisplayName("Memory allocation")
+    class AllocationTest {
+        // Maximum number of bytes that may be allocated to count a file regardless of its size. Covers the
+        // per-file objects (e.g. counter, counts map) but not any per-line or per-character objects.
+        private static final long MAX_BYTES_PER_FILE = 4096;
+        private static final int FILE_COPIES = 50;
+        private static final int WARMUP_ITERATIONS = 50;
+        private static final int MEASURED_ROUNDS = 200;
+        private static final int MEASURED_ITERATIONS = 5;
+
+        @ParameterizedTest
+        @CsvSource({
+                "java.java, Java, false",
+                "c.c, C, false",
+                "python.py, Python, false",
+                "css.css, Css, false",
+                "java.java, Java, true",
+                "c.c, C, true",
+                "python.py, Python, true",
+                "css.css, Css, true"
+        })
+        public void testBoundedAllocation(final String filename, final Language language, final boolean bytes)
+                throws IOException {
+            final ThreadMXBean threadBean = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+            assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+
+            // Make the file large enough that allocating per line or per character would exceed the limit
+            final String content = readFile(filename);
+            final char[] data = content.repeat(FILE_COPIES).toCharArray();
+            final byte[] byteData = content.repeat(FILE_COPIES).getBytes(StandardCharsets.UTF_8);
+
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                count(language, data, byteData, bytes);
+            }
+
+            // The JIT compiler works in the background and code that has not yet been fully optimized may allocate
+            // (e.g. vector scanner intermediates). Use the best of several rounds as the steady state allocation.
+            final long threadId = Thread.currentThread().getId();
+            long bytesPerFile = Long.MAX_VALUE;
+            for (int round = 0; round < MEASURED_ROUNDS && bytesPerFile >= MAX_BYTES_PER_FILE; round++) {
+                final long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+                    count(language, data, byteData, bytes);
+                }
+                bytesPerFile = Math.min(bytesPerFile, (threadBean.getThreadAllocatedBytes(threadId) - startBytes)
+                        / MEASURED_ITERATIONS);
+            }
+
+            assertThat(bytesPerFile).as("Bytes allocated counting %s", filename).isLessThan(MAX_BYTES_PER_FILE);
+        }
+
+        @Test
+        public void testBoundedStreamAllocation() throws IOException {
+            final ThreadMXBean threadBean = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+            assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+
+            // Counting a stream must not materialize it, so count far more text than is allowed to be allocated.
+            // Comments spanning lines are split across chunks, which requires carrying the parsing state.
+            final String text = "/* Comment\n   continued */\nINSERT INTO t (a, b) VALUES (1, 'x');\n\n";
+            final int copies = 250_000;
+            final long textBytes = (long)text.length() * copies * Character.BYTES;
+
+            // As for files, code that has not yet been fully optimized by the JIT compiler may allocate, so use
+            // the best of several rounds.
+            final long threadId = Thread.currentThread().getId();
+            long allocatedBytes = Long.MAX_VALUE;
+            for (int round = 0; round < MEASURED_ROUNDS && allocatedBytes >= textBytes / 10; round++) {
+                final Reader reader = repeatingReader(text, copies);
+                final long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+                final Map<Language, Counts> counts = new Counter(Language.Sql).count(reader);
+                allocatedBytes = Math.min(allocatedBytes, threadBean.getThreadAllocatedBytes(threadId) - startBytes);
+
+                assertThat(counts).containsOnly(entry(Language.Sql, new Counts(copies, 2 * copies, copies)));
+            }
+
+            assertThat(allocatedBytes).isLessThan(textBytes / 10);
+        }
+
+        private Reader repeatingReader(final String text, final int copies) {
+            return new Reader() {
+                private long position;
+
+                @Override
+                public int read(final char[] buffer, final int offset, final int length) {
+                    final long remaining = (long)text.length() * copies - this.position;
+                    if (remaining == 0) {
+                        return -1;
+                    }
+                    final int count = (int)Math.min(length, remaining);
+                    for (int i = 0; i < count; i++) {
+                        buffer[offset + i] = text.charAt((int)(this.position++ % text.length()));
+                    }
+                    return count;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        private void count(final Language language, final char[] data, final byte[] byteData, final boolean bytes)
+                throws IOException {
+            if (bytes) {
+                new Counter(language).count(byteData);
+            } else {
+                new Counter(language).count(data);
+            }
+        }
+    }
+
     @ParameterizedTest
     @ArgumentsSource(FileDataProvider.class)
     @SuppressWarnings("AssignmentToStaticFieldFromInstanceMethod")
@@ -499,14 +675,59 @@ public class CounterTest {
             final Counter counter = makeCounter(primaryLanguage, accessor.getBoolean(1));
             actualCounts = counter.count(ins);
         } else {
-            final char[] data =
-                    Counter.toCharArray(Objects.requireNonNull(getClass().getResourceAsStream("/data/" + filename)));
+            final byte[] data = readBytes(filename);
 
             final long startMillis = System.currentTimeMillis();
             final Counter counter = makeCounter(primaryLanguage, accessor.getBoolean(1));
             actualCounts = counter.count(data);
             countingTime += System.currentTimeMillis() - startMillis;
             totalLines += actualCounts.values().stream().mapToInt(Counts::getTotalLines).sum();
+
+            // Counting the decoded characters must produce the same counts as counting the UTF-8 bytes directly
+            final LineMap lineMap = new LineMap();
+            final Counter charCounter = makeCounter(primaryLanguage, accessor.getBoolean(1)).lineMap(lineMap);
+            assertThat(charCounter.count(new String(data, StandardCharsets.UTF_8))).isEqualTo(actualCounts);
+
+            // Without embedded languages, each line is recorded exactly once with the type it was counted as
+            if (actualCounts.size() == 1) {
+                final Counts mappedCounts = new Counts();
+                for (int i = 0; i < lineMap.getLineCount(); i++) {
+                    switch (Objects.requireNonNull(lineMap.getLineType(i))) {
+                        case CODE -> mappedCounts.codeLines++;
+                        case COMMENT -> mappedCounts.commentLines++;
+                        case BLANK -> mappedCounts.blankLines++;
+                        default -> throw new IllegalStateException();
+                    }
+                }
+                assertThat(mappedCounts).isEqualTo(actualCounts.get(primaryLanguage));
+            }
+
+            // Counting in small chunks must produce the same counts as counting all the data at once
+            final Counter channelCounter = makeCounter(primaryLanguage, accessor.getBoolean(1)).chunkSize(CHUNK_SIZE);
+            assertThat(channelCounter.count(Channels.newChannel(new ByteArrayInputStream(data))))
+                    .isEqualTo(actualCounts);
+            final Counter readerCounter = makeCounter(primaryLanguage, accessor.getBoolean(1)).chunkSize(CHUNK_SIZE);
+            assertThat(readerCounter.count(new StringReader(new String(data, StandardCharsets.UTF_8))))
+                    .isEqualTo(actualCounts);
+            final ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length).put(data).flip();
+            final Counter bufferCounter = makeCounter(primaryLanguage, accessor.getBoolean(1)).chunkSize(CHUNK_SIZE);
+            assertThat(bufferCounter.count(directBuffer)).isEqualTo(actualCounts);
+            assertThat(directBuffer.hasRemaining()).isFalse();
+
+            // Feeding the data to a session in small pieces must produce the same counts as counting all the data
+            // at once. The byte pieces are an odd size so that multibyte characters are split between pieces.
+            final Counter sessionCounter = makeCounter(primaryLanguage, accessor.getBoolean(1)).chunkSize(CHUNK_SIZE);
+            final CountingSession byteSession = sessionCounter.newSession();
+            for (int i = 0; i < data.length; i += FEED_SIZE) {
+                byteSession.feed(data, i, Math.min(FEED_SIZE, data.length - i));
+            }
+            assertThat(byteSession.finish()).isEqualTo(actualCounts);
+            final char[] chars = new String(data, StandardCharsets.UTF_8).toCharArray();
+            final CountingSession charSession = sessionCounter.newSession();
+            for (int i = 0; i < chars.length; i += FEED_SIZE) {
+                charSession.feed(chars, i, Math.min(FEED_SIZE, chars.length - i));
+            }
+            assertThat(charSession.finish()).isEqualTo(actualCounts);
         }
         TESTED_LANGUAGES.addAll(actualCounts.keySet());
 
@@ -537,10 +758,68 @@ public class CounterTest {
         assertThat(counts.blankLines).isEqualTo(1);
     }
 
+    @Test
+    public void testCountBytes() throws IOException {
+        // Lines containing only non-ASCII whitespace are blank, and a blank line within a comment is a comment line
+        final String text = "// Comment with caf\u00E9\n"
+                            + "String s = \"\u00E9t\u00E9\"; /* \u00E9\n"
+                            + "\u3000\u2003\n"
+                            + "   \u00E9 */ int x = 1;\n"
+                            + "\u3000\n";
+        final Map<Language, Counts> countsMap = new Counter(Language.Java).count(text.getBytes(StandardCharsets.UTF_8));
+        assertThat(countsMap).containsOnly(entry(Language.Java, new Counts(1, 3, 1)));
+        assertThat(new Counter(Language.Java).count(text)).isEqualTo(countsMap);
+        final String asciiText = text.replace('\u3000', ' ').replace('\u2003', '\t');
+        assertThat(new Counter(Language.Java).count(asciiText.getBytes(StandardCharsets.UTF_8))).isEqualTo(countsMap);
+
+        final String whitespace = "int x = 1;\n\u3000\u2003\n\u2003 \n\u3000";
+        assertThat(new Counter(Language.Java).count(whitespace.getBytes(StandardCharsets.UTF_8)))
+                .containsOnly(entry(Language.Java, new Counts(1, 0, 3)));
+
+        // Languages with non-ASCII delimiters are decoded before counting
+        final String apl = "\u235D Comment\nx \u2190 1\n";
+        final Map<Language, Counts> aplCounts = new Counter(Language.Apl).count(apl.getBytes(StandardCharsets.UTF_8));
+        assertThat(aplCounts).containsOnly(entry(Language.Apl, new Counts(1, 1, 0)));
+    }
+
+    @Test
+    public void testParallelism() throws IOException {
+        final String lines = """
+                /* Comment
+                   "still comment" */
+                String s = "/* not a comment";
+
+                // Comment
+                """;
+        final byte[] bytes = lines.repeat(SpeculativeCount.MIN_LENGTH / lines.length() + 1)
+                                  .getBytes(StandardCharsets.UTF_8);
+        final Map<Language, Counts> expected = new Counter(Language.Java).count(bytes);
+        assertThat(new Counter(Language.Java).parallelism(4).count(bytes)).isEqualTo(expected);
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        assertThat(new Counter(Language.Java).parallelism(4).count(buffer)).isEqualTo(expected);
+        assertThat(buffer.hasRemaining()).isFalse();
+
+        assertThatIllegalArgumentException().isThrownBy(() -> new Counter(Language.Java).parallelism(0));
+        assertThatIllegalArgumentException().isThrownBy(() -> new Counter(Language.Java)
+                .parallelism(FileCounter.MAX_PARALLELISM + 1));
+    }
+
     private Counter makeCounter() {
         return makeCounter(Language.Java, true);
     }
 
+    private byte[] readBytes(final String filename) throws IOException {
+        try (InputStream ins = Objects.requireNonNull(getClass().getResourceAsStream("/data/" + filename))) {
+            return ins.readAllBytes();
+        }
+    }
+
+    private String readFile(final String filename) throws IOException {
+        return new String(readBytes(filename), StandardCharsets.UTF_8);
+    }
+
     private Counter makeCounter(final Language language, final boolean countDocStrings) {
         return new Counter(language, this.state).countDocStrings(countDocStrings);
     }
@@ -549,12 +828,41 @@ public class CounterTest {
         return new CharData(str.toCharArray());
     }
 
-    private Deque<CharSequence> stack() {
-        return this.state.commentStack;
+    private boolean isComment(final Counter counter, final String line, final boolean startedInComments) {
+        return counter.isComment(data(line), 0, line.length(), startedInComments);
+    }
+
+    private boolean parseSingleLine(final Counter counter, final String line, final Counts counts) {
+        return counter.parseSingleLine(data(line), 0, line.length(), counts);
     }
 
-    private void stack(final CharSequence c) {
-        this.state.commentStack.push(c);
+    private List<String> stack() {
+        return stack(Language.Java);
+    }
+
+    private List<String> stack(final Language language) {
+        final List<String> ends = new ArrayList<>();
+        final int recorded = Math.min(this.state.commentDepth, this.state.maxCommentDepth);
+        for (int i = recorded - 1; i >= 0; i--) {
+            ends.add(language.delimiterAutomaton.end(this.state.commentStack[i]));
+        }
+        return ends;
+    }
+
+    private void stack(final String end) {
+        stack(Language.Java, end);
+    }
+
+    private void stack(final Language language, final String end) {
+        final DelimiterAutomaton automaton = language.delimiterAutomaton;
+        for (int id = automaton.firstId(DelimiterAutomaton.MULTI_LINE_COMMENT);
+             id < automaton.endId(DelimiterAutomaton.MULTI_LINE_COMMENT); id++) {
+            if (automaton.end(id).equals(end)) {
+                this.state.pushComment(id);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("No multiline comment ending with " + end);
     }
 
     private void quote(@Nullable final CharSequence q) {
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+@Timeout(30)
+public class CountingPipelineTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testCount() throws IOException {
+        final List<Path> files = createFiles(CountingPipeline.QUEUE_SIZE * 2);
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> expected = new HashMap<>();
+        for (final Path file : files) {
+            expected.put(file, counter.count(file).get(file));
+        }
+
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        final CountingPipeline pipeline = new CountingPipeline(counter, null, 3, 2, 4096);
+        pipeline.run(() -> {
+            for (final Path file : files) {
+                pipeline.emit(file);
+            }
+        }, results::put);
+        assertThat(results).isEqualTo(expected);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        new CountingPipeline(new FileCounter(), null, 1, 1, 1024).run(() -> { }, results::put);
+        assertThat(results).isEmpty();
+    }
+
+    @Test
+    public void testSkippedAndFiltered() throws IOException {
+        final List<Path> files = createFiles(20);
+        final Path generatedFile = this.tempDir.resolve("generated.py");
+        Files.writeString(generatedFile, "# DO NOT EDIT\nx = 1\n");
+        files.add(10, generatedFile);
+        final Path javaFile = this.tempDir.resolve("Foo.java");
+        Files.writeString(javaFile, "int x;\n");
+        files.add(5, javaFile);
+
+        final List<Path> skipped = new ArrayList<>();
+        final Thread countingThread = Thread.currentThread();
+        final FileCounter counter = new FileCounter().countPolicy(new CountPolicy().skipGenerated(true))
+                                                     .skipListener((file, reason) -> {
+                                                         assertThat(Thread.currentThread()).isSameAs(countingThread);
+                                                         skipped.add(file);
+                                                     });
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        final CountingPipeline pipeline = new CountingPipeline(counter, Language.Python::equals, 2, 2, 1024);
+        pipeline.run(() -> {
+            for (final Path file : files) {
+                pipeline.emit(file);
+            }
+        }, results::put);
+        assertThat(skipped).containsExactly(generatedFile);
+        // Files of unknown language are also omitted by the filter
+        assertThat(results).hasSize(17).doesNotContainKeys(generatedFile, javaFile);
+    }
+
+    @Test
+    public void testReadFailure() throws IOException {
+        final List<Path> files = createFiles(2);
+        final Path missingFile = this.tempDir.resolve("missing.py");
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        final CountingPipeline pipeline = new CountingPipeline(new FileCounter(), null, 2, 2, 1024);
+
+        // The traversal never ends on its own, so it must be stopped when the failure is reported.
+        assertThatThrownBy(() -> pipeline.run(() -> {
+            pipeline.emit(files.get(0));
+            pipeline.emit(missingFile);
+            while (true) {
+                pipeline.emit(files.get(1));
+            }
+        }, results::put)).isInstanceOf(FileNotFoundException.class);
+        assertThat(results).containsOnlyKeys(files.get(0));
+    }
+
+    @Test
+    public void testTraversalFailure() throws IOException {
+        final List<Path> files = createFiles(3);
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        final CountingPipeline pipeline = new CountingPipeline(new FileCounter(), null, 2, 2, 1024);
+
+        assertThatIOException().isThrownBy(() -> pipeline.run(() -> {
+            for (final Path file : files) {
+                pipeline.emit(file);
+            }
+            throw new IOException("Walk failed");
+        }, results::put)).withMessage("Walk failed");
+        assertThat(results).containsOnlyKeys(files);
+    }
+
+    @Test
+    public void testLargeFiles() throws IOException {
+        // Files larger than the byte budget are still read and counted
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final Path file = this.tempDir.resolve("large" + i + ".py");
+            Files.writeString(file, "x = 1\n# Comment\n\n".repeat(1000 + i));
+            files.add(file);
+        }
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        final CountingPipeline pipeline = new CountingPipeline(counter, null, 4, 2, 1024);
+        pipeline.run(() -> {
+            for (final Path file : files) {
+                pipeline.emit(file);
+            }
+        }, results::put);
+        assertThat(results).hasSize(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            final Counts counts = results.get(files.get(i)).get(Language.Python);
+            assertThat(counts.getCodeLines()).isEqualTo(1000 + i);
+        }
+    }
+
+    private List<Path> createFiles(final int count) throws IOException {
+        return TestFiles.createFiles(this.tempDir, count, i -> (i % 7 == 0) ? ".unknown" : ".py",
+                                     i -> TestFiles.PYTHON_LINES.repeat(i % 50));
+    }
+}
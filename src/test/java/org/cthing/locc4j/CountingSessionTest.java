@@ -0,0 +1,158 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+public class CountingSessionTest {
+
+    @Test
+    public void testFeedChars() throws IOException {
+        final CountingSession session = new Counter(Language.Java).newSession();
+        final char[] chars = "/* Comment\n   continued */\nint x = 1;\n\n".toCharArray();
+        session.feed(chars, 0, 5);
+        session.feed(chars, 5, 20);
+        session.feed(chars, 25, chars.length - 25);
+        assertThat(session.finish()).containsExactly(Map.entry(Language.Java, new Counts(1, 2, 1)));
+    }
+
+    @Test
+    public void testFeedBytes() throws IOException {
+        final CountingSession session = new Counter(Language.Java).newSession();
+        final byte[] bytes = "// Caf\u00E9\nint x = 1;\nint y = 2;".getBytes(StandardCharsets.UTF_8);
+        for (final byte b : bytes) {
+            session.feed(new byte[] { b }, 0, 1);
+        }
+        assertThat(session.finish()).containsExactly(Map.entry(Language.Java, new Counts(2, 1, 0)));
+    }
+
+    @Test
+    public void testSplitCharacter() throws IOException {
+        final String text = """
+                            # Caf\u00E9 \uD83D\uDE00
+
+                            ```rust
+                            // Comment
+                            fn main() {}
+                            ```
+                            """;
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        final Map<Language, Counts> expected = new Counter(Language.Markdown).count(bytes);
+
+        for (int size = 1; size < 5; size++) {
+            final CountingSession session = new Counter(Language.Markdown).chunkSize(4).newSession();
+            for (int i = 0; i < bytes.length; i += size) {
+                session.feed(bytes, i, Math.min(size, bytes.length - i));
+            }
+            assertThat(session.finish()).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testIncompleteCharacterAtEnd() throws IOException {
+        final byte[] bytes = { 'a', '\n', (byte)0xE2, (byte)0x82 };
+        final Map<Language, Counts> expected = new Counter(Language.Markdown).count(bytes);
+        assertThat(expected).containsEntry(Language.Markdown, new Counts(2, 0, 0));
+
+        final CountingSession session = new Counter(Language.Markdown).newSession();
+        session.feed(bytes, 0, bytes.length);
+        assertThat(session.finish()).isEqualTo(expected);
+    }
+
+    @Test
+    public void testEmbeddedAcrossFeeds() throws IOException {
+        final String text = """
+                            # Title
+
+                            ```rust
+                            // Comment
+                            fn main() {}
+                            ```
+                            Text
+                            """;
+        final CountingSession session = new Counter(Language.Markdown).chunkSize(2).newSession();
+        for (final String line : text.split("(?<=\n)")) {
+            final char[] chars = line.toCharArray();
+            session.feed(chars, 0, chars.length);
+        }
+        assertThat(session.finish()).isEqualTo(new Counter(Language.Markdown).count(text));
+    }
+
+    @Test
+    public void testJupyter() throws IOException {
+        final byte[] bytes;
+        try (InputStream ins = Objects.requireNonNull(getClass().getResourceAsStream("/data/jupyter.ipynb"))) {
+            bytes = ins.readAllBytes();
+        }
+
+        final CountingSession session = new Counter(Language.Jupyter).newSession();
+        for (int i = 0; i < bytes.length; i += 1000) {
+            session.feed(bytes, i, Math.min(1000, bytes.length - i));
+        }
+        assertThat(session.finish()).isEqualTo(new Counter(Language.Jupyter).count(bytes));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertThat(new Counter(Language.Java).newSession().finish()).isEqualTo(new Counter(Language.Java).count(""));
+    }
+
+    @Test
+    public void testIndependentOfCounter() throws IOException {
+        final Counter counter = new Counter(Language.Java).countDocStrings(false);
+        final CountingSession session = counter.newSession();
+        final char[] chars = "/* Comment\n".toCharArray();
+        session.feed(chars, 0, chars.length);
+
+        assertThat(counter.count("int x = 1;\n")).containsEntry(Language.Java, new Counts(1, 0, 0));
+
+        final char[] more = "   continued */\n".toCharArray();
+        session.feed(more, 0, more.length);
+        assertThat(session.finish()).containsEntry(Language.Java, new Counts(0, 2, 0));
+    }
+
+    @Test
+    public void testFinished() throws IOException {
+        final CountingSession session = new Counter(Language.Java).newSession();
+        session.finish();
+        assertThatIllegalStateException().isThrownBy(session::finish);
+        assertThatIllegalStateException().isThrownBy(() -> session.feed(new char[1], 0, 1));
+        assertThatIllegalStateException().isThrownBy(() -> session.feed(new byte[1], 0, 1));
+    }
+
+    @Test
+    public void testMixedFeeds() throws IOException {
+        final CountingSession charSession = new Counter(Language.Java).newSession();
+        charSession.feed(new char[] { 'a' }, 0, 1);
+        assertThatIllegalStateException().isThrownBy(() -> charSession.feed(new byte[1], 0, 1));
+
+        final CountingSession byteSession = new Counter(Language.Java).newSession();
+        byteSession.feed(new byte[] { 'a' }, 0, 1);
+        assertThatIllegalStateException().isThrownBy(() -> byteSession.feed(new char[1], 0, 1));
+
+        final CountingSession decodeSession = new Counter(Language.Markdown).newSession();
+        decodeSession.feed(new byte[] { 'a' }, 0, 1);
+        assertThatIllegalStateException().isThrownBy(() -> decodeSession.feed(new char[1], 0, 1));
+    }
+
+    @Test
+    public void testBounds() {
+        final CountingSession session = new Counter(Language.Java).newSession();
+        assertThatThrownBy(() -> session.feed(new char[4], 2, 3)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> session.feed(new byte[4], -1, 1)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
@@ -6,13 +6,22 @@
 package org.cthing.locc4j;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 
 
 public class CountingTreeWalkerTest {
@@ -94,4 +103,170 @@ public class CountingTreeWalkerTest {
                           .containsEntry(treeData.fileD0F1, treeData.countsD0F1)
                           .containsEntry(treeData.fileD1F1, treeData.countsD1F1);
     }
+
+    @Test
+    public void testWalkCountPolicy() throws IOException {
+        final CountingTreeWalker walker = new CountingTreeWalker(treeData.start)
+                .countPolicy(new CountPolicy().maxFileSize(0));
+        final Map<Path, Map<Language, Counts>> counts = walker.count();
+        assertThat(counts).containsOnly(entry(treeData.fileD1F4, treeData.countsD1F4));
+        assertThat(walker.getSkipped()).hasSize(7)
+                                       .containsEntry(treeData.fileD0F1, CountPolicy.SkipReason.TOO_LARGE)
+                                       .containsEntry(treeData.fileD3F2, CountPolicy.SkipReason.TOO_LARGE);
+    }
+
+    @Test
+    public void testWalkListenerCountPolicy() throws IOException {
+        final Map<Path, CountPolicy.SkipReason> skipped = new ConcurrentHashMap<>();
+        final CountingTreeWalker walker = new CountingTreeWalker(treeData.start)
+                .countPolicy(new CountPolicy().maxFileSize(0))
+                .skipListener(skipped::put);
+
+        final List<FileCount> fileCounts = new ArrayList<>();
+        walker.count(fileCounts::add);
+        assertThat(toMap(fileCounts)).containsOnly(entry(treeData.fileD1F4, treeData.countsD1F4));
+        assertThat(skipped).hasSize(7).containsEntry(treeData.fileD0F1, CountPolicy.SkipReason.TOO_LARGE);
+        assertThat(walker.getSkipped()).isEmpty();
+
+        skipped.clear();
+        try (Stream<FileCount> stream = walker.stream()) {
+            assertThat(stream.map(FileCount::file)).containsExactly(treeData.fileD1F4);
+        }
+        assertThat(skipped).hasSize(7);
+        assertThat(walker.getSkipped()).isEmpty();
+
+        skipped.clear();
+        assertThat(walker.countByLanguage()).isEmpty();
+        assertThat(skipped).hasSize(7);
+        assertThat(walker.getSkipped()).isEmpty();
+
+        skipped.clear();
+        assertThat(walker.countTotal()).isEqualTo(new Counts());
+        assertThat(skipped).hasSize(7);
+        assertThat(walker.getSkipped()).isEmpty();
+
+        skipped.clear();
+        walker.count();
+        assertThat(skipped).hasSize(7);
+        assertThat(walker.getSkipped()).isEqualTo(skipped);
+    }
+
+    @Test
+    public void testWalkReadAhead() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+        assertThat(new CountingTreeWalker(treeData.start).readAhead(3, 1024).count()).isEqualTo(expected);
+
+        final CountingTreeWalker languageWalker = new CountingTreeWalker(treeData.start, Language.Java)
+                .readAhead(3, 1024);
+        assertThat(languageWalker.count()).containsOnlyKeys(treeData.fileD0F1, treeData.fileD1F1);
+    }
+
+    @Test
+    public void testWalkParallel() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+        assertThat(new CountingTreeWalker(treeData.start).parallelism(4).count()).isEqualTo(expected);
+        assertThat(new CountingTreeWalker(treeData.start).parallelism(4).readAhead(3, 1024).count())
+                .isEqualTo(expected);
+
+        final CountingTreeWalker languageWalker = new CountingTreeWalker(treeData.start, Language.Java)
+                .parallelism(2);
+        assertThat(languageWalker.count()).containsOnlyKeys(treeData.fileD0F1, treeData.fileD1F1);
+
+        assertThatIllegalArgumentException().isThrownBy(() -> new CountingTreeWalker(treeData.start).parallelism(0));
+    }
+
+    @Test
+    public void testWalkPipeline() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+        assertThat(new CountingTreeWalker(treeData.start).pipeline(2, 2).count()).isEqualTo(expected);
+
+        final CountingTreeWalker languageWalker = new CountingTreeWalker(treeData.start, Language.Java)
+                .pipeline(4, 1);
+        assertThat(languageWalker.count()).containsOnlyKeys(treeData.fileD0F1, treeData.fileD1F1);
+
+        assertThatIllegalArgumentException().isThrownBy(() -> new CountingTreeWalker(treeData.start).pipeline(1, 0));
+    }
+
+    @Test
+    public void testWalkTotals() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+
+        final LanguageTotals totals = new LanguageTotals();
+        new CountingTreeWalker(treeData.start).totals(totals).parallelism(4).count();
+        assertThat(totals.snapshot()).isEqualTo(CountUtils.byLanguage(expected));
+        assertThat(totals.total()).isEqualTo(CountUtils.total(expected));
+
+        final LanguageTotals javaTotals = new LanguageTotals();
+        new CountingTreeWalker(treeData.start, Language.Java).totals(javaTotals).count();
+        assertThat(javaTotals.snapshot()).containsOnlyKeys(Language.Java);
+    }
+
+    @Test
+    public void testWalkListener() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+
+        final List<FileCount> fileCounts = new ArrayList<>();
+        new CountingTreeWalker(treeData.start).count(fileCounts::add);
+        assertThat(toMap(fileCounts)).isEqualTo(expected);
+
+        fileCounts.clear();
+        new CountingTreeWalker(treeData.start).parallelism(4).count(fileCounts::add);
+        assertThat(toMap(fileCounts)).isEqualTo(expected);
+
+        fileCounts.clear();
+        new CountingTreeWalker(treeData.start).pipeline(2, 2).count(fileCounts::add);
+        assertThat(toMap(fileCounts)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testWalkAggregate() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+
+        assertThat(new CountingTreeWalker(treeData.start).countByLanguage())
+                .isEqualTo(CountUtils.byLanguage(expected));
+        assertThat(new CountingTreeWalker(treeData.start).parallelism(4).countByLanguage())
+                .isEqualTo(CountUtils.byLanguage(expected));
+        assertThat(new CountingTreeWalker(treeData.start).countTotal()).isEqualTo(CountUtils.total(expected));
+        assertThat(new CountingTreeWalker(treeData.start).pipeline(2, 2).countTotal())
+                .isEqualTo(CountUtils.total(expected));
+
+        final Map<Path, Map<Language, Counts>> javaExpected =
+                new CountingTreeWalker(treeData.start, Language.Java).count();
+        assertThat(new CountingTreeWalker(treeData.start, Language.Java).countByLanguage())
+                .containsKey(Language.Java)
+                .isEqualTo(CountUtils.byLanguage(javaExpected));
+    }
+
+    @Test
+    public void testWalkStream() throws IOException {
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+
+        try (Stream<FileCount> stream = new CountingTreeWalker(treeData.start).stream()) {
+            assertThat(stream.collect(Collectors.toMap(FileCount::file, FileCount::counts))).isEqualTo(expected);
+        }
+        try (Stream<FileCount> stream = new CountingTreeWalker(treeData.start).readAhead(2, 1024).stream()) {
+            assertThat(stream.limit(3).toList()).hasSize(3)
+                                                .allMatch(fileCount -> expected.get(fileCount.file())
+                                                                               .equals(fileCount.counts()));
+        }
+        try (Stream<FileCount> stream = new CountingTreeWalker(treeData.start, Language.Java).stream()) {
+            assertThat(stream.map(FileCount::counts)).allMatch(counts -> counts.containsKey(Language.Java));
+        }
+        try (Stream<FileCount> stream = new CountingTreeWalker(treeData.start.resolve("missing")).stream()) {
+            assertThatThrownBy(stream::count).isInstanceOf(UncheckedIOException.class);
+        }
+    }
+
+    @Test
+    public void testWalkVirtualThreads() throws IOException {
+        final CountingTreeWalker walker = new CountingTreeWalker(treeData.start);
+        assertThatIllegalArgumentException().isThrownBy(() -> walker.virtualThreads(-1));
+
+        final Map<Path, Map<Language, Counts>> expected = new CountingTreeWalker(treeData.start).count();
+        assertThat(walker.virtualThreads(16).count()).isEqualTo(expected);
+    }
+
+    private static Map<Path, Map<Language, Counts>> toMap(final List<FileCount> fileCounts) {
+        return fileCounts.stream().collect(Collectors.toMap(FileCount::file, FileCount::counts));
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.cthing.locc4j.DelimiterAutomaton.ALL_MASK;
+import static org.cthing.locc4j.DelimiterAutomaton.DOC_QUOTE;
+import static org.cthing.locc4j.DelimiterAutomaton.IMPORTANT_SYNTAX;
+import static org.cthing.locc4j.DelimiterAutomaton.IMPORTANT_SYNTAX_MASK;
+import static org.cthing.locc4j.DelimiterAutomaton.LINE_COMMENT;
+import static org.cthing.locc4j.DelimiterAutomaton.LINE_COMMENT_MASK;
+import static org.cthing.locc4j.DelimiterAutomaton.MULTI_LINE_COMMENT;
+import static org.cthing.locc4j.DelimiterAutomaton.MULTI_LINE_COMMENT_MASK;
+import static org.cthing.locc4j.DelimiterAutomaton.NO_MATCH;
+import static org.cthing.locc4j.DelimiterAutomaton.QUOTE;
+import static org.cthing.locc4j.DelimiterAutomaton.QUOTES_MASK;
+import static org.cthing.locc4j.DelimiterAutomaton.QUOTE_MASK;
+import static org.cthing.locc4j.DelimiterAutomaton.VERBATIM_QUOTE;
+
+
+public class DelimiterAutomatonTest {
+
+    @Test
+    public void testJava() {
+        final DelimiterAutomaton automaton = Language.Java.delimiterAutomaton;
+
+        assertThat(match(automaton, "int i = 0;", 0, ALL_MASK)).isEqualTo(NO_MATCH);
+        assertThat(match(automaton, "", 0, ALL_MASK)).isEqualTo(NO_MATCH);
+
+        final int quoteId = match(automaton, "\"hello\"", 0, ALL_MASK);
+        assertThat(automaton.kind(quoteId)).isEqualTo(QUOTE);
+        assertThat(automaton.start(quoteId)).isEqualTo("\"");
+        assertThat(automaton.end(quoteId)).isEqualTo("\"");
+
+        final int commentId = match(automaton, "/* hello */", 0, ALL_MASK);
+        assertThat(automaton.kind(commentId)).isEqualTo(MULTI_LINE_COMMENT);
+        assertThat(automaton.start(commentId)).isEqualTo("/*");
+        assertThat(automaton.end(commentId)).isEqualTo("*/");
+        assertThat(automaton.isNested(commentId)).isFalse();
+
+        final int lineCommentId = match(automaton, "// hello", 0, ALL_MASK);
+        assertThat(automaton.kind(lineCommentId)).isEqualTo(LINE_COMMENT);
+        assertThat(automaton.start(lineCommentId)).isEqualTo("//");
+        assertThat(automaton.end(lineCommentId)).isEmpty();
+
+        assertThat(match(automaton, "x = 1; // hello", 7, ALL_MASK)).isEqualTo(lineCommentId);
+        assertThat(match(automaton, "x = 1; // hello", 6, ALL_MASK)).isEqualTo(NO_MATCH);
+    }
+
+    @Test
+    public void testKindMask() {
+        final DelimiterAutomaton automaton = Language.Java.delimiterAutomaton;
+
+        assertThat(match(automaton, "// hello", 0, QUOTES_MASK)).isEqualTo(NO_MATCH);
+        assertThat(match(automaton, "// hello", 0, MULTI_LINE_COMMENT_MASK)).isEqualTo(NO_MATCH);
+        assertThat(match(automaton, "// hello", 0, LINE_COMMENT_MASK)).isNotEqualTo(NO_MATCH);
+        assertThat(match(automaton, "/* hello", 0, LINE_COMMENT_MASK)).isEqualTo(NO_MATCH);
+        assertThat(match(automaton, "\"hello", 0, QUOTE_MASK)).isNotEqualTo(NO_MATCH);
+    }
+
+    @Test
+    public void testPriority() {
+        final DelimiterAutomaton python = Language.Python.delimiterAutomaton;
+
+        // Documentation quotes take precedence over normal quotes
+        final int docId = match(python, "\"\"\"hello", 0, ALL_MASK);
+        assertThat(python.kind(docId)).isEqualTo(DOC_QUOTE);
+        assertThat(python.start(docId)).isEqualTo("\"\"\"");
+
+        final int quoteId = match(python, "\"\"\"hello", 0, QUOTE_MASK);
+        assertThat(python.kind(quoteId)).isEqualTo(QUOTE);
+        assertThat(python.start(quoteId)).isEqualTo("\"");
+
+        final DelimiterAutomaton csharp = Language.CSharp.delimiterAutomaton;
+        final int verbatimId = match(csharp, "@\"hello\"", 0, ALL_MASK);
+        assertThat(csharp.kind(verbatimId)).isEqualTo(VERBATIM_QUOTE);
+        assertThat(csharp.start(verbatimId)).isEqualTo("@\"");
+    }
+
+    @Test
+    public void testNested() {
+        final DelimiterAutomaton automaton = Language.D.delimiterAutomaton;
+
+        final int commentId = match(automaton, "/* hello */", 0, MULTI_LINE_COMMENT_MASK);
+        assertThat(automaton.isNested(commentId)).isFalse();
+
+        final int nestedId = match(automaton, "/+ hello +/", 0, MULTI_LINE_COMMENT_MASK);
+        assertThat(automaton.kind(nestedId)).isEqualTo(MULTI_LINE_COMMENT);
+        assertThat(automaton.end(nestedId)).isEqualTo("+/");
+        assertThat(automaton.isNested(nestedId)).isTrue();
+    }
+
+    @Test
+    public void testNonAscii() {
+        final DelimiterAutomaton automaton = Language.Raku.delimiterAutomaton;
+
+        final int verbatimId = match(automaton, "｢hello｣", 0, ALL_MASK);
+        assertThat(automaton.kind(verbatimId)).isEqualTo(VERBATIM_QUOTE);
+        assertThat(automaton.end(verbatimId)).isEqualTo("｣");
+
+        assertThat(match(automaton, "｣hello", 0, ALL_MASK)).isEqualTo(NO_MATCH);
+        assertThat(automaton.isAscii()).isFalse();
+        assertThat(Language.Java.delimiterAutomaton.isAscii()).isTrue();
+
+        // A non-ASCII end sequence makes the delimiters non-ASCII even if every start sequence is ASCII
+        final BlockDelimiter[] none = new BlockDelimiter[0];
+        final DelimiterAutomaton endOnly = new DelimiterAutomaton(none, none, new BlockDelimiter[] {
+            new BlockDelimiter("<<", "\u00BB"),
+        }, none, none, new String[] { "#" }, new String[0]);
+        assertThat(endOnly.isAscii()).isFalse();
+        assertThat(match(endOnly, "<<hello\u00BB", 0, ALL_MASK)).isNotEqualTo(NO_MATCH);
+    }
+
+    @Test
+    public void testImportantSyntax() {
+        final DelimiterAutomaton automaton = Language.Html.delimiterAutomaton;
+
+        final int scriptId = match(automaton, "<script>", 0, IMPORTANT_SYNTAX_MASK);
+        assertThat(automaton.kind(scriptId)).isEqualTo(IMPORTANT_SYNTAX);
+        assertThat(automaton.start(scriptId)).isEqualTo("<script");
+        assertThat(automaton.end(scriptId)).isEmpty();
+        assertThat(match(automaton, "<script>", 0, ALL_MASK)).isEqualTo(NO_MATCH);
+        assertThat(match(automaton, "<!-- hello", 0, IMPORTANT_SYNTAX_MASK)).isNotEqualTo(NO_MATCH);
+        assertThat(match(automaton, "<p>", 0, IMPORTANT_SYNTAX_MASK)).isEqualTo(NO_MATCH);
+
+        // Line comments are not important syntax
+        assertThat(match(Language.Java.delimiterAutomaton, "// hello", 0, IMPORTANT_SYNTAX_MASK))
+                .isEqualTo(NO_MATCH);
+    }
+
+    @Test
+    public void testLimit() {
+        final DelimiterAutomaton automaton = Language.Java.delimiterAutomaton;
+        final CharData data = new CharData("x /* y".toCharArray());
+
+        assertThat(automaton.match(data, 2, 4, ALL_MASK)).isNotEqualTo(NO_MATCH);
+        assertThat(automaton.match(data, 2, 3, ALL_MASK)).isEqualTo(NO_MATCH);
+        assertThat(automaton.match(data, 2, 2, ALL_MASK)).isEqualTo(NO_MATCH);
+    }
+
+    @Test
+    public void testIdRanges() {
+        final DelimiterAutomaton automaton = Language.Java.delimiterAutomaton;
+
+        int count = 0;
+        for (int kind = DOC_QUOTE; kind <= IMPORTANT_SYNTAX; kind++) {
+            assertThat(automaton.firstId(kind)).isEqualTo(count);
+            for (int id = automaton.firstId(kind); id < automaton.endId(kind); id++) {
+                assertThat(automaton.kind(id)).isEqualTo(kind);
+                count++;
+            }
+        }
+        assertThat(count).isEqualTo(automaton.size());
+        assertThat(automaton.endId(MULTI_LINE_COMMENT) - automaton.firstId(MULTI_LINE_COMMENT)).isEqualTo(1);
+    }
+
+    @Test
+    public void testEndGroup() {
+        final DelimiterAutomaton automaton = Language.D.delimiterAutomaton;
+
+        final int commentId = match(automaton, "/* hello */", 0, MULTI_LINE_COMMENT_MASK);
+        final int nestedId = match(automaton, "/+ hello +/", 0, MULTI_LINE_COMMENT_MASK);
+        assertThat(automaton.endGroup(commentId)).isEqualTo(commentId);
+        assertThat(automaton.endGroup(nestedId)).isNotEqualTo(automaton.endGroup(commentId));
+
+        for (int id = 0; id < automaton.size(); id++) {
+            final int group = automaton.endGroup(id);
+            assertThat(group).isLessThanOrEqualTo(id);
+            assertThat(automaton.kind(group)).isEqualTo(automaton.kind(id));
+            assertThat(automaton.end(group)).isEqualTo(automaton.end(id));
+        }
+    }
+
+    private static int match(final DelimiterAutomaton automaton, final String str, final int index,
+                             final int kindMask) {
+        return automaton.match(new CharData(str.toCharArray()), index, kindMask);
+    }
+}
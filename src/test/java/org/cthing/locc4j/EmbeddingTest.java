@@ -641,6 +641,71 @@ public class EmbeddingTest {
         }
     }
 
+    @Nested
+    class IsIncompleteTest {
+        @Test
+        public void testNoEmbedding() {
+            final CharData data = data("int x = 1;\n");
+            assertThat(Embedding.isIncomplete(Language.Java, data, 0, 11, 11, null)).isFalse();
+        }
+
+        @Test
+        public void testHtml() {
+            final CharData complete = data("<script>\nvar i = 21;\n</script>\n<p>\n");
+            final Embedding.Embedded embedded = Embedding.find(Language.Html, complete, 0, 9);
+            assertThat(embedded).isNotNull();
+            assertThat(Embedding.isIncomplete(Language.Html, complete, 0, 9, 33, embedded)).isFalse();
+            assertThat(Embedding.isIncomplete(Language.Html, complete, 0, 9, 21, embedded)).isTrue();
+
+            final CharData unterminated = data("<script>\nvar i = 21;\n</scr");
+            assertThat(Embedding.find(Language.Html, unterminated, 0, 9)).isNull();
+            assertThat(Embedding.isIncomplete(Language.Html, unterminated, 0, 9, 21, null)).isTrue();
+
+            final CharData empty = data("<script src=\"a.js\"></script>\n<p>\n");
+            assertThat(Embedding.find(Language.Html, empty, 0, 30)).isNull();
+            assertThat(Embedding.isIncomplete(Language.Html, empty, 0, 30, 30, null)).isFalse();
+
+            final CharData plain = data("<p>Hello</p>\n");
+            assertThat(Embedding.isIncomplete(Language.Html, plain, 0, 13, 13, null)).isFalse();
+        }
+
+        @Test
+        public void testLiquid() {
+            final CharData data = data("{% schema %}\n{ \"a\": 1 }\n");
+            assertThat(Embedding.isIncomplete(Language.Liquid, data, 0, 13, 25, null)).isTrue();
+        }
+
+        @Test
+        public void testMarkdown() {
+            final CharData unterminated = data("```rust\nfn main() {}\n");
+            final Embedding.Embedded embedded = Embedding.find(Language.Markdown, unterminated, 0, 8);
+            assertThat(embedded).isNotNull();
+            assertThat(Embedding.isIncomplete(Language.Markdown, unterminated, 0, 8, 21, embedded)).isTrue();
+
+            final CharData unknown = data("```foobar\nHello\n");
+            assertThat(Embedding.isIncomplete(Language.Markdown, unknown, 0, 10, 16, null)).isTrue();
+
+            final CharData terminated = data("```foobar\nHello\n```\nText\n");
+            assertThat(Embedding.isIncomplete(Language.Markdown, terminated, 0, 10, 25, null)).isFalse();
+        }
+
+        @Test
+        public void testRust() {
+            final CharData docs = data("/// Hello\n/// World\n");
+            final Embedding.Embedded embedded = Embedding.find(Language.Rust, docs, 0, 10);
+            assertThat(embedded).isNotNull();
+            assertThat(Embedding.isIncomplete(Language.Rust, docs, 0, 10, 20, embedded)).isTrue();
+
+            final CharData code = data("/// Hello\nfn main() {}\n");
+            final Embedding.Embedded embedded2 = Embedding.find(Language.Rust, code, 0, 10);
+            assertThat(embedded2).isNotNull();
+            assertThat(Embedding.isIncomplete(Language.Rust, code, 0, 10, 23, embedded2)).isFalse();
+
+            final CharData blank = data("  \n\n");
+            assertThat(Embedding.isIncomplete(Language.Rust, blank, 0, 3, 4, null)).isTrue();
+        }
+    }
+
     private CharData data(final String str) {
         return new CharData(str.toCharArray());
     }
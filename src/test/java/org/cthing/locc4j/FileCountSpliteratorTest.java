@@ -0,0 +1,118 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.FileNotFoundException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+@Timeout(60)
+public class FileCountSpliteratorTest {
+
+    @Test
+    public void testOrder() {
+        final FileCountSpliterator spliterator = new FileCountSpliterator(listener -> {
+            for (int i = 0; i < 100; i++) {
+                listener.accept(fileCount(i));
+            }
+        }, 4);
+        try (Stream<FileCount> stream = StreamSupport.stream(spliterator, false).onClose(spliterator::close)) {
+            assertThat(stream.map(fileCount -> fileCount.file().toString()).toList())
+                    .containsExactlyElementsOf(Stream.iterate(0, i -> i + 1).limit(100).map(i -> "file" + i).toList());
+        }
+        assertThat(spliterator.tryAdvance(fileCount -> { })).isFalse();
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        final AtomicBoolean started = new AtomicBoolean();
+        final FileCountSpliterator spliterator = new FileCountSpliterator(listener -> started.set(true), 4);
+        try (Stream<FileCount> stream = StreamSupport.stream(spliterator, false).onClose(spliterator::close)) {
+            final Stream<FileCount> mapped = stream.filter(fileCount -> true);
+            Thread.sleep(100);
+            assertThat(started).isFalse();
+            assertThat(mapped.count()).isZero();
+            assertThat(started).isTrue();
+        }
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        final AtomicInteger produced = new AtomicInteger();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final FileCountSpliterator spliterator = new FileCountSpliterator(listener -> {
+            for (int i = 0; i < 1000; i++) {
+                if (i == 5) {
+                    blocked.countDown();
+                }
+                listener.accept(fileCount(i));
+                produced.incrementAndGet();
+            }
+        }, 4);
+
+        final List<FileCount> consumed = new ArrayList<>();
+        assertThat(spliterator.tryAdvance(consumed::add)).isTrue();
+        assertThat(blocked.await(10, TimeUnit.SECONDS)).isTrue();
+        Thread.sleep(100);
+
+        // The producer waits once the queue is full, so only the consumed and queued counts have been produced
+        assertThat(produced.get()).isLessThanOrEqualTo(consumed.size() + 4);
+        spliterator.close();
+        assertThat(produced.get()).isLessThan(1000);
+        assertThat(spliterator.tryAdvance(consumed::add)).isFalse();
+    }
+
+    @Test
+    public void testFailure() {
+        final FileCountSpliterator spliterator = new FileCountSpliterator(listener -> {
+            listener.accept(fileCount(0));
+            listener.accept(fileCount(1));
+            throw new FileNotFoundException("Missing");
+        }, 4);
+        final List<FileCount> consumed = new ArrayList<>();
+        assertThat(spliterator.tryAdvance(consumed::add)).isTrue();
+        assertThat(spliterator.tryAdvance(consumed::add)).isTrue();
+        assertThatThrownBy(() -> spliterator.tryAdvance(consumed::add))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasCauseInstanceOf(FileNotFoundException.class);
+        assertThat(consumed).hasSize(2);
+
+        final FileCountSpliterator failing = new FileCountSpliterator(listener -> {
+            throw new IllegalArgumentException("Directory");
+        }, 4);
+        assertThatThrownBy(() -> failing.tryAdvance(consumed::add)).isInstanceOf(IllegalArgumentException.class)
+                                                                   .hasMessage("Directory");
+    }
+
+    @Test
+    public void testCloseBeforeStart() {
+        final AtomicBoolean started = new AtomicBoolean();
+        final FileCountSpliterator spliterator = new FileCountSpliterator(listener -> started.set(true), 4);
+        spliterator.close();
+        assertThat(spliterator.tryAdvance(fileCount -> { })).isFalse();
+        assertThat(started).isFalse();
+    }
+
+    private static FileCount fileCount(final int index) {
+        return new FileCount(Path.of("file" + index), Map.of(Language.Java, new Counts(index, 0, 0)));
+    }
+}
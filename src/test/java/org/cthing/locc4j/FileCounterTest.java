@@ -6,9 +6,13 @@
 package org.cthing.locc4j;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.jupiter.api.Test;
@@ -19,10 +23,13 @@ import org.junit.jupiter.params.provider.ArgumentsSource;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 
+import com.sun.management.ThreadMXBean;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatIOException;
 import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
 import static org.assertj.core.api.Assertions.entry;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 
 public class FileCounterTest {
@@ -33,6 +40,176 @@ public class FileCounterTest {
         assertThatIllegalArgumentException().isThrownBy(() -> counter.count(tempDir));
     }
 
+    @Test
+    public void testInvalidMaxCommentDepth() {
+        final FileCounter counter = new FileCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.maxCommentDepth(0));
+    }
+
+    @Test
+    public void testInvalidMapThreshold() {
+        final FileCounter counter = new FileCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.mapThreshold(-1));
+    }
+
+    @Test
+    public void testInvalidReadAhead() {
+        final FileCounter counter = new FileCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.readAhead(-1, 1024));
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.readAhead(4, 0));
+    }
+
+    @Test
+    public void testReadAhead(@TempDir final Path tempDir) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final Path file = tempDir.resolve("file" + i + ((i % 2 == 0) ? ".py" : ".unknown"));
+            Files.writeString(file, "x = 1\n# Comment\n\n".repeat(i * 100));
+            files.add(file);
+        }
+        final Path script = tempDir.resolve("script");
+        Files.writeString(script, "#!/bin/sh\necho 'hello'\n");
+        files.add(script);
+
+        final Map<Path, Map<Language, Counts>> expected = new FileCounter().count(files);
+        assertThat(new FileCounter().readAhead(4, 10_000).count(files)).isEqualTo(expected);
+        assertThat(new FileCounter().readAhead(1, 1).mapThreshold(2000).count(files)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testInvalidParallelism() {
+        final FileCounter counter = new FileCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.parallelism(0));
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.parallelism(FileCounter.MAX_PARALLELISM + 1));
+    }
+
+    @Test
+    public void testParallelism(@TempDir final Path tempDir) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            final Path file = tempDir.resolve("file" + i + ((i % 3 == 0) ? ".unknown" : ".py"));
+            Files.writeString(file, "x = 1\n# Comment\n\n".repeat(i * 10));
+            files.add(file);
+        }
+        final Path generatedFile = tempDir.resolve("generated.py");
+        Files.writeString(generatedFile, "# @generated\nx = 1\n");
+        files.add(generatedFile);
+
+        final CountPolicy policy = new CountPolicy().skipGenerated(true);
+        final Map<Path, CountPolicy.SkipReason> skipped = new HashMap<>();
+        final Map<Path, Map<Language, Counts>> expected = new FileCounter().countPolicy(policy).count(files);
+        final FileCounter counter = new FileCounter().countPolicy(policy)
+                                                     .skipListener(skipped::put)
+                                                     .parallelism(4)
+                                                     .mapThreshold(2000);
+        assertThat(counter.count(files)).isEqualTo(expected);
+        assertThat(skipped).containsOnly(entry(generatedFile, CountPolicy.SkipReason.GENERATED));
+    }
+
+    @Test
+    public void testPipeline(@TempDir final Path tempDir) throws IOException {
+        final FileCounter counter = new FileCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.pipeline(-1, 1));
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.pipeline(FileCounter.MAX_PARALLELISM + 1, 1));
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.pipeline(1, 0));
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.pipeline(1, FileCounter.MAX_PARALLELISM + 1));
+
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final Path file = tempDir.resolve("file" + i + ((i % 3 == 0) ? ".unknown" : ".py"));
+            Files.writeString(file, "x = 1\n# Comment\n\n".repeat(i * 10));
+            files.add(file);
+        }
+        final Map<Path, Map<Language, Counts>> expected = new FileCounter().count(files);
+        assertThat(counter.pipeline(4, 2).count(files)).isEqualTo(expected);
+        assertThat(counter.pipeline(1, 1).readAhead(1, 64).count(files)).isEqualTo(expected);
+        assertThat(counter.pipeline(0, 1).count(files)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testVirtualThreads(@TempDir final Path tempDir) throws IOException {
+        final FileCounter counter = new FileCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.virtualThreads(-1));
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.virtualThreads(FileCounter.MAX_VIRTUAL_THREADS
+                                                                                              + 1));
+
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final Path file = tempDir.resolve("file" + i + ((i % 3 == 0) ? ".unknown" : ".py"));
+            Files.writeString(file, "x = 1\n# Comment\n\n".repeat(i * 10));
+            files.add(file);
+        }
+        final Map<Path, Map<Language, Counts>> expected = new FileCounter().count(files);
+        assertThat(counter.virtualThreads(10).count(files)).isEqualTo(expected);
+        assertThat(counter.virtualThreads(1000).parallelism(4).count(files)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testTotals(@TempDir final Path tempDir) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final Path file = tempDir.resolve("file" + i + ((i % 3 == 0) ? ".unknown" : (i % 3 == 1) ? ".py" : ".html"));
+            Files.writeString(file, "x = 1\n# Comment\n\n".repeat(i * 10));
+            files.add(file);
+        }
+        final Map<Path, Map<Language, Counts>> expected = new FileCounter().count(files);
+
+        final LanguageTotals totals = new LanguageTotals();
+        new FileCounter().totals(totals).count(files);
+        new FileCounter().totals(totals).parallelism(4).count(files);
+        new FileCounter().totals(totals).pipeline(2, 2).count(files);
+        final Map<Language, Counts> byLanguage = CountUtils.byLanguage(expected);
+        assertThat(totals.snapshot()).containsOnlyKeys(byLanguage.keySet());
+        byLanguage.forEach((language, counts) -> assertThat(totals.get(language))
+                .isEqualTo(new Counts(3 * counts.codeLines, 3 * counts.commentLines, 3 * counts.blankLines)));
+    }
+
+    @Test
+    public void testListener(@TempDir final Path tempDir) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final Path file = tempDir.resolve("file" + i + ((i % 2 == 0) ? ".unknown" : ".py"));
+            Files.writeString(file, "x = 1\n# Comment\n\n".repeat(i));
+            files.add(file);
+        }
+        final Map<Path, Map<Language, Counts>> expected = new FileCounter().count(files);
+
+        final List<FileCount> fileCounts = new ArrayList<>();
+        new FileCounter().count(files, fileCounts::add);
+        assertThat(fileCounts).extracting(FileCount::file).containsExactlyElementsOf(files);
+        assertThat(fileCounts).allMatch(fileCount -> expected.get(fileCount.file()).equals(fileCount.counts()));
+
+        fileCounts.clear();
+        new FileCounter().parallelism(4).count(files, fileCounts::add);
+        assertThat(fileCounts).extracting(FileCount::file).containsExactlyElementsOf(files);
+
+        fileCounts.clear();
+        new FileCounter().pipeline(2, 2).count(files, fileCounts::add);
+        assertThat(fileCounts).extracting(FileCount::file).containsExactlyElementsOf(files);
+
+        assertThatIllegalArgumentException().isThrownBy(() -> new FileCounter().count(List.of(), fileCounts::add));
+    }
+
+    @Test
+    public void testLargeFileParallelism(@TempDir final Path tempDir) throws IOException {
+        final FileCounter counter = new FileCounter();
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.largeFileParallelism(0));
+        assertThatIllegalArgumentException().isThrownBy(() -> counter.largeFileParallelism(FileCounter.MAX_PARALLELISM
+                                                                                                    + 1));
+
+        final String lines = "x = 1\n\"\"\"Doc\nstring\"\"\"\n# Comment\n\n";
+        final Path largeFile = tempDir.resolve("large.py");
+        Files.writeString(largeFile, lines.repeat(SpeculativeCount.MIN_LENGTH / lines.length() + 1));
+        final Path smallFile = tempDir.resolve("small.py");
+        Files.writeString(smallFile, lines);
+        final List<Path> files = List.of(largeFile, smallFile);
+
+        final Map<Path, Map<Language, Counts>> expected = new FileCounter().count(files);
+        assertThat(counter.largeFileParallelism(4).count(files)).isEqualTo(expected);
+        assertThat(counter.mapThreshold(1024).count(files)).isEqualTo(expected);
+        assertThat(counter.parallelism(2).count(files)).isEqualTo(expected);
+    }
+
     @Test
     public void testMissingFile() {
         final FileCounter counter = new FileCounter();
@@ -47,6 +224,79 @@ public class FileCounterTest {
         assertThat(counter.count(file)).containsExactly(entry(file, Map.of()));
     }
 
+    @Test
+    public void testShebang(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("script");
+        Files.writeString(file, "#!/bin/sh\n# Comment\n\necho 'hello'\n");
+        final Map<Language, Counts> expected = Map.of(Language.Sh, new Counts(1, 2, 1));
+
+        assertThat(new FileCounter().count(file)).containsExactly(entry(file, expected));
+        assertThat(new FileCounter().mapThreshold(0).count(file)).containsExactly(entry(file, expected));
+        assertThat(new FileCounter().count(file, Language.Sh::equals)).isEqualTo(expected);
+        assertThat(new FileCounter().mapThreshold(0).count(file, Language.Python::equals)).isNull();
+    }
+
+    @Test
+    public void testLanguageFilter(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("foo.py");
+        Files.writeString(file, "#!/bin/sh\nx = 1\n");
+        final FileCounter counter = new FileCounter();
+        assertThat(counter.count(file, Language.Python::equals)).containsOnlyKeys(Language.Python);
+        assertThat(counter.count(file, Language.Sh::equals)).isNull();
+
+        final Path unknownFile = tempDir.resolve("_foo_");
+        Files.writeString(unknownFile, "x".repeat(Language.MAX_SHEBANG_LENGTH * 2));
+        assertThat(counter.count(unknownFile, language -> true)).isNull();
+    }
+
+    @Test
+    public void testCountPolicy(@TempDir final Path tempDir) throws IOException {
+        final Path binaryFile = tempDir.resolve("binary.java");
+        Files.write(binaryFile, new byte[] { (byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE, 0, 0, 0, 0x41 });
+        final Path generatedFile = tempDir.resolve("generated");
+        Files.writeString(generatedFile, "#!/bin/sh\n# DO NOT EDIT\necho 'hello'\n");
+        final Path minifiedFile = tempDir.resolve("minified.js");
+        Files.writeString(minifiedFile, "var x=1;".repeat(100));
+        final Path largeFile = tempDir.resolve("large.py");
+        Files.writeString(largeFile, "x = 1\n".repeat(1000));
+        final Path plainFile = tempDir.resolve("plain.py");
+        Files.writeString(plainFile, "x = 1\n");
+        final Path unknownFile = tempDir.resolve("_foo_");
+        Files.write(unknownFile, new byte[] { 0, 0, 0 });
+
+        final List<Path> files = List.of(binaryFile, generatedFile, minifiedFile, largeFile, plainFile, unknownFile);
+        final CountPolicy policy = new CountPolicy().skipBinary(true)
+                                                    .skipGenerated(true)
+                                                    .maxLineLength(200)
+                                                    .maxFileSize(1000);
+        for (final long mapThreshold : new long[] { 0, FileCounter.DEFAULT_MAP_THRESHOLD }) {
+            final Map<Path, CountPolicy.SkipReason> skipped = new HashMap<>();
+            final FileCounter counter = new FileCounter().countPolicy(policy)
+                                                         .skipListener(skipped::put)
+                                                         .mapThreshold(mapThreshold);
+            assertThat(counter.count(files)).containsOnly(entry(plainFile, Map.of(Language.Python, new Counts(1, 0, 0))),
+                                                          entry(unknownFile, Map.of()));
+            assertThat(skipped).containsOnly(entry(binaryFile, CountPolicy.SkipReason.BINARY),
+                                             entry(generatedFile, CountPolicy.SkipReason.GENERATED),
+                                             entry(minifiedFile, CountPolicy.SkipReason.LONG_LINE),
+                                             entry(largeFile, CountPolicy.SkipReason.TOO_LARGE));
+            assertThat(counter.count(largeFile)).isEmpty();
+        }
+    }
+
+    @Test
+    public void testTruncateLargeFiles(@TempDir final Path tempDir) throws IOException {
+        final Path file = tempDir.resolve("large.py");
+        Files.writeString(file, "x = 1\n# Comment\n".repeat(1000));
+        final CountPolicy policy = new CountPolicy().maxFileSize(100).truncateLargeFiles(true);
+
+        // The first 100 bytes contain 6 complete pairs of lines and part of the next line
+        final Map<Language, Counts> expected = Map.of(Language.Python, new Counts(6, 6, 0));
+        assertThat(new FileCounter().countPolicy(policy).count(file)).containsExactly(entry(file, expected));
+        assertThat(new FileCounter().countPolicy(policy).mapThreshold(0).count(file))
+                .containsExactly(entry(file, expected));
+    }
+
     @Test
     public void testUnreadableFile(@TempDir final Path tempDir) throws IOException {
         final Path file = tempDir.resolve("foo");
@@ -61,6 +311,32 @@ public class FileCounterTest {
         }
     }
 
+    @Test
+    public void testBoundedAllocation(@TempDir final Path tempDir) throws IOException {
+        final ThreadMXBean threadBean = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+        // Markdown is decoded before it is counted, so both the read and decode buffers are exercised
+        final Path file = tempDir.resolve("large.md");
+        Files.writeString(file, "# Title\n\nSome text \u00E9\n\n".repeat(8000));
+        final long fileSize = Files.size(file);
+
+        final FileCounter counter = new FileCounter();
+        final Map<Language, Counts> expected = counter.count(file).get(file);
+        assertThat(expected).containsOnlyKeys(Language.Markdown);
+
+        final long threadId = Thread.currentThread().getId();
+        long bytesPerFile = Long.MAX_VALUE;
+        for (int round = 0; round < 20 && bytesPerFile >= fileSize / 10; round++) {
+            final long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+            assertThat(counter.count(file).get(file)).isEqualTo(expected);
+            bytesPerFile = Math.min(bytesPerFile, threadBean.getThreadAllocatedBytes(threadId) - startBytes);
+        }
+
+        // Reading and decoding the file reuses the thread's pooled buffers rather than allocating its size
+        assertThat(bytesPerFile).isLessThan(fileSize / 10);
+    }
+
     @ParameterizedTest
     @ArgumentsSource(FileDataProvider.class)
     public void testCount(final ArgumentsAccessor accessor) throws IOException {
@@ -77,6 +353,10 @@ public class FileCounterTest {
 
         assertThat(actualCounts).as("Incorrect number of languages counted").hasSize(numLanguageParams / 4);
 
+        // Counting the memory mapped file must produce the same counts as counting the file's contents
+        final FileCounter mappingCounter = new FileCounter().countDocStrings(accessor.getBoolean(1)).mapThreshold(0);
+        assertThat(mappingCounter.count(url.getPath()).values().iterator().next()).isEqualTo(actualCounts);
+
         for (int i = 0; i < numLanguageParams; i += 4) {
             final Language language = accessor.get(i + 2, Language.class);
             final int codeLines = accessor.getInteger(i + 3);
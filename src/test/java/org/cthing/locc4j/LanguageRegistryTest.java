@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.assertj.core.api.Assertions;
+import org.jspecify.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.cthing.locc4j.TestFiles.content;
+
+
+public class LanguageRegistryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testDefaults() {
+        final LanguageRegistry registry = LanguageRegistry.defaults();
+        assertThat(registry.getExtensions()).containsEntry("java", Language.Java).containsEntry("c", Language.C);
+        assertThat(registry.getFileNames()).containsEntry("makefile", Language.Makefile);
+        assertThat(registry.getInterpreters()).containsEntry("#!/bin/bash", Language.Bash);
+        assertThat(registry.getEnvPrograms()).containsEntry("python3", Language.Python);
+        assertThat(registry.getMimeTypes()).containsEntry("text/x-java-source", Language.Java);
+
+        assertThat(registry.fromFileName("Makefile")).contains(Language.Makefile);
+        assertThat(registry.fromFileName("src/Foo.JAVA")).contains(Language.Java);
+        assertThat(registry.fromFileName("foo.unknown17")).isEmpty();
+        assertThat(registry.fromFileName("noext")).isEmpty();
+        assertThat(registry.fromFileExtension("Py")).contains(Language.Python);
+        assertThat(registry.fromMime("text/x-python")).contains(Language.Python);
+        assertThat(registry.fromMime("text/x-unknown")).isEmpty();
+        assertThat(registry.fromShebang(content("#!/bin/sh\necho 'hello'"))).contains(Language.Sh);
+        assertThat(registry.fromShebang(content("#!/usr/bin/env ruby\n"))).contains(Language.Ruby);
+        assertThat(registry.fromShebang(content("#!/usr/bin/env\n"))).isEmpty();
+        assertThatThrownBy(() -> registry.getExtensions().put("foo", Language.C))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void testDerivation() {
+        final LanguageRegistry defaults = LanguageRegistry.defaults();
+        final LanguageRegistry registry = defaults.withExtension("INC", Language.Php)
+                                                  .withoutExtension("C")
+                                                  .withFileName("Jenkinsfile", Language.Groovy)
+                                                  .withoutFileName("MAKEFILE")
+                                                  .withInterpreter("#!/usr/local/bin/python3", Language.Python)
+                                                  .withoutInterpreter("#!/bin/sh")
+                                                  .withEnvProgram("node", Language.JavaScript)
+                                                  .withoutEnvProgram("ruby")
+                                                  .withMimeType("text/x-c", Language.C)
+                                                  .withoutMimeType("text/x-python");
+
+        assertThat(registry.fromFileName("foo.inc")).contains(Language.Php);
+        assertThat(registry.fromFileName("foo.c")).isEmpty();
+        assertThat(registry.fromFileName("jenkinsfile")).contains(Language.Groovy);
+        assertThat(registry.fromFileName("Makefile")).isEmpty();
+        assertThat(registry.fromShebang(content("#!/usr/local/bin/python3\n"))).contains(Language.Python);
+        assertThat(registry.fromShebang(content("#!/bin/sh\n"))).isEmpty();
+        assertThat(registry.fromShebang(content("#!/usr/bin/env node\n"))).contains(Language.JavaScript);
+        assertThat(registry.fromShebang(content("#!/usr/bin/env ruby\n"))).isEmpty();
+        assertThat(registry.fromMime("text/x-c")).contains(Language.C);
+        assertThat(registry.fromMime("text/x-python")).isEmpty();
+
+        // Deriving a registry does not change the original
+        assertThat(defaults.fromFileName("foo.inc")).isNotEqualTo(Optional.of(Language.Php));
+        assertThat(defaults.fromFileName("foo.c")).contains(Language.C);
+        assertThat(defaults.fromFileName("Makefile")).contains(Language.Makefile);
+        assertThat(defaults.fromShebang(content("#!/bin/sh\n"))).contains(Language.Sh);
+        assertThat(defaults.fromMime("text/x-python")).contains(Language.Python);
+    }
+
+    @Test
+    public void testFromFile() throws IOException {
+        final Path script = Files.writeString(this.tempDir.resolve("script"), "#!/usr/bin/env node\nx = 1;\n");
+        final LanguageRegistry registry = LanguageRegistry.defaults().withEnvProgram("node", Language.JavaScript);
+        assertThat(registry.fromFile(script)).contains(Language.JavaScript);
+        assertThat(LanguageRegistry.defaults().fromFile(script)).isEmpty();
+        assertThat(registry.fromShebang(script)).contains(Language.JavaScript);
+        assertThatThrownBy(() -> registry.fromFile(this.tempDir)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testCurrent() {
+        final LanguageRegistry before = LanguageRegistry.current();
+        try {
+            Language.addExtension("zzy", Language.Python);
+            assertThat(LanguageRegistry.current().fromFileExtension("zzy")).contains(Language.Python);
+            Assertions.<@Nullable Language>assertThat(before.getExtensions().get("zzy")).isNull();
+        } finally {
+            Language.resetExtensions();
+        }
+        assertThat(LanguageRegistry.current()).isSameAs(LanguageRegistry.defaults());
+    }
+
+    @Test
+    public void testConcurrentCounters() throws Exception {
+        // Counters with different registries count the same files concurrently without affecting each other
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final Path file = this.tempDir.resolve("file" + i + ".inc");
+            Files.writeString(file, "// Comment\nx = 1;\n");
+            files.add(file);
+        }
+        final LanguageRegistry phpRegistry = LanguageRegistry.defaults().withExtension("inc", Language.Php);
+        final LanguageRegistry cppRegistry = LanguageRegistry.defaults().withExtension("inc", Language.Cpp);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Map<Path, Map<Language, Counts>>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final LanguageRegistry registry = (i % 2 == 0) ? phpRegistry : cppRegistry;
+                futures.add(executor.submit(() -> new FileCounter().languageRegistry(registry).count(files)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                final Language expected = (i % 2 == 0) ? Language.Php : Language.Cpp;
+                assertThat(futures.get(i).get().values()).hasSize(files.size())
+                                                         .allMatch(counts -> counts.containsKey(expected));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEmbeddedLanguages() throws IOException {
+        // The languages of embedded content identified by MIME type or file extension are found using the registry
+        final String html = "<html>\n<script type=\"text/x-zzy\">\n# Comment\nx = 1\n</script>\n</html>\n";
+        final String notebook = """
+                {
+                  "metadata": { "language_info": { "file_extension": "zzy" } },
+                  "cells": [ { "cell_type": "code", "source": [ "# Comment\\n", "x = 1\\n" ] } ]
+                }
+                """;
+        final LanguageRegistry registry = LanguageRegistry.defaults().withMimeType("text/x-zzy", Language.Python)
+                                                                     .withExtension("zzy", Language.Ruby);
+
+        assertThat(new Counter(Language.Html).languageRegistry(registry).count(html))
+                .containsEntry(Language.Python, new Counts(1, 1, 0))
+                .doesNotContainKey(Language.JavaScript);
+        assertThat(new Counter(Language.Html).count(html)).containsKey(Language.JavaScript)
+                                                          .doesNotContainKey(Language.Python);
+        assertThat(new Counter(Language.Jupyter).languageRegistry(registry).count(notebook))
+                .containsEntry(Language.Ruby, new Counts(1, 1, 0))
+                .doesNotContainKey(Language.Python);
+        assertThat(new Counter(Language.Jupyter).count(notebook)).containsKey(Language.Python)
+                                                                 .doesNotContainKey(Language.Ruby);
+
+        // The registry of a counting job is used for embedded content, and is not retained by pooled counters
+        final Path htmlFile = Files.writeString(this.tempDir.resolve("page.html"), html);
+        final Path notebookFile = Files.writeString(this.tempDir.resolve("notebook.ipynb"), notebook);
+        final Map<Path, Map<Language, Counts>> counts = new FileCounter().languageRegistry(registry)
+                                                                         .count(htmlFile, notebookFile);
+        assertThat(counts.get(htmlFile)).containsKey(Language.Python).doesNotContainKey(Language.JavaScript);
+        assertThat(counts.get(notebookFile)).containsKey(Language.Ruby);
+        final Map<Path, Map<Language, Counts>> defaultCounts = new FileCounter().count(htmlFile, notebookFile);
+        assertThat(defaultCounts.get(htmlFile)).containsKey(Language.JavaScript).doesNotContainKey(Language.Python);
+        assertThat(defaultCounts.get(notebookFile)).containsKey(Language.Python).doesNotContainKey(Language.Ruby);
+    }
+}
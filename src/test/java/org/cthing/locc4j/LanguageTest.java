@@ -6,6 +6,8 @@
 package org.cthing.locc4j;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.regex.Pattern;
@@ -16,6 +18,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
 
 
 public class LanguageTest {
@@ -63,6 +66,24 @@ public class LanguageTest {
         assertThat(asn1.getImportantSyntax().matcher("Hello /* World */").find()).isTrue();
     }
 
+    @Test
+    public void testInterestingCharacters() {
+        final CharData data = new CharData("abc = \"d\" + e / f * g\\h // i".toCharArray());
+        final AsciiSet chars = Language.Java.interestingCharacters;
+        assertThat(data.indexOfAny(chars, 0, data.length())).isEqualTo(6);
+        assertThat(data.indexOfAny(chars, 7, data.length())).isEqualTo(8);
+        assertThat(data.indexOfAny(chars, 9, data.length())).isEqualTo(14);
+        assertThat(data.indexOfAny(chars, 15, data.length())).isEqualTo(18);
+        assertThat(data.indexOfAny(chars, 19, data.length())).isEqualTo(21);
+        assertThat(data.indexOfAny(chars, 22, data.length())).isEqualTo(24);
+        assertThat(data.indexOfAny(chars, 25, data.length())).isEqualTo(25);
+        assertThat(data.indexOfAny(chars, 26, data.length())).isEqualTo(-1);
+
+        // Important syntax is interesting
+        assertThat(new CharData("p <script>".toCharArray()).indexOfAny(Language.Html.interestingCharacters, 0, 10))
+                .isEqualTo(2);
+    }
+
     @Test
     public void testFromShebang() throws IOException {
         final Path shFile = Files.createFile(this.tempDir.resolve("test.sh"));
@@ -96,6 +117,26 @@ public class LanguageTest {
         assertThat(Language.fromShebang(missingFile)).isEmpty();
     }
 
+    @Test
+    public void testFromShebangContent() {
+        assertThat(Language.fromShebang(content("#!/bin/sh\necho 'hello'"))).contains(Language.Sh);
+        assertThat(Language.fromShebang(content("#!/usr/bin/env python\r\nprint('Hello')")))
+                .contains(Language.Python);
+        assertThat(Language.fromShebang(content("#!/usr/bin/env python"))).contains(Language.Python);
+        assertThat(Language.fromShebang(content("#!/bin/foo\necho 'hello'"))).isEmpty();
+        assertThat(Language.fromShebang(content("#!/usr/bin/env\nprint('Hello')"))).isEmpty();
+        assertThat(Language.fromShebang(content(" #!/bin/sh"))).isEmpty();
+        assertThat(Language.fromShebang(content("#"))).isEmpty();
+        assertThat(Language.fromShebang(content(""))).isEmpty();
+
+        final ByteBuffer buffer = content("xx#!/bin/sh\n").position(2);
+        assertThat(Language.fromShebang(buffer)).contains(Language.Sh);
+        assertThat(buffer.position()).isEqualTo(2);
+
+        final String longLine = "#!/bin/sh " + "x".repeat(Language.MAX_SHEBANG_LENGTH * 2);
+        assertThat(Language.fromShebang(content(longLine))).contains(Language.Sh);
+    }
+
     @Test
     public void testFromId() {
         assertThat(Language.fromId("css")).contains(Language.Css);
@@ -138,6 +179,23 @@ public class LanguageTest {
         assertThat(Language.fromFile(missingFile)).isEmpty();
     }
 
+    @Test
+    public void testFromFileName() throws IOException {
+        assertThat(Language.fromFileName(Path.of("Makefile"))).contains(Language.Makefile);
+        assertThat(Language.fromFileName(Path.of("src", "Foo.JAVA"))).contains(Language.Java);
+        assertThat(Language.fromFileName(Path.of("foo.__xyz__"))).isEmpty();
+        assertThat(Language.fromFileName("org/foo/Bar.JAVA")).contains(Language.Java);
+        assertThat(Language.fromFileName("dir/Makefile")).contains(Language.Makefile);
+        assertThat(Language.fromFileName("dir/foo.__xyz__")).isEmpty();
+        assertThatIllegalArgumentException().isThrownBy(() -> Language.fromFileName("dir/"));
+
+        // The file is not read, so its shebang is not considered
+        final Path shFile = Files.createFile(this.tempDir.resolve("script"));
+        Files.writeString(shFile, "#!/bin/sh\necho 'hello'");
+        assertThat(Language.fromFileName(shFile)).isEmpty();
+        assertThat(Language.fromFile(shFile)).contains(Language.Sh);
+    }
+
     @Test
     public void testFileExtensionRemapping() {
         assertThat(Language.getExtensions().get("c")).isEqualTo(Language.C);
@@ -153,4 +211,8 @@ public class LanguageTest {
         assertThat(Language.getExtensions().get("c")).isEqualTo(Language.C);
         Assertions.<@Nullable Language>assertThat(Language.getExtensions().get("zzz")).isNull();
     }
+
+    private static ByteBuffer content(final String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
+
+
+public class LanguageTotalsTest {
+
+    @Test
+    public void testEmpty() {
+        final LanguageTotals totals = new LanguageTotals();
+        assertThat(totals.snapshot()).isEmpty();
+        assertThat(totals.total()).isEqualTo(Counts.ZERO);
+        assertThat(totals.get(Language.Java)).isEqualTo(Counts.ZERO);
+    }
+
+    @Test
+    public void testAdd() {
+        final LanguageTotals totals = new LanguageTotals();
+        totals.add(Map.of(Language.Html, new Counts(10, 2, 3), Language.Css, new Counts(4, 1, 0)));
+        totals.add(Language.Html, new Counts(1, 1, 1));
+        totals.add(Language.Text, Counts.ZERO);
+
+        assertThat(totals.get(Language.Html)).isEqualTo(new Counts(11, 3, 4));
+        assertThat(totals.snapshot()).containsOnly(entry(Language.Html, new Counts(11, 3, 4)),
+                                                   entry(Language.Css, new Counts(4, 1, 0)),
+                                                   entry(Language.Text, Counts.ZERO));
+        assertThat(totals.total()).isEqualTo(new Counts(15, 4, 4));
+    }
+
+    @Test
+    public void testOverflow() {
+        final LanguageTotals totals = new LanguageTotals();
+        totals.add(Language.Java, new Counts(Integer.MAX_VALUE, 0, 0));
+        totals.add(Language.Python, new Counts(1, 0, 0));
+        assertThat(totals.get(Language.Java)).isEqualTo(new Counts(Integer.MAX_VALUE, 0, 0));
+        assertThatExceptionOfType(ArithmeticException.class).isThrownBy(totals::total);
+
+        totals.add(Language.Java, new Counts(1, 0, 0));
+        assertThatExceptionOfType(ArithmeticException.class).isThrownBy(() -> totals.get(Language.Java));
+        assertThatExceptionOfType(ArithmeticException.class).isThrownBy(totals::snapshot);
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final Map<Path, Map<Language, Counts>> counts = new HashMap<>();
+        final Language[] languages = { Language.Java, Language.Python, Language.Html, Language.Css };
+        for (int i = 0; i < 1000; i++) {
+            counts.put(Path.of("file" + i), Map.of(languages[i % languages.length], new Counts(i, i % 7, i % 3)));
+        }
+        final List<Map<Language, Counts>> files = new ArrayList<>(counts.values());
+
+        final LanguageTotals totals = new LanguageTotals();
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = first; i < files.size(); i += threads) {
+                        totals.add(files.get(i));
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(totals.snapshot()).isEqualTo(CountUtils.byLanguage(counts));
+        assertThat(totals.total()).isEqualTo(CountUtils.total(counts));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.cthing.locc4j.LineMap.LineType.BLANK;
+import static org.cthing.locc4j.LineMap.LineType.CODE;
+import static org.cthing.locc4j.LineMap.LineType.COMMENT;
+
+
+public class LineMapTest {
+
+    @Test
+    public void testEmpty() {
+        final LineMap lineMap = new LineMap();
+        assertThat(lineMap.getLanguage()).isNull();
+        assertThat(lineMap.getLineCount()).isZero();
+        assertThat(lineMap.getRunCount()).isZero();
+        assertThatThrownBy(() -> lineMap.getLineType(0)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> lineMap.getLineLanguage(0)).isInstanceOf(IndexOutOfBoundsException.class);
+        assertThatThrownBy(() -> lineMap.getRunStart(0)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        final LineMap lineMap = new LineMap();
+        new Counter(Language.Java).lineMap(lineMap).count("""
+                                                          /*
+                                                           * Comment
+                                                           */
+
+                                                          int x = 1;  // Trailing
+                                                          // Comment
+                                                          """);
+        assertThat(lineMap.getLanguage()).isEqualTo(Language.Java);
+        assertThat(types(lineMap)).containsExactly(COMMENT, COMMENT, COMMENT, BLANK, CODE, COMMENT);
+        assertThat(lineMap.getRunCount()).isZero();
+        assertThat(lineMap.getLineLanguage(4)).isEqualTo(Language.Java);
+    }
+
+    @Test
+    public void testManyLines() throws IOException {
+        final LineMap lineMap = new LineMap();
+        new Counter(Language.Python).lineMap(lineMap).count("x = 1\n# Comment\n\n".repeat(1000));
+        assertThat(lineMap.getLineCount()).isEqualTo(3000);
+        for (int i = 0; i < 3000; i += 3) {
+            assertThat(lineMap.getLineType(i)).isEqualTo(CODE);
+            assertThat(lineMap.getLineType(i + 1)).isEqualTo(COMMENT);
+            assertThat(lineMap.getLineType(i + 2)).isEqualTo(BLANK);
+        }
+    }
+
+    @Test
+    public void testReuse() throws IOException {
+        final LineMap lineMap = new LineMap();
+        final Counter counter = new Counter(Language.Html).lineMap(lineMap);
+        counter.count("<p>\n<script>\nx = 1;\n</script>\n<!-- Comment -->\n");
+        assertThat(lineMap.getRunCount()).isEqualTo(1);
+
+        new Counter(Language.Java).lineMap(lineMap).count("int x;\n");
+        assertThat(lineMap.getLanguage()).isEqualTo(Language.Java);
+        assertThat(types(lineMap)).containsExactly(CODE);
+        assertThat(lineMap.getRunCount()).isZero();
+
+        counter.lineMap(null).count("<p>\n<p>\n");
+        assertThat(lineMap.getLanguage()).isEqualTo(Language.Java);
+        assertThat(lineMap.getLineCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testHtml() throws IOException {
+        final LineMap lineMap = new LineMap();
+        new Counter(Language.Html).lineMap(lineMap).count("""
+                                                          <html>
+                                                          <!-- Comment -->
+                                                          <script>
+                                                          // Comment
+                                                          var x = 1;
+
+                                                          </script>
+                                                          <style>p { }</style>
+                                                          </html>
+                                                          """);
+        assertThat(types(lineMap)).containsExactly(CODE, COMMENT, CODE, COMMENT, CODE, BLANK, CODE, CODE, CODE);
+        assertThat(languages(lineMap)).containsExactly(Language.Html, Language.Html, Language.Html,
+                                                       Language.JavaScript, Language.JavaScript,
+                                                       Language.JavaScript, Language.Html, Language.Css,
+                                                       Language.Html);
+        assertThat(lineMap.getRunCount()).isEqualTo(2);
+        assertThat(lineMap.getRunStart(0)).isEqualTo(3);
+        assertThat(lineMap.getRunEnd(0)).isEqualTo(6);
+        assertThat(lineMap.getRunLanguage(0)).isEqualTo(Language.JavaScript);
+        assertThat(lineMap.getRunStart(1)).isEqualTo(7);
+        assertThat(lineMap.getRunEnd(1)).isEqualTo(8);
+        assertThat(lineMap.getRunLanguage(1)).isEqualTo(Language.Css);
+    }
+
+    @Test
+    public void testNested() throws IOException {
+        final LineMap lineMap = new LineMap();
+        new Counter(Language.Markdown).lineMap(lineMap).count("""
+                                                              # Title
+
+                                                              ```rust
+                                                              /// # Example
+                                                              ///
+                                                              /// Text
+                                                              fn main() {
+                                                                  // Comment
+                                                              }
+                                                              ```
+                                                              Text
+                                                              """);
+        assertThat(types(lineMap)).containsExactly(CODE, BLANK, CODE, CODE, BLANK, CODE, CODE, COMMENT, CODE,
+                                                   CODE, CODE);
+        assertThat(languages(lineMap)).containsExactly(Language.Markdown, Language.Markdown, Language.Markdown,
+                                                       Language.Markdown, Language.Markdown, Language.Markdown,
+                                                       Language.Rust, Language.Rust, Language.Rust,
+                                                       Language.Markdown, Language.Markdown);
+        assertThat(lineMap.getRunCount()).isEqualTo(2);
+        assertThat(lineMap.getRunStart(0)).isEqualTo(3);
+        assertThat(lineMap.getRunEnd(0)).isEqualTo(9);
+        assertThat(lineMap.getRunLanguage(0)).isEqualTo(Language.Rust);
+        assertThat(lineMap.getRunStart(1)).isEqualTo(3);
+        assertThat(lineMap.getRunEnd(1)).isEqualTo(6);
+        assertThat(lineMap.getRunLanguage(1)).isEqualTo(Language.Markdown);
+    }
+
+    @Test
+    public void testJupyter() throws IOException {
+        final byte[] bytes;
+        try (InputStream ins = Objects.requireNonNull(getClass().getResourceAsStream("/data/jupyter.ipynb"))) {
+            bytes = ins.readAllBytes();
+        }
+        final LineMap lineMap = new LineMap();
+        new Counter(Language.Jupyter).lineMap(lineMap).count(bytes);
+        assertThat(lineMap.getLineCount()).isEqualTo(new CharData(new String(bytes, StandardCharsets.UTF_8)
+                                                                          .toCharArray()).countLines());
+        assertThat(types(lineMap)).containsOnly(CODE);
+        assertThat(lineMap.getRunCount()).isZero();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "html.html", "markdown.md", "rust.rs", "vue.vue", "java.java" })
+    public void testIncremental(final String filename) throws IOException {
+        final byte[] bytes;
+        try (InputStream ins = Objects.requireNonNull(getClass().getResourceAsStream("/data/" + filename))) {
+            bytes = ins.readAllBytes();
+        }
+        final String text = new String(bytes, StandardCharsets.UTF_8);
+        final Language language = Language.fromFileExtension(filename.substring(filename.indexOf('.') + 1))
+                                           .orElseThrow();
+
+        final LineMap expected = new LineMap();
+        new Counter(language).lineMap(expected).count(text);
+        assertThat(expected.getLineCount()).isPositive();
+
+        final LineMap streamed = new LineMap();
+        new Counter(language).lineMap(streamed).chunkSize(16).count(new StringReader(text));
+        assertSameLines(streamed, expected);
+
+        final LineMap fed = new LineMap();
+        final CountingSession session = new Counter(language).lineMap(fed).chunkSize(16).newSession();
+        for (int i = 0; i < bytes.length; i += 7) {
+            session.feed(bytes, i, Math.min(7, bytes.length - i));
+        }
+        session.finish();
+        assertSameLines(fed, expected);
+    }
+
+    private static void assertSameLines(final LineMap actual, final LineMap expected) {
+        assertThat(actual.getLanguage()).isEqualTo(expected.getLanguage());
+        assertThat(types(actual)).isEqualTo(types(expected));
+        assertThat(languages(actual)).isEqualTo(languages(expected));
+        assertThat(actual.getRunCount()).isEqualTo(expected.getRunCount());
+    }
+
+    private static List<LineMap.LineType> types(final LineMap lineMap) {
+        final List<LineMap.LineType> types = new ArrayList<>();
+        for (int i = 0; i < lineMap.getLineCount(); i++) {
+            types.add(lineMap.getLineType(i));
+        }
+        return types;
+    }
+
+    private static List<Language> languages(final LineMap lineMap) {
+        final List<Language> languages = new ArrayList<>();
+        for (int i = 0; i < lineMap.getLineCount(); i++) {
+            languages.add(lineMap.getLineLanguage(i));
+        }
+        return languages;
+    }
+}
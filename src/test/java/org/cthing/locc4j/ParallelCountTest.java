@@ -0,0 +1,185 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+
+@Timeout(30)
+public class ParallelCountTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testOrder() throws IOException {
+        final List<Path> files = createFiles(100);
+        final FileCounter counter = new FileCounter();
+
+        try (ParallelCount stage = new ParallelCount(counter, null, 4)) {
+            assertThat(stage.isEmpty()).isTrue();
+            stage.fill(files.iterator());
+            for (final Path file : files) {
+                final FileContent content = stage.take();
+                assertThat(content.file).isEqualTo(file);
+                assertThat(content.bytes).isNull();
+                assertThat(counter.count(content)).isEqualTo(counter.count(file).get(file));
+                stage.release(content);
+            }
+            assertThat(stage.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    public void testMaxFiles() throws IOException {
+        final List<Path> files = createFiles(ParallelCount.FILES_PER_THREAD * 2 + 10);
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+
+        try (ParallelCount stage = new ParallelCount(counter, null, 2)) {
+            stage.fill(files.iterator());
+            assertThat(stage.isFull()).isTrue();
+            counter.countNext(stage, results::put);
+            assertThat(stage.isFull()).isFalse();
+            stage.fill(files.listIterator(ParallelCount.FILES_PER_THREAD * 2));
+            while (!stage.isEmpty()) {
+                counter.countNext(stage, results::put);
+            }
+        }
+        assertThat(results).hasSize(ParallelCount.FILES_PER_THREAD * 2 + 1);
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        final List<Path> files = createFiles(2);
+        final Path missingFile = this.tempDir.resolve("missing.py");
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+
+        try (ParallelCount stage = new ParallelCount(counter, null, 3)) {
+            stage.submit(files.get(0));
+            stage.submit(missingFile);
+            stage.submit(this.tempDir);
+            stage.submit(files.get(1));
+            counter.countNext(stage, results::put);
+            assertThat(results).containsOnlyKeys(files.get(0));
+            assertThatThrownBy(stage::take).isInstanceOf(FileNotFoundException.class);
+            assertThatThrownBy(stage::take).isInstanceOf(IllegalArgumentException.class);
+            counter.countNext(stage, results::put);
+            assertThat(results).containsOnlyKeys(files);
+        }
+    }
+
+    @Test
+    public void testSkipped() throws IOException {
+        final List<Path> files = createFiles(10);
+        final Path generatedFile = this.tempDir.resolve("generated.py");
+        Files.writeString(generatedFile, "# DO NOT EDIT\nx = 1\n");
+        files.add(5, generatedFile);
+
+        final List<Path> skipped = new ArrayList<>();
+        final Thread countingThread = Thread.currentThread();
+        final FileCounter counter = new FileCounter().countPolicy(new CountPolicy().skipGenerated(true))
+                                                     .skipListener((file, reason) -> {
+                                                         assertThat(Thread.currentThread()).isSameAs(countingThread);
+                                                         skipped.add(file);
+                                                     });
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+
+        try (ParallelCount stage = new ParallelCount(counter, null, 4)) {
+            stage.fill(files.iterator());
+            while (!stage.isEmpty()) {
+                counter.countNext(stage, results::put);
+            }
+        }
+        assertThat(skipped).containsExactly(generatedFile);
+        assertThat(results).hasSize(10).doesNotContainKey(generatedFile);
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        final Path javaFile = this.tempDir.resolve("Foo.java");
+        Files.writeString(javaFile, "int x;\n");
+        final Path pythonFile = this.tempDir.resolve("foo.py");
+        Files.writeString(pythonFile, "x = 1\n");
+        final Path unknownFile = this.tempDir.resolve("foo.unknown");
+        Files.writeString(unknownFile, "hello\n");
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+
+        try (ParallelCount stage = new ParallelCount(counter, Language.Java::equals, 2)) {
+            stage.fill(List.of(javaFile, pythonFile, unknownFile).iterator());
+            while (!stage.isEmpty()) {
+                counter.countNext(stage, results::put);
+            }
+        }
+        assertThat(results).containsOnlyKeys(javaFile);
+    }
+
+    @Test
+    public void testVirtualThreads() throws IOException {
+        assumeTrue(VirtualThreads.isSupported());
+
+        final List<Path> files = createFiles(50);
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        final Set<BufferPool> bufferPools = ConcurrentHashMap.newKeySet();
+        final Predicate<Language> filter = language -> {
+            threadNames.add(Thread.currentThread().getName());
+            bufferPools.add(BufferPool.get());
+            return true;
+        };
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        final Iterator<Path> iterator = files.iterator();
+
+        try (ParallelCount stage = ParallelCount.onVirtualThreads(counter, filter, 8)) {
+            stage.fill(iterator);
+            assertThat(stage.isFull()).isTrue();
+            while (!stage.isEmpty()) {
+                counter.countNext(stage, results::put);
+                stage.fill(iterator);
+            }
+        }
+        assertThat(results).hasSize(files.size());
+        assertThat(threadNames).isNotEmpty().allMatch(name -> name.startsWith("locc4j-virtual-"));
+
+        // Each file is counted on its own virtual thread, but the pools are shared and bounded by the permits
+        assertThat(threadNames.size()).isGreaterThan(8);
+        assertThat(bufferPools).hasSizeBetween(1, 8);
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        final List<Path> files = createFiles(50);
+        final ParallelCount stage = new ParallelCount(new FileCounter(), null, 2);
+        stage.fill(files.iterator());
+        stage.close();
+        assertThat(stage.isEmpty()).isTrue();
+    }
+
+    private List<Path> createFiles(final int count) throws IOException {
+        return TestFiles.createFiles(this.tempDir, count, i -> ".py", TestFiles.PYTHON_LINES::repeat);
+    }
+}
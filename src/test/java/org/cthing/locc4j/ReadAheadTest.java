@@ -0,0 +1,159 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+
+@Timeout(30)
+public class ReadAheadTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testOrder() throws IOException {
+        final List<Path> files = createFiles(20, 100);
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+        final FileCounter counter = new FileCounter();
+
+        try (ReadAhead readAhead = new ReadAhead(counter, null, 3, 1024 * 1024)) {
+            assertThat(readAhead.isEmpty()).isTrue();
+            for (final Path file : files) {
+                readAhead.submit(file);
+                if (readAhead.isFull()) {
+                    final FileContent content = readAhead.take();
+                    assertThat(content.file).isEqualTo(files.get(results.size()));
+                    results.put(content.file, counter.count(content));
+                    readAhead.release(content);
+                }
+            }
+            while (!readAhead.isEmpty()) {
+                counter.countNext(readAhead, results::put);
+            }
+            assertThat(readAhead.getBytesInFlight()).isZero();
+        }
+
+        assertThat(results).hasSize(files.size());
+        for (final Path file : files) {
+            assertThat(results.get(file)).isEqualTo(counter.count(file).get(file));
+        }
+    }
+
+    @Test
+    public void testByteBudget() throws IOException, InterruptedException {
+        final List<Path> files = createFiles(6, 1000);
+        final FileCounter counter = new FileCounter();
+
+        try (ReadAhead readAhead = new ReadAhead(counter, null, 6, 2500)) {
+            readAhead.fill(files.iterator());
+            assertThat(readAhead.isFull()).isTrue();
+
+            // Only two files fit within the budget until a file has been counted
+            waitForBytesInFlight(readAhead, 2000);
+            Thread.sleep(100);
+            assertThat(readAhead.getBytesInFlight()).isEqualTo(2000);
+
+            for (final Path file : files) {
+                final FileContent content = readAhead.take();
+                assertThat(content.file).isEqualTo(file);
+                assertThat(content.length).isEqualTo(1000);
+                assertThat(readAhead.getBytesInFlight()).isLessThanOrEqualTo(3000);
+                readAhead.release(content);
+            }
+            assertThat(readAhead.getBytesInFlight()).isZero();
+        }
+    }
+
+    @Test
+    public void testFileLargerThanBudget() throws IOException {
+        final List<Path> files = createFiles(3, 1000);
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+
+        try (ReadAhead readAhead = new ReadAhead(counter, null, 3, 10)) {
+            readAhead.fill(files.iterator());
+            while (!readAhead.isEmpty()) {
+                counter.countNext(readAhead, results::put);
+            }
+        }
+        assertThat(results).containsOnlyKeys(files);
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        final List<Path> files = createFiles(2, 100);
+        final Path missingFile = this.tempDir.resolve("missing.py");
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+
+        try (ReadAhead readAhead = new ReadAhead(counter, null, 3, 1024)) {
+            readAhead.submit(files.get(0));
+            readAhead.submit(missingFile);
+            readAhead.submit(this.tempDir);
+            counter.countNext(readAhead, results::put);
+            assertThat(results).containsOnlyKeys(files.get(0));
+            assertThatThrownBy(readAhead::take).isInstanceOf(FileNotFoundException.class);
+            assertThatThrownBy(readAhead::take).isInstanceOf(IllegalArgumentException.class);
+            assertThat(readAhead.isEmpty()).isTrue();
+        }
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        final List<Path> files = createFiles(8, 1000);
+        final ReadAhead readAhead = new ReadAhead(new FileCounter(), null, 8, 1500);
+        readAhead.fill(files.iterator());
+        readAhead.close();
+        assertThat(readAhead.isEmpty()).isTrue();
+        assertThat(readAhead.getBytesInFlight()).isZero();
+    }
+
+    @Test
+    public void testFilter() throws IOException {
+        final Path javaFile = this.tempDir.resolve("Foo.java");
+        Files.writeString(javaFile, "int x;\n");
+        final Path pythonFile = this.tempDir.resolve("foo.py");
+        Files.writeString(pythonFile, "x = 1\n");
+        final FileCounter counter = new FileCounter();
+        final Map<Path, Map<Language, Counts>> results = new HashMap<>();
+
+        try (ReadAhead readAhead = new ReadAhead(counter, Language.Java::equals, 2, 1024)) {
+            readAhead.fill(List.of(javaFile, pythonFile).iterator());
+            while (!readAhead.isEmpty()) {
+                counter.countNext(readAhead, results::put);
+            }
+        }
+        assertThat(results).containsOnlyKeys(javaFile);
+    }
+
+    private List<Path> createFiles(final int count, final int size) throws IOException {
+        return TestFiles.createFiles(this.tempDir, count, i -> ".py", i -> {
+            final String line = "x = " + i + "\n";
+            return line.repeat(size / line.length()) + "#".repeat(size % line.length());
+        });
+    }
+
+    private static void waitForBytesInFlight(final ReadAhead readAhead, final long bytes)
+            throws InterruptedException {
+        while (readAhead.getBytesInFlight() < bytes) {
+            Thread.sleep(10);
+        }
+    }
+}
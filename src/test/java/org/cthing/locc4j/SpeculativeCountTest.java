@@ -0,0 +1,136 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+
+@Timeout(60)
+public class SpeculativeCountTest {
+
+    private static final String[] FRAGMENTS = {
+        "int x = 1;", "/*", "*/", "/* comment */", "//", "#", "--", "{-", "-}", "(*", "*)", "\"", "\"\"\"", "'''",
+        "'", "@\"", "\\\"", "\\", "\"\"", "x\\", "\u00E9t\u00E9", "  ", "\t", "return y;", "--[[", "]]",
+    };
+
+    @Test
+    public void testSplit() {
+        final byte[] bytes = "line 1\nline 2\nline 3\nline 4\nline 5\n".getBytes(StandardCharsets.UTF_8);
+        final int[] bounds = SpeculativeCount.split(ByteBuffer.wrap(bytes), 4, 8);
+        assertThat(bounds).startsWith(0).endsWith(bytes.length);
+        assertThat(bounds).isSorted().doesNotHaveDuplicates();
+        for (int i = 1; i < bounds.length - 1; i++) {
+            assertThat(bytes[bounds[i] - 1]).isEqualTo((byte)'\n');
+        }
+        assertThat(bounds.length).isGreaterThan(2);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes, 7, bytes.length - 7);
+        assertThat(SpeculativeCount.split(buffer, 4, 8)).startsWith(7).endsWith(bytes.length);
+
+        final byte[] noNewline = "a single long line without a newline".getBytes(StandardCharsets.UTF_8);
+        assertThat(SpeculativeCount.split(ByteBuffer.wrap(noNewline), 4, 8)).containsExactly(0, noNewline.length);
+    }
+
+    @Test
+    public void testEntryStates() {
+        final List<SpeculativeCount.EntryState> states = SpeculativeCount.entryStates(Language.Java, 256);
+        assertThat(states).hasSize(3);
+        assertThat(states.get(0)).isEqualTo(new SpeculativeCount.EntryState(null, Counter.QuoteType.NORMAL, 0,
+                                                                             new int[0]));
+        assertThat(states.get(1).depth()).isEqualTo(1);
+        assertThat(states.get(1).quote()).isNull();
+        assertThat(states.get(2)).isEqualTo(new SpeculativeCount.EntryState("\"", Counter.QuoteType.NORMAL, 0,
+                                                                             new int[0]));
+
+        // Code and comment states are speculated after each type of quote, because the type of the most recent
+        // quote affects how escapes are handled.
+        final List<SpeculativeCount.EntryState> pythonStates = SpeculativeCount.entryStates(Language.Python, 256);
+        assertThat(pythonStates).doesNotHaveDuplicates();
+        assertThat(pythonStates).anyMatch(state -> state.quote() == null && state.quoteType() == Counter.QuoteType.DOC);
+        assertThat(pythonStates).anyMatch(state -> "\"\"\"".equals(state.quote()));
+        assertThat(pythonStates).allMatch(state -> state.depth() <= 1);
+
+        // Nestable comments are speculated up to the maximum speculated depth, within the tracked depth
+        final List<SpeculativeCount.EntryState> rustStates = SpeculativeCount.entryStates(Language.Rust, 256);
+        assertThat(rustStates).doesNotHaveDuplicates();
+        assertThat(rustStates).extracting(SpeculativeCount.EntryState::depth)
+                              .contains(0, 1, 2, SpeculativeCount.MAX_SPECULATED_DEPTH)
+                              .allMatch(depth -> depth <= SpeculativeCount.MAX_SPECULATED_DEPTH);
+        assertThat(rustStates).filteredOn(state -> state.depth() == 2)
+                              .allMatch(state -> state.comments().length == 2
+                                      && state.comments()[0] == state.comments()[1]);
+        assertThat(SpeculativeCount.entryStates(Language.Rust, 1)).filteredOn(state -> state.depth() == 2)
+                                                                  .isNotEmpty()
+                                                                  .allMatch(state -> state.comments().length == 1);
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Language.class, names = { "Java", "Python", "CSharp", "Haskell", "OCaml", "Sql", "Lua",
+                                                  "Swift", "Kotlin" })
+    public void testParity(final Language language) throws IOException {
+        assertThat(new Counter(language).isCountBytes()).isTrue();
+
+        final Random random = new Random(language.ordinal());
+        for (int iteration = 0; iteration < 20; iteration++) {
+            final byte[] bytes = generate(random, 2000).getBytes(StandardCharsets.UTF_8);
+            final Counter counter = new Counter(language);
+            final Object expected = new Counter(language).count(bytes);
+
+            assertThat(new SpeculativeCount(counter, 4, 64).count(ByteBuffer.wrap(bytes))).isEqualTo(expected);
+
+            final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+            direct.put(bytes).flip();
+            assertThat(new SpeculativeCount(counter, 3, 64).count(direct)).isEqualTo(expected);
+            assertThat(direct.position()).isZero();
+        }
+    }
+
+    @Test
+    public void testNestedComments() throws IOException {
+        // Chunks that start within comments nested up to the maximum speculated depth are speculated
+        final String text = "x = 1\n{- outer\n{- inner\n" + "still in comment\n".repeat(50) + "-}\n-}\ny = 2\n";
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        final Counter counter = new Counter(Language.Haskell);
+        assertThat(new SpeculativeCount(counter, 4, 16).count(ByteBuffer.wrap(bytes)))
+                .containsOnly(entry(Language.Haskell, new Counts(2, 54, 0)))
+                .isEqualTo(new Counter(Language.Haskell).count(bytes));
+
+        // Chunks that start within comments nested more deeply are not speculated, so they are counted again
+        final String deep = "x = 1\n" + "{- level\n".repeat(6) + "still in comment\n".repeat(50) + "-}\n".repeat(6)
+                + "y = 2\n";
+        final byte[] deepBytes = deep.getBytes(StandardCharsets.UTF_8);
+        assertThat(new SpeculativeCount(counter, 4, 16).count(ByteBuffer.wrap(deepBytes)))
+                .containsOnly(entry(Language.Haskell, new Counts(2, 62, 0)))
+                .isEqualTo(new Counter(Language.Haskell).count(deepBytes));
+    }
+
+    private static String generate(final Random random, final int numLines) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            final int numFragments = random.nextInt(4);
+            for (int j = 0; j < numFragments; j++) {
+                text.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                if (random.nextBoolean()) {
+                    text.append(' ');
+                }
+            }
+            text.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+
+
+public class TarInputStreamTest {
+
+    @Test
+    public void testEntries() throws IOException {
+        final String longName = "dir/" + "x".repeat(150) + "/Long.java";
+        final byte[] archive = new TarWriter().directory("dir/")
+                                              .file("dir/a.txt", "hello\n")
+                                              .prefixedFile("dir/sub", "b.py", "x = 1\n".repeat(200))
+                                              .gnuLongNameFile(longName, "class Long {}\n")
+                                              .paxFile("pax/\u00E9t\u00E9.c", "int x;\n")
+                                              .file("empty.txt", "")
+                                              .toByteArray();
+
+        try (TarInputStream in = new TarInputStream(new ByteArrayInputStream(archive))) {
+            assertThat(in.getNextEntry()).isEqualTo(new TarInputStream.Entry("dir/", 0, false));
+
+            assertThat(in.getNextEntry()).isEqualTo(new TarInputStream.Entry("dir/a.txt", 6, true));
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("hello\n");
+            assertThat(in.read()).isEqualTo(-1);
+
+            // Unread content is skipped
+            assertThat(in.getNextEntry()).isEqualTo(new TarInputStream.Entry("dir/sub/b.py", 1200, true));
+            assertThat(in.read()).isEqualTo('x');
+
+            assertThat(in.getNextEntry()).isEqualTo(new TarInputStream.Entry(longName, 14, true));
+            assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo("class Long {}\n");
+
+            assertThat(in.getNextEntry()).isEqualTo(new TarInputStream.Entry("pax/\u00E9t\u00E9.c", 7, true));
+            assertThat(in.getNextEntry()).isEqualTo(new TarInputStream.Entry("empty.txt", 0, true));
+            assertThat(in.readAllBytes()).isEmpty();
+
+            assertThat(in.getNextEntry()).isNull();
+            assertThat(in.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    public void testMissingEndMarker() throws IOException {
+        final byte[] archive = new TarWriter().file("a.txt", "hello\n").toByteArray();
+        final byte[] truncated = new byte[2 * TarInputStream.BLOCK_SIZE];
+        System.arraycopy(archive, 0, truncated, 0, truncated.length);
+
+        try (TarInputStream in = new TarInputStream(new ByteArrayInputStream(truncated))) {
+            assertThat(in.getNextEntry()).isNotNull();
+            assertThat(in.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    public void testTruncatedContent() throws IOException {
+        final byte[] archive = new TarWriter().file("a.txt", "hello\n".repeat(100)).toByteArray();
+        final byte[] truncated = new byte[TarInputStream.BLOCK_SIZE + 100];
+        System.arraycopy(archive, 0, truncated, 0, truncated.length);
+
+        try (TarInputStream in = new TarInputStream(new ByteArrayInputStream(truncated))) {
+            assertThat(in.getNextEntry()).isNotNull();
+            assertThatIOException().isThrownBy(in::readAllBytes);
+        }
+    }
+
+    @Test
+    public void testInvalidChecksum() throws IOException {
+        final byte[] archive = new TarWriter().file("a.txt", "hello\n").toByteArray();
+        archive[0] = 'b';
+
+        try (TarInputStream in = new TarInputStream(new ByteArrayInputStream(archive))) {
+            assertThatIOException().isThrownBy(in::getNextEntry).withMessage("Invalid tar header checksum");
+        }
+    }
+
+    @Test
+    public void testNotTar() throws IOException {
+        final byte[] content = "Not a tar archive\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        try (TarInputStream in = new TarInputStream(new ByteArrayInputStream(content))) {
+            assertThatIOException().isThrownBy(in::getNextEntry);
+        }
+    }
+}
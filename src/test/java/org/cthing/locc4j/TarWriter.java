@@ -0,0 +1,133 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Writes minimal tar archives for testing.
+ */
+final class TarWriter {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    /**
+     * Adds a regular file to the archive.
+     *
+     * @param name Name of the file, which must fit in the name field
+     * @param content Content of the file
+     * @return This writer.
+     */
+    TarWriter file(final String name, final String content) {
+        return entry(name, "", '0', content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds a regular file whose name is split between the ustar prefix and name fields.
+     *
+     * @param prefix Directory portion of the name
+     * @param name Remainder of the name
+     * @param content Content of the file
+     * @return This writer.
+     */
+    TarWriter prefixedFile(final String prefix, final String name, final String content) {
+        return entry(name, prefix, '0', content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds a directory to the archive.
+     *
+     * @param name Name of the directory
+     * @return This writer.
+     */
+    TarWriter directory(final String name) {
+        return entry(name, "", '5', new byte[0]);
+    }
+
+    /**
+     * Adds a regular file whose name is provided by a preceding GNU long name entry.
+     *
+     * @param name Name of the file, which may be of any length
+     * @param content Content of the file
+     * @return This writer.
+     */
+    TarWriter gnuLongNameFile(final String name, final String content) {
+        entry("././@LongLink", "", 'L', (name + "\0").getBytes(StandardCharsets.UTF_8));
+        return entry(name.substring(0, Math.min(name.length(), 99)), "", '0',
+                     content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds a regular file whose name is provided by a preceding pax extended header.
+     *
+     * @param name Name of the file, which may be of any length
+     * @param content Content of the file
+     * @return This writer.
+     */
+    TarWriter paxFile(final String name, final String content) {
+        final String record = " path=" + name + "\n";
+        int length = record.getBytes(StandardCharsets.UTF_8).length;
+        length += Integer.toString(length + Integer.toString(length).length()).length();
+        entry("PaxHeaders/file", "", 'x', (length + record).getBytes(StandardCharsets.UTF_8));
+        return entry("truncated", "", '0', content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Adds an entry to the archive.
+     *
+     * @param name Content of the name field
+     * @param prefix Content of the prefix field
+     * @param type Entry type
+     * @param content Content of the entry
+     * @return This writer.
+     */
+    TarWriter entry(final String name, final String prefix, final char type, final byte[] content) {
+        final byte[] header = new byte[TarInputStream.BLOCK_SIZE];
+        put(header, 0, name);
+        put(header, 100, "0000644");
+        put(header, 108, "0000000");
+        put(header, 116, "0000000");
+        put(header, 124, String.format("%011o", content.length));
+        put(header, 136, "00000000000");
+        put(header, 148, "        ");
+        header[156] = (byte)type;
+        put(header, 257, "ustar");
+        put(header, 263, "00");
+        put(header, 345, prefix);
+
+        int checksum = 0;
+        for (final byte b : header) {
+            checksum += b & 0xFF;
+        }
+        put(header, 148, String.format("%06o", checksum));
+        header[154] = 0;
+
+        this.out.writeBytes(header);
+        this.out.writeBytes(content);
+        final int partial = content.length % TarInputStream.BLOCK_SIZE;
+        if (partial != 0) {
+            this.out.writeBytes(new byte[TarInputStream.BLOCK_SIZE - partial]);
+        }
+        return this;
+    }
+
+    /**
+     * Obtains the archive, including the end of archive marker.
+     *
+     * @return Content of the archive.
+     */
+    byte[] toByteArray() {
+        this.out.writeBytes(new byte[2 * TarInputStream.BLOCK_SIZE]);
+        return this.out.toByteArray();
+    }
+
+    private static void put(final byte[] header, final int offset, final String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2024 C Thing Software
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package org.cthing.locc4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+
+/**
+ * Creates file fixtures for testing.
+ */
+final class TestFiles {
+
+    /** Python code, comment and blank line, which is repeated to create files of varying length. */
+    static final String PYTHON_LINES = "x = 1\n# Comment\n\n";
+
+    private TestFiles() {
+    }
+
+    /**
+     * Creates the specified number of files named {@code file<i><extension>}.
+     *
+     * @param dir Directory in which to create the files
+     * @param count Number of files to create
+     * @param extension Provides the file name extension, including the dot, for the file with the specified index
+     * @param content Provides the content of the file with the specified index
+     * @return Files that were created, in index order.
+     * @throws IOException if a file could not be written
+     */
+    static List<Path> createFiles(final Path dir, final int count, final IntFunction<String> extension,
+                                  final IntFunction<String> content) throws IOException {
+        final List<Path> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Path file = dir.resolve("file" + i + extension.apply(i));
+            Files.writeString(file, content.apply(i));
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Encodes the specified text as the UTF-8 content of a file.
+     *
+     * @param text Text to encode
+     * @return Buffer containing the encoded text.
+     */
+    static ByteBuffer content(final String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}